@@ -51,8 +51,11 @@
 import static org.eclipse.jgit.http.server.ServletUtils.ATTRIBUTE_HANDLER;
 import static org.eclipse.jgit.http.server.ServletUtils.getInputStream;
 import static org.eclipse.jgit.http.server.ServletUtils.getRepository;
+import static org.eclipse.jgit.util.HttpSupport.HDR_GIT_PROTOCOL;
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 import javax.servlet.Filter;
@@ -106,6 +109,7 @@ protected void advertise(HttpServletRequest req,
 			UploadPack up = (UploadPack) req.getAttribute(ATTRIBUTE_HANDLER);
 			try {
 				up.setBiDirectionalPipe(false);
+				up.setExtraParameters(getExtraParameters(req));
 				up.sendAdvertisedRefs(pck);
 			} finally {
 				up.getRevWalk().release();
@@ -113,6 +117,14 @@ protected void advertise(HttpServletRequest req,
 		}
 	}
 
+	/** Parameters of the Git-Protocol header, e.g. "version=2". */
+	static List<String> getExtraParameters(HttpServletRequest req) {
+		String params = req.getHeader(HDR_GIT_PROTOCOL);
+		if (params == null)
+			return Collections.emptyList();
+		return Arrays.asList(params.split(":"));
+	}
+
 	static class Factory implements Filter {
 		private final UploadPackFactory<HttpServletRequest> uploadPackFactory;
 
@@ -164,6 +176,7 @@ public void doPost(final HttpServletRequest req,
 		UploadPack up = (UploadPack) req.getAttribute(ATTRIBUTE_HANDLER);
 		try {
 			up.setBiDirectionalPipe(false);
+			up.setExtraParameters(getExtraParameters(req));
 			rsp.setContentType(RSP_TYPE);
 
 			final SmartOutputStream out = new SmartOutputStream(req, rsp) {
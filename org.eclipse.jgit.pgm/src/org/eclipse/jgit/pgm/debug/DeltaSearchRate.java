@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) 2011, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.pgm.debug;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ProgressMonitor;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.pgm.TextBuiltin;
+import org.eclipse.jgit.storage.pack.PackConfig;
+import org.eclipse.jgit.storage.pack.PackWriter;
+import org.eclipse.jgit.util.io.NullOutputStream;
+import org.kohsuke.args4j.Option;
+
+/**
+ * Measure the throughput and garbage of delta compression.
+ * <p>
+ * Every round packs all objects reachable from the references of the current
+ * repository with delta and object reuse disabled, so each object is searched
+ * for a delta against its neighbors. The search runs on a single thread, so
+ * the bytes allocated while compressing and writing the pack can be read from
+ * the JVM where it supports counting them.
+ * Comparing the output of two builds on the same repository shows the effect
+ * of a change to the delta search.
+ */
+class DeltaSearchRate extends TextBuiltin {
+	@Option(name = "--rounds", metaVar = "N", usage = "Number of measured passes over the repository")
+	int rounds = 5;
+
+	@Option(name = "--window", metaVar = "N", usage = "Delta search window size")
+	int window = PackConfig.DEFAULT_DELTA_SEARCH_WINDOW_SIZE;
+
+	@Override
+	protected void run() throws Exception {
+		final List<ObjectId> want = new ArrayList<ObjectId>();
+		for (Ref r : db.getAllRefs().values()) {
+			if (r.getObjectId() != null)
+				want.add(r.getObjectId());
+		}
+		if (want.isEmpty())
+			throw die("Repository has no references");
+
+		// Warm up the object caches and the JIT before measuring.
+		measure(want);
+
+		out.format("%6s %10s %8s %10s %12s %12s %6s %8s\n", "Round",
+				"Objects", "Deltas", "Time(ms)", "Objects/sec", "Bytes/object",
+				"GCs", "GC(ms)");
+		out.println("------------------------------------------------------------------------------");
+		for (int r = 1; r <= rounds; r++) {
+			final Result res = measure(want);
+			out.format("%6d %10d %8d %10d %12.0f %12s %6d %8d\n", //
+					Integer.valueOf(r), //
+					Integer.valueOf(res.objects), //
+					Integer.valueOf(res.deltas), //
+					Long.valueOf(res.time), //
+					Double.valueOf(res.objects * 1000.0 / Math.max(1, res.time)), //
+					res.allocated < 0 ? "n/a" : String.valueOf(res.allocated
+							/ Math.max(1, res.objects)), //
+					Long.valueOf(res.gcCount), //
+					Long.valueOf(res.gcTime));
+		}
+		out.flush();
+	}
+
+	private Result measure(List<ObjectId> want) throws Exception {
+		final ProgressMonitor m = NullProgressMonitor.INSTANCE;
+		final PackConfig pc = new PackConfig(db);
+		pc.setReuseDeltas(false);
+		pc.setReuseObjects(false);
+		pc.setDeltaSearchWindowSize(window);
+		pc.setThreads(1);
+
+		final PackWriter pw = new PackWriter(pc, db.newObjectReader());
+		try {
+			pw.preparePack(m, want, Collections.<ObjectId> emptySet());
+
+			final long gcCount = gcCount();
+			final long gcTime = gcTime();
+			final long allocated = allocatedBytes();
+			pw.writePack(m, m, NullOutputStream.INSTANCE);
+
+			final Result res = new Result();
+			res.objects = pw.getStatistics().getDeltaSearchNonEdgeObjects();
+			res.deltas = pw.getStatistics().getDeltasFound();
+			res.time = pw.getStatistics().getTimeCompressing();
+			res.gcCount = gcCount() - gcCount;
+			res.gcTime = gcTime() - gcTime;
+			if (0 <= allocated)
+				res.allocated = allocatedBytes() - allocated;
+			return res;
+		} finally {
+			pw.release();
+		}
+	}
+
+	private static long gcCount() {
+		long n = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory
+				.getGarbageCollectorMXBeans())
+			n += Math.max(0, gc.getCollectionCount());
+		return n;
+	}
+
+	private static long gcTime() {
+		long n = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory
+				.getGarbageCollectorMXBeans())
+			n += Math.max(0, gc.getCollectionTime());
+		return n;
+	}
+
+	/**
+	 * @return bytes allocated by the current thread so far, or -1 if the JVM
+	 *         does not provide the HotSpot extension to count them.
+	 */
+	private static long allocatedBytes() {
+		final ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		try {
+			final Class<?> ext = Class
+					.forName("com.sun.management.ThreadMXBean");
+			if (!ext.isInstance(bean))
+				return -1;
+			final Method m = ext.getMethod("getThreadAllocatedBytes",
+					long.class);
+			final Object n = m.invoke(bean, Long.valueOf(Thread
+					.currentThread().getId()));
+			return ((Long) n).longValue();
+		} catch (Exception notSupported) {
+			return -1;
+		}
+	}
+
+	private static class Result {
+		int objects;
+
+		int deltas;
+
+		long time;
+
+		long allocated = -1;
+
+		long gcCount;
+
+		long gcTime;
+	}
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2011, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.eclipse.jgit.pgm.debug;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.pgm.TextBuiltin;
+import org.eclipse.jgit.storage.file.ObjectDirectory;
+import org.eclipse.jgit.storage.file.PackFile;
+import org.eclipse.jgit.storage.file.PackIndex.MutableEntry;
+import org.kohsuke.args4j.Option;
+
+/**
+ * Measure how object lookups through the pack indexes scale across threads.
+ * <p>
+ * The benchmark loads up to {@code --count} object names from the packs of the
+ * current repository and then has an increasing number of threads look them
+ * up concurrently through their own {@link ObjectReader}. Each thread performs
+ * the same number of lookups, so on a lock free lookup path the aggregate rate
+ * should grow close to linearly until the available cores are saturated.
+ */
+class PackIndexContention extends TextBuiltin {
+	@Option(name = "--threads", multiValued = true, metaVar = "N", usage = "Thread count(s) to measure")
+	List<Integer> threads = new ArrayList<Integer>();
+
+	@Option(name = "--count", metaVar = "LIMIT", usage = "Maximum number of object names to look up")
+	int count = 100000;
+
+	@Option(name = "--rounds", metaVar = "N", usage = "Number of passes each thread makes over the names")
+	int rounds = 20;
+
+	@Override
+	protected void run() throws Exception {
+		if (!(db.getObjectDatabase() instanceof ObjectDirectory))
+			throw die("Repository does not use pack files");
+
+		final ObjectId[] ids = loadIds();
+		if (ids.length == 0)
+			throw die("Repository has no packed objects");
+
+		if (threads.isEmpty()) {
+			final int cpus = Runtime.getRuntime().availableProcessors();
+			for (int n = 1; n < cpus; n *= 2)
+				threads.add(Integer.valueOf(n));
+			threads.add(Integer.valueOf(cpus));
+		}
+
+		// Warm up the indexes and the JIT before taking any measurement.
+		measure(ids, 1);
+
+		out.format("%d object names, %d rounds per thread\n", //
+				Integer.valueOf(ids.length), Integer.valueOf(rounds));
+		out.format("%8s %15s %9s\n", "Threads", "Lookups/sec", "Speedup");
+		out.println("----------------------------------");
+		double base = 0;
+		for (Integer n : threads) {
+			final double rate = measure(ids, n.intValue());
+			if (base == 0)
+				base = rate / n.intValue();
+			out.format("%8d %15.0f %8.2fx\n", n, Double.valueOf(rate), //
+					Double.valueOf(rate / base));
+		}
+		out.flush();
+	}
+
+	private ObjectId[] loadIds() {
+		final ObjectDirectory odb = (ObjectDirectory) db.getObjectDatabase();
+		final List<ObjectId> ids = new ArrayList<ObjectId>();
+		for (PackFile pack : odb.getPacks()) {
+			for (MutableEntry e : pack) {
+				if (ids.size() == count)
+					return ids.toArray(new ObjectId[ids.size()]);
+				ids.add(e.toObjectId());
+			}
+		}
+		return ids.toArray(new ObjectId[ids.size()]);
+	}
+
+	private double measure(final ObjectId[] ids, final int threadCnt)
+			throws Exception {
+		final ExecutorService pool = Executors.newFixedThreadPool(threadCnt);
+		try {
+			final CountDownLatch start = new CountDownLatch(1);
+			final List<Future<Long>> tasks = new ArrayList<Future<Long>>();
+			for (int t = 0; t < threadCnt; t++) {
+				final int first = (int) ((long) t * ids.length / threadCnt);
+				tasks.add(pool.submit(new Callable<Long>() {
+					public Long call() throws Exception {
+						start.await();
+						return Long.valueOf(lookup(ids, first));
+					}
+				}));
+			}
+
+			final long begin = System.nanoTime();
+			start.countDown();
+			long lookups = 0;
+			for (Future<Long> f : tasks)
+				lookups += f.get().longValue();
+			final long elapsed = System.nanoTime() - begin;
+			return lookups * 1e9 / elapsed;
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	private long lookup(final ObjectId[] ids, final int first)
+			throws Exception {
+		final ObjectReader reader = db.newObjectReader();
+		try {
+			long found = 0;
+			for (int r = 0; r < rounds; r++) {
+				// Start each thread at a different name so they do not
+				// walk the index pages in lock step.
+				for (int i = first; i < ids.length; i++)
+					if (reader.has(ids[i]))
+						found++;
+				for (int i = 0; i < first; i++)
+					if (reader.has(ids[i]))
+						found++;
+			}
+			if (found != (long) rounds * ids.length)
+				throw die("Lost objects during lookup");
+			return found;
+		} finally {
+			reader.release();
+		}
+	}
+}
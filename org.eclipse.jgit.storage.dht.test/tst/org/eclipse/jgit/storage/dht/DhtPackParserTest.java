@@ -48,6 +48,7 @@
 import static org.eclipse.jgit.lib.Constants.OBJ_REF_DELTA;
 import static org.eclipse.jgit.lib.Constants.PACK_SIGNATURE;
 import static org.eclipse.jgit.lib.Constants.newMessageDigest;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
@@ -251,6 +252,73 @@ public void testLargeFragmentWithOfsDelta() throws IOException {
 		}
 	}
 
+	@Test
+	public void testParallelResolveWithFragments() throws IOException {
+		DhtInserterOptions insOpt = new DhtInserterOptions().setChunkSize(256)
+				.setParserThreads(2);
+		@SuppressWarnings("unchecked")
+		DhtRepository repo = (DhtRepository) new DhtRepositoryBuilder<DhtRepositoryBuilder, DhtRepository, MemoryDatabase>()
+				.setInserterOptions(insOpt).setDatabase(db) //
+				.setRepositoryName("test.git") //
+				.setMustExist(false) //
+				.build();
+		repo.create(true);
+
+		ObjectInserter.Formatter fmt = new ObjectInserter.Formatter();
+		TemporaryBuffer.Heap pack = new TemporaryBuffer.Heap(64 * 1024);
+		packHeader(pack, 4);
+
+		byte[] data0 = newArray(insOpt.getChunkSize() * 2);
+		ObjectId id0 = fmt.idFor(OBJ_BLOB, data0);
+		long pos0 = pack.length();
+		objectHeader(pack, OBJ_BLOB, data0.length);
+		store(pack, data0);
+
+		byte[] data1 = clone(1, data0);
+		ObjectId id1 = fmt.idFor(OBJ_BLOB, data1);
+		byte[] delta1 = delta(data0, data1);
+		long pos1 = pack.length();
+		objectHeader(pack, OBJ_OFS_DELTA, delta1.length);
+		writeOffset(pack, pos1 - pos0);
+		deflate(pack, delta1);
+
+		byte[] data2 = new byte[512];
+		Arrays.fill(data2, (byte) 0xf3);
+		ObjectId id2 = fmt.idFor(OBJ_BLOB, data2);
+		objectHeader(pack, OBJ_BLOB, data2.length);
+		deflate(pack, data2);
+
+		byte[] data3 = clone(0x03, data2);
+		ObjectId id3 = fmt.idFor(OBJ_BLOB, data3);
+		byte[] delta3 = delta(data2, data3);
+		objectHeader(pack, OBJ_REF_DELTA, delta3.length);
+		id2.copyRawTo(pack);
+		deflate(pack, delta3);
+
+		digest(pack);
+
+		ObjectInserter ins = repo.newObjectInserter();
+		try {
+			InputStream is = new ByteArrayInputStream(pack.toByteArray());
+			DhtPackParser p = (DhtPackParser) ins.newPackParser(is);
+			assertEquals(2, p.getThreads());
+			PackLock lock = p.parse(NullProgressMonitor.INSTANCE);
+			assertNull(lock);
+		} finally {
+			ins.release();
+		}
+
+		ObjectReader ctx = repo.newObjectReader();
+		try {
+			assertTrue(ctx.has(id0, OBJ_BLOB));
+			assertTrue(ctx.has(id1, OBJ_BLOB));
+			assertTrue(ctx.has(id2, OBJ_BLOB));
+			assertTrue(ctx.has(id3, OBJ_BLOB));
+		} finally {
+			ctx.release();
+		}
+	}
+
 	private byte[] newArray(int size) {
 		byte[] r = new byte[size];
 		for (int i = 0; i < r.length; i++)
@@ -74,6 +74,8 @@ public class DhtInserterOptions {
 
 	private long parserCacheLimit;
 
+	private int parserThreads;
+
 	/** Create a default inserter configuration. */
 	public DhtInserterOptions() {
 		setChunkSize(1 * MiB);
@@ -81,6 +83,7 @@ public DhtInserterOptions() {
 		setCompression(DEFAULT_COMPRESSION);
 		setPrefetchDepth(50);
 		setParserCacheLimit(512 * getChunkSize());
+		setParserThreads(1);
 	}
 
 	/** @return maximum size of a chunk, in bytes. */
@@ -198,6 +201,24 @@ public DhtInserterOptions setParserCacheLimit(long limit) {
 		return this;
 	}
 
+	/** @return number of threads the PackParser uses to resolve deltas. */
+	public int getParserThreads() {
+		return parserThreads;
+	}
+
+	/**
+	 * Set the number of threads the PackParser uses to resolve deltas.
+	 *
+	 * @param threads
+	 *            number of threads; 0 uses one per available processor, 1
+	 *            resolves deltas on the thread receiving the pack.
+	 * @return {@code this}
+	 */
+	public DhtInserterOptions setParserThreads(int threads) {
+		parserThreads = Math.max(0, threads);
+		return this;
+	}
+
 	/** @return next random 32 bits to salt chunk keys. */
 	int nextChunkSalt() {
 		return prng.nextInt();
@@ -219,6 +240,7 @@ public DhtInserterOptions fromConfig(Config rc) {
 		setCompression(rc.get(CoreConfig.KEY).getCompression());
 		setPrefetchDepth(rc.getInt("core", "dht", "packParserPrefetchDepth", getPrefetchDepth()));
 		setParserCacheLimit(rc.getLong("core", "dht", "packParserCacheLimit", getParserCacheLimit()));
+		setParserThreads(rc.getInt("core", "dht", "packParserThreads", getParserThreads()));
 		return this;
 	}
 }
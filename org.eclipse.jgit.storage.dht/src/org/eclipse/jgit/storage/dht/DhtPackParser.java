@@ -199,6 +199,7 @@ public class DhtPackParser extends PackParser {
 		this.repo = objdb.getRepository().getRepositoryKey();
 		this.db = objdb.getDatabase();
 		this.options = objdb.getInserterOptions();
+		setThreads(options.getParserThreads());
 		this.chunkKeyDigest = Constants.newMessageDigest();
 
 		dbWriteBuffer = db.newWriteBuffer();
@@ -1136,15 +1137,7 @@ protected int readDatabase(byte[] dst, int pos, int cnt) throws IOException {
 			return n;
 		}
 
-		// ChunkMeta for fragments is delayed writing, so it isn't available
-		// on the chunk if the chunk was read-back from the database. Use
-		// our copy of ChunkMeta instead of the PackChunk's copy.
-
-		ChunkMeta meta = chunkMeta.get(dbChunk.getChunkKey());
-		if (meta == null)
-			return 0;
-
-		ChunkKey next = ChunkMetaUtil.getNextFragment(meta, dbChunk.getChunkKey());
+		ChunkKey next = nextFragment(dbChunk.getChunkKey());
 		if (next == null)
 			return 0;
 
@@ -1156,32 +1149,104 @@ protected int readDatabase(byte[] dst, int pos, int cnt) throws IOException {
 
 	private void seekChunk(ChunkKey key, boolean cache) throws DhtException,
 			DhtTimeoutException {
-		if (dbChunk == null || !dbChunk.getChunkKey().equals(key)) {
-			dbChunk = chunkReadBackCache.get(key);
-			if (dbChunk == null) {
-				dbWriteBuffer.flush();
-
-				Collection<PackChunk.Members> found;
-				Context opt = Context.READ_REPAIR;
-				Sync<Collection<PackChunk.Members>> sync = Sync.create();
-				db.chunk().get(opt, Collections.singleton(key), sync);
-				try {
-					found = sync.get(objdb.getReaderOptions().getTimeout());
-				} catch (InterruptedException e) {
-					throw new DhtTimeoutException(e);
-				} catch (TimeoutException e) {
-					throw new DhtTimeoutException(e);
-				}
+		if (dbChunk == null || !dbChunk.getChunkKey().equals(key))
+			dbChunk = loadChunk(key, cache);
+	}
 
-				if (found.isEmpty()) {
-					throw new DhtException(MessageFormat.format(
-							DhtText.get().missingChunk, key));
-				}
+	private synchronized ChunkKey nextFragment(ChunkKey key) {
+		// ChunkMeta for fragments is delayed writing, so it isn't available
+		// on the chunk if the chunk was read-back from the database. Use
+		// our copy of ChunkMeta instead of the PackChunk's copy.
+
+		ChunkMeta meta = chunkMeta.get(key);
+		if (meta == null)
+			return null;
+		return ChunkMetaUtil.getNextFragment(meta, key);
+	}
 
-				dbChunk = found.iterator().next().build();
-				if (cache)
-					chunkReadBackCache.put(key, dbChunk);
+	private synchronized PackChunk loadChunk(ChunkKey key, boolean cache)
+			throws DhtException, DhtTimeoutException {
+		PackChunk chunk = chunkReadBackCache.get(key);
+		if (chunk == null) {
+			dbWriteBuffer.flush();
+
+			Collection<PackChunk.Members> found;
+			Context opt = Context.READ_REPAIR;
+			Sync<Collection<PackChunk.Members>> sync = Sync.create();
+			db.chunk().get(opt, Collections.singleton(key), sync);
+			try {
+				found = sync.get(objdb.getReaderOptions().getTimeout());
+			} catch (InterruptedException e) {
+				throw new DhtTimeoutException(e);
+			} catch (TimeoutException e) {
+				throw new DhtTimeoutException(e);
 			}
+
+			if (found.isEmpty()) {
+				throw new DhtException(MessageFormat.format(
+						DhtText.get().missingChunk, key));
+			}
+
+			chunk = found.iterator().next().build();
+			if (cache)
+				chunkReadBackCache.put(key, chunk);
+		}
+		return chunk;
+	}
+
+	@Override
+	protected DatabaseReader newDatabaseReader() {
+		return new ChunkReader();
+	}
+
+	/** Reads back stored chunks on behalf of one delta resolving thread. */
+	private class ChunkReader extends DatabaseReader {
+		private PackChunk chunk;
+
+		private int ptr;
+
+		@Override
+		protected ObjectTypeAndSize seek(PackedObjectInfo obj,
+				ObjectTypeAndSize info) throws IOException {
+			return seek(((DhtInfo) obj).chunkPtr, info);
+		}
+
+		@Override
+		protected ObjectTypeAndSize seek(UnresolvedDelta delta,
+				ObjectTypeAndSize info) throws IOException {
+			return seek(((DhtDelta) delta).chunkPtr, info);
+		}
+
+		private ObjectTypeAndSize seek(long chunkPtr, ObjectTypeAndSize info)
+				throws DhtException {
+			ChunkKey key = chunkOf(chunkPtr);
+			if (chunk == null || !chunk.getChunkKey().equals(key))
+				chunk = loadChunk(key, true);
+			ptr = chunk.readObjectTypeAndSize(offsetOf(chunkPtr), info);
+			return info;
+		}
+
+		@Override
+		protected int read(byte[] dst, int pos, int cnt) throws IOException {
+			int n = chunk.read(ptr, dst, pos, cnt);
+			if (0 < n) {
+				ptr += n;
+				return n;
+			}
+
+			ChunkKey next = nextFragment(chunk.getChunkKey());
+			if (next == null)
+				return 0;
+
+			chunk = loadChunk(next, false);
+			n = chunk.read(0, dst, pos, cnt);
+			ptr = n;
+			return n;
+		}
+
+		@Override
+		protected boolean checkCRC(int oldCRC) {
+			return true; // Don't bother to check CRCs, assume the chunk is OK.
 		}
 	}
 
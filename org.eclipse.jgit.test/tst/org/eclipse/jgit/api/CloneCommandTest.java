@@ -43,12 +43,15 @@
 package org.eclipse.jgit.api;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.fail;
 
 import java.io.File;
 import java.io.IOException;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 
 import org.eclipse.jgit.api.ListBranchCommand.ListMode;
@@ -56,11 +59,14 @@
 import org.eclipse.jgit.lib.ConfigConstants;
 import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
 import org.eclipse.jgit.lib.Ref;
 import org.eclipse.jgit.lib.RefUpdate;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.lib.RepositoryTestCase;
 import org.eclipse.jgit.revwalk.RevBlob;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.transport.FilterSpec;
 import org.junit.Test;
 
 public class CloneCommandTest extends RepositoryTestCase {
@@ -228,6 +234,56 @@ public void testCloneRepositoryOnlyOneBranch() {
 		}
 	}
 
+	@Test
+	public void testCloneRepositoryWithDepth() throws Exception {
+		File directory = createTempDirectory("testCloneRepositoryWithDepth");
+		CloneCommand command = Git.cloneRepository();
+		command.setDirectory(directory);
+		command.setDepth(1);
+		command.setURI("file://" + git.getRepository().getWorkTree().getPath());
+		Git git2 = command.call();
+		addRepoToClose(git2.getRepository());
+
+		ObjectId tip = git2.getRepository().resolve("refs/heads/test");
+		assertEquals(Collections.singleton(tip), git2.getRepository()
+				.getShallowCommits());
+		Iterator<RevCommit> log = git2.log().call().iterator();
+		assertEquals(tip, log.next());
+		assertFalse(log.hasNext());
+
+		// Only tags pointing into the cloned history are followed.
+		assertNull(git2.getRepository().resolve("tag-for-blob"));
+	}
+
+	@Test
+	public void testCloneRepositoryWithFilter() throws Exception {
+		db.getConfig().setBoolean("uploadpack", null, "allowfilter", true);
+		db.getConfig().setBoolean("uploadpack", null, "allowanysha1inwant",
+				true);
+		db.getConfig().save();
+
+		File directory = createTempDirectory("testCloneRepositoryWithFilter");
+		CloneCommand command = Git.cloneRepository();
+		command.setDirectory(directory);
+		command.setFilterSpec(FilterSpec.withBlobLimit(0));
+		command.setURI("file://" + git.getRepository().getWorkTree().getPath());
+		Git git2 = command.call();
+		addRepoToClose(git2.getRepository());
+		Repository clone = git2.getRepository();
+
+		assertEquals("origin", clone.getConfig().getString(
+				ConfigConstants.CONFIG_EXTENSIONS_SECTION, null,
+				ConfigConstants.CONFIG_KEY_PARTIALCLONE));
+		assertEquals("Some change", read(new File(directory, "Test.txt")));
+
+		// Only the blobs of the checked out tree were fetched.
+		ObjectId first = new ObjectInserter.Formatter().idFor(
+				Constants.OBJ_BLOB, Constants.encode("Hello world"));
+		assertFalse(clone.hasObject(first));
+		assertEquals("Hello world", new String(clone.open(first)
+				.getCachedBytes(), "UTF-8"));
+	}
+
 	public static String allRefNames(List<Ref> refs) {
 		StringBuilder sb = new StringBuilder();
 		for (Ref f : refs) {
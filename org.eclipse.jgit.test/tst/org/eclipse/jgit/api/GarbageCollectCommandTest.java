@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2011, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.eclipse.jgit.api.ResetCommand.ResetType;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.RepositoryTestCase;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.storage.file.GC;
+import org.junit.Before;
+import org.junit.Test;
+
+public class GarbageCollectCommandTest extends RepositoryTestCase {
+	private Git git;
+
+	@Override
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+		git = new Git(db);
+		writeTrashFile("a.txt", "content");
+		git.add().addFilepattern("a.txt").call();
+		git.commit().setMessage("initial commit").call();
+	}
+
+	@Test
+	public void testGConLooseObjects() throws Exception {
+		GC.RepoStatistics stats = git.gc().setExpireAgeMillis(0)
+				.setPackExpireAgeMillis(0).call();
+		assertEquals(1, stats.getNumberOfPackFiles());
+		assertEquals(0, stats.getNumberOfLooseObjects());
+		assertEquals(0, stats.getNumberOfLooseRefs());
+		assertTrue(0 < stats.getNumberOfPackedRefs());
+	}
+
+	@Test
+	public void testGCKeepsCommitsNamedByReflog() throws Exception {
+		RevCommit first = git.log().call().iterator().next();
+		writeTrashFile("a.txt", "changed");
+		git.add().addFilepattern("a.txt").call();
+		RevCommit second = git.commit().setMessage("second commit").call();
+		git.reset().setMode(ResetType.HARD).setRef(first.name()).call();
+
+		git.gc().setExpireAgeMillis(0).setPackExpireAgeMillis(0).call();
+		ObjectReader reader = db.newObjectReader();
+		try {
+			assertTrue(reader.has(second));
+			assertTrue(reader.has(second.getTree()));
+		} finally {
+			reader.release();
+		}
+	}
+}
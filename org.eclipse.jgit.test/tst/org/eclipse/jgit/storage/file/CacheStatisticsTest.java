@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2011, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.eclipse.jgit.storage.file;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.SampleDataRepositoryTestCase;
+import org.eclipse.jgit.storage.file.PackIndex.MutableEntry;
+import org.eclipse.jgit.util.LatencyHistogram;
+import org.junit.Test;
+
+public class CacheStatisticsTest extends SampleDataRepositoryTestCase {
+	@Test
+	public void testWindowCacheStats() throws Exception {
+		final WindowCacheStatsMBean s = CacheStatistics.getWindowCacheStats();
+		final long hits = s.getHitCount();
+		final long misses = s.getMissCount();
+		final long copied = s.getCopiedByteCount();
+		final long loads = count(s.getLoadLatencyHistogram());
+		final long inflates = count(s.getInflateLatencyHistogram());
+
+		readAll();
+		readAll();
+
+		assertTrue(misses < s.getMissCount());
+		assertTrue(hits < s.getHitCount());
+		assertTrue(copied < s.getCopiedByteCount());
+		assertEquals(s.getMissCount() - misses,
+				count(s.getLoadLatencyHistogram()) - loads);
+		assertTrue(inflates < count(s.getInflateLatencyHistogram()));
+		assertTrue(0 < s.getTotalInflateTime());
+		assertTrue(0 < s.getTotalLoadTime());
+		assertTrue(0 < s.getOpenFileCount());
+		assertTrue(0 < s.getOpenByteCount());
+		assertEquals(LatencyHistogram.BUCKETS,
+				s.getLatencyBucketLimits().length);
+	}
+
+	@Test
+	public void testDeltaBaseCacheStats() throws Exception {
+		final DeltaBaseCacheStatsMBean s = CacheStatistics
+				.getDeltaBaseCacheStats();
+		final long lookups = s.getHitCount() + s.getMissCount();
+		readAll();
+		readAll();
+		assertTrue(lookups < s.getHitCount() + s.getMissCount());
+		assertTrue(0 < s.getHitCount());
+	}
+
+	@Test
+	public void testUnpackedObjectCacheStats() throws Exception {
+		final UnpackedObjectCacheStatsMBean s = CacheStatistics
+				.getUnpackedObjectCacheStats();
+		final long misses = s.getMissCount();
+		assertFalse(db.hasObject(ObjectId
+				.fromString("0123456789012345678901234567890123456789")));
+		assertTrue(misses < s.getMissCount());
+	}
+
+	@Test
+	public void testMBeans() throws Exception {
+		final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		final ObjectName window = new ObjectName(
+				"org.eclipse.jgit:type=WindowCache");
+		final ObjectName inflater = new ObjectName(
+				"org.eclipse.jgit:type=InflaterCache");
+
+		CacheStatistics.registerMBeans();
+		try {
+			CacheStatistics.registerMBeans();
+			readAll();
+			assertEquals(Long.valueOf(CacheStatistics.getWindowCacheStats()
+					.getMappedByteCount()), server.getAttribute(window,
+					"MappedByteCount"));
+			assertTrue(((Long) server.getAttribute(inflater, "HitCount"))
+					.longValue() > 0);
+		} finally {
+			CacheStatistics.unregisterMBeans();
+		}
+		assertFalse(server.isRegistered(window));
+		assertFalse(server.isRegistered(inflater));
+	}
+
+	private int readAll() throws Exception {
+		int cnt = 0;
+		final ObjectReader reader = db.newObjectReader();
+		try {
+			for (PackFile p : db.getObjectDatabase().getPacks()) {
+				for (MutableEntry e : p) {
+					reader.open(e.toObjectId()).getCachedBytes();
+					cnt++;
+				}
+			}
+		} finally {
+			reader.release();
+		}
+		return cnt;
+	}
+
+	private static long count(final long[] histogram) {
+		long n = 0;
+		for (long c : histogram)
+			n += c;
+		return n;
+	}
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2011, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.eclipse.jgit.storage.file;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.lib.ObjectLoader;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.SampleDataRepositoryTestCase;
+import org.eclipse.jgit.storage.file.PackIndex.MutableEntry;
+import org.junit.Test;
+
+public class ClockWindowCacheTest extends SampleDataRepositoryTestCase {
+	@Test
+	public void testConfigEngine() throws Exception {
+		final Config rc = new Config();
+		final WindowCacheConfig cfg = new WindowCacheConfig();
+		assertEquals(WindowCacheConfig.Engine.SOFT, cfg
+				.getPackedGitCacheEngine());
+		rc.fromText("[core]\n\tpackedGitCacheEngine = clock\n");
+		cfg.fromConfig(rc);
+		assertEquals(WindowCacheConfig.Engine.CLOCK, cfg
+				.getPackedGitCacheEngine());
+
+		WindowCache.reconfigure(cfg);
+		assertTrue(WindowCache.getInstance() instanceof ClockWindowCache);
+	}
+
+	@Test
+	public void testCache_Defaults() throws IOException {
+		final WindowCacheConfig cfg = config();
+		WindowCache.reconfigure(cfg);
+		readAll();
+		checkLimits(cfg);
+	}
+
+	@Test
+	public void testCache_MMAP() throws IOException {
+		final WindowCacheConfig cfg = config();
+		cfg.setPackedGitMMAP(true);
+		WindowCache.reconfigure(cfg);
+		readAll();
+		checkLimits(cfg);
+	}
+
+	@Test
+	public void testCache_TooFewFiles() throws IOException {
+		final WindowCacheConfig cfg = config();
+		cfg.setPackedGitOpenFiles(2);
+		WindowCache.reconfigure(cfg);
+		readAll();
+		checkLimits(cfg);
+	}
+
+	@Test
+	public void testCache_TooSmallLimit() throws IOException {
+		final WindowCacheConfig cfg = config();
+		cfg.setPackedGitWindowSize(4096);
+		cfg.setPackedGitLimit(4096);
+		WindowCache.reconfigure(cfg);
+		readAll();
+		readAll();
+		checkLimits(cfg);
+	}
+
+	@Test
+	public void testPurgeReleasesWindows() throws IOException {
+		WindowCache.reconfigure(config());
+		readAll();
+
+		final WindowCache cache = WindowCache.getInstance();
+		assertTrue(0 < cache.getOpenBytes());
+		for (PackFile p : db.getObjectDatabase().getPacks())
+			p.close();
+		assertEquals(0, cache.getOpenFiles());
+		assertEquals(0, cache.getOpenBytes());
+	}
+
+	@Test
+	public void testInterruptedReadKeepsPackOpen() throws IOException {
+		final WindowCacheConfig cfg = config();
+		cfg.setPackedGitWindowSize(4096);
+		cfg.setPackedGitLimit(4096);
+		WindowCache.reconfigure(cfg);
+
+		// Windows are loaded into direct buffers while interrupted. The
+		// pack file is shared, so it must not be closed by the interrupt.
+		Thread.currentThread().interrupt();
+		try {
+			readAll();
+		} finally {
+			assertTrue(Thread.interrupted());
+		}
+		readAll();
+	}
+
+	private static WindowCacheConfig config() {
+		final WindowCacheConfig cfg = new WindowCacheConfig();
+		cfg.setPackedGitCacheEngine(WindowCacheConfig.Engine.CLOCK);
+		return cfg;
+	}
+
+	private void readAll() throws IOException {
+		final ObjectReader reader = db.newObjectReader();
+		try {
+			for (PackFile p : db.getObjectDatabase().getPacks()) {
+				for (MutableEntry e : p) {
+					final ObjectLoader ldr = reader.open(e.toObjectId());
+					assertEquals(ldr.getSize(), ldr.getCachedBytes().length);
+				}
+			}
+		} finally {
+			reader.release();
+		}
+	}
+
+	private static void checkLimits(final WindowCacheConfig cfg) {
+		final WindowCache cache = WindowCache.getInstance();
+		assertTrue(cache.getOpenFiles() <= cfg.getPackedGitOpenFiles());
+		assertTrue(cache.getOpenBytes() <= cfg.getPackedGitLimit());
+		assertTrue(0 < cache.getOpenFiles());
+		assertTrue(0 < cache.getOpenBytes());
+	}
+}
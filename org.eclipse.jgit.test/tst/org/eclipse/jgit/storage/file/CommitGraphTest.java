@@ -0,0 +1,300 @@
+/*
+ * Copyright (C) 2011, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.eclipse.jgit.storage.file;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.eclipse.jgit.junit.LocalDiskRepositoryTestCase;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.CommitGraph;
+import org.eclipse.jgit.lib.MutableObjectId;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevSort;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.revwalk.filter.RevFilter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CommitGraphTest extends LocalDiskRepositoryTestCase {
+	private FileRepository repo;
+
+	private TestRepository<FileRepository> tr;
+
+	private ObjectDirectory odb;
+
+	private RevCommit a, b, c, d, e, f, g, h;
+
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+		repo = createBareRepository();
+		tr = new TestRepository<FileRepository>(repo);
+		odb = repo.getObjectDatabase();
+
+		// a - b - c ------- g - h
+		//      \           /
+		//       d - e(-600s)
+		//        \        /
+		//         f -----'
+		a = tr.commit(new RevCommit[0]);
+		b = tr.commit(a);
+		c = tr.commit(b);
+		d = tr.commit(b);
+		e = tr.commit(-600, d);
+		f = tr.commit(700, d);
+		g = tr.commit(c, e, f);
+		h = tr.commit(g);
+		for (RevCommit r : new RevCommit[] { a, b, c, d, e, f, g, h })
+			tr.parseBody(r);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		if (repo != null)
+			repo.close();
+		super.tearDown();
+	}
+
+	@Test
+	public void testNoCommitGraph() throws Exception {
+		assertNull(odb.getCommitGraph());
+	}
+
+	@Test
+	public void testReadGraph() throws Exception {
+		assertEquals(8, writeCommitGraph(h));
+
+		CommitGraph graph = odb.getCommitGraph();
+		assertNotNull(graph);
+		assertEquals(8, graph.getCommitCount());
+		assertEquals(-1, graph.findPosition(ObjectId.zeroId()));
+
+		assertGeneration(graph, a, 1);
+		assertGeneration(graph, b, 2);
+		assertGeneration(graph, c, 3);
+		assertGeneration(graph, e, 4);
+		assertGeneration(graph, g, 5);
+		assertGeneration(graph, h, 6);
+
+		MutableObjectId id = new MutableObjectId();
+		int pos = graph.findPosition(g);
+		graph.getObjectId(pos, id);
+		assertEquals(g, id);
+		graph.getTreeId(pos, id);
+		assertEquals(g.getTree(), id);
+		assertEquals(g.getCommitTime(), graph.getCommitTime(pos));
+		assertEquals(3, graph.getParentCount(pos));
+		for (int i = 0; i < 3; i++) {
+			graph.getObjectId(graph.getParent(pos, i), id);
+			assertEquals(g.getParent(i), id);
+		}
+		assertEquals(0, graph.getParentCount(graph.findPosition(a)));
+	}
+
+	@Test
+	public void testParseFromGraph() throws Exception {
+		writeCommitGraph(h);
+
+		RevWalk rw = graphWalk();
+		RevCommit r = rw.parseCommit(g);
+		assertEquals(3, r.getParentCount());
+		assertEquals(c, r.getParent(0));
+		assertEquals(e, r.getParent(1));
+		assertEquals(f, r.getParent(2));
+		assertEquals(g.getCommitTime(), r.getCommitTime());
+		assertNull(r.getRawBuffer());
+
+		rw.parseBody(r);
+		assertNotNull(r.getRawBuffer());
+		assertEquals(g.getTree(), r.getTree());
+		rw.release();
+	}
+
+	@Test
+	public void testMergeBase() throws Exception {
+		writeCommitGraph(h);
+
+		assertSameMergeBase(c, e);
+		assertSameMergeBase(e, f);
+		assertSameMergeBase(h, e);
+		assertSameMergeBase(c, f, e);
+		assertSameMergeBase(a, h);
+	}
+
+	@Test
+	public void testIsMergedInto() throws Exception {
+		writeCommitGraph(h);
+
+		RevWalk rw = graphWalk();
+		assertTrue(rw.isMergedInto(rw.parseCommit(e), rw.parseCommit(h)));
+		assertTrue(rw.isMergedInto(rw.parseCommit(a), rw.parseCommit(f)));
+		assertTrue(rw.isMergedInto(rw.parseCommit(g), rw.parseCommit(g)));
+		assertFalse(rw.isMergedInto(rw.parseCommit(c), rw.parseCommit(f)));
+		assertFalse(rw.isMergedInto(rw.parseCommit(h), rw.parseCommit(g)));
+		assertFalse(rw.isMergedInto(rw.parseCommit(f), rw.parseCommit(e)));
+		rw.release();
+	}
+
+	@Test
+	public void testWalkMatchesWithoutGraph() throws Exception {
+		writeCommitGraph(h);
+
+		assertSameWalk(Arrays.asList(h), new ArrayList<RevCommit>());
+		assertSameWalk(Arrays.asList(h), Arrays.asList(e));
+		assertSameWalk(Arrays.asList(h), Arrays.asList(f, c));
+		assertSameWalk(Arrays.asList(e, f), Arrays.asList(b));
+	}
+
+	@Test
+	public void testTopoOrder() throws Exception {
+		writeCommitGraph(h);
+
+		RevWalk rw = graphWalk();
+		rw.sort(RevSort.TOPO);
+		rw.markStart(rw.parseCommit(h));
+
+		Set<RevCommit> seen = new HashSet<RevCommit>();
+		RevCommit r;
+		while ((r = rw.next()) != null) {
+			for (RevCommit p : r.getParents())
+				assertFalse(seen.contains(p));
+			seen.add(r);
+		}
+		assertEquals(8, seen.size());
+		rw.release();
+	}
+
+	@Test
+	public void testCommitsMissingFromGraph() throws Exception {
+		writeCommitGraph(g);
+		RevCommit i = tr.commit(h);
+
+		assertSameMergeBase(i, f);
+		assertSameWalk(Arrays.asList(i), Arrays.asList(e));
+	}
+
+	private RevWalk graphWalk() {
+		RevWalk rw = new RevWalk(repo);
+		rw.setUseCommitGraph(true);
+		return rw;
+	}
+
+	private void assertGeneration(CommitGraph graph, RevCommit commit,
+			int generation) {
+		assertEquals(generation, graph.getGeneration(graph.findPosition(commit)));
+	}
+
+	private void assertSameMergeBase(RevCommit... tips) throws Exception {
+		assertEquals(mergeBase(new RevWalk(repo), tips),
+				mergeBase(graphWalk(), tips));
+	}
+
+	private Set<ObjectId> mergeBase(RevWalk rw, RevCommit... tips)
+			throws Exception {
+		rw.setRevFilter(RevFilter.MERGE_BASE);
+		for (RevCommit t : tips)
+			rw.markStart(rw.parseCommit(t));
+		Set<ObjectId> r = new HashSet<ObjectId>();
+		RevCommit m;
+		while ((m = rw.next()) != null)
+			r.add(m.copy());
+		rw.release();
+		assertFalse(r.isEmpty());
+		return r;
+	}
+
+	private void assertSameWalk(List<RevCommit> want, List<RevCommit> have)
+			throws Exception {
+		assertEquals(walk(new RevWalk(repo), want, have),
+				walk(graphWalk(), want, have));
+	}
+
+	private Set<ObjectId> walk(RevWalk rw, List<RevCommit> want,
+			List<RevCommit> have) throws Exception {
+		for (RevCommit w : want)
+			rw.markStart(rw.parseCommit(w));
+		for (RevCommit u : have)
+			rw.markUninteresting(rw.parseCommit(u));
+		Set<ObjectId> r = new HashSet<ObjectId>();
+		RevCommit m;
+		while ((m = rw.next()) != null)
+			r.add(m.copy());
+		rw.release();
+		return r;
+	}
+
+	private int writeCommitGraph(RevCommit... tips) throws Exception {
+		File info = new File(odb.getDirectory(), "info");
+		info.mkdirs();
+		ObjectReader reader = repo.newObjectReader();
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(
+				new File(info, "commit-graph")));
+		try {
+			return new CommitGraphWriter(reader).write(
+					NullProgressMonitor.INSTANCE, out, Arrays.asList(tips));
+		} finally {
+			out.close();
+			reader.release();
+		}
+	}
+}
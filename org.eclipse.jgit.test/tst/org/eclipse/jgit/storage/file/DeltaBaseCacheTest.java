@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2011, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.eclipse.jgit.storage.file;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.File;
+
+import org.eclipse.jgit.lib.Constants;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DeltaBaseCacheTest {
+	private PackFile a;
+
+	private PackFile b;
+
+	@Before
+	public void setUp() {
+		a = new PackFile(new File("pack-a.idx"), new File("pack-a.pack"));
+		b = new PackFile(new File("pack-b.idx"), new File("pack-b.pack"));
+		reconfigure(64 * 1024);
+	}
+
+	@After
+	public void tearDown() {
+		WindowCache.reconfigure(new WindowCacheConfig());
+	}
+
+	@Test
+	public void testKeyedOnPackAndPosition() {
+		final byte[] da = new byte[16];
+		final byte[] db = new byte[16];
+		DeltaBaseCache.store(a, 12, da, Constants.OBJ_BLOB, 0);
+		DeltaBaseCache.store(b, 12, db, Constants.OBJ_TREE, 0);
+
+		DeltaBaseCache.Entry e = DeltaBaseCache.get(a, 12);
+		assertNotNull(e);
+		assertSame(da, e.data);
+		assertEquals(Constants.OBJ_BLOB, e.type);
+
+		e = DeltaBaseCache.get(b, 12);
+		assertNotNull(e);
+		assertSame(db, e.data);
+		assertEquals(Constants.OBJ_TREE, e.type);
+
+		assertNull(DeltaBaseCache.get(a, 13));
+		assertEquals(1, a.getDeltaBaseCacheHitCount());
+		assertEquals(1, a.getDeltaBaseCacheMissCount());
+		assertEquals(1, b.getDeltaBaseCacheHitCount());
+		assertEquals(0, b.getDeltaBaseCacheMissCount());
+	}
+
+	@Test
+	public void testByteLimit() {
+		for (int i = 0; i < 100; i++)
+			DeltaBaseCache.store(a, i, new byte[1024], Constants.OBJ_BLOB, 0);
+		final DeltaBaseCache cache = DeltaBaseCache.getInstance();
+		assertEquals(64 * 1024, cache.getOpenByteCount());
+		assertEquals(36, a.getDeltaBaseCacheEvictionCount());
+
+		// The most recently stored bases survived, the oldest were evicted.
+		assertNull(DeltaBaseCache.get(a, 0));
+		assertNotNull(DeltaBaseCache.get(a, 99));
+
+		DeltaBaseCache.store(a, 100, new byte[64 * 1024 + 1],
+				Constants.OBJ_BLOB, 0);
+		assertNull(DeltaBaseCache.get(a, 100));
+	}
+
+	@Test
+	public void testFavorsLongChains() {
+		DeltaBaseCache.store(a, 0, new byte[48 * 1024], Constants.OBJ_BLOB, 8);
+
+		// A shallow base cannot displace the expensive one...
+		DeltaBaseCache.store(a, 1, new byte[32 * 1024], Constants.OBJ_BLOB, 1);
+		assertNotNull(DeltaBaseCache.get(a, 0));
+		assertNull(DeltaBaseCache.get(a, 1));
+
+		// ...but the expensive one ages with every rejected admission.
+		DeltaBaseCache.store(a, 2, new byte[32 * 1024], Constants.OBJ_BLOB, 1);
+		DeltaBaseCache.store(a, 3, new byte[32 * 1024], Constants.OBJ_BLOB, 1);
+		DeltaBaseCache.store(a, 4, new byte[32 * 1024], Constants.OBJ_BLOB, 1);
+		assertNull(DeltaBaseCache.get(a, 0));
+		assertNotNull(DeltaBaseCache.get(a, 4));
+		assertEquals(1, a.getDeltaBaseCacheEvictionCount());
+	}
+
+	@Test
+	public void testPurge() {
+		DeltaBaseCache.store(a, 1, new byte[8], Constants.OBJ_BLOB, 0);
+		DeltaBaseCache.store(b, 1, new byte[8], Constants.OBJ_BLOB, 0);
+		DeltaBaseCache.purge(a);
+		assertNull(DeltaBaseCache.get(a, 1));
+		assertNotNull(DeltaBaseCache.get(b, 1));
+		assertEquals(8, DeltaBaseCache.getInstance().getOpenByteCount());
+	}
+
+	private static void reconfigure(final int limit) {
+		final WindowCacheConfig cfg = new WindowCacheConfig();
+		cfg.setDeltaBaseCacheLimit(limit);
+		WindowCache.reconfigure(cfg);
+	}
+}
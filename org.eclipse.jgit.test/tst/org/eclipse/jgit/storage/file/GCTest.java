@@ -0,0 +1,393 @@
+/*
+ * Copyright (C) 2011, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.storage.file;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Collection;
+
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheBuilder;
+import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.junit.LocalDiskRepositoryTestCase;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.revwalk.RevBlob;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevTag;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class GCTest extends LocalDiskRepositoryTestCase {
+	private FileRepository repo;
+
+	private TestRepository<FileRepository> tr;
+
+	private GC gc;
+
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+		repo = createBareRepository();
+		tr = new TestRepository<FileRepository>(repo);
+		gc = new GC(repo);
+		gc.setPackExpireAgeMillis(0);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		if (repo != null)
+			repo.close();
+		super.tearDown();
+	}
+
+	@Test
+	public void testEmptyRepository() throws Exception {
+		assertTrue(gc.gc().isEmpty());
+		GC.RepoStatistics s = gc.getStatistics();
+		assertEquals(0, s.getNumberOfPackFiles());
+		assertEquals(0, s.getNumberOfLooseObjects());
+	}
+
+	@Test
+	public void testPackRefs() throws Exception {
+		RevCommit a = tr.commit().add("a", "a").create();
+		RevCommit b = tr.commit().parent(a).add("b", "b").create();
+		RevTag t = tr.tag("v1", a);
+		tr.update("refs/heads/master", b);
+		tr.update("refs/heads/side", a);
+		tr.update("refs/tags/v1", t);
+		assertEquals(3, gc.getStatistics().getNumberOfLooseRefs());
+
+		gc.packRefs();
+		GC.RepoStatistics s = gc.getStatistics();
+		assertEquals(0, s.getNumberOfLooseRefs());
+		assertEquals(3, s.getNumberOfPackedRefs());
+		assertFalse(new File(repo.getDirectory(), "refs/heads/master")
+				.exists());
+
+		repo.getRefDatabase().refresh();
+		assertEquals(b, repo.getRef("refs/heads/master").getObjectId());
+		assertEquals(a, repo.getRef("refs/heads/side").getObjectId());
+		Ref tag = repo.getRef("refs/tags/v1");
+		assertEquals(t, tag.getObjectId());
+		assertTrue(tag.isPeeled());
+		assertEquals(a, tag.getPeeledObjectId());
+	}
+
+	@Test
+	public void testRepackPacksReachableObjects() throws Exception {
+		RevBlob blob = tr.blob("content");
+		RevCommit a = tr.commit().add("f", blob).create();
+		RevCommit b = tr.commit().parent(a).add("f", "other").create();
+		tr.update("refs/heads/master", b);
+		assertTrue(0 < gc.getStatistics().getNumberOfLooseObjects());
+
+		Collection<PackFile> packs = gc.gc();
+		assertEquals(1, packs.size());
+		assertNotNull(gc.getPackStatistics());
+
+		GC.RepoStatistics s = gc.getStatistics();
+		assertEquals(1, s.getNumberOfPackFiles());
+		assertEquals(0, s.getNumberOfLooseObjects());
+		assertEquals(6, s.getNumberOfPackedObjects());
+
+		PackFile pack = packs.iterator().next();
+		String base = "pack-" + pack.getPackName();
+		File packDir = pack.getPackFile().getParentFile();
+		assertTrue(new File(packDir, base + ".idx").exists());
+		assertTrue(new File(packDir, base + ".rev").exists());
+		assertTrue(new File(packDir, base + ".bitmap").exists());
+		assertTrue(new File(repo.getObjectDatabase().getDirectory(),
+				"info/commit-graph").exists());
+
+		ObjectReader reader = repo.newObjectReader();
+		try {
+			assertTrue(reader.has(blob));
+			assertTrue(reader.has(a));
+			assertTrue(reader.has(b));
+		} finally {
+			reader.release();
+		}
+	}
+
+	@Test
+	public void testSupersededPacksAreDeleted() throws Exception {
+		RevCommit a = tr.commit().add("a", "a").create();
+		tr.update("refs/heads/master", a);
+		gc.gc();
+		RevCommit b = tr.commit().parent(a).add("b", "b").create();
+		tr.update("refs/heads/master", b);
+		gc.gc();
+
+		GC.RepoStatistics s = gc.getStatistics();
+		assertEquals(1, s.getNumberOfPackFiles());
+		assertEquals(0, s.getNumberOfLooseObjects());
+		assertEquals(6, s.getNumberOfPackedObjects());
+		assertEquals(4, packDirectory().list().length);
+	}
+
+	@Test
+	public void testSupersededPacksWithinGracePeriodAreKept()
+			throws Exception {
+		RevCommit a = tr.commit().add("a", "a").create();
+		tr.update("refs/heads/master", a);
+		gc.gc();
+		RevCommit b = tr.commit().parent(a).add("b", "b").create();
+		tr.update("refs/heads/master", b);
+		gc.setPackExpireAgeMillis(GC.DEFAULT_PACK_EXPIRE_AGE_MILLIS);
+		gc.gc();
+		assertEquals(2, gc.getStatistics().getNumberOfPackFiles());
+	}
+
+	@Test
+	public void testKeptPackIsNotDeleted() throws Exception {
+		RevCommit a = tr.commit().add("a", "a").create();
+		tr.update("refs/heads/master", a);
+		PackFile kept = gc.gc().iterator().next();
+		assertTrue(new File(packDirectory(), "pack-" + kept.getPackName()
+				+ ".keep").createNewFile());
+
+		RevCommit b = tr.commit().parent(a).add("b", "b").create();
+		tr.update("refs/heads/master", b);
+		gc.gc();
+		assertEquals(2, gc.getStatistics().getNumberOfPackFiles());
+		assertTrue(kept.getPackFile().exists());
+	}
+
+	@Test
+	public void testUnreachableLooseObjectsHonorGracePeriod()
+			throws Exception {
+		RevCommit a = tr.commit().add("a", "a").create();
+		tr.update("refs/heads/master", a);
+		RevBlob garbage = tr.blob("unreachable");
+		File file = repo.getObjectDatabase().fileFor(garbage);
+
+		gc.gc();
+		assertTrue(file.exists());
+		assertEquals(1, gc.getStatistics().getNumberOfLooseObjects());
+
+		gc.setExpireAgeMillis(0);
+		gc.prune();
+		assertFalse(file.exists());
+		assertFalse(file.getParentFile().exists());
+		assertEquals(0, gc.getStatistics().getNumberOfLooseObjects());
+	}
+
+	@Test
+	public void testObjectsReachableFromRecentLooseObjectsAreKept()
+			throws Exception {
+		RevBlob old = tr.blob("old");
+		File oldFile = repo.getObjectDatabase().fileFor(old);
+		oldFile.setLastModified(System.currentTimeMillis() - 2
+				* GC.DEFAULT_EXPIRE_AGE_MILLIS);
+
+		// A commit being created refers to the old blob, but no reference
+		// names the commit yet.
+		RevCommit pending = tr.commit().add("f", old).create();
+
+		gc.prune();
+		assertTrue(oldFile.exists());
+		assertTrue(repo.getObjectDatabase().fileFor(pending).exists());
+	}
+
+	@Test
+	public void testStagedBlobSurvivesRepack() throws Exception {
+		FileRepository work = createWorkRepository();
+		TestRepository<FileRepository> wtr = new TestRepository<FileRepository>(
+				work);
+		RevCommit a = wtr.commit().add("a", "a").create();
+		wtr.update("refs/heads/master", a);
+
+		RevBlob staged = wtr.blob("staged");
+		DirCache dc = work.lockDirCache();
+		DirCacheBuilder b = dc.builder();
+		DirCacheEntry ent = new DirCacheEntry("staged");
+		ent.setFileMode(FileMode.REGULAR_FILE);
+		ent.setObjectId(staged);
+		b.add(ent);
+		assertTrue(b.commit());
+
+		GC wgc = new GC(work).setPackExpireAgeMillis(0).setExpireAgeMillis(0);
+		wgc.repackIncremental();
+		wgc.gc();
+		assertEquals(0, wgc.getStatistics().getNumberOfLooseObjects());
+		assertTrue(work.hasObject(staged));
+	}
+
+	@Test
+	public void testUnreachablePackedObjectsHonorGracePeriod()
+			throws Exception {
+		RevCommit a = tr.commit().add("a", "a").create();
+		tr.update("refs/heads/master", a);
+		RevBlob garbage = tr.blob("unreachable");
+		File file = repo.getObjectDatabase().fileFor(garbage);
+		gc.repackIncremental();
+		gc.prune();
+		assertFalse(file.exists());
+
+		// The superseded pack is deleted, its unreachable object is
+		// unpacked until it expires.
+		gc.gc();
+		assertEquals(1, gc.getStatistics().getNumberOfPackFiles());
+		assertTrue(file.exists());
+		assertTrue(repo.hasObject(garbage));
+
+		gc.setExpireAgeMillis(0);
+		gc.prune();
+		assertFalse(file.exists());
+		assertFalse(repo.hasObject(garbage));
+	}
+
+	@Test
+	public void testMultiPackIndexIsRewritten() throws Exception {
+		RevCommit a = tr.commit().add("a", "a").create();
+		tr.update("refs/heads/master", a);
+		PackFile kept = gc.gc().iterator().next();
+		new File(packDirectory(), "pack-" + kept.getPackName() + ".keep")
+				.createNewFile();
+		File midx = new File(packDirectory(), MultiPackIndexWriter.FILE_NAME);
+		midx.createNewFile();
+
+		RevCommit b = tr.commit().parent(a).add("b", "b").create();
+		tr.update("refs/heads/master", b);
+		gc.gc();
+		assertEquals(2, MultiPackIndex.open(midx).getPackNames().length);
+	}
+
+	@Test
+	public void testGeometricSplit() {
+		assertEquals(0, GC.geometricSplit(new long[] {}, 2));
+		assertEquals(0, GC.geometricSplit(new long[] { 10 }, 2));
+		assertEquals(0, GC.geometricSplit(new long[] { 10, 100 }, 2));
+		assertEquals(2, GC.geometricSplit(new long[] { 10, 15 }, 2));
+		assertEquals(2, GC.geometricSplit(new long[] { 5, 6, 100 }, 2));
+		assertEquals(3, GC.geometricSplit(new long[] { 5, 6, 20, 100 }, 2));
+		assertEquals(0, GC.geometricSplit(new long[] { 1, 2, 4, 8 }, 2));
+		assertEquals(4, GC.geometricSplit(new long[] { 1, 2, 4, 8 }, 3));
+	}
+
+	@Test
+	public void testIncrementalRepackLeavesLargePacks() throws Exception {
+		RevCommit tip = tr.commit().add("f", "f").create();
+		for (int i = 0; i < 9; i++) {
+			tip = tr.commit().parent(tip).add("f" + i, "" + i).create();
+			tr.update("refs/heads/master", tip);
+		}
+		PackFile large = gc.gc().iterator().next();
+
+		gc.setIncremental(true);
+		for (int i = 0; i < 3; i++) {
+			tip = tr.commit().parent(tip).add("g" + i, "g" + i).create();
+			tr.update("refs/heads/master", tip);
+			gc.gc();
+			assertEquals(0, gc.getStatistics().getNumberOfLooseObjects());
+		}
+
+		// The first two small packs were merged by the third run.
+		GC.RepoStatistics s = gc.getStatistics();
+		assertEquals(2, s.getNumberOfPackFiles());
+		assertEquals(30 + 9, s.getNumberOfPackedObjects());
+		assertTrue(large.getPackFile().exists());
+
+		ObjectReader reader = repo.newObjectReader();
+		try {
+			assertTrue(reader.has(tip));
+		} finally {
+			reader.release();
+		}
+	}
+
+	@Test
+	public void testIncrementalRepackWithoutChanges() throws Exception {
+		RevCommit a = tr.commit().add("a", "a").create();
+		tr.update("refs/heads/master", a);
+		gc.gc();
+		assertTrue(gc.repackIncremental().isEmpty());
+		assertEquals(1, gc.getStatistics().getNumberOfPackFiles());
+	}
+
+	@Test
+	public void testCachedPackIsNotMerged() throws Exception {
+		RevCommit a = tr.commit().add("a", "a").create();
+		tr.update("refs/heads/master", a);
+		PackFile cached = gc.setCachePack(true).gc().iterator().next();
+
+		Collection<LocalCachedPack> list = repo.getObjectDatabase()
+				.getLocalCachedPacks();
+		assertEquals(1, list.size());
+		LocalCachedPack c = list.iterator().next();
+		assertEquals(cached.getPackName(), c.getPackNames()[0]);
+		assertTrue(c.getTips().contains(a));
+
+		gc.setCachePack(false).setIncremental(true);
+		RevCommit b = tr.commit().parent(a).add("b", "b").create();
+		tr.update("refs/heads/master", b);
+		gc.gc();
+		RevCommit d = tr.commit().parent(b).add("d", "d").create();
+		tr.update("refs/heads/master", d);
+		gc.gc();
+
+		// Without the cached entry the second run would have merged all
+		// objects of the similarly sized packs into one.
+		assertEquals(3, gc.getStatistics().getNumberOfPackFiles());
+		assertTrue(cached.getPackFile().exists());
+
+		gc.setIncremental(false).gc();
+		assertEquals(1, gc.getStatistics().getNumberOfPackFiles());
+		assertFalse(cached.getPackFile().exists());
+		assertTrue(repo.getObjectDatabase().getLocalCachedPacks().isEmpty());
+	}
+
+	private File packDirectory() {
+		return new File(repo.getObjectDatabase().getDirectory(), "pack");
+	}
+}
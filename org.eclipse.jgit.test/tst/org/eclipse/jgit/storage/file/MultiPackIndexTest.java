@@ -0,0 +1,276 @@
+/*
+ * Copyright (C) 2011, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.eclipse.jgit.storage.file;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.eclipse.jgit.junit.LocalDiskRepositoryTestCase;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.AbbreviatedObjectId;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.revwalk.RevBlob;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.storage.pack.PackWriter;
+import org.eclipse.jgit.util.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MultiPackIndexTest extends LocalDiskRepositoryTestCase {
+	private FileRepository repo;
+
+	private TestRepository<FileRepository> tr;
+
+	private File packDirectory;
+
+	private final List<ObjectId> objects = new ArrayList<ObjectId>();
+
+	private RevCommit tip;
+
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+		repo = createBareRepository();
+		tr = new TestRepository<FileRepository>(repo);
+		packDirectory = new File(repo.getObjectDatabase().getDirectory(),
+				"pack");
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		if (repo != null)
+			repo.close();
+		super.tearDown();
+	}
+
+	@Test
+	public void testIndexMatchesPacks() throws Exception {
+		createPacks(3);
+		Collection<PackFile> packs = repo.getObjectDatabase().getPacks();
+		assertEquals(3, packs.size());
+		writeMultiPackIndex(packs);
+
+		MultiPackIndex midx = MultiPackIndex.open(new File(packDirectory,
+				MultiPackIndexWriter.FILE_NAME));
+		assertEquals(3, midx.getPackNames().length);
+		assertEquals(objects.size(), midx.getObjectCount());
+		for (ObjectId id : objects) {
+			int pos = midx.findPosition(id);
+			assertTrue(0 <= pos);
+			File idx = new File(packDirectory,
+					midx.getPackNames()[midx.getPackId(pos)]);
+			assertEquals(PackIndex.open(idx).findOffset(id),
+					midx.getOffset(pos));
+		}
+		assertEquals(-1, midx.findPosition(ObjectId.zeroId()));
+	}
+
+	@Test
+	public void testReadThroughIndex() throws Exception {
+		createPacks(3);
+		writeMultiPackIndex(repo.getObjectDatabase().getPacks());
+
+		FileRepository db = new FileRepository(repo.getDirectory());
+		try {
+			assertAllReadable(db);
+			assertFalse(db.hasObject(ObjectId.zeroId()));
+		} finally {
+			db.close();
+		}
+	}
+
+	@Test
+	public void testPackNotInIndex() throws Exception {
+		createPacks(2);
+		writeMultiPackIndex(repo.getObjectDatabase().getPacks());
+		createPacks(1);
+
+		FileRepository db = new FileRepository(repo.getDirectory());
+		try {
+			assertEquals(3, db.getObjectDatabase().getPacks().size());
+			assertAllReadable(db);
+		} finally {
+			db.close();
+		}
+	}
+
+	@Test
+	public void testIndexedPackRemoved() throws Exception {
+		createPacks(2);
+		writeMultiPackIndex(repo.getObjectDatabase().getPacks());
+
+		// Repack everything, and delete the packs named by the index.
+		Collection<PackFile> old = repo.getObjectDatabase().getPacks();
+		writePack(tip, null);
+		for (PackFile p : old) {
+			FileUtils.delete(p.getPackFile());
+			FileUtils.delete(new File(packDirectory, "pack-"
+					+ p.getPackName() + ".idx"));
+		}
+		repo.getObjectDatabase().close();
+
+		FileRepository db = new FileRepository(repo.getDirectory());
+		try {
+			assertAllReadable(db);
+		} finally {
+			db.close();
+		}
+	}
+
+	@Test
+	public void testResolveAbbreviation() throws Exception {
+		createPacks(3);
+		writeMultiPackIndex(repo.getObjectDatabase().getPacks());
+
+		FileRepository db = new FileRepository(repo.getDirectory());
+		ObjectReader reader = db.newObjectReader();
+		try {
+			for (ObjectId id : objects) {
+				Collection<ObjectId> matches = reader.resolve(
+						AbbreviatedObjectId.fromString(id.name().substring(0, 8)));
+				assertEquals(1, matches.size());
+				assertEquals(id, matches.iterator().next());
+			}
+		} finally {
+			reader.release();
+			db.close();
+		}
+	}
+
+	private void createPacks(int cnt) throws Exception {
+		for (int i = 0; i < cnt; i++) {
+			RevCommit parent = tip;
+			RevBlob blob = tr.blob("content " + objects.size());
+			tip = tr.branch("master").commit()
+					.add("file" + objects.size(), blob).create();
+			writePack(tip, parent);
+		}
+	}
+
+	private void writePack(ObjectId want, ObjectId have) throws Exception {
+		ObjectDirectory odb = repo.getObjectDatabase();
+		PackWriter pw = new PackWriter(repo);
+		try {
+			Set<ObjectId> haves = new HashSet<ObjectId>();
+			if (have != null)
+				haves.add(have);
+			pw.preparePack(NullProgressMonitor.INSTANCE,
+					Collections.singleton(want), haves);
+			String name = "pack-" + pw.computeName().name();
+
+			File pack = new File(packDirectory, name + ".pack");
+			OutputStream out = new BufferedOutputStream(new FileOutputStream(
+					pack));
+			try {
+				pw.writePack(NullProgressMonitor.INSTANCE,
+						NullProgressMonitor.INSTANCE, out);
+			} finally {
+				out.close();
+			}
+
+			File idx = new File(packDirectory, name + ".idx");
+			out = new BufferedOutputStream(new FileOutputStream(idx));
+			try {
+				pw.writeIndex(out);
+			} finally {
+				out.close();
+			}
+
+			PackFile p = odb.openPack(pack, idx);
+			for (PackIndex.MutableEntry e : p) {
+				ObjectId id = e.toObjectId();
+				if (!objects.contains(id))
+					objects.add(id);
+				File loose = odb.fileFor(id);
+				if (loose.exists())
+					FileUtils.delete(loose);
+			}
+		} finally {
+			pw.release();
+		}
+	}
+
+	private void assertAllReadable(FileRepository db) throws Exception {
+		ObjectReader reader = db.newObjectReader();
+		try {
+			for (ObjectId id : objects) {
+				assertTrue(reader.has(id));
+				assertEquals(repo.open(id).getSize(), reader.getObjectSize(id,
+						ObjectReader.OBJ_ANY));
+				assertEquals(repo.open(id).getType(), reader.open(id)
+						.getType());
+			}
+		} finally {
+			reader.release();
+		}
+	}
+
+	private void writeMultiPackIndex(Collection<PackFile> packs)
+			throws Exception {
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(
+				new File(packDirectory, MultiPackIndexWriter.FILE_NAME)));
+		try {
+			new MultiPackIndexWriter(packs).write(
+					NullProgressMonitor.INSTANCE, out);
+		} finally {
+			out.close();
+		}
+	}
+}
@@ -0,0 +1,290 @@
+/*
+ * Copyright (C) 2011, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.eclipse.jgit.storage.file;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.junit.LocalDiskRepositoryTestCase;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.revwalk.ObjectWalk;
+import org.eclipse.jgit.revwalk.RevBlob;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevObject;
+import org.eclipse.jgit.revwalk.RevTag;
+import org.eclipse.jgit.storage.pack.PackConfig;
+import org.eclipse.jgit.storage.pack.PackWriter;
+import org.eclipse.jgit.util.IntList;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PackBitmapIndexTest extends LocalDiskRepositoryTestCase {
+	private static final NullProgressMonitor NM = NullProgressMonitor.INSTANCE;
+
+	private FileRepository repo;
+
+	private TestRepository<FileRepository> tr;
+
+	private ObjectDirectory odb;
+
+	private final List<ObjectId> objects = new ArrayList<ObjectId>();
+
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+		repo = createBareRepository();
+		tr = new TestRepository<FileRepository>(repo);
+		odb = repo.getObjectDatabase();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		if (repo != null)
+			repo.close();
+		super.tearDown();
+	}
+
+	@Test
+	public void testNoBitmaps() throws Exception {
+		tr.branch("master").commit().add("a", "a").create();
+		assertNull(odb.getBitmapIndex());
+	}
+
+	@Test
+	public void testCloneMatchesObjectWalk() throws Exception {
+		List<RevCommit> history = createHistory(25);
+		RevTag tag = tr.tag("v1", history.get(10));
+		tr.update("refs/tags/v1", tag);
+		writePackWithBitmaps(4, history.get(history.size() - 1), tag);
+
+		PackBitmapIndex bitmaps = odb.getBitmapIndex();
+		assertNotNull(bitmaps);
+		assertTrue(bitmaps.getBitmapCount() > 1);
+
+		assertSameObjects(want(history.get(history.size() - 1), tag),
+				Collections.<ObjectId> emptySet());
+		assertSameObjects(want(history.get(7)),
+				Collections.<ObjectId> emptySet());
+	}
+
+	@Test
+	public void testFetchMatchesObjectWalk() throws Exception {
+		List<RevCommit> history = createHistory(25);
+		writePackWithBitmaps(4, history.get(history.size() - 1));
+
+		assertSameObjects(want(history.get(24)), want(history.get(20)));
+		assertSameObjects(want(history.get(24)), want(history.get(3)));
+		assertSameObjects(want(history.get(13)), want(history.get(12)));
+	}
+
+	@Test
+	public void testObjectsOutsidePack() throws Exception {
+		List<RevCommit> history = createHistory(10);
+		writePackWithBitmaps(3, history.get(history.size() - 1));
+
+		RevBlob blob = tr.blob("not packed");
+		RevCommit loose = tr.branch("master").commit().add("loose", blob)
+				.create();
+		objects.add(blob);
+		objects.add(loose);
+		objects.add(tr.parseBody(loose).getTree());
+
+		assertSameObjects(want(loose), Collections.<ObjectId> emptySet());
+		assertSameObjects(want(loose), want(history.get(9)));
+		assertSameObjects(want(history.get(9)), want(loose));
+	}
+
+	@Test
+	public void testMissingHaveIgnored() throws Exception {
+		List<RevCommit> history = createHistory(5);
+		writePackWithBitmaps(2, history.get(history.size() - 1));
+
+		Set<ObjectId> have = want(history.get(2));
+		have.add(ObjectId
+				.fromString("0123456789012345678901234567890123456789"));
+		assertSameObjects(want(history.get(4)), have);
+	}
+
+	private List<RevCommit> createHistory(int count) throws Exception {
+		List<RevCommit> history = new ArrayList<RevCommit>(count);
+		for (int i = 0; i < count; i++) {
+			RevBlob blob = tr.blob("content " + i);
+			RevCommit c = tr.branch("master").commit()
+					.add("dir" + (i % 3) + "/file" + i, blob).create();
+			history.add(c);
+		}
+		return history;
+	}
+
+	private void writePackWithBitmaps(int spacing, ObjectId... tips)
+			throws Exception {
+		PackConfig pc = new PackConfig(repo);
+		pc.setBitmapCommitSpacing(spacing);
+		PackWriter pw = new PackWriter(pc, repo.newObjectReader());
+		try {
+			pw.preparePack(NM, want(tips), Collections.<ObjectId> emptySet());
+			String name = "pack-" + pw.computeName().name();
+			File dir = new File(odb.getDirectory(), "pack");
+
+			File pack = new File(dir, name + ".pack");
+			OutputStream out = new BufferedOutputStream(new FileOutputStream(
+					pack));
+			try {
+				pw.writePack(NM, NM, out);
+			} finally {
+				out.close();
+			}
+
+			File idx = new File(dir, name + ".idx");
+			out = new BufferedOutputStream(new FileOutputStream(idx));
+			try {
+				pw.writeIndex(out);
+			} finally {
+				out.close();
+			}
+
+			out = new BufferedOutputStream(new FileOutputStream(new File(dir,
+					name + ".bitmap")));
+			try {
+				pw.writeBitmapIndex(NM, out);
+			} finally {
+				out.close();
+			}
+
+			PackFile p = odb.openPack(pack, idx);
+			for (PackIndex.MutableEntry e : p)
+				objects.add(e.toObjectId());
+		} finally {
+			pw.release();
+		}
+	}
+
+	private void assertSameObjects(Set<ObjectId> want, Set<ObjectId> have)
+			throws Exception {
+		PackWriter walked = prepare(false, want, have);
+		PackWriter counted = prepare(true, want, have);
+		ObjectWalk ow = new ObjectWalk(repo);
+		try {
+			IntList pathHashes = new IntList();
+			List<RevObject> found = odb.getBitmapIndex().findObjectsToPack(NM,
+					ow, want, have, true, pathHashes);
+			assertEquals(walked.getObjectCount(), found.size());
+			assertEquals(found.size(), pathHashes.size());
+			Map<ObjectId, Integer> expect = walkPathHashes(want, have);
+			for (int i = 0; i < found.size(); i++) {
+				RevObject o = found.get(i);
+				assertEquals(o.name(), expect.get(o).intValue(), pathHashes
+						.get(i));
+			}
+			assertEquals(walked.getObjectCount(), counted.getObjectCount());
+			for (ObjectId id : objects)
+				assertEquals(id.name(), walked.willInclude(id), counted
+						.willInclude(id));
+		} finally {
+			ow.release();
+			walked.release();
+			counted.release();
+		}
+	}
+
+	private Map<ObjectId, Integer> walkPathHashes(Set<ObjectId> want,
+			Set<ObjectId> have) throws Exception {
+		Map<ObjectId, Integer> r = new HashMap<ObjectId, Integer>();
+		ObjectWalk ow = new ObjectWalk(repo);
+		try {
+			for (ObjectId id : want)
+				ow.markStart(ow.parseAny(id));
+			for (ObjectId id : have) {
+				try {
+					ow.markUninteresting(ow.parseAny(id));
+				} catch (MissingObjectException notFound) {
+					continue;
+				}
+			}
+			RevObject o;
+			while ((o = ow.next()) != null)
+				r.put(o.copy(), Integer.valueOf(0));
+			while ((o = ow.nextObject()) != null)
+				r.put(o.copy(), Integer.valueOf(ow.getPathHashCode()));
+		} finally {
+			ow.release();
+		}
+		return r;
+	}
+
+	private PackWriter prepare(boolean useBitmaps, Set<ObjectId> want,
+			Set<ObjectId> have) throws Exception {
+		PackConfig pc = new PackConfig(repo);
+		pc.setUseBitmaps(useBitmaps);
+		PackWriter pw = new PackWriter(pc, repo.newObjectReader());
+		pw.preparePack(NM, want, have);
+		return pw;
+	}
+
+	private static Set<ObjectId> want(ObjectId... ids) {
+		Set<ObjectId> r = new HashSet<ObjectId>();
+		for (ObjectId id : ids)
+			r.add(id.copy());
+		return r;
+	}
+}
@@ -156,6 +156,20 @@ public void testCompareEntriesOffsetsWithFindOffsets() {
 		}
 	}
 
+	/**
+	 * Compare offset from iterator entries with output of getOffset() for the
+	 * same position.
+	 */
+	@Test
+	public void testCompareEntriesOffsetsWithGetOffset() {
+		int n = 0;
+		for (MutableEntry me : smallIdx)
+			assertEquals(me.getOffset(), smallIdx.getOffset(n++));
+		n = 0;
+		for (MutableEntry me : denseIdx)
+			assertEquals(me.getOffset(), denseIdx.getOffset(n++));
+	}
+
 	/**
 	 * Test partial results of iterator comparing to content of well-known
 	 * (prepared) dense index, that may need multi-level indexing.
@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2011, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.eclipse.jgit.storage.file;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.eclipse.jgit.lib.AbbreviatedObjectId;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.storage.file.PackIndex.MutableEntry;
+import org.junit.Test;
+
+public class PackIndexV2MappedTest extends PackIndexV2Test {
+	private PackIndex heapIdx;
+
+	@Override
+	public void setUp() throws Exception {
+		super.setUp();
+		heapIdx = denseIdx;
+		smallIdx = PackIndex.open(getFileForPack34be9032(), true);
+		denseIdx = PackIndex.open(getFileForPackdf2982f28(), true);
+	}
+
+	@Test
+	public void testOpenedMapped() {
+		assertTrue(smallIdx instanceof PackIndexV2Mapped);
+		assertTrue(denseIdx instanceof PackIndexV2Mapped);
+	}
+
+	@Test
+	public void testMatchesHeapIndex() throws Exception {
+		assertEquals(heapIdx.getObjectCount(), denseIdx.getObjectCount());
+		assertEquals(heapIdx.getOffset64Count(), denseIdx.getOffset64Count());
+		assertEquals(ObjectId.fromRaw(heapIdx.packChecksum), ObjectId
+				.fromRaw(denseIdx.packChecksum));
+		for (int i = 0; i < heapIdx.getObjectCount(); i++) {
+			ObjectId id = heapIdx.getObjectId(i);
+			assertEquals(id, denseIdx.getObjectId(i));
+			assertEquals(i, denseIdx.findPosition(id));
+			assertEquals(heapIdx.findOffset(id), denseIdx.findOffset(id));
+			assertEquals(heapIdx.findCRC32(id), denseIdx.findCRC32(id));
+		}
+	}
+
+	@Test
+	public void testMissingObject() {
+		ObjectId id = ObjectId
+				.fromString("0000000000000000000000000000000000000001");
+		assertFalse(denseIdx.hasObject(id));
+		assertEquals(-1, denseIdx.findOffset(id));
+		assertEquals(-1, denseIdx.findPosition(id));
+	}
+
+	@Test
+	public void testResolve() throws Exception {
+		for (MutableEntry me : denseIdx) {
+			ObjectId id = me.toObjectId();
+			for (int len = 2; len <= 6; len++) {
+				AbbreviatedObjectId abbrev = AbbreviatedObjectId
+						.fromString(id.name().substring(0, len));
+				Set<ObjectId> expect = new HashSet<ObjectId>();
+				Set<ObjectId> actual = new HashSet<ObjectId>();
+				heapIdx.resolve(expect, abbrev, 256);
+				denseIdx.resolve(actual, abbrev, 256);
+				assertTrue(actual.contains(id));
+				assertEquals(expect, actual);
+			}
+		}
+	}
+}
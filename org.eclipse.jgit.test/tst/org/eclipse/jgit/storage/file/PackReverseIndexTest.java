@@ -49,10 +49,18 @@
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
 import org.eclipse.jgit.errors.CorruptObjectException;
 import org.eclipse.jgit.junit.JGitTestUtil;
 import org.eclipse.jgit.lib.RepositoryTestCase;
 import org.eclipse.jgit.storage.file.PackIndex.MutableEntry;
+import org.eclipse.jgit.transport.PackedObjectInfo;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -71,7 +79,7 @@ public void setUp() throws Exception {
 		// index with both small (< 2^31) and big offsets
 		idx = PackIndex.open(JGitTestUtil.getTestResourceFile(
 				"pack-huge.idx"));
-		reverseIdx = new PackReverseIndex(idx);
+		reverseIdx = PackReverseIndex.computeFromIndex(idx);
 	}
 
 	/**
@@ -125,6 +133,63 @@ public void testFindNextOffsetWrongOffset() {
 		}
 	}
 
+	/**
+	 * Test that a reverse index read from a file matches the computed one.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testReadFromFile() throws Exception {
+		PackReverseIndex fromFile = PackReverseIndex.read(
+				writeReverseIndex(idx.packChecksum), idx);
+		for (MutableEntry me : idx) {
+			long offset = me.getOffset();
+			assertEquals(me.toObjectId(), fromFile.findObject(offset));
+			assertEquals(reverseIdx.findNextOffset(offset, Long.MAX_VALUE),
+					fromFile.findNextOffset(offset, Long.MAX_VALUE));
+		}
+		assertNull(fromFile.findObject(0));
+		try {
+			fromFile.findNextOffset(0, Long.MAX_VALUE);
+			fail("findNextOffset() should throw exception");
+		} catch (CorruptObjectException x) {
+			// expected
+		}
+	}
+
+	/**
+	 * Test that a reverse index of another pack is rejected.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testReadFromFileOfOtherPack() throws Exception {
+		byte[] otherPack = new byte[idx.packChecksum.length];
+		try {
+			PackReverseIndex.read(writeReverseIndex(otherPack), idx);
+			fail("read() should throw exception");
+		} catch (IOException x) {
+			// expected
+		}
+	}
+
+	private File writeReverseIndex(byte[] packChecksum) throws IOException {
+		List<PackedObjectInfo> list = new ArrayList<PackedObjectInfo>();
+		for (MutableEntry me : idx) {
+			PackedObjectInfo oe = new PackedObjectInfo(me.toObjectId());
+			oe.setOffset(me.getOffset());
+			list.add(oe);
+		}
+		File rev = new File(trash, "pack-huge.rev");
+		OutputStream out = new FileOutputStream(rev);
+		try {
+			new PackReverseIndexWriter(out).write(list, packChecksum);
+		} finally {
+			out.close();
+		}
+		return rev;
+	}
+
 	private long findFirstOffset() {
 		long min = Long.MAX_VALUE;
 		for (MutableEntry me : idx)
@@ -53,6 +53,7 @@
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -60,19 +61,32 @@
 import java.util.Comparator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.eclipse.jgit.errors.MissingObjectException;
 import org.eclipse.jgit.junit.JGitTestUtil;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.NullProgressMonitor;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.ProgressMonitor;
 import org.eclipse.jgit.lib.SampleDataRepositoryTestCase;
+import org.eclipse.jgit.revwalk.RevBlob;
+import org.eclipse.jgit.revwalk.RevCommit;
 import org.eclipse.jgit.revwalk.RevObject;
+import org.eclipse.jgit.revwalk.RevTag;
+import org.eclipse.jgit.revwalk.RevTree;
 import org.eclipse.jgit.revwalk.RevWalk;
 import org.eclipse.jgit.storage.file.PackIndex.MutableEntry;
 import org.eclipse.jgit.storage.pack.PackConfig;
 import org.eclipse.jgit.storage.pack.PackWriter;
 import org.eclipse.jgit.transport.PackParser;
+import org.eclipse.jgit.util.IO;
+import org.eclipse.jgit.util.io.ChannelOutputStream;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -447,6 +461,360 @@ public void testWriteIndex() throws Exception {
 		}
 	}
 
+	@Test
+	public void testWritePackToChannelReusesLargeObject() throws Exception {
+		FileRepository repo = createBareRepository();
+		TestRepository<FileRepository> tr = new TestRepository<FileRepository>(
+				repo);
+		byte[] data = new byte[64 * 1024];
+		new Random(1).nextBytes(data);
+		RevBlob big = tr.blob(data);
+		RevCommit c = tr.commit().add("big", big).create();
+		tr.update("refs/heads/master", c);
+		new GC(repo).gc();
+
+		writePack(repo, c, os);
+		byte[] expect = os.toByteArray();
+		assertTrue(expect.length > data.length);
+		assertTrue(Arrays.equals(expect, writePackToChannel(repo, c)));
+		assertEquals(1, writer.getStatistics().byObjectType(
+				Constants.OBJ_BLOB).getReusedObjects());
+	}
+
+	@Test
+	public void testWriteCachedPackToChannel() throws Exception {
+		FileRepository repo = createBareRepository();
+		TestRepository<FileRepository> tr = new TestRepository<FileRepository>(
+				repo);
+		RevCommit c = tr.commit().add("a", "a").add("b", "b").create();
+		tr.update("refs/heads/master", c);
+		new GC(repo).setCachePack(true).gc();
+
+		writePack(repo, c, os);
+		byte[] expect = os.toByteArray();
+		assertTrue(Arrays.equals(expect, writePackToChannel(repo, c)));
+		assertEquals(1, writer.getStatistics().getReusedPacks().size());
+	}
+
+	@Test
+	public void testParallelCountingMatchesSerialOrder() throws Exception {
+		FileRepository repo = createBareRepository();
+		TestRepository<FileRepository> tr = new TestRepository<FileRepository>(
+				repo);
+		RevBlob shared = tr.blob("shared");
+		RevCommit a = tr.commit().add("a/x", shared).add("a/b/y", "y")
+				.add("c/z", "z").create();
+		RevCommit b = tr.commit().parent(a).add("a/x", shared)
+				.add("a/b/y", "y2").add("d/x", shared).add("d/b/y", "y")
+				.create();
+		RevCommit c = tr.commit().parent(b).add("e", shared)
+				.add("f/g/h/i", "i").add("c/z", "z").create();
+		RevTag t = tr.tag("v1", tr.tree(tr.file("t", tr.blob("t"))));
+
+		List<ObjectId> want = new ArrayList<ObjectId>();
+		want.add(c);
+		want.add(t);
+		config.setThreads(4);
+		writePack(repo, want, os);
+		byte[] expect = os.toByteArray();
+
+		config.setParallelCounting(true);
+		os = new ByteArrayOutputStream();
+		writePack(repo, want, os);
+		assertTrue(Arrays.equals(expect, os.toByteArray()));
+		assertEquals(22, writer.getObjectCount());
+	}
+
+	@Test
+	public void testObjectListMemoryLimit() throws Exception {
+		checkObjectListMemoryLimit(false);
+	}
+
+	@Test
+	public void testObjectListMemoryLimitWithBitmaps() throws Exception {
+		checkObjectListMemoryLimit(true);
+	}
+
+	private void checkObjectListMemoryLimit(boolean useBitmaps)
+			throws Exception {
+		FileRepository repo = createBareRepository();
+		TestRepository<FileRepository> tr = new TestRepository<FileRepository>(
+				repo);
+		StringBuilder content = new StringBuilder();
+		RevCommit c = tr.commit().add("a/f", "").create();
+		for (int i = 0; i < 20; i++) {
+			for (int j = 0; j < 40; j++)
+				content.append("line ").append(i).append(' ').append(j)
+						.append('\n');
+			c = tr.commit().parent(c).add("a/f", content.toString())
+					.add("b/" + i, "file " + i).create();
+		}
+		tr.update("refs/heads/master", c);
+		new GC(repo).gc();
+
+		config.setUseBitmaps(useBitmaps);
+		writePack(repo, c, os);
+		long objectCount = writer.getObjectCount();
+		long deltaCount = writer.getStatistics().getTotalDeltas();
+		assertTrue(0 < deltaCount);
+
+		// A compacted list is searched one slice at a time, none of the
+		// searches over the whole list report their progress.
+		final List<String> tasks = new ArrayList<String>();
+		ProgressMonitor compress = new ProgressMonitor() {
+			public void start(int totalTasks) {
+				// Nothing to report.
+			}
+
+			public void beginTask(String title, int totalWork) {
+				tasks.add(title);
+			}
+
+			public void update(int completed) {
+				// Nothing to report.
+			}
+
+			public void endTask() {
+				// Nothing to report.
+			}
+
+			public boolean isCancelled() {
+				return false;
+			}
+		};
+		config.setObjectListMemoryLimit(1);
+		os = new ByteArrayOutputStream();
+		NullProgressMonitor m = NullProgressMonitor.INSTANCE;
+		writer = new PackWriter(config, repo.newObjectReader());
+		writer.preparePack(m, Collections.singleton(c), EMPTY_LIST_OBJECT);
+		writer.writePack(compress, m, os);
+		writer.release();
+		assertEquals(Collections.<String> emptyList(), tasks);
+		assertEquals(objectCount, writer.getObjectCount());
+		assertEquals(deltaCount, writer.getStatistics().getTotalDeltas());
+
+		File idxFile = new File(trash, "compact.idx");
+		FileOutputStream idxOut = new FileOutputStream(idxFile);
+		try {
+			writer.writeIndex(idxOut);
+		} finally {
+			idxOut.close();
+		}
+		File revFile = new File(trash, "compact.rev");
+		FileOutputStream revOut = new FileOutputStream(revFile);
+		try {
+			writer.writeReverseIndex(revOut);
+		} finally {
+			revOut.close();
+		}
+
+		verifyOpenPack(false);
+		PackIndex written = PackIndex.open(idxFile);
+		PackReverseIndex writtenRev = PackReverseIndex.read(revFile, written);
+		String packName = pack.getPackFile().getPath();
+		PackIndex parsed = PackIndex.open(new File(packName.substring(0,
+				packName.length() - ".pack".length()) + ".idx"));
+		assertEquals(objectCount, written.getObjectCount());
+		assertEquals(objectCount, parsed.getObjectCount());
+		for (MutableEntry e : parsed) {
+			assertEquals(e.getOffset(), written.findOffset(e.toObjectId()));
+			assertEquals(parsed.findCRC32(e.toObjectId()), written
+					.findCRC32(e.toObjectId()));
+			assertEquals(e.toObjectId(), writtenRev.findObject(e.getOffset()));
+		}
+	}
+
+	@Test
+	public void testDeltaCacheOffHeap() throws Exception {
+		FileRepository repo = createBareRepository();
+		TestRepository<FileRepository> tr = new TestRepository<FileRepository>(
+				repo);
+		StringBuilder content = new StringBuilder();
+		RevCommit c = tr.commit().add("f", "").create();
+		for (int i = 0; i < 10; i++) {
+			for (int j = 0; j < 40; j++)
+				content.append("line ").append(i).append(' ').append(j)
+						.append('\n');
+			c = tr.commit().parent(c).add("f", content.toString()).create();
+		}
+
+		config.setReuseDeltas(false);
+		config.setReuseObjects(false);
+		config.setDeltaCacheLimit(4096);
+		config.setDeltaSearchWindowSize(4);
+		writePack(repo, c, os);
+		byte[] expect = os.toByteArray();
+		assertTrue(0 < writer.getStatistics().getDeltasFound());
+
+		config.setDeltaCacheOffHeap(true);
+		os = new ByteArrayOutputStream();
+		writePack(repo, c, os);
+		assertTrue(Arrays.equals(expect, os.toByteArray()));
+	}
+
+	@Test
+	public void testPipelinedWriting() throws Exception {
+		FileRepository repo = createBareRepository();
+		TestRepository<FileRepository> tr = new TestRepository<FileRepository>(
+				repo);
+		StringBuilder content = new StringBuilder();
+		RevCommit c = tr.commit().add("a/f", "").create();
+		RevBlob oldBlob = null;
+		for (int i = 0; i < 20; i++) {
+			if (i == 10) {
+				tr.update("refs/heads/master", c);
+				new GC(repo).gc();
+			}
+			for (int j = 0; j < 40; j++)
+				content.append("line ").append(i).append(' ').append(j)
+						.append('\n');
+			RevBlob b = tr.blob("file " + i);
+			if (oldBlob == null)
+				oldBlob = b;
+			c = tr.commit().parent(c).add("a/f", content.toString())
+					.add("b/" + i, b).create();
+		}
+		RevTree newTree = tr.getRevWalk().parseCommit(c).getTree();
+
+		config.setUseBitmaps(false);
+		config.setDeltaSearchWindowSize(4);
+		writePack(repo, c, os);
+		long objectCount = writer.getObjectCount();
+		int deltasFound = writer.getStatistics().getDeltasFound();
+		assertTrue(0 < deltasFound);
+
+		config.setPipelinedWriting(true);
+		os = new ByteArrayOutputStream();
+		writePack(repo, c, os);
+		assertEquals(objectCount, writer.getObjectCount());
+		assertEquals(deltasFound, writer.getStatistics().getDeltasFound());
+
+		// The reused blob did not wait for the search over the new trees.
+		verifyOpenPack(false);
+		String packName = pack.getPackFile().getPath();
+		PackIndex parsed = PackIndex.open(new File(packName.substring(0,
+				packName.length() - ".pack".length()) + ".idx"));
+		assertEquals(objectCount, parsed.getObjectCount());
+		assertTrue(parsed.findOffset(oldBlob) < parsed.findOffset(newTree));
+	}
+
+	@Test
+	public void testPipelinedWritingFailureStopsSearch() throws Exception {
+		FileRepository repo = createBareRepository();
+		TestRepository<FileRepository> tr = new TestRepository<FileRepository>(
+				repo);
+		StringBuilder content = new StringBuilder();
+		RevCommit c = tr.commit().add("f", "").create();
+		for (int i = 0; i < 40; i++) {
+			for (int j = 0; j < 40; j++)
+				content.append("line ").append(i).append(' ').append(j)
+						.append('\n');
+			c = tr.commit().parent(c).add("f", content.toString()).create();
+		}
+
+		final AtomicInteger checks = new AtomicInteger();
+		final CountDownLatch searching = new CountDownLatch(1);
+		ProgressMonitor compress = new ProgressMonitor() {
+			public void start(int totalTasks) {
+				// Nothing to report.
+			}
+
+			public void beginTask(String title, int totalWork) {
+				// Nothing to report.
+			}
+
+			public void update(int completed) {
+				// Nothing to report.
+			}
+
+			public void endTask() {
+				// Nothing to report.
+			}
+
+			public boolean isCancelled() {
+				// Slow down the search, so it is still running when the
+				// output fails.
+				checks.incrementAndGet();
+				searching.countDown();
+				try {
+					Thread.sleep(10);
+				} catch (InterruptedException e) {
+					// Keep searching.
+				}
+				return false;
+			}
+		};
+		OutputStream broken = new OutputStream() {
+			private int size;
+
+			@Override
+			public void write(int b) throws IOException {
+				write(new byte[] { (byte) b }, 0, 1);
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				// Fail after the header, once the search is running.
+				size += len;
+				if (12 < size) {
+					try {
+						searching.await(10, TimeUnit.SECONDS);
+					} catch (InterruptedException e) {
+						// Fail anyway.
+					}
+					throw new IOException("broken pipe");
+				}
+			}
+		};
+
+		NullProgressMonitor m = NullProgressMonitor.INSTANCE;
+		config.setUseBitmaps(false);
+		config.setPipelinedWriting(true);
+		writer = new PackWriter(config, repo.newObjectReader());
+		writer.preparePack(m, Collections.singleton(c), EMPTY_LIST_OBJECT);
+		try {
+			writer.writePack(compress, m, broken);
+			fail("writePack() should throw exception");
+		} catch (IOException x) {
+			// expected
+		}
+
+		// The search was stopped before writePack returned.
+		int n = checks.get();
+		assertTrue(0 < n && n < 40);
+		Thread.sleep(100);
+		assertEquals(n, checks.get());
+	}
+
+	private byte[] writePackToChannel(FileRepository repo, ObjectId want)
+			throws IOException {
+		File tmp = File.createTempFile("pack", ".pack", trash);
+		FileOutputStream fos = new FileOutputStream(tmp);
+		try {
+			writePack(repo, want, new ChannelOutputStream(fos));
+		} finally {
+			fos.close();
+		}
+		return IO.readFully(tmp);
+	}
+
+	private void writePack(FileRepository repo, ObjectId want,
+			OutputStream out) throws IOException {
+		writePack(repo, Collections.singleton(want), out);
+	}
+
+	private void writePack(FileRepository repo,
+			Collection<? extends ObjectId> want, OutputStream out)
+			throws IOException {
+		NullProgressMonitor m = NullProgressMonitor.INSTANCE;
+		writer = new PackWriter(config, repo.newObjectReader());
+		writer.setUseCachedPacks(true);
+		writer.preparePack(m, want, EMPTY_LIST_OBJECT);
+		writer.writePack(m, m, out);
+		out.flush();
+		writer.release();
+	}
+
 	// TODO: testWritePackDeltasCycle()
 	// TODO: testWritePackDeltasDepth()
 
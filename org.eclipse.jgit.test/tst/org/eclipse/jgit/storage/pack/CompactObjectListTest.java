@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2011, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.eclipse.jgit.storage.pack;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.util.NB;
+import org.junit.Test;
+
+public class CompactObjectListTest {
+	@Test
+	public void testAddAndFind() {
+		CompactObjectList list = new CompactObjectList(Constants.OBJ_BLOB);
+		int n = 5000;
+		for (int i = 0; i < n; i++)
+			assertEquals(i, list.add(id(i), i * 31));
+		assertEquals(n, list.size());
+		assertEquals(Constants.OBJ_BLOB, list.getType());
+
+		for (int i = 0; i < n; i++) {
+			assertEquals(i, list.find(id(i)));
+			assertEquals(id(i), list.getObjectId(i));
+			assertEquals(i * 31, list.getPathHash(i));
+			assertFalse(list.isWritten(i));
+		}
+		assertEquals(-1, list.find(id(n)));
+		assertEquals(-1, list.find(ObjectId.zeroId()));
+	}
+
+	@Test
+	public void testSetWritten() {
+		CompactObjectList list = new CompactObjectList(Constants.OBJ_TREE);
+		list.add(id(1), 7);
+		list.add(id(2), 8);
+
+		ObjectToPack otp = new ObjectToPack(id(2), Constants.OBJ_TREE);
+		otp.setOffset(12);
+		otp.setCRC(0xcafe);
+		list.setWritten(1, otp);
+
+		assertFalse(list.isWritten(0));
+		assertTrue(list.isWritten(1));
+		assertEquals(12, list.getOffset(1));
+
+		ObjectToPack copy = list.get(1);
+		assertEquals(id(2), copy);
+		assertEquals(Constants.OBJ_TREE, copy.getType());
+		assertEquals(8, copy.getPathHash());
+		assertEquals(12, copy.getOffset());
+		assertEquals(0xcafe, copy.getCRC());
+	}
+
+	@Test
+	public void testSortByName() {
+		CompactObjectList[] lists = new CompactObjectList[5];
+		lists[Constants.OBJ_COMMIT] = new CompactObjectList(
+				Constants.OBJ_COMMIT);
+		lists[Constants.OBJ_BLOB] = new CompactObjectList(Constants.OBJ_BLOB);
+		List<ObjectId> expect = new ArrayList<ObjectId>();
+		Random rng = new Random(42);
+		byte[] raw = new byte[Constants.OBJECT_ID_LENGTH];
+		for (int i = 0; i < 3000; i++) {
+			rng.nextBytes(raw);
+			ObjectId id = ObjectId.fromRaw(raw);
+			expect.add(id);
+			lists[i % 3 == 0 ? Constants.OBJ_COMMIT : Constants.OBJ_BLOB]
+					.add(id, i);
+		}
+		Collections.sort(expect);
+
+		List<ObjectToPack> sorted = CompactObjectList.sortByName(lists);
+		assertEquals(expect.size(), sorted.size());
+		for (int i = 0; i < expect.size(); i++) {
+			ObjectToPack otp = sorted.get(i);
+			assertEquals(expect.get(i), otp);
+			if (lists[Constants.OBJ_COMMIT].find(otp) < 0)
+				assertEquals(Constants.OBJ_BLOB, otp.getType());
+			else
+				assertEquals(Constants.OBJ_COMMIT, otp.getType());
+		}
+	}
+
+	private static ObjectId id(int i) {
+		byte[] raw = new byte[Constants.OBJECT_ID_LENGTH];
+		NB.encodeInt32(raw, 0, i * 7919);
+		// Give many names the same hashCode() to exercise probing.
+		NB.encodeInt32(raw, 4, i % 13);
+		NB.encodeInt32(raw, 16, i + 1);
+		return ObjectId.fromRaw(raw);
+	}
+}
@@ -217,6 +217,39 @@ public void testLimitObjectSize_InsertFrontFails() throws IOException {
 		assertEquals(4, actDeltaBuf.size());
 	}
 
+	@Test
+	public void testResetReusesStorage() throws IOException {
+		DeltaIndex di = new DeltaIndex();
+		DeltaIndexScanner scan = new DeltaIndexScanner();
+		DeltaEncoder enc = new DeltaEncoder();
+		di.reset(getRng().nextBytes(4096), scan);
+		long tables = di.getIndexSize() - di.getSourceSize();
+
+		src = getRng().nextBytes(1024);
+		dstBuf.write(Constants.encode("foo"));
+		dstBuf.write(src, 0, 512);
+		dstBuf.write(Constants.encode("yet more fooery"));
+		dstBuf.write(src, 0, 512);
+		dst = dstBuf.toByteArray();
+		expDeltaBuf.reset();
+
+		// The smaller source fits into the arrays of the larger one.
+		di.reset(src, scan);
+		assertEquals(tables, di.getIndexSize() - di.getSourceSize());
+		assertTrue(di.encode(enc, actDeltaBuf, dst, 0));
+		new DeltaIndex(src).encode(expDeltaBuf, dst);
+		assertTrue(Arrays.equals(expDeltaBuf.toByteArray(),
+				actDeltaBuf.toByteArray()));
+
+		// A source shorter than a block has nothing to copy from.
+		byte[] tiny = getRng().nextBytes(12);
+		actDeltaBuf.reset();
+		di.reset(tiny, scan);
+		assertTrue(di.encode(enc, actDeltaBuf, dst, 0));
+		assertTrue(Arrays.equals(dst,
+				BinaryDelta.apply(tiny, actDeltaBuf.toByteArray())));
+	}
+
 	private void copy(int offset, int len) throws IOException {
 		dstBuf.write(src, offset, len);
 		expDeltaEnc.copy(offset, len);
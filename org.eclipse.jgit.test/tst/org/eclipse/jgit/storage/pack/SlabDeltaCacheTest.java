@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2011, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.eclipse.jgit.storage.pack;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.junit.Test;
+
+public class SlabDeltaCacheTest {
+	private final ObjectToPack src = new ObjectToPack(ObjectId.zeroId(),
+			Constants.OBJ_BLOB);
+
+	@Test
+	public void testCacheAndRelease() {
+		PackConfig pc = new PackConfig();
+		pc.setDeltaCacheSize(64);
+		SlabDeltaCache cache = new SlabDeltaCache(pc);
+
+		DeltaCache.Ref a = put(cache, data(10, 1));
+		assertNotNull(a);
+		assertEquals(64, cache.getAllocatedBytes());
+		assertEquals(16, cache.getUsedBytes());
+		assertTrue(Arrays.equals(data(10, 1), a.get()));
+
+		DeltaCache.Ref b = put(cache, data(20, 2));
+		DeltaCache.Ref c = put(cache, data(16, 3));
+		assertEquals(64, cache.getUsedBytes());
+		assertFalse(cache.canCache(1, src, src));
+
+		a.release();
+		assertNull(a.get());
+		assertEquals(48, cache.getUsedBytes());
+
+		DeltaCache.Ref d = put(cache, data(12, 4));
+		assertNotNull(d);
+		assertEquals(64, cache.getAllocatedBytes());
+		assertTrue(Arrays.equals(data(20, 2), b.get()));
+		assertTrue(Arrays.equals(data(16, 3), c.get()));
+		assertTrue(Arrays.equals(data(12, 4), d.get()));
+
+		cache.close();
+		assertEquals(0, cache.getAllocatedBytes());
+		assertNull(b.get());
+	}
+
+	@Test
+	public void testTooLargeForSlab() {
+		PackConfig pc = new PackConfig();
+		pc.setDeltaCacheSize(64);
+		pc.setDeltaCacheLimit(1024);
+		SlabDeltaCache cache = new SlabDeltaCache(pc);
+
+		assertTrue(cache.canCache(40, src, src));
+		assertNull(cache.cache(data(100, 5), 100, 40));
+		assertEquals(0, cache.getAllocatedBytes());
+		assertTrue(cache.canCache(64, src, src));
+		cache.close();
+	}
+
+	private DeltaCache.Ref put(SlabDeltaCache cache, byte[] buf) {
+		assertTrue(cache.canCache(buf.length, src, src));
+		return cache.cache(buf, buf.length, buf.length);
+	}
+
+	private static byte[] data(int len, int seed) {
+		byte[] buf = new byte[len];
+		for (int i = 0; i < len; i++)
+			buf[i] = (byte) (seed * 31 + i);
+		return buf;
+	}
+}
@@ -0,0 +1,310 @@
+/*
+ * Copyright (C) 2011, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.eclipse.jgit.transport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jgit.junit.LocalDiskRepositoryTestCase;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.storage.file.FileRepository;
+import org.eclipse.jgit.storage.file.GC;
+import org.eclipse.jgit.storage.pack.PackWriter;
+import org.eclipse.jgit.transport.resolver.RepositoryResolver;
+import org.eclipse.jgit.transport.resolver.UploadPackFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DaemonTest extends LocalDiskRepositoryTestCase {
+	private FileRepository server;
+
+	private RevCommit a;
+
+	private ExecutorService executor;
+
+	private Daemon daemon;
+
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+		server = createBareRepository();
+		TestRepository<FileRepository> remote = new TestRepository<FileRepository>(
+				server);
+		a = remote.commit().add("a", "a").create();
+		remote.update("master", a);
+
+		executor = Executors.newFixedThreadPool(1);
+		daemon = new Daemon(new InetSocketAddress(InetAddress
+				.getByName("127.0.0.1"), 0));
+		daemon.setRepositoryResolver(new RepositoryResolver<DaemonClient>() {
+			public Repository open(DaemonClient req, String name) {
+				server.incrementOpen();
+				return server;
+			}
+		});
+		daemon.setExecutor(executor);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		daemon.stop();
+		executor.shutdown();
+		if (server != null)
+			server.close();
+		super.tearDown();
+	}
+
+	@Test
+	public void testFetchWithExecutor() throws Exception {
+		daemon.start();
+		for (int i = 0; i < 3; i++) {
+			FileRepository client = createBareRepository();
+			Transport tn = Transport.open(client, uri());
+			try {
+				tn.fetch(NullProgressMonitor.INSTANCE, Collections
+						.singleton(new RefSpec(
+								"refs/heads/master:refs/heads/master")));
+			} finally {
+				tn.close();
+			}
+			assertEquals(a, client.resolve("refs/heads/master"));
+			client.close();
+		}
+	}
+
+	@Test
+	public void testExcessConnectionsQueued() throws Exception {
+		daemon.start();
+		Socket first = connect();
+		try {
+			sendRequest(first, request());
+			assertTrue(readAdvertisement(first).contains(a.name()));
+
+			Socket second = connect();
+			try {
+				sendRequest(second, request());
+				second.setSoTimeout(500);
+				try {
+					second.getInputStream().read();
+					fail("second connection served while worker is busy");
+				} catch (SocketTimeoutException expected) {
+					// The only worker still serves the first client.
+				}
+				second.setSoTimeout(0);
+
+				first.close();
+				assertTrue(readAdvertisement(second).contains(a.name()));
+			} finally {
+				second.close();
+			}
+		} finally {
+			first.close();
+		}
+	}
+
+	@Test
+	public void testRequestLineReadInPieces() throws Exception {
+		daemon.start();
+		Socket s = connect();
+		try {
+			byte[] req = request();
+			OutputStream out = s.getOutputStream();
+			out.write(req, 0, 2);
+			out.flush();
+			Thread.sleep(100);
+			out.write(req, 2, 10);
+			out.flush();
+			Thread.sleep(100);
+			out.write(req, 12, req.length - 12);
+			out.flush();
+			assertTrue(readAdvertisement(s).contains(a.name()));
+		} finally {
+			s.close();
+		}
+	}
+
+	@Test
+	public void testIncompleteRequestTimesOut() throws Exception {
+		daemon.setTimeout(1);
+		daemon.start();
+		Socket s = connect();
+		try {
+			s.getOutputStream().write(request(), 0, 6);
+			s.getOutputStream().flush();
+			s.setSoTimeout(10000);
+			assertEquals(-1, s.getInputStream().read());
+		} finally {
+			s.close();
+		}
+	}
+
+	@Test
+	public void testTimeoutsShareOneThread() throws Exception {
+		final int clients = 8;
+		ExecutorService pool = Executors.newFixedThreadPool(clients);
+		daemon.setExecutor(pool);
+		daemon.setTimeout(30);
+		daemon.start();
+		int before = Thread.activeCount();
+
+		List<Socket> sockets = new ArrayList<Socket>();
+		try {
+			for (int i = 0; i < clients; i++) {
+				Socket s = connect();
+				sockets.add(s);
+				sendRequest(s, request());
+				assertTrue(readAdvertisement(s).contains(a.name()));
+			}
+
+			// Every client is served and waits for its wants under a
+			// timeout, yet only the pool and the daemon's timer run.
+			assertTrue(Thread.activeCount() - before <= clients + 1);
+		} finally {
+			for (Socket s : sockets)
+				s.close();
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void testSideBandFetchReusesLargeBlob() throws Exception {
+		TestRepository<FileRepository> remote = new TestRepository<FileRepository>(
+				server);
+		byte[] data = new byte[256 * 1024];
+		new Random(42).nextBytes(data);
+		RevCommit b = remote.commit().parent(a).add("large",
+				remote.blob(data)).create();
+		remote.update("master", b);
+		new GC(server).setPackExpireAgeMillis(0).gc();
+
+		final BlockingQueue<PackWriter.Statistics> stats = new LinkedBlockingQueue<PackWriter.Statistics>();
+		daemon.setUploadPackFactory(new UploadPackFactory<DaemonClient>() {
+			public UploadPack create(DaemonClient req, Repository db) {
+				UploadPack up = new UploadPack(db);
+				up.setLogger(new UploadPackLogger() {
+					public void onPackStatistics(PackWriter.Statistics s) {
+						stats.add(s);
+					}
+				});
+				return up;
+			}
+		});
+		daemon.start();
+
+		FileRepository client = createBareRepository();
+		Transport tn = Transport.open(client, uri());
+		try {
+			tn.fetch(NullProgressMonitor.INSTANCE, Collections
+					.singleton(new RefSpec(
+							"refs/heads/master:refs/heads/master")));
+		} finally {
+			tn.close();
+		}
+		assertEquals(b, client.resolve("refs/heads/master"));
+		client.close();
+
+		// The client asked for side-band-64k, the blobs were still copied
+		// as-is from the server's pack.
+		PackWriter.Statistics.ObjectType blobs = stats.poll(10,
+				TimeUnit.SECONDS).byObjectType(Constants.OBJ_BLOB);
+		assertTrue(blobs.getObjects() > 0);
+		assertEquals(blobs.getObjects(), blobs.getReusedObjects());
+	}
+
+	private URIish uri() throws Exception {
+		return new URIish("git://127.0.0.1:" + daemon.getAddress().getPort()
+				+ "/server.git");
+	}
+
+	private Socket connect() throws Exception {
+		return new Socket(daemon.getAddress().getAddress(), daemon
+				.getAddress().getPort());
+	}
+
+	private static byte[] request() throws Exception {
+		ByteArrayOutputStream buf = new ByteArrayOutputStream();
+		new PacketLineOut(buf).writeString("git-upload-pack /server.git\0"
+				+ "host=127.0.0.1\0");
+		return buf.toByteArray();
+	}
+
+	private static void sendRequest(Socket s, byte[] req) throws Exception {
+		s.getOutputStream().write(req);
+		s.getOutputStream().flush();
+	}
+
+	private static String readAdvertisement(Socket s) throws Exception {
+		InputStream in = s.getInputStream();
+		PacketLineIn pckIn = new PacketLineIn(in);
+		StringBuilder r = new StringBuilder();
+		String line;
+		while ((line = pckIn.readString()) != PacketLineIn.END)
+			r.append(line).append('\n');
+		return r.toString();
+	}
+}
@@ -0,0 +1,254 @@
+/*
+ * Copyright (C) 2011, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.eclipse.jgit.transport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.eclipse.jgit.junit.LocalDiskRepositoryTestCase;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevSort;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.storage.file.FileBasedConfig;
+import org.eclipse.jgit.storage.file.FileRepository;
+import org.eclipse.jgit.transport.TransferConfig.NegotiationAlgorithm;
+import org.eclipse.jgit.transport.resolver.RepositoryResolver;
+import org.eclipse.jgit.transport.resolver.ServiceNotAuthorizedException;
+import org.eclipse.jgit.transport.resolver.ServiceNotEnabledException;
+import org.eclipse.jgit.transport.resolver.UploadPackFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FetchNegotiatorTest extends LocalDiskRepositoryTestCase {
+	private FileRepository server;
+
+	private TestRepository<FileRepository> remote;
+
+	private FileRepository client;
+
+	private TestRepository<FileRepository> local;
+
+	private RevCommit base;
+
+	private RevCommit localTip;
+
+	private int offered;
+
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+		server = createBareRepository();
+		remote = new TestRepository<FileRepository>(server);
+		client = createBareRepository();
+		local = new TestRepository<FileRepository>(client);
+
+		base = remote.commit().add("a", "a").create();
+		remote.update("master", base);
+
+		Transport tn = Transport.open(client, server.getDirectory().getPath());
+		try {
+			tn.fetch(NullProgressMonitor.INSTANCE, Collections
+					.singleton(new RefSpec("refs/heads/master:refs/heads/base")));
+		} finally {
+			tn.close();
+		}
+
+		// Diverge far from the remote, none of these commits are known there.
+		localTip = local.getRevWalk().parseCommit(base);
+		for (int i = 0; i < 300; i++)
+			localTip = local.commit().parent(localTip).create();
+		local.update("refs/heads/work", localTip);
+
+		remote.update("master", remote.commit().parent(base).create());
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		if (server != null)
+			server.close();
+		if (client != null)
+			client.close();
+		super.tearDown();
+	}
+
+	@Test
+	public void testConsecutiveOffersEveryCommit() throws Exception {
+		List<RevCommit> offer = offer(new ConsecutiveNegotiator());
+		assertEquals(301, offer.size());
+		assertEquals(localTip, offer.get(0));
+	}
+
+	@Test
+	public void testSkippingOffersThinningSample() throws Exception {
+		List<RevCommit> offer = offer(new SkippingNegotiator());
+		assertEquals(localTip, offer.get(0));
+
+		// Offered depths 0, 2, 5, 10, 19, 36, 69, 134, 263: the distance
+		// between two offered commits doubles each time.
+		RevWalk rw = new RevWalk(client);
+		List<RevCommit> all = new ArrayList<RevCommit>();
+		rw.markStart(rw.parseCommit(localTip));
+		for (RevCommit c; (c = rw.next()) != null;)
+			all.add(c);
+		int[] depths = { 0, 2, 5, 10, 19, 36, 69, 134, 263 };
+		assertEquals(depths.length, offer.size());
+		for (int i = 0; i < depths.length; i++)
+			assertEquals(all.get(depths[i]), offer.get(i));
+	}
+
+	@Test
+	public void testConsecutiveFetch() throws Exception {
+		assertTrue(fetch(NegotiationAlgorithm.CONSECUTIVE) > 250);
+	}
+
+	@Test
+	public void testSkippingFetch() throws Exception {
+		assertTrue(fetch(NegotiationAlgorithm.SKIPPING) < 32);
+	}
+
+	@Test
+	public void testNegotiationAlgorithmFromConfig() throws Exception {
+		FileBasedConfig cfg = client.getConfig();
+		cfg.setString("fetch", null, "negotiationAlgorithm", "skipping");
+		cfg.save();
+
+		Transport tn = Transport.open(client, server.getDirectory().getPath());
+		try {
+			assertSame(NegotiationAlgorithm.SKIPPING, tn
+					.getNegotiationAlgorithm());
+		} finally {
+			tn.close();
+		}
+		assertTrue(fetch(null) < 32);
+	}
+
+	private List<RevCommit> offer(FetchNegotiator negotiator)
+			throws Exception {
+		RevWalk rw = new RevWalk(client);
+		rw.sort(RevSort.COMMIT_TIME_DESC);
+		rw.markStart(rw.parseCommit(localTip));
+		negotiator.init(rw);
+		List<RevCommit> r = new ArrayList<RevCommit>();
+		for (RevCommit c; (c = negotiator.next()) != null;)
+			r.add(c);
+		return r;
+	}
+
+	private int fetch(NegotiationAlgorithm algorithm) throws Exception {
+		offered = 0;
+		Daemon d = new Daemon(new InetSocketAddress(InetAddress
+				.getByName("127.0.0.1"), 0));
+		d.setRepositoryResolver(new RepositoryResolver<DaemonClient>() {
+			public Repository open(DaemonClient req, String name) {
+				server.incrementOpen();
+				return server;
+			}
+		});
+		d.setUploadPackFactory(new UploadPackFactory<DaemonClient>() {
+			public UploadPack create(DaemonClient req, Repository db)
+					throws ServiceNotEnabledException,
+					ServiceNotAuthorizedException {
+				UploadPack up = new UploadPack(db);
+				up.setPreUploadHook(new CountingHook());
+				return up;
+			}
+		});
+		d.start();
+		try {
+			URIish uri = new URIish("git://127.0.0.1:"
+					+ d.getAddress().getPort() + "/server.git");
+			Transport tn = Transport.open(client, uri);
+			try {
+				if (algorithm != null)
+					tn.setNegotiationAlgorithm(algorithm);
+				tn.fetch(NullProgressMonitor.INSTANCE, Collections
+						.singleton(new RefSpec(
+								"refs/heads/master:refs/heads/master")));
+			} finally {
+				tn.close();
+			}
+		} finally {
+			d.stop();
+		}
+		assertEquals(server.resolve("master"), client.resolve("master"));
+		return offered;
+	}
+
+	private class CountingHook implements PreUploadHook {
+		public void onPreAdvertiseRefs(UploadPack up) {
+			// Nothing to count.
+		}
+
+		public void onBeginNegotiateRound(UploadPack up,
+				Collection<? extends ObjectId> wants, int cntOffered) {
+			offered += cntOffered;
+		}
+
+		public void onEndNegotiateRound(UploadPack up,
+				Collection<? extends ObjectId> wants, int cntCommon,
+				int cntNotFound, boolean ready) {
+			// Nothing to count.
+		}
+
+		public void onSendPack(UploadPack up,
+				Collection<? extends ObjectId> wants,
+				Collection<? extends ObjectId> haves) {
+			// Nothing to count.
+		}
+	}
+}
@@ -57,6 +57,8 @@
 import java.io.InputStream;
 import java.security.MessageDigest;
 import java.text.MessageFormat;
+import java.util.List;
+import java.util.concurrent.Executor;
 import java.util.zip.Deflater;
 
 import org.eclipse.jgit.JGitText;
@@ -71,6 +73,7 @@
 import org.eclipse.jgit.revwalk.RevBlob;
 import org.eclipse.jgit.storage.file.ObjectDirectoryPackParser;
 import org.eclipse.jgit.storage.file.PackFile;
+import org.eclipse.jgit.storage.file.FileRepository;
 import org.eclipse.jgit.util.NB;
 import org.eclipse.jgit.util.TemporaryBuffer;
 import org.eclipse.jgit.util.io.UnionInputStream;
@@ -97,6 +100,9 @@ public void test1() throws  IOException {
 			ObjectDirectoryPackParser p = (ObjectDirectoryPackParser) index(is);
 			p.parse(NullProgressMonitor.INSTANCE);
 			PackFile file = p.getPackFile();
+			String name = file.getPackFile().getPath();
+			name = name.substring(0, name.length() - ".pack".length());
+			assertTrue(new File(name + ".rev").exists());
 
 			assertTrue(file.hasObject(ObjectId.fromString("4b825dc642cb6eb9a060e54bf8d69288fbee4904")));
 			assertTrue(file.hasObject(ObjectId.fromString("540a36d136cf413e4b064c2b0e0a4db60f77feab")));
@@ -144,6 +150,32 @@ public void test2() throws  IOException {
 		}
 	}
 
+	@Test
+	public void testParallelDeltaResolution() throws IOException {
+		File packFile = JGitTestUtil.getTestResourceFile("pack-df2982f284bbabb6bdb59ee3fcc6eb0983e20371.pack");
+		List<PackedObjectInfo> serial = parse(db, packFile, 1, null);
+		FileRepository other = createBareRepository();
+		List<PackedObjectInfo> parallel = parse(other, packFile, 4, null);
+		assertSameObjects(serial, parallel);
+	}
+
+	@Test
+	public void testParallelDeltaResolutionWithExecutor() throws IOException {
+		File packFile = JGitTestUtil.getTestResourceFile("pack-34be9032ac282b11fa9babdc2b2a93ca996c9c2f.pack");
+		List<PackedObjectInfo> serial = parse(db, packFile, 1, null);
+		FileRepository other = createBareRepository();
+		final int[] tasks = new int[1];
+		List<PackedObjectInfo> parallel = parse(other, packFile, 2,
+				new Executor() {
+					public void execute(Runnable command) {
+						tasks[0]++;
+						command.run();
+					}
+				});
+		assertEquals(2, tasks[0]);
+		assertSameObjects(serial, parallel);
+	}
+
 	@Test
 	public void testTinyThinPack() throws Exception {
 		TestRepository d = new TestRepository(db);
@@ -209,6 +241,34 @@ public void testPackWithTrailingGarbage() throws Exception {
 		}
 	}
 
+	private static List<PackedObjectInfo> parse(Repository repo,
+			File packFile, int threads, Executor executor) throws IOException {
+		ObjectInserter ins = repo.newObjectInserter();
+		InputStream is = new FileInputStream(packFile);
+		try {
+			PackParser p = ins.newPackParser(is);
+			p.setThreads(threads);
+			p.setExecutor(executor);
+			p.parse(NullProgressMonitor.INSTANCE);
+			return p.getSortedObjectList(null);
+		} finally {
+			is.close();
+			ins.release();
+		}
+	}
+
+	private static void assertSameObjects(List<PackedObjectInfo> expect,
+			List<PackedObjectInfo> actual) {
+		assertEquals(expect.size(), actual.size());
+		for (int i = 0; i < expect.size(); i++) {
+			PackedObjectInfo e = expect.get(i);
+			PackedObjectInfo a = actual.get(i);
+			assertEquals(e, a);
+			assertEquals(e.getOffset(), a.getOffset());
+			assertEquals(e.getCRC(), a.getCRC());
+		}
+	}
+
 	private void packHeader(TemporaryBuffer.Heap tinyPack, int cnt)
 			throws IOException {
 		final byte[] hdr = new byte[8];
@@ -0,0 +1,253 @@
+/*
+ * Copyright (C) 2011, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.eclipse.jgit.transport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.eclipse.jgit.junit.LocalDiskRepositoryTestCase;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.storage.file.FileRepository;
+import org.eclipse.jgit.transport.resolver.RepositoryResolver;
+import org.eclipse.jgit.transport.resolver.UploadPackFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PackResponseCacheTest extends LocalDiskRepositoryTestCase {
+	private FileRepository server;
+
+	private TestRepository<FileRepository> remote;
+
+	private File dir;
+
+	private PackResponseCache cache;
+
+	private RevCommit a, b;
+
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+		server = createBareRepository();
+		remote = new TestRepository<FileRepository>(server);
+		dir = createTempFile();
+		cache = new PackResponseCache(dir, 1024 * 1024);
+
+		a = remote.commit().add("a", "a").create();
+		b = remote.commit().parent(a).add("b", "b").create();
+		remote.update("master", b);
+		remote.update("side", a);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		if (server != null)
+			server.close();
+		super.tearDown();
+	}
+
+	@Test
+	public void testIdenticalRequestReplayed() throws Exception {
+		UploadPack first = newUploadPack();
+		byte[] miss = upload(first, b);
+		assertNotNull(first.getPackStatistics());
+		assertEquals(1, cache.getEntryCount());
+		assertTrue(0 < cache.getSize());
+
+		UploadPack second = newUploadPack();
+		byte[] hit = upload(second, b);
+		assertNull(second.getPackStatistics());
+		assertTrue(Arrays.equals(miss, hit));
+		assertEquals(1, cache.getEntryCount());
+	}
+
+	@Test
+	public void testDifferentWantsNotShared() throws Exception {
+		upload(newUploadPack(), b);
+		UploadPack up = newUploadPack();
+		upload(up, a);
+		assertNotNull(up.getPackStatistics());
+		assertEquals(2, cache.getEntryCount());
+	}
+
+	@Test
+	public void testRefUpdateMisses() throws Exception {
+		upload(newUploadPack(), a);
+		remote.update("master", remote.commit().parent(b).create());
+
+		UploadPack up = newUploadPack();
+		upload(up, a);
+		assertNotNull(up.getPackStatistics());
+		assertEquals(2, cache.getEntryCount());
+	}
+
+	@Test
+	public void testPolicyDeclines() throws Exception {
+		cache.setPolicy(new PackResponseCachePolicy() {
+			public boolean isCacheable(UploadPack up,
+					Collection<? extends ObjectId> wants,
+					Collection<? extends ObjectId> haves) {
+				return !haves.isEmpty();
+			}
+		});
+		upload(newUploadPack(), b);
+		assertEquals(0, cache.getEntryCount());
+		assertEquals(0, cache.getSize());
+	}
+
+	@Test
+	public void testLeastRecentlyUsedEvicted() throws Exception {
+		upload(newUploadPack(), b);
+		long size = cache.getSize();
+		cache = new PackResponseCache(dir, size);
+		assertEquals(1, cache.getEntryCount());
+
+		upload(newUploadPack(), a);
+		assertEquals(1, cache.getEntryCount());
+
+		UploadPack up = newUploadPack();
+		upload(up, a);
+		assertNull(up.getPackStatistics());
+
+		up = newUploadPack();
+		upload(up, b);
+		assertNotNull(up.getPackStatistics());
+	}
+
+	@Test
+	public void testEntriesReloadedFromDirectory() throws Exception {
+		upload(newUploadPack(), b);
+		cache = new PackResponseCache(dir, 1024 * 1024);
+		assertEquals(1, cache.getEntryCount());
+
+		UploadPack up = newUploadPack();
+		upload(up, b);
+		assertNull(up.getPackStatistics());
+	}
+
+	@Test
+	public void testCachedPackOverDaemon() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		Daemon d = new Daemon(new InetSocketAddress(InetAddress
+				.getByName("127.0.0.1"), 0));
+		d.setExecutor(executor);
+		d.setRepositoryResolver(new RepositoryResolver<DaemonClient>() {
+			public Repository open(DaemonClient req, String name) {
+				server.incrementOpen();
+				return server;
+			}
+		});
+		d.setUploadPackFactory(new UploadPackFactory<DaemonClient>() {
+			public UploadPack create(DaemonClient req, Repository db) {
+				UploadPack up = new UploadPack(db);
+				up.setPackResponseCache(cache);
+				return up;
+			}
+		});
+		d.start();
+		try {
+			URIish uri = new URIish("git://127.0.0.1:"
+					+ d.getAddress().getPort() + "/server.git");
+			for (int i = 0; i < 2; i++) {
+				FileRepository client = createBareRepository();
+				Transport tn = Transport.open(client, uri);
+				try {
+					tn.fetch(NullProgressMonitor.INSTANCE, Collections
+							.singleton(new RefSpec(
+									"refs/heads/master:refs/heads/master")));
+				} finally {
+					tn.close();
+				}
+				assertEquals(b, client.resolve("refs/heads/master"));
+				assertTrue(client.hasObject(a));
+				client.close();
+			}
+		} finally {
+			d.stop();
+			executor.shutdown();
+		}
+		assertEquals(1, cache.getEntryCount());
+		assertFalse(cache.getSize() == 0);
+	}
+
+	private UploadPack newUploadPack() {
+		UploadPack up = new UploadPack(server);
+		up.setBiDirectionalPipe(false);
+		up.setPackResponseCache(cache);
+		return up;
+	}
+
+	private static byte[] upload(UploadPack up, ObjectId want)
+			throws Exception {
+		ByteArrayOutputStream req = new ByteArrayOutputStream();
+		PacketLineOut p = new PacketLineOut(req);
+		p.writeString("want " + want.name()
+				+ " side-band-64k ofs-delta no-progress\n");
+		p.end();
+		p.writeString("done\n");
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		up.upload(new ByteArrayInputStream(req.toByteArray()), out, null);
+		return out.toByteArray();
+	}
+}
@@ -117,14 +117,12 @@ public void testReadString_LenHELO() {
 	}
 
 	@Test
-	public void testReadString_Len0001() {
+	public void testReadString_Delim() throws IOException {
 		init("0001");
-		try {
-			in.readString();
-			fail("incorrectly accepted invalid packet header");
-		} catch (IOException e) {
-			assertEquals("Invalid packet line header: 0001", e.getMessage());
-		}
+		final String act = in.readString();
+		assertSame(PacketLineIn.DELIM, act);
+		assertNotSame(PacketLineIn.END, act);
+		assertEOF();
 	}
 
 	@Test
@@ -113,6 +113,26 @@ public void flush() throws IOException {
 		assertEquals(1, flushCnt[0]);
 	}
 
+	@Test
+	public void testWriteDelim() throws IOException {
+		final int[] flushCnt = new int[1];
+		final OutputStream mockout = new OutputStream() {
+			@Override
+			public void write(int arg0) throws IOException {
+				rawOut.write(arg0);
+			}
+
+			@Override
+			public void flush() throws IOException {
+				flushCnt[0]++;
+			}
+		};
+
+		new PacketLineOut(mockout).writeDelim();
+		assertBuffer("0001");
+		assertEquals(0, flushCnt[0]);
+	}
+
 	// writePacket
 
 	@Test
@@ -0,0 +1,239 @@
+/*
+ * Copyright (C) 2011, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.eclipse.jgit.transport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.Collections;
+
+import org.eclipse.jgit.errors.TransportException;
+import org.eclipse.jgit.junit.LocalDiskRepositoryTestCase;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.ConfigConstants;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.revwalk.RevBlob;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.storage.file.FileBasedConfig;
+import org.eclipse.jgit.storage.file.FileRepository;
+import org.eclipse.jgit.storage.file.GC;
+import org.eclipse.jgit.storage.file.PackFile;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PartialCloneTest extends LocalDiskRepositoryTestCase {
+	private FileRepository server;
+
+	private TestRepository<FileRepository> remote;
+
+	private FileRepository client;
+
+	private RevBlob small;
+
+	private RevBlob large;
+
+	private RevBlob old;
+
+	private RevCommit tip;
+
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+		server = createBareRepository();
+		remote = new TestRepository<FileRepository>(server);
+		client = createBareRepository();
+
+		FileBasedConfig cfg = server.getConfig();
+		cfg.setBoolean("uploadpack", null, "allowfilter", true);
+		cfg.setBoolean("uploadpack", null, "allowanysha1inwant", true);
+		cfg.save();
+
+		small = remote.blob("small");
+		large = remote.blob("a large file, which is left out by a limit");
+		old = remote.blob("old");
+		RevCommit c = remote.commit().add("small", small).add("old", old)
+				.create();
+		tip = remote.commit().parent(c).rm("old").add("large", large)
+				.create();
+		remote.update("master", tip);
+
+		RemoteConfig rc = new RemoteConfig(client.getConfig(), "origin");
+		rc.addURI(new URIish(server.getDirectory().getPath()));
+		rc.update(client.getConfig());
+		client.getConfig().save();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		if (server != null)
+			server.close();
+		if (client != null)
+			client.close();
+		super.tearDown();
+	}
+
+	@Test
+	public void testFilterSpec() {
+		assertEquals(0, FilterSpec.fromFilterLine("blob:none").getBlobLimit());
+		assertEquals(2048, FilterSpec.fromFilterLine("blob:limit=2k")
+				.getBlobLimit());
+		assertEquals("blob:limit=10", FilterSpec.withBlobLimit(10)
+				.filterLine());
+		assertTrue(FilterSpec.NO_FILTER.isNoOp());
+		try {
+			FilterSpec.fromFilterLine("tree:0");
+			fail("accepted an unsupported filter");
+		} catch (IllegalArgumentException expected) {
+			// Only blob filters are supported.
+		}
+	}
+
+	@Test
+	public void testFetchWithoutBlobs() throws Exception {
+		makePartial("blob:none");
+		fetch(0);
+		assertTrue(client.hasObject(tip));
+		assertTrue(client.hasObject(remote.parseBody(tip).getTree()));
+		assertFalse(client.hasObject(small));
+		assertFalse(client.hasObject(large));
+		assertFalse(client.hasObject(old));
+
+		for (PackFile p : client.getObjectDatabase().getPacks()) {
+			String name = p.getPackFile().getName();
+			name = name.substring(0, name.length() - ".pack".length());
+			assertTrue(new File(p.getPackFile().getParentFile(), name
+					+ ".promisor").isFile());
+		}
+	}
+
+	@Test
+	public void testFetchBlobLimitProtocolV2() throws Exception {
+		makePartial("blob:limit=10");
+		fetch(2);
+		assertTrue(client.hasObject(small));
+		assertTrue(client.hasObject(old));
+		assertFalse(client.hasObject(large));
+	}
+
+	@Test
+	public void testMissingBlobIsFetchedWhenRead() throws Exception {
+		makePartial("blob:none");
+		fetch(0);
+		assertFalse(client.hasObject(large));
+
+		byte[] data = client.open(large).getCachedBytes();
+		assertEquals("a large file, which is left out by a limit",
+				new String(data, "UTF-8"));
+		assertTrue(client.hasObject(large));
+		assertFalse(client.hasObject(small));
+	}
+
+	@Test
+	public void testFetchedBlobIsNotRequestedAgain() throws Exception {
+		makePartial("blob:none");
+		fetch(0);
+		PromisorRemote promisor = new PromisorRemote(client);
+		assertTrue(promisor.fetch(Collections.singleton(small.copy())));
+		int packs = client.getObjectDatabase().getPacks().size();
+		assertTrue(promisor.fetch(Collections.singleton(small.copy())));
+		assertEquals(packs, client.getObjectDatabase().getPacks().size());
+	}
+
+	@Test
+	public void testGcKeepsPartialClone() throws Exception {
+		makePartial("blob:none");
+		fetch(0);
+		client.open(small).getCachedBytes();
+
+		GC gc = new GC(client);
+		gc.setPackExpireAgeMillis(0);
+		gc.gc();
+		assertEquals(1, client.getObjectDatabase().getPacks().size());
+		assertTrue(client.hasObject(tip));
+		assertTrue(client.hasObject(small));
+		assertFalse(client.hasObject(large));
+	}
+
+	@Test
+	public void testFilterNotAllowed() throws Exception {
+		server.getConfig().setBoolean("uploadpack", null, "allowfilter",
+				false);
+		server.getConfig().save();
+		makePartial("blob:none");
+		try {
+			fetch(0);
+			fail("server accepted a filter it does not allow");
+		} catch (TransportException expected) {
+			assertFalse(client.hasObject(tip));
+		}
+	}
+
+	private void makePartial(String filter) throws Exception {
+		RemoteConfig rc = new RemoteConfig(client.getConfig(), "origin");
+		rc.setPartialCloneFilter(filter);
+		rc.update(client.getConfig());
+		client.getConfig().setInt(ConfigConstants.CONFIG_CORE_SECTION, null,
+				ConfigConstants.CONFIG_KEY_REPO_FORMAT_VERSION, 1);
+		client.getConfig().setString(
+				ConfigConstants.CONFIG_EXTENSIONS_SECTION, null,
+				ConfigConstants.CONFIG_KEY_PARTIALCLONE, "origin");
+		client.getConfig().save();
+	}
+
+	private void fetch(int version) throws Exception {
+		Transport tn = Transport.open(client, "origin");
+		try {
+			tn.setProtocolVersion(version);
+			tn.fetch(NullProgressMonitor.INSTANCE, Collections
+					.singleton(new RefSpec("refs/heads/master:refs/heads/master")));
+		} finally {
+			tn.close();
+		}
+	}
+}
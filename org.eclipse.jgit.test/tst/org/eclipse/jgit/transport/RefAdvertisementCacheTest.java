@@ -0,0 +1,265 @@
+/*
+ * Copyright (C) 2011, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.eclipse.jgit.transport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.lang.ref.WeakReference;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.jgit.junit.LocalDiskRepositoryTestCase;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.storage.file.FileRepository;
+import org.eclipse.jgit.transport.RefAdvertiser.PacketLineOutRefAdvertiser;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RefAdvertisementCacheTest extends LocalDiskRepositoryTestCase {
+	private FileRepository server;
+
+	private TestRepository<FileRepository> remote;
+
+	private RefAdvertisementCache cache;
+
+	private RevCommit a;
+
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+		server = createBareRepository();
+		remote = new TestRepository<FileRepository>(server);
+		cache = new RefAdvertisementCache();
+
+		a = remote.commit().add("a", "a").create();
+		remote.update("master", a);
+		for (int i = 1; i <= 10; i++)
+			remote.update("refs/changes/" + i + "/1", a);
+		remote.update("refs/tags/v1", remote.tag("v1", a));
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		if (server != null)
+			server.close();
+		super.tearDown();
+	}
+
+	@Test
+	public void testCachedAdvertisementMatchesFormatted() throws Exception {
+		String expect = advertise(null);
+		assertEquals(0, cache.getSize());
+
+		String first = advertise(cache);
+		assertEquals(expect, first);
+		assertTrue(0 < cache.getSize());
+
+		long size = cache.getSize();
+		assertEquals(expect, advertise(cache));
+		assertEquals(size, cache.getSize());
+	}
+
+	@Test
+	public void testWantAcceptedAfterCachedAdvertisement() throws Exception {
+		advertise(cache);
+
+		ByteArrayOutputStream req = new ByteArrayOutputStream();
+		PacketLineOut p = new PacketLineOut(req);
+		p.writeString("want " + a.name() + "\n");
+		p.end();
+		p.writeString("done\n");
+
+		UploadPack up = new UploadPack(server);
+		up.setRefAdvertisementCache(cache);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		up.upload(new ByteArrayInputStream(req.toByteArray()), out, null);
+		assertTrue(up.getPackStatistics().getTotalObjects() > 0);
+	}
+
+	@Test
+	public void testRefUpdateInvalidates() throws Exception {
+		String before = advertise(cache);
+		RevCommit b = remote.commit().parent(a).create();
+		remote.update("refs/heads/side", b);
+
+		String after = advertise(cache);
+		assertFalse(before.equals(after));
+		assertTrue(after.contains(b.name() + " refs/heads/side"));
+		assertEquals(advertise(null), after);
+	}
+
+	@Test
+	public void testCapabilitiesKeySeparateEntries() throws Exception {
+		String twoWay = advertise(cache);
+		long size = cache.getSize();
+
+		UploadPack up = new UploadPack(server);
+		up.setBiDirectionalPipe(false);
+		up.setRefAdvertisementCache(cache);
+		ByteArrayOutputStream buf = new ByteArrayOutputStream();
+		up.sendAdvertisedRefs(new PacketLineOutRefAdvertiser(
+				new PacketLineOut(buf)));
+		assertTrue(buf.toString("UTF-8").contains(" no-done"));
+		assertFalse(twoWay.contains(" no-done"));
+		assertTrue(size < cache.getSize());
+	}
+
+	@Test
+	public void testRefFilterBypassesCache() throws Exception {
+		UploadPack up = new UploadPack(server);
+		up.setRefAdvertisementCache(cache);
+		up.setRefFilter(new RefFilter() {
+			public Map<String, Ref> filter(Map<String, Ref> refs) {
+				Map<String, Ref> r = new HashMap<String, Ref>(refs);
+				r.remove("refs/tags/v1");
+				return r;
+			}
+		});
+		ByteArrayOutputStream buf = new ByteArrayOutputStream();
+		up.sendAdvertisedRefs(new PacketLineOutRefAdvertiser(
+				new PacketLineOut(buf)));
+		assertFalse(buf.toString("UTF-8").contains("refs/tags/v1"));
+		assertEquals(0, cache.getSize());
+	}
+
+	@Test
+	public void testSizeCountsAdvertisedObjects() throws Exception {
+		String expect = advertise(cache);
+
+		// The lines without the final flush-pkt, and the names of the
+		// commit and of the annotated tag.
+		int encoded = expect.length() - "0000".length();
+		assertEquals(encoded + 2 * Constants.OBJECT_ID_LENGTH, cache
+				.getSize());
+	}
+
+	@Test
+	public void testEntryFindsAdvertisedObjects() throws Exception {
+		Set<ObjectId> ids = new HashSet<ObjectId>();
+		for (int i = 0; i < 50; i++)
+			ids.add(remote.blob("blob " + i).copy());
+		RevCommit notAdvertised = remote.commit().create();
+
+		RefAdvertisementCache.Entry e = new RefAdvertisementCache.Entry(
+				new byte[0], ids);
+		assertEquals(ids.size(), e.advertised.size());
+		assertEquals(ids, new HashSet<ObjectId>(e.advertised));
+		for (ObjectId id : ids)
+			assertTrue(e.advertised.contains(id));
+		assertFalse(e.advertised.contains(notAdvertised));
+		assertFalse(e.advertised.contains(notAdvertised.name()));
+	}
+
+	@Test
+	public void testEntryLargerThanLimitNotCached() throws Exception {
+		cache = new RefAdvertisementCache(64);
+		assertEquals(advertise(null), advertise(cache));
+		assertEquals(0, cache.getSize());
+	}
+
+	@Test
+	public void testEvictsLeastRecentlyUsed() throws Exception {
+		FileRepository other = createBareRepository();
+		cache = new RefAdvertisementCache(250);
+		put(server, "a", 100);
+		put(other, "a", 100);
+		put(other, "b", 40);
+		assertTrue(cache.get(server, "a") != null);
+
+		// Only the oldest entry of the other repository makes room.
+		put(server, "b", 100);
+		assertTrue(cache.get(server, "a") != null);
+		assertTrue(cache.get(server, "b") != null);
+		assertTrue(cache.get(other, "a") == null);
+		assertTrue(cache.get(other, "b") != null);
+		assertEquals(240, cache.getSize());
+	}
+
+	@Test
+	public void testCloseRemovesListeners() throws Exception {
+		advertise(cache);
+		assertTrue(0 < cache.getSize());
+
+		// The repository's listener is the only reference to the cache.
+		WeakReference<RefAdvertisementCache> ref;
+		ref = new WeakReference<RefAdvertisementCache>(cache);
+		cache.close();
+		assertEquals(0, cache.getSize());
+		cache = null;
+		for (int i = 0; ref.get() != null && i < 50; i++) {
+			System.gc();
+			Thread.sleep(10);
+		}
+		assertTrue(ref.get() == null);
+	}
+
+	private void put(Repository db, String key, int size) {
+		cache.put(db, key, cache.getGeneration(db),
+				new RefAdvertisementCache.Entry(new byte[size], Collections
+						.<ObjectId> emptySet()));
+	}
+
+	private String advertise(RefAdvertisementCache c) throws Exception {
+		UploadPack up = new UploadPack(server);
+		up.setRefAdvertisementCache(c);
+		ByteArrayOutputStream buf = new ByteArrayOutputStream();
+		up.sendAdvertisedRefs(new PacketLineOutRefAdvertiser(
+				new PacketLineOut(buf)));
+		return buf.toString("UTF-8");
+	}
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright (C) 2011, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.eclipse.jgit.transport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.eclipse.jgit.junit.LocalDiskRepositoryTestCase;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.storage.file.FileRepository;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ShallowFetchTest extends LocalDiskRepositoryTestCase {
+	private FileRepository server;
+
+	private TestRepository<FileRepository> remote;
+
+	private FileRepository client;
+
+	private RevCommit[] c;
+
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+		server = createBareRepository();
+		remote = new TestRepository<FileRepository>(server);
+		client = createBareRepository();
+
+		c = new RevCommit[10];
+		c[0] = remote.commit().add("f0", "0").create();
+		for (int i = 1; i < c.length; i++)
+			c[i] = remote.commit().parent(c[i - 1]).add("f" + i, "" + i)
+					.create();
+		remote.update("master", c[9]);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		if (server != null)
+			server.close();
+		if (client != null)
+			client.close();
+		super.tearDown();
+	}
+
+	@Test
+	public void testFetchDepth() throws Exception {
+		fetch(0, 1, null);
+		assertEquals(c[9], client.resolve("refs/heads/master"));
+		assertEquals(Collections.singleton(c[9]), client.getShallowCommits());
+		assertTrue(client.hasObject(remote.get(remote.parseBody(c[9]).getTree(), "f0")));
+		assertFalse(client.hasObject(c[8]));
+		assertEquals(1, countCommits(client));
+	}
+
+	@Test
+	public void testFetchDepthProtocolV2() throws Exception {
+		fetch(2, 3, null);
+		assertEquals(Collections.singleton(c[7]), client.getShallowCommits());
+		assertFalse(client.hasObject(c[6]));
+		assertEquals(3, countCommits(client));
+	}
+
+	@Test
+	public void testDeepen() throws Exception {
+		fetch(0, 1, null);
+		fetch(0, 4, null);
+		assertEquals(Collections.singleton(c[6]), client.getShallowCommits());
+		assertTrue(client.hasObject(c[6]));
+		assertFalse(client.hasObject(c[5]));
+		assertEquals(4, countCommits(client));
+	}
+
+	@Test
+	public void testDeepenProtocolV2() throws Exception {
+		fetch(2, 1, null);
+		fetch(2, 20, null);
+		assertTrue(client.getShallowCommits().isEmpty());
+		assertEquals(10, countCommits(client));
+	}
+
+	@Test
+	public void testFetchIntoShallowRepository() throws Exception {
+		fetch(0, 2, null);
+		RevCommit next = remote.commit().parent(c[9]).add("n", "n").create();
+		remote.update("master", next);
+
+		fetch(0, 0, null);
+		assertEquals(next, client.resolve("refs/heads/master"));
+		assertEquals(Collections.singleton(c[8]), client.getShallowCommits());
+		assertEquals(3, countCommits(client));
+	}
+
+	@Test
+	public void testFetchSince() throws Exception {
+		int since = remote.getRevWalk().parseCommit(c[6]).getCommitTime();
+		fetch(0, 0, new Date(since * 1000L));
+		assertEquals(Collections.singleton(c[6]), client.getShallowCommits());
+		assertFalse(client.hasObject(c[5]));
+		assertEquals(4, countCommits(client));
+	}
+
+	@Test
+	public void testShallowListPrecedesNegotiation() throws Exception {
+		ByteArrayOutputStream req = new ByteArrayOutputStream();
+		PacketLineOut p = new PacketLineOut(req);
+		p.writeString("want " + c[9].name() + " multi_ack_detailed "
+				+ "side-band-64k no-progress shallow\n");
+		p.writeString("deepen 2\n");
+		p.end();
+		p.writeString("done\n");
+
+		UploadPack up = new UploadPack(server);
+		up.setBiDirectionalPipe(false);
+		ByteArrayOutputStream res = new ByteArrayOutputStream();
+		up.upload(new ByteArrayInputStream(req.toByteArray()), res, null);
+
+		PacketLineIn in = new PacketLineIn(new ByteArrayInputStream(res
+				.toByteArray()));
+		assertEquals("shallow " + c[8].name(), in.readString());
+		assertSame(PacketLineIn.END, in.readString());
+		assertEquals("NAK", in.readString());
+		// Two commits, their trees, and the ten blobs of the newer tree.
+		assertEquals(14, up.getPackStatistics().getTotalObjects());
+	}
+
+	@Test
+	public void testShallowRepositoryFile() throws Exception {
+		Set<ObjectId> s = new HashSet<ObjectId>();
+		s.add(c[3]);
+		s.add(c[5]);
+		client.setShallowCommits(s);
+		assertEquals(s, client.getShallowCommits());
+		assertTrue(new File(client.getDirectory(), "shallow")
+				.isFile());
+
+		client.setShallowCommits(Collections.<ObjectId> emptySet());
+		assertTrue(client.getShallowCommits().isEmpty());
+		assertFalse(new File(client.getDirectory(), "shallow")
+				.exists());
+	}
+
+	@Test
+	public void testRevWalkStopsAtShallowCommits() throws Exception {
+		server.setShallowCommits(Collections.<ObjectId> singleton(c[5]));
+		RevWalk rw = new RevWalk(server);
+		try {
+			assertEquals(0, rw.parseCommit(c[5]).getParentCount());
+			rw.markStart(rw.parseCommit(c[9]));
+			int n = 0;
+			while (rw.next() != null)
+				n++;
+			assertEquals(5, n);
+		} finally {
+			rw.release();
+		}
+
+		rw = new RevWalk(server);
+		try {
+			rw.setShallowCommits(Collections.<ObjectId> emptySet());
+			assertEquals(1, rw.parseCommit(c[5]).getParentCount());
+		} finally {
+			rw.release();
+		}
+	}
+
+	private void fetch(int version, int depth, Date since) throws Exception {
+		Transport tn = Transport.open(client, server.getDirectory().getPath());
+		try {
+			tn.setProtocolVersion(version);
+			tn.setDepth(depth);
+			tn.setDeepenSince(since);
+			tn.fetch(NullProgressMonitor.INSTANCE, Collections
+					.singleton(new RefSpec("refs/heads/master:refs/heads/master")));
+		} finally {
+			tn.close();
+		}
+	}
+
+	private static int countCommits(FileRepository repo) throws Exception {
+		RevWalk rw = new RevWalk(repo);
+		try {
+			rw.markStart(rw.parseCommit(repo.resolve(Constants.R_HEADS
+					+ Constants.MASTER)));
+			int n = 0;
+			while (rw.next() != null)
+				n++;
+			return n;
+		} finally {
+			rw.release();
+		}
+	}
+}
@@ -0,0 +1,405 @@
+/*
+ * Copyright (C) 2011, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.transport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.jgit.junit.LocalDiskRepositoryTestCase;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevTag;
+import org.eclipse.jgit.storage.file.FileRepository;
+import org.eclipse.jgit.transport.resolver.RepositoryResolver;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class UploadPackProtocolV2Test extends LocalDiskRepositoryTestCase {
+	private FileRepository server;
+
+	private TestRepository<FileRepository> remote;
+
+	private FileRepository client;
+
+	private RevCommit a, b;
+
+	private RevTag tag;
+
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+		server = createBareRepository();
+		remote = new TestRepository<FileRepository>(server);
+		client = createBareRepository();
+
+		a = remote.commit().add("a", "a").create();
+		b = remote.commit().parent(a).add("b", "b").create();
+		remote.update("master", b);
+		remote.update("refs/heads/side", a);
+		for (int i = 1; i <= 20; i++)
+			remote.update("refs/changes/" + i + "/1", a);
+		tag = remote.tag("v1", a);
+		remote.update("refs/tags/v1", tag);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		if (server != null)
+			server.close();
+		if (client != null)
+			client.close();
+		super.tearDown();
+	}
+
+	@Test
+	public void testCapabilityAdvertisement() throws Exception {
+		UploadPack up = newUploadPack();
+		PacketLineIn in = new PacketLineIn(new ByteArrayInputStream(
+				run(up, new ByteArrayOutputStream())));
+		assertEquals("version 2", in.readString());
+		assertEquals("ls-refs", in.readString());
+		assertEquals("fetch=shallow", in.readString());
+		assertSame(PacketLineIn.END, in.readString());
+	}
+
+	@Test
+	public void testLsRefsAll() throws Exception {
+		List<String> refs = lsRefs();
+		assertEquals(1 + 2 + 20 + 1, refs.size());
+		assertTrue(refs.contains(b.name() + " HEAD"));
+	}
+
+	@Test
+	public void testLsRefsPrefix() throws Exception {
+		List<String> refs = lsRefs("ref-prefix refs/heads/m");
+		assertEquals(1, refs.size());
+		assertEquals(b.name() + " refs/heads/master", refs.get(0));
+
+		refs = lsRefs("ref-prefix HEAD", "ref-prefix refs/heads/side");
+		assertEquals(2, refs.size());
+		assertEquals(b.name() + " HEAD", refs.get(0));
+		assertEquals(a.name() + " refs/heads/side", refs.get(1));
+
+		assertTrue(lsRefs("ref-prefix refs/notes/").isEmpty());
+	}
+
+	@Test
+	public void testLsRefsPeelAndSymrefs() throws Exception {
+		List<String> refs = lsRefs("peel", "symrefs", "ref-prefix refs/tags/",
+				"ref-prefix HEAD");
+		assertEquals(2, refs.size());
+		assertEquals(b.name() + " HEAD symref-target:refs/heads/master",
+				refs.get(0));
+		assertEquals(tag.name() + " refs/tags/v1 peeled:" + a.name(),
+				refs.get(1));
+	}
+
+	@Test
+	public void testLsRefsRefFilter() throws Exception {
+		UploadPack up = newUploadPack();
+		up.setBiDirectionalPipe(false);
+		up.setRefFilter(new RefFilter() {
+			public Map<String, Ref> filter(Map<String, Ref> refs) {
+				Map<String, Ref> r = new HashMap<String, Ref>(refs);
+				r.remove("refs/heads/side");
+				return r;
+			}
+		});
+		assertTrue(lsRefs(up, "ref-prefix refs/heads/side").isEmpty());
+	}
+
+	@Test
+	public void testFetchRejectsUnadvertisedWant() throws Exception {
+		RevCommit hidden = remote.commit().create();
+		ByteArrayOutputStream req = new ByteArrayOutputStream();
+		PacketLineOut p = new PacketLineOut(req);
+		p.writeString("command=fetch\n");
+		p.writeDelim();
+		p.writeString("want " + hidden.name() + "\n");
+		p.writeString("done\n");
+		p.end();
+
+		UploadPack up = newUploadPack();
+		up.setBiDirectionalPipe(false);
+		try {
+			run(up, req);
+		} catch (IOException expected) {
+			assertTrue(expected.getMessage().contains(hidden.name()));
+			return;
+		}
+		throw new AssertionError("fetch of " + hidden.name() + " accepted");
+	}
+
+	@Test
+	public void testFetchRoundsDoNotShareState() throws Exception {
+		RevCommit other = remote.commit().add("o", "o").create();
+		RevCommit unknown = new TestRepository<FileRepository>(client)
+				.commit().create();
+
+		// The first round finds a common commit that does not satisfy the
+		// want. The second round only sends a have the server lacks.
+		ByteArrayOutputStream req = new ByteArrayOutputStream();
+		PacketLineOut p = new PacketLineOut(req);
+		p.writeString("command=fetch\n");
+		p.writeDelim();
+		p.writeString("want " + b.name() + "\n");
+		p.writeString("have " + other.name() + "\n");
+		p.end();
+		p.writeString("command=fetch\n");
+		p.writeDelim();
+		p.writeString("want " + b.name() + "\n");
+		p.writeString("have " + unknown.name() + "\n");
+		p.end();
+		p.end();
+
+		PacketLineIn in = new PacketLineIn(new ByteArrayInputStream(run(
+				newUploadPack(), req)));
+		while (in.readString() != PacketLineIn.END) {
+			// Skip the capability advertisement.
+		}
+		assertEquals("acknowledgments", in.readString());
+		assertEquals("ACK " + other.name(), in.readString());
+		assertSame(PacketLineIn.END, in.readString());
+		assertEquals("acknowledgments", in.readString());
+		assertEquals("NAK", in.readString());
+		assertSame(PacketLineIn.END, in.readString());
+	}
+
+	@Test
+	public void testFetchOnlyListsRequestedRefs() throws Exception {
+		Transport tn = Transport.open(client, server.getDirectory().getPath());
+		try {
+			tn.setProtocolVersion(2);
+			FetchResult r = tn.fetch(NullProgressMonitor.INSTANCE, Collections
+					.singleton(new RefSpec("refs/heads/master:refs/heads/master")));
+			assertNotNull(r.getAdvertisedRef("refs/heads/master"));
+			assertNull(r.getAdvertisedRef("refs/heads/side"));
+			assertNull(r.getAdvertisedRef("refs/changes/1/1"));
+		} finally {
+			tn.close();
+		}
+		assertEquals(b, client.resolve("refs/heads/master"));
+		assertTrue(client.hasObject(remote.get(remote.parseBody(b).getTree(),
+				"b")));
+	}
+
+	@Test
+	public void testIncrementalFetch() throws Exception {
+		fetch("refs/heads/side:refs/heads/side");
+		assertEquals(a, client.resolve("refs/heads/side"));
+
+		RevCommit c = b;
+		for (int i = 0; i < 40; i++)
+			c = remote.commit().parent(c).add("f" + i, "" + i).create();
+		remote.update("master", c);
+
+		FetchResult r = fetch("refs/heads/*:refs/remotes/origin/*");
+		assertEquals(c, client.resolve("refs/remotes/origin/master"));
+		assertEquals(a, client.resolve("refs/remotes/origin/side"));
+		assertNull(r.getAdvertisedRef("refs/changes/1/1"));
+	}
+
+	@Test
+	public void testNegotiationFindsCommonBase() throws Exception {
+		RevCommit deep = b;
+		for (int i = 0; i < 60; i++)
+			deep = remote.commit().parent(deep).add("d" + i, "" + i).create();
+		remote.update("deep", deep);
+		fetch("refs/heads/deep:refs/heads/deep");
+
+		// History the server doesn't know is mixed into the haves, the
+		// server has to ACK the common part before the client gets a pack.
+		TestRepository<FileRepository> local = new TestRepository<FileRepository>(
+				client);
+		RevCommit l = deep;
+		for (int i = 0; i < 40; i++)
+			l = local.commit().parent(l).add("l" + i, "" + i).create();
+		local.update("local", l);
+
+		RevCommit next = remote.commit().parent(deep).add("n", "n").create();
+		remote.update("next", next);
+		FetchResult r = fetch("refs/heads/next:refs/heads/next");
+		assertEquals(next, client.resolve("refs/heads/next"));
+		assertNull(r.getAdvertisedRef("refs/heads/deep"));
+	}
+
+	@Test
+	public void testFetchFollowsTags() throws Exception {
+		Transport tn = Transport.open(client, server.getDirectory().getPath());
+		try {
+			tn.setProtocolVersion(2);
+			tn.setTagOpt(TagOpt.AUTO_FOLLOW);
+			tn.fetch(NullProgressMonitor.INSTANCE, Collections
+					.singleton(new RefSpec("refs/heads/side:refs/heads/side")));
+		} finally {
+			tn.close();
+		}
+		assertEquals(tag, client.resolve("refs/tags/v1"));
+	}
+
+	@Test
+	public void testFetchOverDaemon() throws Exception {
+		Daemon d = new Daemon(new InetSocketAddress(InetAddress
+				.getByName("127.0.0.1"), 0));
+		d.setRepositoryResolver(new RepositoryResolver<DaemonClient>() {
+			public Repository open(DaemonClient req, String name) {
+				server.incrementOpen();
+				return server;
+			}
+		});
+		d.start();
+		try {
+			URIish uri = new URIish("git://127.0.0.1:"
+					+ d.getAddress().getPort() + "/server.git");
+			Transport tn = Transport.open(client, uri);
+			try {
+				tn.setProtocolVersion(2);
+				FetchConnection c = tn.openFetch(Collections
+						.singleton(new RefSpec("refs/heads/master")));
+				try {
+					assertEquals(1, c.getRefs().size());
+					assertNotNull(c.getRef("refs/heads/master"));
+				} finally {
+					c.close();
+				}
+
+				FetchResult r = tn.fetch(NullProgressMonitor.INSTANCE,
+						Collections.singleton(new RefSpec(
+								"refs/heads/master:refs/heads/master")));
+				assertEquals(1, r.getAdvertisedRefs().size());
+			} finally {
+				tn.close();
+			}
+		} finally {
+			d.stop();
+		}
+		assertEquals(b, client.resolve("refs/heads/master"));
+	}
+
+	@Test
+	public void testVersion0StillAdvertisesAll() throws Exception {
+		Transport tn = Transport.open(client, server.getDirectory().getPath());
+		try {
+			FetchConnection c = tn.openFetch(Collections
+					.singleton(new RefSpec("refs/heads/master")));
+			try {
+				assertEquals(1 + 2 + 20 + 1, c.getRefs().size());
+			} finally {
+				c.close();
+			}
+		} finally {
+			tn.close();
+		}
+	}
+
+	private FetchResult fetch(String spec) throws Exception {
+		Transport tn = Transport.open(client, server.getDirectory().getPath());
+		try {
+			tn.setProtocolVersion(2);
+			return tn.fetch(NullProgressMonitor.INSTANCE, Collections
+					.singleton(new RefSpec(spec)));
+		} finally {
+			tn.close();
+		}
+	}
+
+	private UploadPack newUploadPack() {
+		UploadPack up = new UploadPack(server);
+		up.setExtraParameters(Collections
+				.singleton(UploadPack.VERSION_2_REQUEST));
+		return up;
+	}
+
+	private List<String> lsRefs(String... args) throws IOException {
+		UploadPack up = newUploadPack();
+		up.setBiDirectionalPipe(false);
+		return lsRefs(up, args);
+	}
+
+	private static List<String> lsRefs(UploadPack up, String... args)
+			throws IOException {
+		ByteArrayOutputStream req = new ByteArrayOutputStream();
+		PacketLineOut p = new PacketLineOut(req);
+		p.writeString("command=ls-refs\n");
+		p.writeDelim();
+		for (String arg : args)
+			p.writeString(arg + "\n");
+		p.end();
+
+		PacketLineIn in = new PacketLineIn(new ByteArrayInputStream(run(up,
+				req)));
+		List<String> lines = new ArrayList<String>();
+		for (;;) {
+			String line = in.readString();
+			if (line == PacketLineIn.END)
+				return lines;
+			lines.add(line);
+		}
+	}
+
+	private static byte[] run(UploadPack up, ByteArrayOutputStream req)
+			throws IOException {
+		ByteArrayOutputStream rsp = new ByteArrayOutputStream();
+		up.upload(new ByteArrayInputStream(req.toByteArray()), rsp, null);
+		return rsp.toByteArray();
+	}
+}
@@ -54,6 +54,8 @@
 import java.io.PipedOutputStream;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 
 import org.eclipse.jgit.util.IO;
 import org.junit.After;
@@ -170,6 +172,31 @@ public void testTimeout_skip_Timeout() throws IOException {
 		assertTimeout();
 	}
 
+	@Test
+	public void testTimeout_readByte_SharedScheduler() throws IOException {
+		ScheduledExecutorService scheduler = Executors
+				.newSingleThreadScheduledExecutor();
+		InterruptTimer shared = new InterruptTimer(scheduler);
+		try {
+			TimeoutInputStream sis = new TimeoutInputStream(in, shared);
+			sis.setTimeout(timeout);
+			out.write('a');
+			assertEquals('a', sis.read());
+
+			beginRead();
+			try {
+				sis.read();
+				fail("incorrectly read a byte");
+			} catch (InterruptedIOException e) {
+				// expected
+			}
+			assertTimeout();
+		} finally {
+			shared.terminate();
+			scheduler.shutdown();
+		}
+	}
+
 	private void beginRead() {
 		start = now();
 	}
@@ -96,6 +96,7 @@ public static JGitText get() {
 	/***/ public String blobNotFound;
 	/***/ public String blobNotFoundForPath;
 	/***/ public String branchNameInvalid;
+	/***/ public String buildingBitmaps;
 	/***/ public String cachedPacksPreventsIndexCreation;
 	/***/ public String cannotBeCombined;
 	/***/ public String cannotCombineTreeFilterWithRevFilter;
@@ -262,6 +263,7 @@ public static JGitText get() {
 	/***/ public String fileIsTooBigForThisConvenienceMethod;
 	/***/ public String fileIsTooLarge;
 	/***/ public String fileModeNotSetForPath;
+	/***/ public String filterNotSupported;
 	/***/ public String flagIsDisposed;
 	/***/ public String flagNotFromThis;
 	/***/ public String flagsAlreadyCreated;
@@ -293,7 +295,10 @@ public static JGitText get() {
 	/***/ public String invalidChannel;
 	/***/ public String invalidCharacterInBase64Data;
 	/***/ public String invalidCommitParentNumber;
+	/***/ public String invalidDepth;
 	/***/ public String invalidEncryption;
+	/***/ public String invalidFilter;
+	/***/ public String invalidGeometricFactor;
 	/***/ public String invalidGitType;
 	/***/ public String invalidId;
 	/***/ public String invalidIdLength;
@@ -308,6 +313,7 @@ public static JGitText get() {
 	/***/ public String invalidPath;
 	/***/ public String invalidRemote;
 	/***/ public String invalidRefName;
+	/***/ public String invalidShallowArgument;
 	/***/ public String invalidStageForPath;
 	/***/ public String invalidTagOption;
 	/***/ public String invalidTimeout;
@@ -361,6 +367,10 @@ public static JGitText get() {
 	/***/ public String noHMACsupport;
 	/***/ public String noMergeHeadSpecified;
 	/***/ public String noSuchRef;
+	/***/ public String notABitmapIndex;
+	/***/ public String notACommitGraph;
+	/***/ public String notAMultiPackIndex;
+	/***/ public String notAReverseIndex;
 	/***/ public String noXMLParserAvailable;
 	/***/ public String notABoolean;
 	/***/ public String notABundle;
@@ -394,7 +404,9 @@ public static JGitText get() {
 	/***/ public String packDoesNotMatchIndex;
 	/***/ public String packFileInvalid;
 	/***/ public String packHasUnresolvedDeltas;
+	/***/ public String packingCancelledDuringDeltaSearch;
 	/***/ public String packObjectCountMismatch;
+	/***/ public String packRefs;
 	/***/ public String packTooLargeForIndexVersion1;
 	/***/ public String packetSizeMustBeAtLeast;
 	/***/ public String packetSizeMustBeAtMost;
@@ -409,6 +421,9 @@ public static JGitText get() {
 	/***/ public String problemWithResolvingPushRefSpecsLocally;
 	/***/ public String progressMonUploading;
 	/***/ public String propertyIsAlreadyNonNull;
+	/***/ public String pruneLoosePackedObjects;
+	/***/ public String pruneLooseUnreferencedObjects;
+	/***/ public String prunePacks;
 	/***/ public String pullTaskName;
 	/***/ public String pushCancelled;
 	/***/ public String pushIsNotSupportedForBundleTransport;
@@ -451,6 +466,7 @@ public static JGitText get() {
 	/***/ public String resettingHead;
 	/***/ public String resolvingDeltas;
 	/***/ public String resultLengthIncorrect;
+	/***/ public String reverseIndexDoesNotMatchPack;
 	/***/ public String rewinding;
 	/***/ public String searchForReuse;
 	/***/ public String searchForSizes;
@@ -459,6 +475,8 @@ public static JGitText get() {
 	/***/ public String serviceNotEnabledNoName;
 	/***/ public String serviceNotPermitted;
 	/***/ public String serviceNotPermittedNoName;
+	/***/ public String shallowCommitsNotSupported;
+	/***/ public String shallowNotSupported;
 	/***/ public String shortCompressedStreamAt;
 	/***/ public String shortReadOfBlock;
 	/***/ public String shortReadOfOptionalDIRCExtensionExpectedAnotherBytes;
@@ -509,6 +527,7 @@ public static JGitText get() {
 	/***/ public String unexpectedEndOfConfigFile;
 	/***/ public String unexpectedHunkTrailer;
 	/***/ public String unexpectedOddResult;
+	/***/ public String unexpectedProtocolV2Argument;
 	/***/ public String unexpectedRefReport;
 	/***/ public String unexpectedReportLine2;
 	/***/ public String unexpectedReportLine;
@@ -517,6 +536,7 @@ public static JGitText get() {
 	/***/ public String unknownIndexVersionOrCorruptIndex;
 	/***/ public String unknownObject;
 	/***/ public String unknownObjectType;
+	/***/ public String unknownProtocolV2Command;
 	/***/ public String unknownRepositoryFormat2;
 	/***/ public String unknownRepositoryFormat;
 	/***/ public String unknownZlibError;
@@ -525,12 +545,17 @@ public static JGitText get() {
 	/***/ public String unpackException;
 	/***/ public String unreadablePackIndex;
 	/***/ public String unrecognizedRef;
+	/***/ public String unsupportedBitmapIndexVersion;
 	/***/ public String unsupportedCommand0;
+	/***/ public String unsupportedCommitGraphVersion;
 	/***/ public String unsupportedEncryptionAlgorithm;
 	/***/ public String unsupportedEncryptionVersion;
+	/***/ public String unsupportedGC;
+	/***/ public String unsupportedMultiPackIndexVersion;
 	/***/ public String unsupportedOperationNotAddAtEnd;
 	/***/ public String unsupportedPackIndexVersion;
 	/***/ public String unsupportedPackVersion;
+	/***/ public String unsupportedReverseIndexVersion;
 	/***/ public String updatingReferences;
 	/***/ public String updatingRefFailed;
 	/***/ public String uriNotFound;
@@ -542,6 +567,8 @@ public static JGitText get() {
 	/***/ public String windowSizeMustBePowerOf2;
 	/***/ public String writeTimedOut;
 	/***/ public String writerAlreadyInitialized;
+	/***/ public String writingCommitGraph;
+	/***/ public String writingMultiPackIndex;
 	/***/ public String writingNotPermitted;
 	/***/ public String writingNotSupported;
 	/***/ public String writingObjects;
@@ -47,6 +47,7 @@
 import java.net.URISyntaxException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Date;
 import java.util.List;
 import java.util.concurrent.Callable;
 
@@ -58,19 +59,26 @@
 import org.eclipse.jgit.errors.MissingObjectException;
 import org.eclipse.jgit.lib.ConfigConstants;
 import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
 import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
 import org.eclipse.jgit.lib.ProgressMonitor;
 import org.eclipse.jgit.lib.Ref;
 import org.eclipse.jgit.lib.RefUpdate;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevTree;
 import org.eclipse.jgit.revwalk.RevWalk;
 import org.eclipse.jgit.transport.CredentialsProvider;
 import org.eclipse.jgit.transport.FetchResult;
+import org.eclipse.jgit.transport.FilterSpec;
+import org.eclipse.jgit.transport.PromisorRemote;
 import org.eclipse.jgit.transport.RefSpec;
 import org.eclipse.jgit.transport.RemoteConfig;
 import org.eclipse.jgit.transport.TagOpt;
 import org.eclipse.jgit.transport.URIish;
+import org.eclipse.jgit.treewalk.TreeWalk;
 
 /**
  * Clone a repository into a new working directory
@@ -102,6 +110,12 @@ public class CloneCommand implements Callable<Git> {
 
 	private Collection<String> branchesToClone;
 
+	private int depth;
+
+	private Date shallowSince;
+
+	private FilterSpec filterSpec = FilterSpec.NO_FILTER;
+
 	/**
 	 * Executes the {@code Clone} command.
 	 *
@@ -150,6 +164,16 @@ private FetchResult fetch(Repository repo, URIish u)
 		refSpec = refSpec.setSourceDestination(Constants.R_HEADS + "*", dst + "/*"); //$NON-NLS-1$ //$NON-NLS-2$
 
 		config.addFetchRefSpec(refSpec);
+		if (!filterSpec.isNoOp()) {
+			// Every later fetch from the remote uses the same filter, and
+			// the objects it leaves out are fetched from it on demand.
+			config.setPartialCloneFilter(filterSpec.filterLine());
+			repo.getConfig().setInt(ConfigConstants.CONFIG_CORE_SECTION, null,
+					ConfigConstants.CONFIG_KEY_REPO_FORMAT_VERSION, 1);
+			repo.getConfig().setString(
+					ConfigConstants.CONFIG_EXTENSIONS_SECTION, null,
+					ConfigConstants.CONFIG_KEY_PARTIALCLONE, remote);
+		}
 		config.update(repo.getConfig());
 
 		repo.getConfig().save();
@@ -158,8 +182,14 @@ private FetchResult fetch(Repository repo, URIish u)
 		FetchCommand command = new FetchCommand(repo);
 		command.setRemote(remote);
 		command.setProgressMonitor(monitor);
-		command.setTagOpt(TagOpt.FETCH_TAGS);
 		command.setTimeout(timeout);
+		if (depth != 0 || shallowSince != null) {
+			// Every tag would bring in its own slice of old history.
+			command.setTagOpt(TagOpt.AUTO_FOLLOW);
+			command.setDepth(depth);
+			command.setShallowSince(shallowSince);
+		} else
+			command.setTagOpt(TagOpt.FETCH_TAGS);
 		if (credentialsProvider != null)
 			command.setCredentialsProvider(credentialsProvider);
 
@@ -214,6 +244,8 @@ private void checkout(Repository repo, FetchResult result)
 		u.forceUpdate();
 
 		if (!bare) {
+			if (!filterSpec.isNoOp())
+				fetchMissingBlobs(repo, commit.getTree());
 			DirCache dc = repo.lockDirCache();
 			DirCacheCheckout co = new DirCacheCheckout(repo, dc,
 					commit.getTree());
@@ -221,6 +253,32 @@ private void checkout(Repository repo, FetchResult result)
 		}
 	}
 
+	/**
+	 * Fetch the blobs the checkout needs with one request, instead of one
+	 * request for each file as the checkout reads them.
+	 */
+	private static void fetchMissingBlobs(Repository repo, RevTree tree)
+			throws IOException {
+		List<ObjectId> missing = new ArrayList<ObjectId>();
+		TreeWalk tw = new TreeWalk(repo);
+		try {
+			tw.addTree(tree);
+			tw.setRecursive(true);
+			ObjectReader reader = tw.getObjectReader();
+			while (tw.next()) {
+				if (FileMode.GITLINK.equals(tw.getRawMode(0)))
+					continue;
+				ObjectId id = tw.getObjectId(0);
+				if (!reader.has(id))
+					missing.add(id);
+			}
+		} finally {
+			tw.release();
+		}
+		if (!missing.isEmpty())
+			new PromisorRemote(repo).fetch(missing);
+	}
+
 	private Ref findBranchToCheckout(FetchResult result) {
 		Ref foundBranch = null;
 		final Ref idHEAD = result.getAdvertisedRef(Constants.HEAD);
@@ -384,4 +442,41 @@ public CloneCommand setNoCheckout(boolean noCheckout) {
 		return this;
 	}
 
+	/**
+	 * @param depth
+	 *            number of commits to clone from the tip of each branch, at
+	 *            least 1; 0 clones the complete history. A limited clone
+	 *            only follows tags pointing into the cloned history.
+	 * @return {@code this}
+	 */
+	public CloneCommand setDepth(int depth) {
+		this.depth = depth;
+		return this;
+	}
+
+	/**
+	 * @param since
+	 *            commits older than this are not cloned; null clones the
+	 *            complete history. A limited clone only follows tags pointing
+	 *            into the cloned history.
+	 * @return {@code this}
+	 */
+	public CloneCommand setShallowSince(Date since) {
+		this.shallowSince = since;
+		return this;
+	}
+
+	/**
+	 * @param filter
+	 *            objects to leave out of the clone, such as
+	 *            {@code FilterSpec.withBlobLimit(0)} for all blobs. The clone
+	 *            becomes a partial clone: blobs the checkout needs are fetched
+	 *            right away, others when they are first read.
+	 * @return {@code this}
+	 */
+	public CloneCommand setFilterSpec(FilterSpec filter) {
+		this.filterSpec = filter != null ? filter : FilterSpec.NO_FILTER;
+		return this;
+	}
+
 }
@@ -45,6 +45,7 @@
 import java.net.URISyntaxException;
 import java.text.MessageFormat;
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.List;
 
 import org.eclipse.jgit.JGitText;
@@ -61,6 +62,7 @@
 import org.eclipse.jgit.transport.FetchResult;
 import org.eclipse.jgit.transport.RefSpec;
 import org.eclipse.jgit.transport.TagOpt;
+import org.eclipse.jgit.transport.TransferConfig.NegotiationAlgorithm;
 import org.eclipse.jgit.transport.Transport;
 
 /**
@@ -93,6 +95,12 @@ public class FetchCommand extends GitCommand<FetchResult> {
 
 	private TagOpt tagOption;
 
+	private int depth;
+
+	private Date shallowSince;
+
+	private NegotiationAlgorithm negotiationAlgorithm;
+
 	/**
 	 * @param repo
 	 */
@@ -130,6 +138,10 @@ public FetchResult call() throws JGitInternalException,
 				if (tagOption != null)
 					transport.setTagOpt(tagOption);
 				transport.setFetchThin(thin);
+				transport.setDepth(depth);
+				transport.setDeepenSince(shallowSince);
+				if (negotiationAlgorithm != null)
+					transport.setNegotiationAlgorithm(negotiationAlgorithm);
 				if (credentialsProvider != null)
 					transport.setCredentialsProvider(credentialsProvider);
 
@@ -353,4 +365,59 @@ public FetchCommand setTagOpt(TagOpt tagOpt) {
 		this.tagOption = tagOpt;
 		return this;
 	}
+
+	/**
+	 * @return number of commits fetched from the tip of each ref; 0 if the
+	 *         complete history is fetched.
+	 */
+	public int getDepth() {
+		return depth;
+	}
+
+	/**
+	 * Limit the fetch to a number of commits from the tip of each ref,
+	 * creating or deepening a shallow repository.
+	 *
+	 * @param depth
+	 *            number of commits, at least 1; 0 fetches the complete
+	 *            history.
+	 * @return {@code this}
+	 */
+	public FetchCommand setDepth(int depth) {
+		checkCallable();
+		this.depth = depth;
+		return this;
+	}
+
+	/**
+	 * Limit the fetch to the commits made after a point in time, creating or
+	 * deepening a shallow repository.
+	 *
+	 * @param since
+	 *            commits older than this are not fetched; null fetches the
+	 *            complete history.
+	 * @return {@code this}
+	 */
+	public FetchCommand setShallowSince(Date since) {
+		checkCallable();
+		this.shallowSince = since;
+		return this;
+	}
+
+	/**
+	 * Select how the commits offered to the remote are chosen. If not set
+	 * the <code>fetch.negotiationAlgorithm</code> setting of the repository
+	 * is used.
+	 *
+	 * @param algorithm
+	 *            the strategy; {@link NegotiationAlgorithm#SKIPPING} needs
+	 *            fewer round trips when the local history is far ahead of
+	 *            the remote.
+	 * @return {@code this}
+	 */
+	public FetchCommand setNegotiationAlgorithm(NegotiationAlgorithm algorithm) {
+		checkCallable();
+		this.negotiationAlgorithm = algorithm;
+		return this;
+	}
 }
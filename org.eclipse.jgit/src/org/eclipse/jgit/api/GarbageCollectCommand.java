@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2011, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.api;
+
+import java.io.IOException;
+import java.text.MessageFormat;
+
+import org.eclipse.jgit.JGitText;
+import org.eclipse.jgit.api.errors.JGitInternalException;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ProgressMonitor;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.storage.file.FileRepository;
+import org.eclipse.jgit.storage.file.GC;
+
+/**
+ * A class used to execute a {@code gc} command. It has setters for all
+ * supported options and arguments of this command and a {@link #call()} method
+ * to finally execute the command. Each instance of this class should only be
+ * used for one invocation of the command (means: one call to {@link #call()})
+ * <p>
+ * Only repositories stored in the local file system can be collected.
+ *
+ * @see <a href="http://www.kernel.org/pub/software/scm/git/docs/git-gc.html"
+ *      >Git documentation about gc</a>
+ */
+public class GarbageCollectCommand extends GitCommand<GC.RepoStatistics> {
+	private ProgressMonitor monitor = NullProgressMonitor.INSTANCE;
+
+	private long expireAgeMillis = GC.DEFAULT_EXPIRE_AGE_MILLIS;
+
+	private long packExpireAgeMillis = GC.DEFAULT_PACK_EXPIRE_AGE_MILLIS;
+
+	private boolean incremental;
+
+	/**
+	 * @param repo
+	 */
+	protected GarbageCollectCommand(Repository repo) {
+		super(repo);
+	}
+
+	/**
+	 * @param monitor
+	 *            a progress monitor
+	 * @return this instance
+	 */
+	public GarbageCollectCommand setProgressMonitor(ProgressMonitor monitor) {
+		checkCallable();
+		this.monitor = monitor;
+		return this;
+	}
+
+	/**
+	 * During gc() or prune() each unreferenced, loose object which has been
+	 * created or modified in the last {@code age} milliseconds will not be
+	 * pruned. The default is two weeks.
+	 *
+	 * @param age
+	 *            grace period in milliseconds.
+	 * @return this instance
+	 */
+	public GarbageCollectCommand setExpireAgeMillis(long age) {
+		checkCallable();
+		this.expireAgeMillis = age;
+		return this;
+	}
+
+	/**
+	 * Pack files superseded by the new pack are only deleted once they are
+	 * older than {@code age} milliseconds. The default is one hour.
+	 *
+	 * @param age
+	 *            grace period in milliseconds.
+	 * @return this instance
+	 */
+	public GarbageCollectCommand setPackExpireAgeMillis(long age) {
+		checkCallable();
+		this.packExpireAgeMillis = age;
+		return this;
+	}
+
+	/**
+	 * Only merge loose objects and small recent packs, leaving large packs
+	 * untouched. See {@link GC#repackIncremental()}.
+	 *
+	 * @param incremental
+	 *            true to repack incrementally; false (the default) to rewrite
+	 *            all reachable objects into a single pack.
+	 * @return this instance
+	 */
+	public GarbageCollectCommand setIncremental(boolean incremental) {
+		checkCallable();
+		this.incremental = incremental;
+		return this;
+	}
+
+	/**
+	 * Executes the {@code gc} command.
+	 *
+	 * @return statistics of the repository after the collection.
+	 * @throws JGitInternalException
+	 *             the collection failed.
+	 */
+	public GC.RepoStatistics call() throws JGitInternalException {
+		checkCallable();
+		if (!(repo instanceof FileRepository))
+			throw new UnsupportedOperationException(MessageFormat.format(
+					JGitText.get().unsupportedGC, repo.getClass().getName()));
+
+		GC gc = new GC((FileRepository) repo);
+		gc.setProgressMonitor(monitor);
+		gc.setExpireAgeMillis(expireAgeMillis);
+		gc.setPackExpireAgeMillis(packExpireAgeMillis);
+		gc.setIncremental(incremental);
+		try {
+			gc.gc();
+			setCallable(false);
+			return gc.getStatistics();
+		} catch (IOException e) {
+			throw new JGitInternalException(e.getMessage(), e);
+		}
+	}
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2011, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.eclipse.jgit.lib;
+
+/**
+ * Precomputed headers of the commits in a repository.
+ * <p>
+ * A commit graph stores the parents, root tree, commit time and generation
+ * number of each commit it contains, allowing a
+ * {@link org.eclipse.jgit.revwalk.RevWalk} to traverse history without
+ * inflating and parsing commit objects.
+ * <p>
+ * Commits are identified by their position within the graph, which ranges
+ * from 0 to {@link #getCommitCount()} - 1. A graph is closed under ancestry:
+ * the parents of every commit in the graph are also in the graph.
+ * <p>
+ * The generation number of a commit without parents is 1, otherwise it is one
+ * more than the largest generation number of its parents. A commit can only
+ * reach commits with a smaller generation number.
+ */
+public abstract class CommitGraph {
+	/** Generation number used for commits not described by a graph. */
+	public static final int GENERATION_UNKNOWN = 0;
+
+	/** @return number of commits in this graph. */
+	public abstract int getCommitCount();
+
+	/**
+	 * Locate a commit within the graph.
+	 *
+	 * @param commit
+	 *            name of the commit.
+	 * @return position of the commit; -1 if the graph does not contain it.
+	 */
+	public abstract int findPosition(AnyObjectId commit);
+
+	/**
+	 * Get the name of a commit.
+	 *
+	 * @param position
+	 *            position of the commit.
+	 * @param dst
+	 *            buffer to receive the name of the commit.
+	 */
+	public abstract void getObjectId(int position, MutableObjectId dst);
+
+	/**
+	 * Get the root tree of a commit.
+	 *
+	 * @param position
+	 *            position of the commit.
+	 * @param dst
+	 *            buffer to receive the name of the commit's tree.
+	 */
+	public abstract void getTreeId(int position, MutableObjectId dst);
+
+	/**
+	 * @param position
+	 *            position of the commit.
+	 * @return number of parents of the commit.
+	 */
+	public abstract int getParentCount(int position);
+
+	/**
+	 * Get a parent of a commit.
+	 *
+	 * @param position
+	 *            position of the commit.
+	 * @param nth
+	 *            index of the parent, in the order they appear in the commit.
+	 * @return position of the parent.
+	 */
+	public abstract int getParent(int position, int nth);
+
+	/**
+	 * @param position
+	 *            position of the commit.
+	 * @return time from the commit's committer line, in seconds since the
+	 *         epoch.
+	 */
+	public abstract long getCommitTime(int position);
+
+	/**
+	 * @param position
+	 *            position of the commit.
+	 * @return generation number of the commit, always at least 1.
+	 */
+	public abstract int getGeneration(int position);
+}
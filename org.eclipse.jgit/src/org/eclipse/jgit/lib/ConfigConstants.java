@@ -66,6 +66,9 @@ public class ConfigConstants {
 	/** The "gerrit" section */
 	public static final String CONFIG_GERRIT_SECTION = "gerrit";
 
+	/** The "extensions" section */
+	public static final String CONFIG_EXTENSIONS_SECTION = "extensions";
+
 	/** The "algorithm" key */
 	public static final String CONFIG_KEY_ALGORITHM = "algorithm";
 
@@ -87,6 +90,9 @@ public class ConfigConstants {
 	/** The "repositoryformatversion" key */
 	public static final String CONFIG_KEY_REPO_FORMAT_VERSION = "repositoryformatversion";
 
+	/** The "partialclone" key */
+	public static final String CONFIG_KEY_PARTIALCLONE = "partialclone";
+
 	/** The "worktree" key */
 	public static final String CONFIG_KEY_WORKTREE = "worktree";
 
@@ -54,10 +54,17 @@ public class InflaterCache {
 
 	private static int openInflaterCount;
 
+	private static final InflaterCacheStats stats = new InflaterCacheStats();
+
 	static {
 		inflaterCache = new Inflater[SZ];
 	}
 
+	/** @return statistics of this cache. */
+	public static InflaterCacheStatsMBean getStats() {
+		return stats;
+	}
+
 	/**
 	 * Obtain an Inflater for decompression.
 	 * <p>
@@ -68,7 +75,12 @@ public class InflaterCache {
 	 */
 	public static Inflater get() {
 		final Inflater r = getImpl();
-		return r != null ? r : new Inflater(false);
+		if (r != null) {
+			stats.hits.increment();
+			return r;
+		}
+		stats.misses.increment();
+		return new Inflater(false);
 	}
 
 	private synchronized static Inflater getImpl() {
@@ -90,8 +102,10 @@ private synchronized static Inflater getImpl() {
 	public static void release(final Inflater i) {
 		if (i != null) {
 			i.reset();
-			if (releaseImpl(i))
+			if (releaseImpl(i)) {
+				stats.evictions.increment();
 				i.end();
+			}
 		}
 	}
 
@@ -103,6 +117,10 @@ private static synchronized boolean releaseImpl(final Inflater i) {
 		return true;
 	}
 
+	static synchronized int getPooledCount() {
+		return openInflaterCount;
+	}
+
 	private InflaterCache() {
 		throw new UnsupportedOperationException();
 	}
@@ -389,6 +389,18 @@ public void release() {
 		};
 	}
 
+	/**
+	 * Obtain the commit graph of the repository, if it has one.
+	 *
+	 * @return the commit graph; null if the repository does not provide one,
+	 *         in which case commits must be parsed from their objects.
+	 * @throws IOException
+	 *             the commit graph exists but cannot be read.
+	 */
+	public CommitGraph getCommitGraph() throws IOException {
+		return null;
+	}
+
 	/**
 	 * Advice from a {@link RevWalk} that a walk is starting from these roots.
 	 *
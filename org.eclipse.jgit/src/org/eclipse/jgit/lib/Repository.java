@@ -718,6 +718,36 @@ public Set<ObjectId> getAdditionalHaves() {
 		return Collections.emptySet();
 	}
 
+	/**
+	 * Commits whose parents are not present in this repository.
+	 * <p>
+	 * A shallow clone only contains the most recent history of the branches
+	 * it fetched. The oldest commits it has are recorded as shallow, and walks
+	 * treat them as if they had no parents.
+	 *
+	 * @return unmodifiable set of shallow commits; empty if the repository has
+	 *         its complete history.
+	 * @throws IOException
+	 *             the list of shallow commits cannot be read.
+	 */
+	public Set<ObjectId> getShallowCommits() throws IOException {
+		return Collections.emptySet();
+	}
+
+	/**
+	 * Replace the commits recorded as shallow.
+	 *
+	 * @param commits
+	 *            the new set of shallow commits; empty if the repository now
+	 *            has its complete history.
+	 * @throws IOException
+	 *             the list of shallow commits cannot be written.
+	 */
+	public void setShallowCommits(Set<ObjectId> commits) throws IOException {
+		if (!commits.isEmpty())
+			throw new IOException(JGitText.get().shallowCommitsNotSupported);
+	}
+
 	/**
 	 * Get a ref by name.
 	 *
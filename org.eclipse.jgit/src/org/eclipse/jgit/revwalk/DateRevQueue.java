@@ -71,14 +71,14 @@ public DateRevQueue() {
 
 	public void add(final RevCommit c) {
 		Entry q = head;
-		final long when = c.commitTime;
+		final long when = key(c);
 		final Entry n = newEntry(c);
-		if (q == null || when > q.commit.commitTime) {
+		if (q == null || when > key(q.commit)) {
 			n.next = q;
 			head = n;
 		} else {
 			Entry p = q.next;
-			while (p != null && p.commit.commitTime > when) {
+			while (p != null && key(p.commit) > when) {
 				q = p;
 				p = q.next;
 			}
@@ -126,6 +126,24 @@ boolean anybodyHasFlag(final int f) {
 		return false;
 	}
 
+	int unionOfFlagsWithout(final int f) {
+		int r = 0;
+		for (Entry q = head; q != null; q = q.next) {
+			if ((q.commit.flags & f) == 0)
+				r |= q.commit.flags;
+		}
+		return r;
+	}
+
+	/**
+	 * @param c
+	 *            the commit to sort.
+	 * @return sort key of the commit; larger keys are returned first.
+	 */
+	long key(final RevCommit c) {
+		return c.commitTime;
+	}
+
 	@Override
 	int outputType() {
 		return outputType | SORT_COMMIT_TIME_DESC;
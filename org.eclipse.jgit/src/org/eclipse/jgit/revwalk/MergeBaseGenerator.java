@@ -45,10 +45,13 @@
 
 import java.io.IOException;
 import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.eclipse.jgit.JGitText;
 import org.eclipse.jgit.errors.IncorrectObjectTypeException;
 import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.lib.CommitGraph;
 
 /**
  * Computes the merge base(s) of the starting commits.
@@ -77,7 +80,9 @@ class MergeBaseGenerator extends Generator {
 
 	private final RevWalk walker;
 
-	private final DateRevQueue pending;
+	private DateRevQueue pending;
+
+	private boolean generationOrder;
 
 	private int branchMask;
 
@@ -87,17 +92,35 @@ class MergeBaseGenerator extends Generator {
 
 	MergeBaseGenerator(final RevWalk w) {
 		walker = w;
-		pending = new DateRevQueue();
 	}
 
-	void init(final AbstractRevQueue p) {
+	void init(final AbstractRevQueue p) throws IOException {
 		try {
+			final List<RevCommit> starts = new ArrayList<RevCommit>();
 			for (;;) {
 				final RevCommit c = p.next();
 				if (c == null)
 					break;
-				add(c);
+				starts.add(c);
+			}
+
+			// With generation numbers for every starting commit, a commit
+			// is popped only after all of its descendants. Its flags are
+			// then final, and the walk can stop as soon as no pending
+			// commit can become a new merge base.
+			//
+			generationOrder = walker.getCommitGraph() != null;
+			for (final RevCommit c : starts) {
+				if (c.generation == CommitGraph.GENERATION_UNKNOWN)
+					generationOrder = false;
 			}
+			if (generationOrder)
+				pending = new GenerationRevQueue();
+			else
+				pending = new DateRevQueue();
+
+			for (final RevCommit c : starts)
+				add(c);
 		} finally {
 			// Always free the flags immediately. This ensures the flags
 			// will be available for reuse when the walk resets.
@@ -135,6 +158,16 @@ int outputType() {
 	RevCommit next() throws MissingObjectException,
 			IncorrectObjectTypeException, IOException {
 		for (;;) {
+			if (generationOrder
+					&& (pending.unionOfFlagsWithout(MERGE_BASE) & branchMask) != branchMask) {
+				// No remaining commit can reach all of the starting
+				// commits without also being below a merge base.
+				//
+				pending.clear();
+				walker.reader.walkAdviceEnd();
+				return null;
+			}
+
 			final RevCommit c = pending.next();
 			if (c == null) {
 				walker.reader.walkAdviceEnd();
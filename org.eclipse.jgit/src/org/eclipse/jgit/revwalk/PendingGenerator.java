@@ -107,6 +107,14 @@ class PendingGenerator extends Generator {
 
 	boolean canDispose;
 
+	/**
+	 * True if {@link #pending} is a {@link GenerationRevQueue}.
+	 * <p>
+	 * Commits are then popped only after all of their descendants, so their
+	 * flags are final and no over-scan is required.
+	 */
+	boolean generationOrder;
+
 	PendingGenerator(final RevWalk w, final DateRevQueue p,
 			final RevFilter f, final int out) {
 		walker = w;
@@ -118,6 +126,8 @@ class PendingGenerator extends Generator {
 
 	@Override
 	int outputType() {
+		if (generationOrder)
+			return output | SORT_TOPO;
 		return output | SORT_COMMIT_TIME_DESC;
 	}
 
@@ -153,6 +163,8 @@ RevCommit next() throws MissingObjectException,
 
 				if ((c.flags & UNINTERESTING) != 0) {
 					if (pending.everbodyHasFlag(UNINTERESTING)) {
+						if (generationOrder)
+							throw StopWalkException.INSTANCE;
 						final RevCommit n = pending.peek();
 						if (n != null && n.commitTime >= last.commitTime) {
 							// This is too close to call. The next commit we
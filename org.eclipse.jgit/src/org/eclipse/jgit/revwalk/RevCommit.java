@@ -53,6 +53,7 @@
 import org.eclipse.jgit.errors.IncorrectObjectTypeException;
 import org.eclipse.jgit.errors.MissingObjectException;
 import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.CommitGraph;
 import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.MutableObjectId;
 import org.eclipse.jgit.lib.ObjectInserter;
@@ -118,6 +119,9 @@ public static RevCommit parse(RevWalk rw, byte[] raw) {
 
 	int inDegree;
 
+	/** Generation number from the commit graph, 0 if not known. */
+	int generation;
+
 	private byte[] buffer;
 
 	/**
@@ -133,6 +137,15 @@ protected RevCommit(final AnyObjectId id) {
 	@Override
 	void parseHeaders(final RevWalk walk) throws MissingObjectException,
 			IncorrectObjectTypeException, IOException {
+		walk.loadShallowCommits();
+		final CommitGraph graph = walk.getCommitGraph();
+		if (graph != null && !walk.isShallowCommit(this)) {
+			final int pos = graph.findPosition(this);
+			if (0 <= pos) {
+				parseCommitGraph(walk, graph, pos);
+				return;
+			}
+		}
 		parseCanonical(walk, walk.getCachedBytes(this));
 	}
 
@@ -141,8 +154,10 @@ void parseBody(final RevWalk walk) throws MissingObjectException,
 			IncorrectObjectTypeException, IOException {
 		if (buffer == null) {
 			buffer = walk.getCachedBytes(this);
-			if ((flags & PARSED) == 0)
+			if ((flags & PARSED) == 0) {
+				walk.loadShallowCommits();
 				parseCanonical(walk, buffer);
+			}
 		}
 	}
 
@@ -152,7 +167,9 @@ void parseCanonical(final RevWalk walk, final byte[] raw) {
 		tree = walk.lookupTree(idBuffer);
 
 		int ptr = 46;
-		if (parents == null) {
+		if (parents == null && walk.isShallowCommit(this))
+			parents = NO_PARENTS;
+		else if (parents == null) {
 			RevCommit[] pList = new RevCommit[1];
 			int nParents = 0;
 			for (;;) {
@@ -197,6 +214,32 @@ else if (nParents == 1) {
 		flags |= PARSED;
 	}
 
+	void parseCommitGraph(final RevWalk walk, final CommitGraph graph,
+			final int pos) {
+		final MutableObjectId idBuffer = walk.idBuffer;
+		graph.getTreeId(pos, idBuffer);
+		tree = walk.lookupTree(idBuffer);
+
+		if (parents == null) {
+			final int nParents = graph.getParentCount(pos);
+			if (nParents == 0)
+				parents = NO_PARENTS;
+			else {
+				final RevCommit[] pList = new RevCommit[nParents];
+				for (int i = 0; i < nParents; i++) {
+					graph.getObjectId(graph.getParent(pos, i), idBuffer);
+					pList[i] = walk.lookupCommit(idBuffer);
+				}
+				parents = pList;
+			}
+		}
+
+		// In 2038 commitTime will overflow unless it is changed to long.
+		commitTime = (int) graph.getCommitTime(pos);
+		generation = graph.getGeneration(pos);
+		flags |= PARSED;
+	}
+
 	@Override
 	public final int getType() {
 		return Constants.OBJ_COMMIT;
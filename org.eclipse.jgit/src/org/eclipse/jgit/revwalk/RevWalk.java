@@ -48,9 +48,11 @@
 import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.EnumSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
 
 import org.eclipse.jgit.JGitText;
 import org.eclipse.jgit.errors.CorruptObjectException;
@@ -60,6 +62,7 @@
 import org.eclipse.jgit.errors.RevWalkException;
 import org.eclipse.jgit.lib.AnyObjectId;
 import org.eclipse.jgit.lib.AsyncObjectLoaderQueue;
+import org.eclipse.jgit.lib.CommitGraph;
 import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.MutableObjectId;
 import org.eclipse.jgit.lib.ObjectId;
@@ -192,6 +195,16 @@ public class RevWalk implements Iterable<RevCommit> {
 
 	private boolean retainBody;
 
+	private boolean useCommitGraph;
+
+	private boolean commitGraphLoaded;
+
+	private CommitGraph commitGraph;
+
+	private boolean shallowCommitsLoaded;
+
+	private Set<? extends ObjectId> shallowCommits;
+
 	/**
 	 * Create a new revision walker for a given repository.
 	 *
@@ -394,6 +407,9 @@ public boolean isMergedInto(final RevCommit base, final RevCommit tip)
 			treeFilter = TreeFilter.ALL;
 			markStart(tip);
 			markStart(base);
+			if (base.generation != CommitGraph.GENERATION_UNKNOWN
+					&& tip.generation != CommitGraph.GENERATION_UNKNOWN)
+				return isReachable(base, tip);
 			return next() == base;
 		} finally {
 			filter = oldRF;
@@ -401,6 +417,34 @@ public boolean isMergedInto(final RevCommit base, final RevCommit tip)
 		}
 	}
 
+	private boolean isReachable(final RevCommit base, final RevCommit tip)
+			throws MissingObjectException, IncorrectObjectTypeException,
+			IOException {
+		// A commit can only reach commits with a smaller generation
+		// number, so the walk does not need to go below the base.
+		//
+		final LIFORevQueue q = new LIFORevQueue();
+		tip.flags |= TEMP_MARK;
+		q.add(tip);
+		for (;;) {
+			final RevCommit c = q.next();
+			if (c == null)
+				return false;
+			if (c == base)
+				return true;
+			for (final RevCommit p : c.parents) {
+				if ((p.flags & TEMP_MARK) != 0)
+					continue;
+				if ((p.flags & PARSED) == 0)
+					p.parseHeaders(this);
+				p.flags |= TEMP_MARK;
+				if (base.generation <= p.generation
+						|| p.generation == CommitGraph.GENERATION_UNKNOWN)
+					q.add(p);
+			}
+		}
+	}
+
 	/**
 	 * Pop the next most recent commit.
 	 *
@@ -577,6 +621,104 @@ public void setRetainBody(final boolean retain) {
 		retainBody = retain;
 	}
 
+	/**
+	 * Should commit headers be obtained from the repository's commit graph?
+	 *
+	 * @return true if the commit graph is used when available.
+	 * @see #setUseCommitGraph(boolean)
+	 */
+	public boolean isUseCommitGraph() {
+		return useCommitGraph;
+	}
+
+	/**
+	 * Set whether commit headers are obtained from the commit graph.
+	 * <p>
+	 * When enabled and the repository provides a {@link CommitGraph}, the
+	 * parents, tree and commit time of any commit described by the graph are
+	 * read from the graph instead of inflating and parsing the commit object.
+	 * The graph's generation numbers are also used to order and end walks
+	 * early, so the output order of a walk that does not request
+	 * {@link RevSort#COMMIT_TIME_DESC} may differ from a walk without the
+	 * graph.
+	 * <p>
+	 * Commits parsed from the graph do not have a body, even if
+	 * {@link #isRetainBody()} is true. The application must call
+	 * {@link #parseBody(RevObject)} before accessing the message or the
+	 * identities of such commits.
+	 *
+	 * @param use
+	 *            true to use the commit graph when available.
+	 */
+	public void setUseCommitGraph(final boolean use) {
+		useCommitGraph = use;
+		commitGraphLoaded = false;
+		commitGraph = null;
+	}
+
+	/**
+	 * @return the commit graph to parse commits from; null if the graph is not
+	 *         in use, or the repository has no commit graph.
+	 * @throws IOException
+	 *             the commit graph cannot be read.
+	 */
+	CommitGraph getCommitGraph() throws IOException {
+		if (!useCommitGraph)
+			return null;
+		if (!commitGraphLoaded) {
+			commitGraph = reader.getCommitGraph();
+			commitGraphLoaded = true;
+		}
+		return commitGraph;
+	}
+
+	/**
+	 * Get the commits this walk treats as having no parents.
+	 * <p>
+	 * Unless {@link #setShallowCommits(Set)} was used, these are the shallow
+	 * commits of the repository the walk was created for.
+	 *
+	 * @return the shallow commits; empty if the walk sees complete histories.
+	 * @throws IOException
+	 *             the repository's shallow commits cannot be read.
+	 */
+	public Set<? extends ObjectId> getShallowCommits() throws IOException {
+		loadShallowCommits();
+		if (shallowCommits == null)
+			return Collections.emptySet();
+		return shallowCommits;
+	}
+
+	/**
+	 * Set the commits this walk treats as having no parents.
+	 * <p>
+	 * A shallow repository does not contain the parents of its oldest
+	 * commits, and a server sending a shallow pack must not walk past the
+	 * boundary it sends. The walk stops at these commits, as if they were
+	 * root commits. This method must be called before any of the commits is
+	 * parsed by this walk.
+	 *
+	 * @param commits
+	 *            the commits to cut the history at; empty to walk complete
+	 *            histories.
+	 */
+	public void setShallowCommits(final Set<? extends ObjectId> commits) {
+		shallowCommits = commits.isEmpty() ? null : commits;
+		shallowCommitsLoaded = true;
+	}
+
+	void loadShallowCommits() throws IOException {
+		if (!shallowCommitsLoaded) {
+			if (repository != null)
+				setShallowCommits(repository.getShallowCommits());
+			shallowCommitsLoaded = true;
+		}
+	}
+
+	boolean isShallowCommit(final AnyObjectId id) {
+		return shallowCommits != null && shallowCommits.contains(id);
+	}
+
 	/**
 	 * Locate a reference to a blob without loading it.
 	 * <p>
@@ -807,9 +949,19 @@ public RevTag parseTag(final AnyObjectId id) throws MissingObjectException,
 	public RevObject parseAny(final AnyObjectId id)
 			throws MissingObjectException, IOException {
 		RevObject r = objects.get(id);
-		if (r == null)
-			r = parseNew(id, reader.open(id));
-		else
+		if (r == null) {
+			loadShallowCommits();
+			final CommitGraph graph = getCommitGraph();
+			final int pos = graph != null && !isShallowCommit(id) ? graph
+					.findPosition(id) : -1;
+			if (0 <= pos) {
+				final RevCommit c = createCommit(id);
+				c.parseCommitGraph(this, graph, pos);
+				objects.add(c);
+				r = c;
+			} else
+				r = parseNew(id, reader.open(id));
+		} else
 			parseHeaders(r);
 		return r;
 	}
@@ -822,6 +974,7 @@ private RevObject parseNew(AnyObjectId id, ObjectLoader ldr)
 		switch (type) {
 		case Constants.OBJ_COMMIT: {
 			final RevCommit c = createCommit(id);
+			loadShallowCommits();
 			c.parseCanonical(this, getCachedBytes(c, ldr));
 			r = c;
 			break;
@@ -921,6 +1074,7 @@ public RevObject next() throws MissingObjectException,
 
 				ObjectId id = lItr.getObjectId();
 				ObjectLoader ldr = lItr.open();
+				loadShallowCommits();
 				RevObject r = objects.get(id);
 				if (r == null)
 					r = parseNew(id, ldr);
@@ -1288,6 +1442,8 @@ public ObjectWalk toObjectWalkWithSameObjects() {
 		RevWalk rw = ow;
 		rw.objects = objects;
 		rw.freeFlags = freeFlags;
+		rw.shallowCommitsLoaded = shallowCommitsLoaded;
+		rw.shallowCommits = shallowCommits;
 		return ow;
 	}
 
@@ -51,6 +51,7 @@
 import org.eclipse.jgit.JGitText;
 import org.eclipse.jgit.errors.IncorrectObjectTypeException;
 import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.lib.CommitGraph;
 import org.eclipse.jgit.revwalk.filter.AndRevFilter;
 import org.eclipse.jgit.revwalk.filter.RevFilter;
 import org.eclipse.jgit.treewalk.filter.TreeFilter;
@@ -120,9 +121,12 @@ RevCommit next() throws MissingObjectException,
 			boundary = false;
 		}
 
+		final boolean generationOrder = useGenerationOrder();
 		final DateRevQueue pending;
 		int pendingOutputType = 0;
-		if (q instanceof DateRevQueue)
+		if (generationOrder)
+			pending = new GenerationRevQueue(q);
+		else if (q instanceof DateRevQueue)
 			pending = (DateRevQueue)q;
 		else
 			pending = new DateRevQueue(q);
@@ -133,6 +137,7 @@ RevCommit next() throws MissingObjectException,
 
 		walker.queue = q;
 		g = new PendingGenerator(w, pending, rf, pendingOutputType);
+		((PendingGenerator) g).generationOrder = generationOrder;
 
 		if (boundary) {
 			// Because the boundary generator may produce uninteresting
@@ -159,7 +164,7 @@ RevCommit next() throws MissingObjectException,
 			g = new LIFORevQueue(g);
 		if (boundary)
 			g = new BoundaryGenerator(w, g);
-		else if (uninteresting) {
+		else if (uninteresting && !generationOrder) {
 			// Try to protect ourselves from uninteresting commits producing
 			// due to clock skew in the commit time stamps. Delay such that
 			// we have a chance at coloring enough of the graph correctly,
@@ -174,4 +179,19 @@ else if (uninteresting) {
 		w.pending = g;
 		return g.next();
 	}
+
+	private boolean useGenerationOrder() throws IOException {
+		// Generation order is topological, but not by commit time. If
+		// the application asked for commit time order it must be used.
+		//
+		if (walker.hasRevSort(RevSort.COMMIT_TIME_DESC))
+			return false;
+		if (walker.getCommitGraph() == null)
+			return false;
+		for (final RevCommit c : walker.roots) {
+			if (c.generation == CommitGraph.GENERATION_UNKNOWN)
+				return false;
+		}
+		return true;
+	}
 }
@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2011, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.eclipse.jgit.storage.file;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+import org.eclipse.jgit.lib.InflaterCache;
+import org.eclipse.jgit.lib.InflaterCacheStatsMBean;
+
+/**
+ * Access to the statistics of the process wide caches used to read objects.
+ * <p>
+ * Reading a statistic sums counters that the caches update without locking,
+ * so sampling does not slow down concurrent readers. The same statistics can
+ * be published to the platform MBean server with {@link #registerMBeans()},
+ * under the names <code>org.eclipse.jgit:type=WindowCache</code>,
+ * <code>type=DeltaBaseCache</code>, <code>type=UnpackedObjectCache</code> and
+ * <code>type=InflaterCache</code>.
+ */
+public class CacheStatistics {
+	private static final String DOMAIN = "org.eclipse.jgit";
+
+	/** @return statistics of the pack window cache. */
+	public static WindowCacheStatsMBean getWindowCacheStats() {
+		return WindowCache.stats;
+	}
+
+	/** @return statistics of the delta base cache. */
+	public static DeltaBaseCacheStatsMBean getDeltaBaseCacheStats() {
+		return DeltaBaseCache.stats;
+	}
+
+	/** @return statistics of the loose object caches. */
+	public static UnpackedObjectCacheStatsMBean getUnpackedObjectCacheStats() {
+		return UnpackedObjectCache.stats;
+	}
+
+	/** @return statistics of the inflater pool. */
+	public static InflaterCacheStatsMBean getInflaterCacheStats() {
+		return InflaterCache.getStats();
+	}
+
+	/**
+	 * Register the cache statistics with the platform MBean server.
+	 * <p>
+	 * Beans that are already registered are left alone, so calling this more
+	 * than once is harmless.
+	 *
+	 * @throws JMException
+	 *             a bean could not be registered.
+	 */
+	public static void registerMBeans() throws JMException {
+		register("WindowCache", getWindowCacheStats(),
+				WindowCacheStatsMBean.class);
+		register("DeltaBaseCache", getDeltaBaseCacheStats(),
+				DeltaBaseCacheStatsMBean.class);
+		register("UnpackedObjectCache", getUnpackedObjectCacheStats(),
+				UnpackedObjectCacheStatsMBean.class);
+		register("InflaterCache", getInflaterCacheStats(),
+				InflaterCacheStatsMBean.class);
+	}
+
+	/**
+	 * Remove the beans added by {@link #registerMBeans()}.
+	 *
+	 * @throws JMException
+	 *             a bean could not be unregistered.
+	 */
+	public static void unregisterMBeans() throws JMException {
+		final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		for (String type : new String[] { "WindowCache", "DeltaBaseCache",
+				"UnpackedObjectCache", "InflaterCache" }) {
+			final ObjectName name = name(type);
+			if (server.isRegistered(name))
+				server.unregisterMBean(name);
+		}
+	}
+
+	private static ObjectName name(final String type) throws JMException {
+		return new ObjectName(DOMAIN + ":type=" + type);
+	}
+
+	private static <T> void register(final String type, final T impl,
+			final Class<T> iface) throws JMException {
+		final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		final ObjectName name = name(type);
+		if (!server.isRegistered(name))
+			server.registerMBean(new StandardMBean(impl, iface), name);
+	}
+
+	private CacheStatistics() {
+		throw new UnsupportedOperationException();
+	}
+}
@@ -146,6 +146,16 @@ Collection<? extends CachedPack> getCachedPacks() throws IOException {
 		return wrapped.getCachedPacks();
 	}
 
+	@Override
+	PackBitmapIndex getBitmapIndex() throws IOException {
+		return wrapped.getBitmapIndex();
+	}
+
+	@Override
+	CommitGraphFile getCommitGraph() throws IOException {
+		return wrapped.getCommitGraph();
+	}
+
 	@Override
 	AlternateHandle[] myAlternates() {
 		if (alts == null) {
@@ -0,0 +1,341 @@
+/*
+ * Copyright (C) 2011, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.eclipse.jgit.storage.file;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Window cache holding windows outside of the Java heap.
+ * <p>
+ * Windows are loaded into direct buffers, or memory mapped when
+ * {@link WindowCacheConfig#isPackedGitMMAP()} is set, and are strongly held
+ * by the cache until it evicts them. Unlike {@link SoftWindowCache} the
+ * garbage collector has no say in which windows stay cached, the number of
+ * bytes held never exceeds {@link WindowCacheConfig#getPackedGitLimit()}, and
+ * the cached data does not add to the size of the Java heap.
+ * <p>
+ * Eviction follows the CLOCK algorithm. A hit sets a reference bit on the
+ * window, and a hand sweeping the hash table clears the bits it passes over
+ * until it finds a window that has not been used since the previous sweep.
+ * <p>
+ * To resist large sequential scans, such as a clone reading an entire pack,
+ * newly loaded windows must also pass a TinyLFU admission test once the cache
+ * is full: an approximate access frequency is kept for every window, cached
+ * or not, and a new window only replaces the CLOCK victim if it has been
+ * requested more often. A rejected window is still returned to the caller,
+ * but is not retained.
+ * <p>
+ * Lookups never block. Insertions and evictions are serialized through a
+ * single lock, which is only taken after a window was read from disk.
+ */
+class ClockWindowCache extends WindowCache {
+	/** Number of entries in {@link #table}. */
+	private final int tableSize;
+
+	/** Hash bucket directory; entries are chained below. */
+	private final AtomicReferenceArray<Entry> table;
+
+	/** Lock held while modifying {@link #table} or moving {@link #hand}. */
+	private final ReentrantLock evictLock;
+
+	/** Approximate access frequency of recently requested windows. */
+	private final FrequencySketch sketch;
+
+	/** Next {@link #table} bucket examined by the CLOCK hand. */
+	private int hand;
+
+	ClockWindowCache(final WindowCacheConfig cfg) {
+		super(cfg, true);
+		final long windows = maxBytes / cfg.getPackedGitWindowSize();
+		tableSize = (int) Math.min(2 * windows + 1, 2000000000);
+		table = new AtomicReferenceArray<Entry>(tableSize);
+		evictLock = new ReentrantLock();
+		sketch = new FrequencySketch((int) Math.min(windows, 1 << 24));
+	}
+
+	@Override
+	ByteWindow getOrLoad(final PackFile pack, final long position)
+			throws IOException {
+		final int slot = slot(pack, position);
+		ByteWindow v = scan(table.get(slot), pack, position);
+		if (v != null)
+			return v;
+
+		synchronized (lock(pack, position)) {
+			v = scan(table.get(slot), pack, position);
+			if (v != null)
+				return v;
+
+			v = load(pack, position);
+			evictLock.lock();
+			try {
+				if (!admit(slot, pack, position, v))
+					close(pack);
+			} finally {
+				evictLock.unlock();
+			}
+		}
+		return v;
+	}
+
+	private ByteWindow scan(Entry e, final PackFile pack, final long position) {
+		for (; e != null; e = e.next) {
+			if (e.pack == pack && e.position == position) {
+				if (!e.referenced) {
+					// Count each window at most once per revolution of the
+					// hand, so hits on hot windows don't keep writing into
+					// the shared sketch.
+					//
+					e.referenced = true;
+					sketch.increment(e.keyHash);
+				}
+				stats.hits.increment();
+				return e.window;
+			}
+		}
+		return null;
+	}
+
+	private boolean admit(final int slot, final PackFile pack,
+			final long position, final ByteWindow v) {
+		final int size = v.size();
+		final int keyHash = keyHash(pack, position);
+		sketch.increment(keyHash);
+
+		boolean compared = false;
+		while (maxFiles < openFiles.get()
+				|| maxBytes < openBytes.get() + size) {
+			final Entry victim = findVictim();
+			if (victim == null)
+				break;
+			if (!compared) {
+				if (sketch.frequency(keyHash) <= sketch
+						.frequency(victim.keyHash))
+					return false;
+				compared = true;
+			}
+			remove(victim);
+			stats.evictions.increment();
+		}
+
+		openBytes.addAndGet(size);
+		table.set(slot, new Entry(table.get(slot), pack, position, keyHash,
+				v));
+		return true;
+	}
+
+	private Entry findVictim() {
+		// Two full revolutions are enough: the first clears every reference
+		// bit it passes, so the second must stop at the first entry it sees.
+		//
+		for (int n = 2 * tableSize; 0 < n; n--) {
+			for (Entry e = table.get(hand); e != null; e = e.next) {
+				if (!e.referenced)
+					return e;
+				e.referenced = false;
+			}
+			if (++hand == tableSize)
+				hand = 0;
+		}
+		return null;
+	}
+
+	private void remove(final Entry victim) {
+		final int slot = slot(victim.pack, victim.position);
+		table.set(slot, remove(table.get(slot), victim));
+		openBytes.addAndGet(-victim.window.size());
+		close(victim.pack);
+	}
+
+	@Override
+	void removeAll() {
+		evictLock.lock();
+		try {
+			for (int s = 0; s < tableSize; s++) {
+				for (Entry e = table.get(s); e != null; e = e.next)
+					remove(e);
+			}
+		} finally {
+			evictLock.unlock();
+		}
+	}
+
+	@Override
+	void removeAll(final PackFile pack) {
+		evictLock.lock();
+		try {
+			for (int s = 0; s < tableSize; s++) {
+				for (Entry e = table.get(s); e != null; e = e.next) {
+					if (e.pack == pack)
+						remove(e);
+				}
+			}
+		} finally {
+			evictLock.unlock();
+		}
+	}
+
+	private int slot(final PackFile pack, final long position) {
+		return (hash(pack.hash, position) >>> 1) % tableSize;
+	}
+
+	private int keyHash(final PackFile pack, final long position) {
+		final int h = hash(pack.hash, position) * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	private static Entry remove(final Entry top, final Entry victim) {
+		if (top == null)
+			return null;
+		if (top.window == victim.window)
+			return top.next;
+		final Entry n = remove(top.next, victim);
+		return n == top.next ? top : new Entry(n, top);
+	}
+
+	private static class Entry {
+		/** Next entry in the hash table's chain list. */
+		final Entry next;
+
+		final PackFile pack;
+
+		final long position;
+
+		final int keyHash;
+
+		final ByteWindow window;
+
+		/** Set on every hit, cleared as the CLOCK hand passes over. */
+		volatile boolean referenced;
+
+		Entry(final Entry next, final PackFile pack, final long position,
+				final int keyHash, final ByteWindow window) {
+			this.next = next;
+			this.pack = pack;
+			this.position = position;
+			this.keyHash = keyHash;
+			this.window = window;
+		}
+
+		Entry(final Entry next, final Entry src) {
+			this(next, src.pack, src.position, src.keyHash, src.window);
+			referenced = src.referenced;
+		}
+	}
+
+	/**
+	 * Count-min sketch of 4 bit counters estimating access frequencies.
+	 * <p>
+	 * Updates are not synchronized. A lost or torn increment only skews an
+	 * estimate, which the admission policy tolerates by design. All counters
+	 * are halved once enough increments have been recorded, so the estimates
+	 * favor recent activity.
+	 */
+	private static final class FrequencySketch {
+		private static final long[] SEEDS = { 0xc3a5c85c97cb3127L,
+				0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L };
+
+		private static final long RESET_MASK = 0x7777777777777777L;
+
+		private final long[] table;
+
+		private final int tableMask;
+
+		private final int sampleSize;
+
+		private int size;
+
+		FrequencySketch(final int capacity) {
+			int n = 16;
+			while (n < capacity)
+				n <<= 1;
+			table = new long[n];
+			tableMask = n - 1;
+			sampleSize = 10 * n;
+		}
+
+		int frequency(final int hash) {
+			final int start = (hash & 3) << 2;
+			int freq = Integer.MAX_VALUE;
+			for (int i = 0; i < 4; i++) {
+				final int shift = (start + i) << 2;
+				final int count = (int) ((table[indexOf(hash, i)] >>> shift) & 0xf);
+				freq = Math.min(freq, count);
+			}
+			return freq;
+		}
+
+		void increment(final int hash) {
+			final int start = (hash & 3) << 2;
+			boolean added = false;
+			for (int i = 0; i < 4; i++) {
+				final int idx = indexOf(hash, i);
+				final int shift = (start + i) << 2;
+				final long mask = 0xfL << shift;
+				final long v = table[idx];
+				if ((v & mask) != mask) {
+					table[idx] = v + (1L << shift);
+					added = true;
+				}
+			}
+			if (added && ++size >= sampleSize)
+				reset();
+		}
+
+		private void reset() {
+			for (int i = 0; i < table.length; i++)
+				table[i] = (table[i] >>> 1) & RESET_MASK;
+			size /= 2;
+		}
+
+		private int indexOf(final int hash, final int i) {
+			long h = (SEEDS[i] + hash) * SEEDS[i];
+			h += h >>> 32;
+			return ((int) h) & tableMask;
+		}
+	}
+}
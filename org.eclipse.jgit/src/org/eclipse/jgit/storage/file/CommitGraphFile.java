@@ -0,0 +1,289 @@
+/*
+ * Copyright (C) 2011, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.eclipse.jgit.storage.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.text.MessageFormat;
+
+import org.eclipse.jgit.JGitText;
+import org.eclipse.jgit.errors.CorruptObjectException;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.CommitGraph;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.MutableObjectId;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.util.IO;
+import org.eclipse.jgit.util.NB;
+
+/**
+ * A commit graph read from {@code objects/info/commit-graph}.
+ * <p>
+ * The file uses the same layout as C Git. After a short header a table of
+ * contents lists the chunks of the file; each chunk is identified by a four
+ * byte name:
+ *
+ * <pre>
+ * OIDF  fanout table, 256 * uint32 cumulative commit counts
+ * OIDL  sorted commit names, N * byte[20]
+ * CDAT  commit data, N * {
+ *         byte[20] tree
+ *         uint32   first parent position, or PARENT_NONE
+ *         uint32   second parent position, PARENT_NONE, or
+ *                  EXTRA_EDGES | index of the remaining parents in EDGE
+ *         uint32   generation &lt;&lt; 2 | upper 2 bits of the commit time
+ *         uint32   lower 32 bits of the commit time
+ *       }
+ * EDGE  parents of octopus merges, uint32 positions; the last parent
+ *       of each commit has LAST_EDGE set
+ * </pre>
+ *
+ * The file ends with the SHA-1 of its content.
+ */
+class CommitGraphFile extends CommitGraph {
+	static final byte[] SIGNATURE = { 'C', 'G', 'P', 'H' };
+
+	static final int VERSION = 1;
+
+	static final int HASH_SHA1 = 1;
+
+	static final int CHUNK_OID_FANOUT = 0x4f494446;
+
+	static final int CHUNK_OID_LOOKUP = 0x4f49444c;
+
+	static final int CHUNK_COMMIT_DATA = 0x43444154;
+
+	static final int CHUNK_EXTRA_EDGES = 0x45444745;
+
+	static final int PARENT_NONE = 0x70000000;
+
+	static final int EXTRA_EDGES = 0x80000000;
+
+	static final int LAST_EDGE = 0x80000000;
+
+	static final int GENERATION_MAX = 0x3fffffff;
+
+	static final int COMMIT_DATA_WIDTH = Constants.OBJECT_ID_LENGTH + 16;
+
+	/**
+	 * Read a commit graph from a file.
+	 *
+	 * @param path
+	 *            location of the graph.
+	 * @return the graph.
+	 * @throws IOException
+	 *             the file cannot be read, or is not a valid commit graph.
+	 */
+	static CommitGraphFile open(File path) throws IOException {
+		final byte[] raw = IO.readFully(path);
+		final int hdrLen = 8;
+		if (raw.length < hdrLen + 12 + Constants.OBJECT_ID_LENGTH
+				|| !isSignature(raw))
+			throw new CorruptObjectException(MessageFormat.format(
+					JGitText.get().notACommitGraph, path));
+
+		final int trailer = raw.length - Constants.OBJECT_ID_LENGTH;
+		final MessageDigest md = Constants.newMessageDigest();
+		md.update(raw, 0, trailer);
+		if (!ObjectId.equals(md.digest(), 0, raw, trailer))
+			throw new CorruptObjectException(MessageFormat.format(
+					JGitText.get().notACommitGraph, path));
+
+		if (raw[4] != VERSION || raw[5] != HASH_SHA1)
+			throw new IOException(MessageFormat.format(
+					JGitText.get().unsupportedCommitGraphVersion,
+					Integer.valueOf(raw[4])));
+
+		final int chunkCnt = raw[6] & 0xff;
+		int fanout = -1;
+		int lookup = -1;
+		int data = -1;
+		int edges = -1;
+		for (int i = 0; i < chunkCnt; i++) {
+			final int ptr = hdrLen + i * 12;
+			final int id = NB.decodeInt32(raw, ptr);
+			final long off = NB.decodeUInt64(raw, ptr + 4);
+			if (off < 0 || trailer < off)
+				throw new CorruptObjectException(MessageFormat.format(
+						JGitText.get().notACommitGraph, path));
+			switch (id) {
+			case CHUNK_OID_FANOUT:
+				fanout = (int) off;
+				break;
+			case CHUNK_OID_LOOKUP:
+				lookup = (int) off;
+				break;
+			case CHUNK_COMMIT_DATA:
+				data = (int) off;
+				break;
+			case CHUNK_EXTRA_EDGES:
+				edges = (int) off;
+				break;
+			default:
+				// Ignore chunks we do not understand.
+				break;
+			}
+		}
+		if (fanout < 0 || lookup < 0 || data < 0)
+			throw new CorruptObjectException(MessageFormat.format(
+					JGitText.get().notACommitGraph, path));
+		return new CommitGraphFile(raw, fanout, lookup, data, edges);
+	}
+
+	private static boolean isSignature(byte[] raw) {
+		for (int i = 0; i < SIGNATURE.length; i++) {
+			if (raw[i] != SIGNATURE[i])
+				return false;
+		}
+		return true;
+	}
+
+	private final byte[] raw;
+
+	private final int[] fanoutTable;
+
+	private final int lookupOffset;
+
+	private final int dataOffset;
+
+	private final int edgeOffset;
+
+	private CommitGraphFile(byte[] raw, int fanout, int lookup, int data,
+			int edges) {
+		this.raw = raw;
+		this.fanoutTable = new int[256];
+		for (int k = 0; k < 256; k++)
+			fanoutTable[k] = NB.decodeInt32(raw, fanout + k * 4);
+		this.lookupOffset = lookup;
+		this.dataOffset = data;
+		this.edgeOffset = edges;
+	}
+
+	@Override
+	public int getCommitCount() {
+		return fanoutTable[255];
+	}
+
+	@Override
+	public int findPosition(AnyObjectId commit) {
+		final int levelOne = commit.getFirstByte();
+		int low = levelOne > 0 ? fanoutTable[levelOne - 1] : 0;
+		int high = fanoutTable[levelOne];
+		while (low < high) {
+			final int mid = (low + high) >>> 1;
+			final int cmp = commit.compareTo(raw, lookupOffset + mid
+					* Constants.OBJECT_ID_LENGTH);
+			if (cmp < 0)
+				high = mid;
+			else if (cmp == 0)
+				return mid;
+			else
+				low = mid + 1;
+		}
+		return -1;
+	}
+
+	@Override
+	public void getObjectId(int position, MutableObjectId dst) {
+		dst.fromRaw(raw, lookupOffset + position * Constants.OBJECT_ID_LENGTH);
+	}
+
+	@Override
+	public void getTreeId(int position, MutableObjectId dst) {
+		dst.fromRaw(raw, dataOffset + position * COMMIT_DATA_WIDTH);
+	}
+
+	@Override
+	public int getParentCount(int position) {
+		final int ptr = dataOffset + position * COMMIT_DATA_WIDTH
+				+ Constants.OBJECT_ID_LENGTH;
+		if (NB.decodeInt32(raw, ptr) == PARENT_NONE)
+			return 0;
+
+		final int p2 = NB.decodeInt32(raw, ptr + 4);
+		if (p2 == PARENT_NONE)
+			return 1;
+		if ((p2 & EXTRA_EDGES) == 0)
+			return 2;
+
+		int cnt = 1;
+		int e = edgeOffset + (p2 & ~EXTRA_EDGES) * 4;
+		for (;; e += 4) {
+			cnt++;
+			if ((NB.decodeInt32(raw, e) & LAST_EDGE) != 0)
+				return cnt;
+		}
+	}
+
+	@Override
+	public int getParent(int position, int nth) {
+		final int ptr = dataOffset + position * COMMIT_DATA_WIDTH
+				+ Constants.OBJECT_ID_LENGTH;
+		if (nth == 0)
+			return NB.decodeInt32(raw, ptr);
+
+		final int p2 = NB.decodeInt32(raw, ptr + 4);
+		if ((p2 & EXTRA_EDGES) == 0)
+			return p2;
+		final int e = edgeOffset + ((p2 & ~EXTRA_EDGES) + nth - 1) * 4;
+		return NB.decodeInt32(raw, e) & ~LAST_EDGE;
+	}
+
+	@Override
+	public long getCommitTime(int position) {
+		final int ptr = dataOffset + position * COMMIT_DATA_WIDTH
+				+ Constants.OBJECT_ID_LENGTH + 8;
+		final long high = NB.decodeUInt32(raw, ptr) & 0x3;
+		return high << 32 | NB.decodeUInt32(raw, ptr + 4);
+	}
+
+	@Override
+	public int getGeneration(int position) {
+		final int ptr = dataOffset + position * COMMIT_DATA_WIDTH
+				+ Constants.OBJECT_ID_LENGTH + 8;
+		return NB.decodeInt32(raw, ptr) >>> 2;
+	}
+}
@@ -0,0 +1,280 @@
+/*
+ * Copyright (C) 2011, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.eclipse.jgit.storage.file;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.eclipse.jgit.JGitText;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectIdOwnerMap;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.ProgressMonitor;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevObject;
+import org.eclipse.jgit.revwalk.RevSort;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.util.NB;
+
+/**
+ * Creates a commit graph describing the history of a set of commits.
+ * <p>
+ * The graph (stored in {@code objects/info/commit-graph}) lets a
+ * {@link RevWalk} in commit graph mode obtain the parents, tree and commit
+ * time of a commit without reading the commit object. The file is written in
+ * the same format as C Git, see {@link CommitGraphFile}.
+ */
+public class CommitGraphWriter {
+	private final ObjectReader reader;
+
+	/**
+	 * Create a writer for a commit graph.
+	 *
+	 * @param reader
+	 *            reader used to parse the commits.
+	 */
+	public CommitGraphWriter(ObjectReader reader) {
+		this.reader = reader;
+	}
+
+	/**
+	 * Write a graph of all commits reachable from the tips.
+	 *
+	 * @param monitor
+	 *            progress monitor, updated once per commit.
+	 * @param dst
+	 *            output for the graph. Caller is responsible for closing this
+	 *            stream.
+	 * @param tips
+	 *            commits, or annotated tags of commits, whose history is
+	 *            described by the graph. Other objects are ignored.
+	 * @return number of commits written to the graph.
+	 * @throws IOException
+	 *             the commits cannot be read, or the output cannot be
+	 *             written.
+	 */
+	public int write(ProgressMonitor monitor, OutputStream dst,
+			Collection<? extends AnyObjectId> tips) throws IOException {
+		final List<Entry> commits = walk(monitor, tips);
+		final int cnt = commits.size();
+
+		int edgeCnt = 0;
+		for (Entry e : commits) {
+			final int n = e.commit.getParentCount();
+			if (2 < n)
+				edgeCnt += n - 1;
+		}
+
+		final int[] chunkIds;
+		final long[] chunkSizes;
+		if (0 < edgeCnt) {
+			chunkIds = new int[] { CommitGraphFile.CHUNK_OID_FANOUT,
+					CommitGraphFile.CHUNK_OID_LOOKUP,
+					CommitGraphFile.CHUNK_COMMIT_DATA,
+					CommitGraphFile.CHUNK_EXTRA_EDGES };
+			chunkSizes = new long[] { 256 * 4,
+					cnt * Constants.OBJECT_ID_LENGTH,
+					cnt * CommitGraphFile.COMMIT_DATA_WIDTH, edgeCnt * 4 };
+		} else {
+			chunkIds = new int[] { CommitGraphFile.CHUNK_OID_FANOUT,
+					CommitGraphFile.CHUNK_OID_LOOKUP,
+					CommitGraphFile.CHUNK_COMMIT_DATA };
+			chunkSizes = new long[] { 256 * 4,
+					cnt * Constants.OBJECT_ID_LENGTH,
+					cnt * CommitGraphFile.COMMIT_DATA_WIDTH };
+		}
+
+		final DigestOutputStream out = new DigestOutputStream(
+				dst instanceof BufferedOutputStream ? dst
+						: new BufferedOutputStream(dst), Constants
+						.newMessageDigest());
+		final byte[] buf = new byte[CommitGraphFile.COMMIT_DATA_WIDTH];
+
+		out.write(CommitGraphFile.SIGNATURE);
+		buf[0] = CommitGraphFile.VERSION;
+		buf[1] = CommitGraphFile.HASH_SHA1;
+		buf[2] = (byte) chunkIds.length;
+		buf[3] = 0; // no base graphs
+		out.write(buf, 0, 4);
+
+		long offset = 8 + (chunkIds.length + 1) * 12;
+		for (int i = 0; i < chunkIds.length; i++) {
+			NB.encodeInt32(buf, 0, chunkIds[i]);
+			NB.encodeInt64(buf, 4, offset);
+			out.write(buf, 0, 12);
+			offset += chunkSizes[i];
+		}
+		NB.encodeInt32(buf, 0, 0);
+		NB.encodeInt64(buf, 4, offset);
+		out.write(buf, 0, 12);
+
+		final int[] fanout = new int[256];
+		for (Entry e : commits)
+			fanout[e.getFirstByte()]++;
+		for (int i = 1; i < 256; i++)
+			fanout[i] += fanout[i - 1];
+		for (int i = 0; i < 256; i++) {
+			NB.encodeInt32(buf, 0, fanout[i]);
+			out.write(buf, 0, 4);
+		}
+
+		for (Entry e : commits) {
+			e.copyRawTo(buf, 0);
+			out.write(buf, 0, Constants.OBJECT_ID_LENGTH);
+		}
+
+		int edgePtr = 0;
+		for (Entry e : commits) {
+			final RevCommit c = e.commit;
+			final int n = c.getParentCount();
+			c.getTree().copyRawTo(buf, 0);
+
+			int ptr = Constants.OBJECT_ID_LENGTH;
+			NB.encodeInt32(buf, ptr, n < 1 ? CommitGraphFile.PARENT_NONE
+					: e.parents[0].position);
+			if (n < 2)
+				NB.encodeInt32(buf, ptr + 4, CommitGraphFile.PARENT_NONE);
+			else if (n == 2)
+				NB.encodeInt32(buf, ptr + 4, e.parents[1].position);
+			else {
+				NB.encodeInt32(buf, ptr + 4, CommitGraphFile.EXTRA_EDGES
+						| edgePtr);
+				edgePtr += n - 1;
+			}
+
+			final long time = c.getCommitTime() & 0xffffffffL;
+			NB.encodeInt32(buf, ptr + 8, e.generation << 2
+					| (int) ((time >>> 32) & 0x3));
+			NB.encodeInt32(buf, ptr + 12, (int) time);
+			out.write(buf, 0, CommitGraphFile.COMMIT_DATA_WIDTH);
+		}
+
+		for (Entry e : commits) {
+			final int n = e.parents.length;
+			if (n <= 2)
+				continue;
+			for (int i = 1; i < n; i++) {
+				int p = e.parents[i].position;
+				if (i == n - 1)
+					p |= CommitGraphFile.LAST_EDGE;
+				NB.encodeInt32(buf, 0, p);
+				out.write(buf, 0, 4);
+			}
+		}
+
+		out.on(false);
+		out.write(out.getMessageDigest().digest());
+		out.flush();
+		return cnt;
+	}
+
+	private List<Entry> walk(ProgressMonitor monitor,
+			Collection<? extends AnyObjectId> tips) throws IOException {
+		final RevWalk rw = new RevWalk(reader);
+		rw.setRetainBody(false);
+		rw.sort(RevSort.TOPO);
+		rw.sort(RevSort.REVERSE, true);
+		for (AnyObjectId id : tips) {
+			RevObject o = rw.peel(rw.parseAny(id));
+			if (o instanceof RevCommit)
+				rw.markStart((RevCommit) o);
+		}
+
+		// Parents are produced before their children, so the generation
+		// of every parent is known when a commit is visited.
+		final ObjectIdOwnerMap<Entry> map = new ObjectIdOwnerMap<Entry>();
+		final List<Entry> commits = new ArrayList<Entry>();
+		monitor.beginTask(JGitText.get().writingCommitGraph,
+				ProgressMonitor.UNKNOWN);
+		RevCommit c;
+		while ((c = rw.next()) != null) {
+			final Entry e = new Entry(c);
+			int gen = 0;
+			for (int i = 0; i < e.parents.length; i++) {
+				final Entry p = map.get(c.getParent(i));
+				e.parents[i] = p;
+				gen = Math.max(gen, p.generation);
+			}
+			e.generation = Math.min(gen + 1, CommitGraphFile.GENERATION_MAX);
+			map.add(e);
+			commits.add(e);
+			monitor.update(1);
+		}
+		monitor.endTask();
+
+		Collections.sort(commits, new Comparator<Entry>() {
+			public int compare(Entry a, Entry b) {
+				return a.compareTo(b);
+			}
+		});
+		for (int i = 0; i < commits.size(); i++)
+			commits.get(i).position = i;
+		return commits;
+	}
+
+	private static class Entry extends ObjectIdOwnerMap.Entry {
+		final RevCommit commit;
+
+		final Entry[] parents;
+
+		int generation;
+
+		int position;
+
+		Entry(RevCommit c) {
+			super(c);
+			commit = c;
+			parents = new Entry[c.getParentCount()];
+		}
+	}
+}
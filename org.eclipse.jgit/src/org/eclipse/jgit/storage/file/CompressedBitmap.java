@@ -0,0 +1,314 @@
+/*
+ * Copyright (C) 2011, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.eclipse.jgit.storage.file;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.eclipse.jgit.util.IO;
+import org.eclipse.jgit.util.NB;
+
+/**
+ * Immutable run-length compressed bitmap, word aligned.
+ * <p>
+ * The bitmap is stored as a sequence of 64 bit words. Each run starts with a
+ * marker word, which is followed by zero or more literal (uncompressed) words.
+ * The marker encodes a run of identical words (all zeros or all ones) that
+ * precedes the literal words:
+ *
+ * <pre>
+ * bit  63     : value of every bit in the run
+ * bits 32..62 : number of words in the run
+ * bits  0..31 : number of literal words following the marker
+ * </pre>
+ *
+ * Reachability bitmaps are mostly long runs of ones (old history) and zeros
+ * (objects not reachable), so this simple scheme compresses them well while
+ * still permitting fast word-at-a-time logical operations.
+ */
+final class CompressedBitmap {
+	private static final int MAX_RUN = Integer.MAX_VALUE;
+
+	private static final long RUN_BIT = 1L << 63;
+
+	/**
+	 * Read a bitmap previously written by {@link #writeTo(OutputStream)}.
+	 *
+	 * @param in
+	 *            the stream to read from.
+	 * @return the bitmap.
+	 * @throws IOException
+	 *             the stream could not be read, or is truncated.
+	 */
+	static CompressedBitmap read(InputStream in) throws IOException {
+		byte[] hdr = new byte[8];
+		IO.readFully(in, hdr, 0, 8);
+		int wordCount = NB.decodeInt32(hdr, 0);
+		int encLen = NB.decodeInt32(hdr, 4);
+
+		byte[] raw = new byte[encLen * 8];
+		IO.readFully(in, raw, 0, raw.length);
+		long[] enc = new long[encLen];
+		for (int i = 0; i < encLen; i++)
+			enc[i] = NB.decodeUInt64(raw, i * 8);
+		return new CompressedBitmap(enc, wordCount);
+	}
+
+	/** Encoded marker and literal words. */
+	private final long[] enc;
+
+	/** Number of words represented when the bitmap is expanded. */
+	private final int wordCount;
+
+	private CompressedBitmap(long[] enc, int wordCount) {
+		this.enc = enc;
+		this.wordCount = wordCount;
+	}
+
+	/** @return number of bits set in this bitmap. */
+	int cardinality() {
+		int cnt = 0;
+		int ptr = 0;
+		while (ptr < enc.length) {
+			long marker = enc[ptr++];
+			if ((marker & RUN_BIT) != 0)
+				cnt += runLength(marker) * 64;
+			int lit = literalCount(marker);
+			for (int i = 0; i < lit; i++)
+				cnt += Long.bitCount(enc[ptr++]);
+		}
+		return cnt;
+	}
+
+	/** @return approximate number of bytes used by this bitmap on disk. */
+	int getEncodedSize() {
+		return 8 + enc.length * 8;
+	}
+
+	/**
+	 * Write this bitmap to a stream.
+	 *
+	 * @param out
+	 *            the stream to write to.
+	 * @throws IOException
+	 *             the stream cannot be written.
+	 */
+	void writeTo(OutputStream out) throws IOException {
+		byte[] buf = new byte[8];
+		NB.encodeInt32(buf, 0, wordCount);
+		NB.encodeInt32(buf, 4, enc.length);
+		out.write(buf, 0, 8);
+		for (long w : enc) {
+			NB.encodeInt64(buf, 0, w);
+			out.write(buf, 0, 8);
+		}
+	}
+
+	private static int runLength(long marker) {
+		return (int) ((marker >>> 32) & MAX_RUN);
+	}
+
+	private static int literalCount(long marker) {
+		return (int) marker;
+	}
+
+	/** Mutable, uncompressed bitmap used to compute set operations. */
+	static final class Builder {
+		private final long[] words;
+
+		/**
+		 * Create an empty bitmap.
+		 *
+		 * @param bitCount
+		 *            number of bits the bitmap must be able to hold.
+		 */
+		Builder(int bitCount) {
+			words = new long[(bitCount + 63) >>> 6];
+		}
+
+		boolean get(int pos) {
+			return (words[pos >>> 6] & (1L << pos)) != 0;
+		}
+
+		void set(int pos) {
+			words[pos >>> 6] |= 1L << pos;
+		}
+
+		/**
+		 * Set every bit that is set in a compressed bitmap.
+		 *
+		 * @param src
+		 *            the bitmap to merge into this one.
+		 */
+		void or(CompressedBitmap src) {
+			final long[] e = src.enc;
+			int ptr = 0;
+			int w = 0;
+			while (ptr < e.length) {
+				long marker = e[ptr++];
+				int run = runLength(marker);
+				if ((marker & RUN_BIT) != 0) {
+					for (int i = 0; i < run; i++)
+						words[w + i] = ~0L;
+				}
+				w += run;
+
+				int lit = literalCount(marker);
+				for (int i = 0; i < lit; i++)
+					words[w++] |= e[ptr++];
+			}
+		}
+
+		/**
+		 * Clear every bit that is set in another bitmap.
+		 *
+		 * @param other
+		 *            the bits to remove from this bitmap.
+		 */
+		void andNot(Builder other) {
+			final int n = Math.min(words.length, other.words.length);
+			for (int i = 0; i < n; i++)
+				words[i] &= ~other.words[i];
+		}
+
+		/**
+		 * Clear every bit that is not also set in another bitmap.
+		 *
+		 * @param other
+		 *            the bits to retain from this bitmap.
+		 */
+		void and(CompressedBitmap other) {
+			final long[] e = other.enc;
+			int ptr = 0;
+			int w = 0;
+			while (ptr < e.length) {
+				long marker = e[ptr++];
+				int run = runLength(marker);
+				if ((marker & RUN_BIT) == 0) {
+					for (int i = 0; i < run; i++)
+						words[w + i] = 0;
+				}
+				w += run;
+
+				int lit = literalCount(marker);
+				for (int i = 0; i < lit; i++)
+					words[w++] &= e[ptr++];
+			}
+			while (w < words.length)
+				words[w++] = 0;
+		}
+
+		/** @return number of bits set. */
+		int cardinality() {
+			int cnt = 0;
+			for (long w : words)
+				cnt += Long.bitCount(w);
+			return cnt;
+		}
+
+		/**
+		 * Find the next set bit.
+		 *
+		 * @param from
+		 *            first position to consider.
+		 * @return position of the next set bit at or after {@code from}; -1 if
+		 *         there are no more set bits.
+		 */
+		int nextSetBit(int from) {
+			int w = from >>> 6;
+			if (words.length <= w)
+				return -1;
+			long word = words[w] & (~0L << from);
+			for (;;) {
+				if (word != 0)
+					return (w << 6) + Long.numberOfTrailingZeros(word);
+				if (++w == words.length)
+					return -1;
+				word = words[w];
+			}
+		}
+
+		/** @return a compressed copy of the current bits. */
+		CompressedBitmap compress() {
+			long[] out = new long[8];
+			int outPtr = 0;
+			int w = 0;
+			while (w < words.length) {
+				long fill = words[w];
+				int run = 0;
+				if (fill == 0 || fill == ~0L) {
+					while (w < words.length && words[w] == fill
+							&& run < MAX_RUN) {
+						run++;
+						w++;
+					}
+				}
+
+				int litStart = w;
+				while (w < words.length && words[w] != 0 && words[w] != ~0L)
+					w++;
+				int lit = w - litStart;
+
+				if (out.length < outPtr + 1 + lit) {
+					long[] n = new long[Math.max(out.length * 2, outPtr + 1 + lit)];
+					System.arraycopy(out, 0, n, 0, outPtr);
+					out = n;
+				}
+
+				long marker = ((long) run) << 32 | lit;
+				if (run > 0 && fill != 0)
+					marker |= RUN_BIT;
+				out[outPtr++] = marker;
+				System.arraycopy(words, litStart, out, outPtr, lit);
+				outPtr += lit;
+			}
+
+			long[] enc = new long[outPtr];
+			System.arraycopy(out, 0, enc, 0, outPtr);
+			return new CompressedBitmap(enc, words.length);
+		}
+	}
+}
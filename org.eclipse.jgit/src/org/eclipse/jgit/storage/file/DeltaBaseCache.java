@@ -43,122 +43,140 @@
 
 package org.eclipse.jgit.storage.file;
 
-import java.lang.ref.SoftReference;
-
+/**
+ * Caches recently reconstructed delta bases, shared by all readers.
+ * <p>
+ * Entries are keyed on the <code>(PackFile,position)</code> of the base and
+ * are strongly held, so the total size of cached bases never exceeds
+ * {@link WindowCacheConfig#getDeltaBaseCacheLimit()}. The cache is split into
+ * independently locked segments to keep concurrent readers from contending
+ * on a single lock; each segment manages an equal share of the byte limit
+ * and evicts in least recently used order.
+ * <p>
+ * A base that needed a long delta chain to rebuild is expensive to lose. Once
+ * a segment is full, a new base is only admitted if its chain is at least as
+ * long as the one of the entry it would evict. Every rejected admission
+ * halves the recorded chain length of the protected entry, so bases that are
+ * no longer used eventually age out.
+ */
 class DeltaBaseCache {
-	private static final int CACHE_SZ = 1024;
-
-	private static final SoftReference<Entry> DEAD;
-
-	private static int hash(final long position) {
-		return (((int) position) << 22) >>> 22;
-	}
-
-	private static volatile int defaultMaxByteCount;
-
-	private final int maxByteCount;
-
-	private final Slot[] cache;
+	private static final int MAX_SEGMENTS = 16;
 
-	private Slot lruHead;
+	private static final int MIN_SEGMENT_SIZE = WindowCacheConfig.MB;
 
-	private Slot lruTail;
+	/** Statistics shared by every configuration of the cache. */
+	static final DeltaBaseCacheStats stats = new DeltaBaseCacheStats();
 
-	private int openByteCount;
+	private static volatile DeltaBaseCache cache;
 
 	static {
-		DEAD = new SoftReference<Entry>(null);
 		reconfigure(new WindowCacheConfig());
 	}
 
 	static void reconfigure(WindowCacheConfig cfg) {
-		defaultMaxByteCount = cfg.getDeltaBaseCacheLimit();
+		cache = new DeltaBaseCache(cfg.getDeltaBaseCacheLimit());
 	}
 
-	DeltaBaseCache() {
-		maxByteCount = defaultMaxByteCount;
-		cache = new Slot[CACHE_SZ];
+	static DeltaBaseCache getInstance() {
+		return cache;
 	}
 
-	Entry get(final PackFile pack, final long position) {
-		Slot e = cache[hash(position)];
-		if (e == null)
-			return null;
-		if (e.provider == pack && e.position == position) {
-			final Entry buf = e.data.get();
-			if (buf != null) {
-				moveToHead(e);
-				return buf;
-			}
-		}
-		return null;
+	/**
+	 * Lookup a cached delta base.
+	 *
+	 * @param pack
+	 *            the pack containing the base.
+	 * @param position
+	 *            offset of the base within <code>pack</code>.
+	 * @return the cached base; null if it is not in the cache.
+	 */
+	static Entry get(final PackFile pack, final long position) {
+		return cache.getEntry(pack, position);
 	}
 
-	void store(final PackFile pack, final long position,
-			final byte[] data, final int objectType) {
-		if (data.length > maxByteCount)
-			return; // Too large to cache.
+	/**
+	 * Offer a reconstructed delta base to the cache.
+	 *
+	 * @param pack
+	 *            the pack containing the base.
+	 * @param position
+	 *            offset of the base within <code>pack</code>.
+	 * @param data
+	 *            the inflated base. The array must not be modified once it
+	 *            has been stored.
+	 * @param objectType
+	 *            type of the base object.
+	 * @param depth
+	 *            number of deltas that were applied to rebuild the base, 0 if
+	 *            it is stored whole in the pack.
+	 */
+	static void store(final PackFile pack, final long position,
+			final byte[] data, final int objectType, final int depth) {
+		cache.storeEntry(pack, position, data, objectType, depth);
+	}
 
-		Slot e = cache[hash(position)];
-		if (e == null) {
-			e = new Slot();
-			cache[hash(position)] = e;
-		} else {
-			clearEntry(e);
-		}
+	static void purge(final PackFile pack) {
+		cache.removeAll(pack);
+	}
 
-		openByteCount += data.length;
-		releaseMemory();
+	private final Segment[] segments;
 
-		e.provider = pack;
-		e.position = position;
-		e.sz = data.length;
-		e.data = new SoftReference<Entry>(new Entry(data, objectType));
-		moveToHead(e);
-	}
+	private final int segmentShift;
 
-	private void releaseMemory() {
-		while (openByteCount > maxByteCount && lruTail != null) {
-			final Slot currOldest = lruTail;
-			final Slot nextOldest = currOldest.lruPrev;
+	private DeltaBaseCache(final int maxByteCount) {
+		int n = 1;
+		while (n < MAX_SEGMENTS && (long) 2 * n * MIN_SEGMENT_SIZE <= maxByteCount)
+			n <<= 1;
+		segments = new Segment[n];
+		for (int i = 0; i < n; i++)
+			segments[i] = new Segment(maxByteCount / n);
+		segmentShift = 32 - Integer.numberOfTrailingZeros(n);
+	}
 
-			clearEntry(currOldest);
-			currOldest.lruPrev = null;
-			currOldest.lruNext = null;
+	long getOpenByteCount() {
+		long cnt = 0;
+		for (Segment s : segments) {
+			synchronized (s) {
+				cnt += s.openByteCount;
+			}
+		}
+		return cnt;
+	}
 
-			if (nextOldest == null)
-				lruHead = null;
-			else
-				nextOldest.lruNext = null;
-			lruTail = nextOldest;
+	private Entry getEntry(final PackFile pack, final long position) {
+		final int h = hash(pack, position);
+		final Entry e = segmentFor(h).get(pack, position, h);
+		if (e != null) {
+			stats.hits.increment();
+			pack.deltaBaseHits.incrementAndGet();
+		} else {
+			stats.misses.increment();
+			pack.deltaBaseMisses.incrementAndGet();
 		}
+		return e;
 	}
 
-	private void moveToHead(final Slot e) {
-		unlink(e);
-		e.lruPrev = null;
-		e.lruNext = lruHead;
-		if (lruHead != null)
-			lruHead.lruPrev = e;
-		else
-			lruTail = e;
-		lruHead = e;
+	private void storeEntry(final PackFile pack, final long position,
+			final byte[] data, final int objectType, final int depth) {
+		final int h = hash(pack, position);
+		segmentFor(h).store(pack, position, h, data, objectType, depth);
 	}
 
-	private void unlink(final Slot e) {
-		final Slot prev = e.lruPrev;
-		final Slot next = e.lruNext;
-		if (prev != null)
-			prev.lruNext = next;
-		if (next != null)
-			next.lruPrev = prev;
+	private void removeAll(final PackFile pack) {
+		for (Segment s : segments)
+			s.removeAll(pack);
 	}
 
-	private void clearEntry(final Slot e) {
-		openByteCount -= e.sz;
-		e.provider = null;
-		e.data = DEAD;
-		e.sz = 0;
+	private Segment segmentFor(final int h) {
+		if (segments.length == 1)
+			return segments[0];
+		return segments[h >>> segmentShift];
+	}
+
+	private static int hash(final PackFile pack, final long position) {
+		final int h = (pack.hash + (int) position + (int) (position >>> 32))
+				* 0x9E3779B9;
+		return h ^ (h >>> 16);
 	}
 
 	static class Entry {
@@ -173,6 +191,8 @@ static class Entry {
 	}
 
 	private static class Slot {
+		Slot chainNext;
+
 		Slot lruPrev;
 
 		Slot lruNext;
@@ -181,8 +201,143 @@ private static class Slot {
 
 		long position;
 
-		int sz;
+		int hash;
+
+		int depth;
+
+		Entry data;
+	}
+
+	/** One lock stripe of the cache, an LRU bounded by byte count. */
+	private static final class Segment {
+		private final long maxByteCount;
+
+		private final Slot[] table;
 
-		SoftReference<Entry> data = DEAD;
+		private Slot lruHead;
+
+		private Slot lruTail;
+
+		private long openByteCount;
+
+		Segment(final long maxByteCount) {
+			this.maxByteCount = maxByteCount;
+
+			// Size the table assuming bases average 1 KiB.
+			int sz = 16;
+			while (sz < maxByteCount / 1024 && sz < (1 << 20))
+				sz <<= 1;
+			table = new Slot[sz];
+		}
+
+		synchronized Entry get(final PackFile pack, final long position,
+				final int h) {
+			final Slot e = find(pack, position, h);
+			if (e == null)
+				return null;
+			moveToHead(e);
+			return e.data;
+		}
+
+		synchronized void store(final PackFile pack, final long position,
+				final int h, final byte[] data, final int objectType,
+				final int depth) {
+			if (data.length > maxByteCount)
+				return; // Too large to cache.
+
+			Slot e = find(pack, position, h);
+			if (e != null) {
+				e.depth = Math.max(e.depth, depth);
+				moveToHead(e);
+				return;
+			}
+
+			while (openByteCount + data.length > maxByteCount) {
+				final Slot victim = lruTail;
+				if (depth < victim.depth) {
+					victim.depth >>>= 1;
+					return;
+				}
+				remove(victim);
+				stats.evictions.increment();
+				victim.provider.deltaBaseEvictions.incrementAndGet();
+			}
+
+			e = new Slot();
+			e.provider = pack;
+			e.position = position;
+			e.hash = h;
+			e.depth = depth;
+			e.data = new Entry(data, objectType);
+
+			final int idx = h & (table.length - 1);
+			e.chainNext = table[idx];
+			table[idx] = e;
+			openByteCount += data.length;
+			moveToHead(e);
+		}
+
+		synchronized void removeAll(final PackFile pack) {
+			for (Slot e = lruHead; e != null;) {
+				final Slot next = e.lruNext;
+				if (e.provider == pack)
+					remove(e);
+				e = next;
+			}
+		}
+
+		private Slot find(final PackFile pack, final long position,
+				final int h) {
+			for (Slot e = table[h & (table.length - 1)]; e != null; e = e.chainNext) {
+				if (e.provider == pack && e.position == position)
+					return e;
+			}
+			return null;
+		}
+
+		private void remove(final Slot e) {
+			final int idx = e.hash & (table.length - 1);
+			Slot p = table[idx];
+			if (p == e)
+				table[idx] = e.chainNext;
+			else {
+				while (p.chainNext != e)
+					p = p.chainNext;
+				p.chainNext = e.chainNext;
+			}
+
+			unlink(e);
+			if (lruHead == e)
+				lruHead = e.lruNext;
+			if (lruTail == e)
+				lruTail = e.lruPrev;
+			e.lruPrev = null;
+			e.lruNext = null;
+			openByteCount -= e.data.data.length;
+		}
+
+		private void moveToHead(final Slot e) {
+			if (lruHead == e)
+				return;
+			unlink(e);
+			if (lruTail == e)
+				lruTail = e.lruPrev;
+			e.lruPrev = null;
+			e.lruNext = lruHead;
+			if (lruHead != null)
+				lruHead.lruPrev = e;
+			else
+				lruTail = e;
+			lruHead = e;
+		}
+
+		private static void unlink(final Slot e) {
+			final Slot prev = e.lruPrev;
+			final Slot next = e.lruNext;
+			if (prev != null)
+				prev.lruNext = next;
+			if (next != null)
+				next.lruPrev = prev;
+		}
 	}
 }
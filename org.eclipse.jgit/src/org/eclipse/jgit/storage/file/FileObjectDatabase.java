@@ -263,6 +263,10 @@ abstract void selectObjectRepresentation(PackWriter packer,
 	abstract Collection<? extends CachedPack> getCachedPacks()
 			throws IOException;
 
+	abstract PackBitmapIndex getBitmapIndex() throws IOException;
+
+	abstract CommitGraphFile getCommitGraph() throws IOException;
+
 	abstract AlternateHandle[] myAlternates();
 
 	abstract boolean tryAgain1();
@@ -271,6 +275,20 @@ abstract Collection<? extends CachedPack> getCachedPacks()
 
 	abstract boolean hasObject2(String objectId);
 
+	/**
+	 * Fetch an object a partial clone left out.
+	 *
+	 * @param objectId
+	 *            identity of the object which could not be found.
+	 * @return true if the object was fetched and should be looked up again;
+	 *         false if this database cannot obtain missing objects.
+	 * @throws IOException
+	 *             the object could not be fetched.
+	 */
+	boolean fetchPromised(AnyObjectId objectId) throws IOException {
+		return false;
+	}
+
 	abstract ObjectLoader openObject1(WindowCursor curs, AnyObjectId objectId)
 			throws IOException;
 
@@ -47,8 +47,10 @@
 package org.eclipse.jgit.storage.file;
 
 import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.text.MessageFormat;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -66,7 +68,10 @@
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.storage.file.FileObjectDatabase.AlternateHandle;
 import org.eclipse.jgit.storage.file.FileObjectDatabase.AlternateRepository;
+import org.eclipse.jgit.transport.PromisorRemote;
 import org.eclipse.jgit.util.FileUtils;
+import org.eclipse.jgit.util.IO;
+import org.eclipse.jgit.util.RawParseUtils;
 import org.eclipse.jgit.util.SystemReader;
 
 /**
@@ -105,6 +110,12 @@ public class FileRepository extends Repository {
 
 	private final ObjectDirectory objectDatabase;
 
+	private final File shallowFile;
+
+	private FileSnapshot shallowSnapshot = FileSnapshot.DIRTY;
+
+	private Set<ObjectId> shallowCommits = Collections.emptySet();
+
 	/**
 	 * Construct a representation of a Git repository.
 	 * <p>
@@ -172,6 +183,7 @@ public void onConfigChanged(ConfigChangedEvent event) {
 		});
 
 		refs = new RefDirectory(this);
+		shallowFile = new File(getDirectory(), "shallow");
 		objectDatabase = new ObjectDirectory(repoConfig, //
 				options.getObjectDirectory(), //
 				options.getAlternateObjectDirectories(), //
@@ -181,12 +193,28 @@ public void onConfigChanged(ConfigChangedEvent event) {
 			final String repositoryFormatVersion = getConfig().getString(
 					ConfigConstants.CONFIG_CORE_SECTION, null,
 					ConfigConstants.CONFIG_KEY_REPO_FORMAT_VERSION);
-			if (!"0".equals(repositoryFormatVersion)) {
+			if (!"0".equals(repositoryFormatVersion)
+					&& !("1".equals(repositoryFormatVersion)
+							&& knowsExtensions())) {
 				throw new IOException(MessageFormat.format(
 						JGitText.get().unknownRepositoryFormat2,
 						repositoryFormatVersion));
 			}
 		}
+		objectDatabase.setPromisor(new PromisorRemote(this));
+	}
+
+	/**
+	 * Version 1 repositories may only be used if every extension they declare
+	 * is understood. Only {@code extensions.partialclone} is supported.
+	 */
+	private boolean knowsExtensions() {
+		for (String name : getConfig().getNames(
+				ConfigConstants.CONFIG_EXTENSIONS_SECTION)) {
+			if (!ConfigConstants.CONFIG_KEY_PARTIALCLONE.equalsIgnoreCase(name))
+				return false;
+		}
+		return true;
 	}
 
 	private void loadSystemConfig() throws IOException {
@@ -356,6 +384,79 @@ public Set<ObjectId> getAdditionalHaves() {
 		return r;
 	}
 
+	/**
+	 * Commits whose parents are not present in this repository.
+	 * <p>
+	 * The commits are read from the <code>shallow</code> file of the
+	 * repository, which is only read again after it was modified.
+	 *
+	 * @return unmodifiable set of shallow commits; empty if the repository has
+	 *         its complete history.
+	 * @throws IOException
+	 *             the shallow file cannot be read.
+	 */
+	@Override
+	public synchronized Set<ObjectId> getShallowCommits() throws IOException {
+		if (shallowSnapshot.isModified(shallowFile)) {
+			FileSnapshot s = FileSnapshot.save(shallowFile);
+			byte[] buf;
+			try {
+				buf = IO.readFully(shallowFile);
+			} catch (FileNotFoundException e) {
+				buf = new byte[0];
+			}
+
+			Set<ObjectId> r = new HashSet<ObjectId>();
+			int ptr = 0;
+			while (ptr + Constants.OBJECT_ID_STRING_LENGTH <= buf.length) {
+				r.add(ObjectId.fromString(buf, ptr));
+				ptr = RawParseUtils.nextLF(buf,
+						ptr + Constants.OBJECT_ID_STRING_LENGTH);
+			}
+			shallowCommits = Collections.unmodifiableSet(r);
+			shallowSnapshot = s;
+		}
+		return shallowCommits;
+	}
+
+	/**
+	 * Replace the commits recorded in the <code>shallow</code> file.
+	 * <p>
+	 * The file is deleted if the set is empty, making this repository a
+	 * complete one again.
+	 *
+	 * @param commits
+	 *            the new set of shallow commits.
+	 * @throws IOException
+	 *             the shallow file cannot be written.
+	 */
+	@Override
+	public synchronized void setShallowCommits(Set<ObjectId> commits)
+			throws IOException {
+		if (commits.isEmpty()) {
+			FileUtils.delete(shallowFile, FileUtils.SKIP_MISSING);
+		} else {
+			StringBuilder b = new StringBuilder();
+			for (ObjectId id : commits)
+				b.append(id.name()).append('\n');
+
+			LockFile lck = new LockFile(shallowFile, getFS());
+			if (!lck.lock())
+				throw new IOException(MessageFormat.format(
+						JGitText.get().cannotLockFile, shallowFile));
+			try {
+				lck.write(Constants.encode(b.toString()));
+				if (!lck.commit())
+					throw new IOException(MessageFormat.format(
+							JGitText.get().couldNotRenameTemporaryFile, lck,
+							shallowFile));
+			} finally {
+				lck.unlock();
+			}
+		}
+		shallowSnapshot = FileSnapshot.DIRTY;
+	}
+
 	/**
 	 * Add a single existing pack to the list of available pack files.
 	 *
@@ -0,0 +1,1060 @@
+/*
+ * Copyright (C) 2011, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.storage.file;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.jgit.JGitText;
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectLoader;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.ObjectStream;
+import org.eclipse.jgit.lib.ProgressMonitor;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefDatabase;
+import org.eclipse.jgit.revwalk.ObjectWalk;
+import org.eclipse.jgit.revwalk.RevObject;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.storage.pack.PackWriter;
+import org.eclipse.jgit.transport.PromisorRemote;
+import org.eclipse.jgit.util.FileUtils;
+import org.eclipse.jgit.util.IO;
+import org.eclipse.jgit.util.NB;
+
+/**
+ * Garbage collector for a {@link FileRepository}.
+ * <p>
+ * A collection moves the loose references into {@code packed-refs}, writes
+ * every reachable object into one new pack, deletes the packs superseded by
+ * it, and prunes loose objects. Objects named by a reflog, or by the index of
+ * a non-bare repository, are considered reachable.
+ * <p>
+ * Nothing is deleted while it may still be needed by a concurrent writer. A
+ * loose object that is not in any pack is deleted only once it is older than
+ * {@link #setExpireAgeMillis(long)}, and only if no reference, reflog, index
+ * entry or younger loose object can reach it. A superseded pack is deleted
+ * only once it is older than {@link #setPackExpireAgeMillis(long)}. Packs
+ * with a {@code .keep} file are never deleted.
+ * <p>
+ * A full repack rewrites the whole repository. For large repositories
+ * {@link #setIncremental(boolean)} selects {@link #repackIncremental()}
+ * instead, whose cost depends on the amount of recently written objects.
+ */
+public class GC {
+	/** Default grace period of unreachable loose objects, 2 weeks. */
+	public static final long DEFAULT_EXPIRE_AGE_MILLIS = 14 * 24 * 60 * 60 * 1000L;
+
+	/** Default grace period of superseded packs, 1 hour. */
+	public static final long DEFAULT_PACK_EXPIRE_AGE_MILLIS = 60 * 60 * 1000L;
+
+	/** Default factor between the object counts of consecutive packs. */
+	public static final int DEFAULT_GEOMETRIC_FACTOR = 2;
+
+	private final FileRepository repo;
+
+	private ProgressMonitor pm = NullProgressMonitor.INSTANCE;
+
+	private long expireAgeMillis = DEFAULT_EXPIRE_AGE_MILLIS;
+
+	private long packExpireAgeMillis = DEFAULT_PACK_EXPIRE_AGE_MILLIS;
+
+	private int geometricFactor = DEFAULT_GEOMETRIC_FACTOR;
+
+	private boolean incremental;
+
+	private boolean cachePack;
+
+	private PackWriter.Statistics packStatistics;
+
+	/**
+	 * Create a garbage collector for a repository.
+	 *
+	 * @param repo
+	 *            the repository to collect.
+	 */
+	public GC(FileRepository repo) {
+		this.repo = repo;
+	}
+
+	/**
+	 * @param pm
+	 *            progress monitor to report the work of the collection to.
+	 *            Null to report nothing.
+	 * @return {@code this}
+	 */
+	public GC setProgressMonitor(ProgressMonitor pm) {
+		this.pm = pm != null ? pm : NullProgressMonitor.INSTANCE;
+		return this;
+	}
+
+	/**
+	 * @param age
+	 *            minimum age in milliseconds of an unreachable loose object
+	 *            before it is deleted. 0 deletes them all.
+	 * @return {@code this}
+	 */
+	public GC setExpireAgeMillis(long age) {
+		expireAgeMillis = age;
+		return this;
+	}
+
+	/**
+	 * @param age
+	 *            minimum age in milliseconds of a superseded pack before it is
+	 *            deleted. 0 deletes them all.
+	 * @return {@code this}
+	 */
+	public GC setPackExpireAgeMillis(long age) {
+		packExpireAgeMillis = age;
+		return this;
+	}
+
+	/**
+	 * @param incremental
+	 *            true if {@link #gc()} should use {@link #repackIncremental()}
+	 *            rather than {@link #repack()}.
+	 * @return {@code this}
+	 */
+	public GC setIncremental(boolean incremental) {
+		this.incremental = incremental;
+		return this;
+	}
+
+	/**
+	 * @param factor
+	 *            minimum factor between the object counts of two consecutive
+	 *            packs left untouched by {@link #repackIncremental()}. Must be
+	 *            at least 2.
+	 * @return {@code this}
+	 */
+	public GC setGeometricFactor(int factor) {
+		if (factor < 2)
+			throw new IllegalArgumentException(MessageFormat.format(
+					JGitText.get().invalidGeometricFactor,
+					Integer.valueOf(factor)));
+		geometricFactor = factor;
+		return this;
+	}
+
+	/**
+	 * @param cache
+	 *            true if the pack written by {@link #repack()} should be
+	 *            listed in {@code objects/info/cached-packs}. A cached pack is
+	 *            copied as-is when serving a clone, and is left untouched by
+	 *            {@link #repackIncremental()}.
+	 * @return {@code this}
+	 */
+	public GC setCachePack(boolean cache) {
+		cachePack = cache;
+		return this;
+	}
+
+	/**
+	 * Run a collection: {@link #packRefs()}, {@link #repack()} (or
+	 * {@link #repackIncremental()}) and {@link #prune()}.
+	 *
+	 * @return the packs written by the collection; empty if the repository
+	 *         has no reachable objects.
+	 * @throws IOException
+	 *             the repository cannot be read, or a file cannot be written
+	 *             or deleted.
+	 */
+	public Collection<PackFile> gc() throws IOException {
+		packRefs();
+		Collection<PackFile> newPacks;
+		if (incremental)
+			newPacks = repackIncremental();
+		else
+			newPacks = repack();
+		prune();
+		return newPacks;
+	}
+
+	/**
+	 * Move all loose references below {@code refs/} into {@code packed-refs}.
+	 *
+	 * @throws IOException
+	 *             the references cannot be read, or packed-refs cannot be
+	 *             written.
+	 */
+	public void packRefs() throws IOException {
+		Collection<Ref> refs = repo.getRefDatabase().getRefs(RefDatabase.ALL)
+				.values();
+		List<String> names = new ArrayList<String>(refs.size());
+		pm.beginTask(JGitText.get().packRefs, refs.size());
+		for (Ref ref : refs) {
+			if (!ref.isSymbolic() && ref.getStorage().isLoose()
+					&& ref.getName().startsWith(Constants.R_REFS))
+				names.add(ref.getName());
+			pm.update(1);
+		}
+		((RefDirectory) repo.getRefDatabase()).pack(names);
+		pm.endTask();
+	}
+
+	/**
+	 * Write all reachable objects into a single new pack.
+	 * <p>
+	 * Objects are reachable from the references, their reflogs and the
+	 * index. Unreachable objects of the superseded packs are written out as
+	 * loose objects, and expire like any other unreachable loose object.
+	 * <p>
+	 * Deltas and compressed data of the existing packs are reused. Next to
+	 * the pack its index and reverse index are written, and a bitmap index if
+	 * {@code repack.writeBitmaps} is set (default for bare repositories). The
+	 * commit-graph is rewritten unless {@code gc.writeCommitGraph} is false,
+	 * and an existing multi-pack-index is rewritten to cover the packs that
+	 * remain.
+	 *
+	 * @return the new pack; empty if the repository has no reachable objects.
+	 * @throws IOException
+	 *             the objects cannot be read, or a file cannot be written or
+	 *             deleted.
+	 */
+	public Collection<PackFile> repack() throws IOException {
+		final ObjectDirectory odb = repo.getObjectDatabase();
+
+		// Only packs which exist before the objects are enumerated can be
+		// superseded; a pack arriving later may hold objects we never saw.
+		//
+		final List<PackFile> oldPacks = new ArrayList<PackFile>();
+		for (PackFile p : odb.getPacks()) {
+			if (!p.shouldBeKept())
+				oldPacks.add(p);
+		}
+
+		final Set<ObjectId> tips = getRefTips();
+		final Set<ObjectId> want = new HashSet<ObjectId>(tips);
+		want.addAll(getReflogObjects());
+		want.addAll(getIndexObjects());
+
+		final PackFile pack = writePack(want);
+		if (pack != null)
+			prunePacks(oldPacks, pack);
+		writeCachedPacks(pack, tips);
+		writeCommitGraph(tips);
+		writeMultiPackIndex();
+
+		if (pack == null)
+			return Collections.emptyList();
+		return Collections.singletonList(pack);
+	}
+
+	/**
+	 * Merge the loose objects and the small packs into one new pack.
+	 * <p>
+	 * Packs are sorted by their object count. The largest packs which form a
+	 * geometric progression, each holding at least
+	 * {@link #setGeometricFactor(int)} times as many objects as all smaller
+	 * packs together, are left untouched; every smaller pack is merged. After
+	 * repeated runs the repository holds a logarithmic number of packs, and
+	 * a large old pack is only rewritten once the recent writes amount to a
+	 * comparable number of objects. Kept and cached packs are never merged.
+	 * <p>
+	 * Objects are not walked from the references; unreachable objects of the
+	 * merged packs and loose objects are carried into the new pack. Bitmaps
+	 * and the commit-graph are not written, as they would cover the whole
+	 * repository. An existing multi-pack-index is rewritten.
+	 *
+	 * @return the new pack; empty if there was nothing to merge.
+	 * @throws IOException
+	 *             the objects cannot be read, or a file cannot be written or
+	 *             deleted.
+	 */
+	public Collection<PackFile> repackIncremental() throws IOException {
+		final ObjectDirectory odb = repo.getObjectDatabase();
+		final Set<String> cached = new HashSet<String>();
+		for (LocalCachedPack c : odb.getLocalCachedPacks())
+			cached.addAll(Arrays.asList(c.getPackNames()));
+
+		final List<PackFile> packs = new ArrayList<PackFile>();
+		final Map<PackFile, Long> counts = new HashMap<PackFile, Long>();
+		for (PackFile p : odb.getPacks()) {
+			if (p.shouldBeKept() || cached.contains(p.getPackName()))
+				continue;
+			packs.add(p);
+			counts.put(p, Long.valueOf(readObjectCount(p)));
+		}
+		Collections.sort(packs, new Comparator<PackFile>() {
+			public int compare(PackFile a, PackFile b) {
+				return counts.get(a).compareTo(counts.get(b));
+			}
+		});
+
+		final long[] sorted = new long[packs.size()];
+		for (int i = 0; i < sorted.length; i++)
+			sorted[i] = counts.get(packs.get(i)).longValue();
+		final List<PackFile> merge = packs.subList(0,
+				geometricSplit(sorted, geometricFactor));
+
+		final PackFile pack = writeIncrementalPack(merge);
+		if (pack == null)
+			return Collections.emptyList();
+		prunePacks(new ArrayList<PackFile>(merge), pack);
+		writeMultiPackIndex();
+		return Collections.singletonList(pack);
+	}
+
+	/**
+	 * Find the packs to merge to restore a geometric progression.
+	 *
+	 * @param counts
+	 *            object counts of the packs, in ascending order.
+	 * @param factor
+	 *            the factor of the progression.
+	 * @return number of packs, from the start of {@code counts}, to merge.
+	 */
+	static int geometricSplit(long[] counts, int factor) {
+		if (counts.length == 0)
+			return 0;
+
+		// Find the largest packs which already form a progression.
+		int split = counts.length - 1;
+		for (; 0 < split; split--) {
+			if (counts[split] < counts[split - 1] * factor)
+				break;
+		}
+		if (0 < split)
+			split++;
+
+		// The merged pack may itself break the progression with the next
+		// larger pack, which then has to be merged as well.
+		long total = 0;
+		for (int i = 0; i < split; i++)
+			total += counts[i];
+		for (; split < counts.length; split++) {
+			if (total * factor <= counts[split])
+				break;
+			total += counts[split];
+		}
+		return split;
+	}
+
+	private static long readObjectCount(PackFile pack) throws IOException {
+		final byte[] hdr = new byte[12];
+		final FileInputStream in = new FileInputStream(pack.getPackFile());
+		try {
+			IO.readFully(in, hdr, 0, hdr.length);
+		} finally {
+			in.close();
+		}
+		return NB.decodeUInt32(hdr, 8);
+	}
+
+	private PackFile writeIncrementalPack(List<PackFile> merge)
+			throws IOException {
+		final ObjectDirectory odb = repo.getObjectDatabase();
+		final WindowCursor wc = new WindowCursor(odb);
+		final RevWalk rw = new RevWalk(wc);
+		final List<RevObject> objects = new ArrayList<RevObject>();
+		try {
+			for (PackFile p : merge) {
+				for (PackIndex.MutableEntry e : p) {
+					if (rw.lookupOrNull(e.toObjectId()) == null) {
+						final int type = p.getObjectType(wc, e.getOffset());
+						objects.add(rw.lookupAny(e.toObjectId(), type));
+					}
+				}
+			}
+
+			for (File dir : listFanout(odb)) {
+				for (String name : listLoose(dir)) {
+					final ObjectId id = ObjectId.fromString(dir.getName()
+							+ name);
+					if (rw.lookupOrNull(id) != null
+							|| odb.hasPackedObject(id))
+						continue;
+					final ObjectLoader ldr;
+					try {
+						ldr = wc.open(id);
+					} catch (MissingObjectException deleted) {
+						continue; // Packed and pruned concurrently.
+					}
+					objects.add(rw.lookupAny(id, ldr.getType()));
+				}
+			}
+		} finally {
+			rw.release();
+		}
+
+		if (merge.size() < 2 && objects.size() == countObjects(merge))
+			return null; // Rewriting a single pack alone gains nothing.
+
+		final PackWriter pw = new PackWriter(repo);
+		try {
+			pw.preparePack(objects.iterator());
+			return writePack(pw, false);
+		} finally {
+			pw.release();
+		}
+	}
+
+	private static long countObjects(List<PackFile> packs) throws IOException {
+		long cnt = 0;
+		for (PackFile p : packs)
+			cnt += p.getObjectCount();
+		return cnt;
+	}
+
+	/**
+	 * Delete loose objects which are stored in a pack, or are unreachable and
+	 * older than the grace period.
+	 *
+	 * @throws IOException
+	 *             the repository cannot be read, or a loose object cannot be
+	 *             deleted.
+	 */
+	public void prune() throws IOException {
+		final ObjectDirectory odb = repo.getObjectDatabase();
+		final long expire = System.currentTimeMillis() - expireAgeMillis;
+		final Map<ObjectId, File> expired = new HashMap<ObjectId, File>();
+		final Set<ObjectId> recent = new HashSet<ObjectId>();
+
+		final File[] fanout = listFanout(odb);
+		pm.beginTask(JGitText.get().pruneLoosePackedObjects, fanout.length);
+		for (File dir : fanout) {
+			for (String name : listLoose(dir)) {
+				final ObjectId id = ObjectId.fromString(dir.getName() + name);
+				final File file = new File(dir, name);
+				if (odb.hasPackedObject(id))
+					odb.deleteLooseObject(id);
+				else if (file.lastModified() <= expire)
+					expired.put(id, file);
+				else
+					recent.add(id);
+			}
+			pm.update(1);
+		}
+		pm.endTask();
+
+		if (!expired.isEmpty()) {
+			pm.beginTask(JGitText.get().pruneLooseUnreferencedObjects,
+					ProgressMonitor.UNKNOWN);
+			removeReachable(expired, recent);
+			for (ObjectId id : expired.keySet())
+				odb.deleteLooseObject(id);
+			pm.endTask();
+		}
+
+		for (File dir : fanout)
+			dir.delete(); // Only succeeds once the directory is empty.
+	}
+
+	/**
+	 * @return statistics of the pack written by the last {@link #repack()};
+	 *         null if no pack was written.
+	 */
+	public PackWriter.Statistics getPackStatistics() {
+		return packStatistics;
+	}
+
+	/**
+	 * Count the objects and references of the repository.
+	 *
+	 * @return the current statistics of the repository.
+	 * @throws IOException
+	 *             the pack indexes or references cannot be read.
+	 */
+	public RepoStatistics getStatistics() throws IOException {
+		final ObjectDirectory odb = repo.getObjectDatabase();
+		final RepoStatistics r = new RepoStatistics();
+		for (PackFile p : odb.getPacks()) {
+			r.numberOfPackFiles++;
+			r.numberOfPackedObjects += p.getObjectCount();
+			r.sizeOfPackedObjects += p.getPackFile().length();
+		}
+		for (File dir : listFanout(odb)) {
+			for (String name : listLoose(dir)) {
+				r.numberOfLooseObjects++;
+				r.sizeOfLooseObjects += new File(dir, name).length();
+			}
+		}
+		for (Ref ref : repo.getRefDatabase().getRefs(RefDatabase.ALL)
+				.values()) {
+			if (ref.isSymbolic())
+				continue;
+			if (ref.getStorage().isLoose())
+				r.numberOfLooseRefs++;
+			if (ref.getStorage().isPacked())
+				r.numberOfPackedRefs++;
+		}
+		return r;
+	}
+
+	private Set<ObjectId> getRefTips() throws IOException {
+		final Set<ObjectId> tips = new HashSet<ObjectId>();
+		for (Ref ref : repo.getAllRefs().values()) {
+			if (ref.getObjectId() != null)
+				tips.add(ref.getObjectId());
+		}
+		return tips;
+	}
+
+	private Set<ObjectId> getReflogObjects() throws IOException {
+		final Set<ObjectId> ids = new HashSet<ObjectId>();
+		final ObjectReader reader = repo.newObjectReader();
+		try {
+			for (String name : repo.getAllRefs().keySet()) {
+				for (ReflogEntry e : new ReflogReader(repo, name)
+						.getReverseEntries()) {
+					addIfPresent(reader, ids, e.getOldId());
+					addIfPresent(reader, ids, e.getNewId());
+				}
+			}
+		} finally {
+			reader.release();
+		}
+		return ids;
+	}
+
+	private Set<ObjectId> getIndexObjects() throws IOException {
+		final Set<ObjectId> ids = new HashSet<ObjectId>();
+		if (repo.isBare())
+			return ids;
+		final DirCache dc = repo.readDirCache();
+		final ObjectReader reader = repo.newObjectReader();
+		try {
+			for (int i = 0; i < dc.getEntryCount(); i++) {
+				final DirCacheEntry e = dc.getEntry(i);
+				// A gitlink names a commit of another repository.
+				if (e.getFileMode() != FileMode.GITLINK)
+					addIfPresent(reader, ids, e.getObjectId());
+			}
+		} finally {
+			reader.release();
+		}
+		return ids;
+	}
+
+	private static void addIfPresent(ObjectReader reader, Set<ObjectId> ids,
+			ObjectId id) throws IOException {
+		// A reflog may name objects which were already deleted.
+		if (!ObjectId.zeroId().equals(id) && !ids.contains(id)
+				&& reader.has(id))
+			ids.add(id);
+	}
+
+	private PackFile writePack(Set<ObjectId> want) throws IOException {
+		final Set<ObjectId> shallow = repo.getShallowCommits();
+		final boolean partial = isPartialClone();
+		final PackWriter pw = new PackWriter(repo);
+		try {
+			pw.setShallowCommits(shallow);
+			pw.setIgnoreMissingBlobs(partial);
+			pw.preparePack(pm, want, Collections.<ObjectId> emptySet());
+
+			// Bitmaps describe complete histories and trees, a shallow
+			// repository or a partial clone cannot compute them.
+			return writePack(pw, shallow.isEmpty() && !partial
+					&& repo.getConfig().getBoolean("repack", "writebitmaps",
+							repo.isBare()));
+		} finally {
+			pw.release();
+		}
+	}
+
+	private PackFile writePack(PackWriter pw, boolean bitmaps)
+			throws IOException {
+		final ObjectDirectory odb = repo.getObjectDatabase();
+		final File packDir = odb.getPackDirectory();
+		pw.setDeltaBaseAsOffset(true);
+		if (pw.getObjectCount() == 0)
+			return null;
+
+		final String name = "pack-" + pw.computeName().name();
+		for (PackFile p : odb.getPacks()) {
+			if (p.getPackFile().getName().equals(name + ".pack"))
+				return p; // The same objects are already packed.
+		}
+
+		final File tmpPack = File.createTempFile("gc_", ".pack_tmp",
+				packDir);
+		final String tmpBase = tmpPack.getName().substring(0,
+				tmpPack.getName().length() - ".pack_tmp".length());
+		final File tmpIdx = new File(packDir, tmpBase + ".idx_tmp");
+		final File tmpRev = new File(packDir, tmpBase + ".rev_tmp");
+		final File tmpBitmap = new File(packDir, tmpBase + ".bitmap_tmp");
+		try {
+			FileOutputStream fos = new FileOutputStream(tmpPack);
+			try {
+				OutputStream out = new BufferedOutputStream(fos);
+				pw.writePack(pm, pm, out);
+				out.flush();
+				fos.getChannel().force(true);
+			} finally {
+				fos.close();
+			}
+
+			fos = new FileOutputStream(tmpIdx);
+			try {
+				OutputStream out = new BufferedOutputStream(fos);
+				pw.writeIndex(out);
+				out.flush();
+				fos.getChannel().force(true);
+			} finally {
+				fos.close();
+			}
+
+			OutputStream out = new BufferedOutputStream(
+					new FileOutputStream(tmpRev));
+			try {
+				pw.writeReverseIndex(out);
+			} finally {
+				out.close();
+			}
+
+			if (bitmaps) {
+				out = new BufferedOutputStream(new FileOutputStream(
+						tmpBitmap));
+				try {
+					pw.writeBitmapIndex(pm, out);
+				} finally {
+					out.close();
+				}
+			}
+
+			// The index is renamed last, the pack is not visible to
+			// readers scanning the directory until it is in place.
+			//
+			final File realPack = new File(packDir, name + ".pack");
+			final File realIdx = new File(packDir, name + ".idx");
+			rename(tmpPack, realPack);
+			rename(tmpRev, new File(packDir, name + ".rev"));
+			if (bitmaps)
+				rename(tmpBitmap, new File(packDir, name + ".bitmap"));
+			if (isPartialClone()) {
+				// Blobs the new pack refers to may still be missing.
+				final File promisor = new File(packDir, name + ".promisor");
+				if (!promisor.exists())
+					FileUtils.createNewFile(promisor);
+			}
+			rename(tmpIdx, realIdx);
+			realPack.setReadOnly();
+			realIdx.setReadOnly();
+
+			packStatistics = pw.getStatistics();
+			return odb.openPack(realPack, realIdx);
+		} finally {
+			final int opts = FileUtils.SKIP_MISSING;
+			FileUtils.delete(tmpPack, opts);
+			FileUtils.delete(tmpIdx, opts);
+			FileUtils.delete(tmpRev, opts);
+			FileUtils.delete(tmpBitmap, opts);
+		}
+	}
+
+	private boolean isPartialClone() {
+		return PromisorRemote.getRemoteName(repo) != null;
+	}
+
+	private static void rename(File src, File dst) throws IOException {
+		if (!src.renameTo(dst))
+			throw new IOException(MessageFormat.format(
+					JGitText.get().couldNotRenameTemporaryFile, src, dst));
+	}
+
+	private void prunePacks(List<PackFile> oldPacks, PackFile newPack)
+			throws IOException {
+		final ObjectDirectory odb = repo.getObjectDatabase();
+		final long expire = System.currentTimeMillis() - packExpireAgeMillis;
+		final Set<String> delete = new HashSet<String>();
+		for (PackFile p : oldPacks) {
+			if (!p.getPackName().equals(newPack.getPackName())
+					&& p.getPackFile().lastModified() <= expire)
+				delete.add(p.getPackName());
+		}
+
+		pm.beginTask(JGitText.get().prunePacks, oldPacks.size());
+		for (PackFile p : oldPacks) {
+			if (delete.contains(p.getPackName())) {
+				keepRecentObjects(p, delete);
+				odb.deletePack(p);
+			}
+			pm.update(1);
+		}
+		pm.endTask();
+	}
+
+	/**
+	 * Unpack the objects of a pack which no other pack holds.
+	 * <p>
+	 * The objects were not written into the new pack, so they are
+	 * unreachable. Like unreachable loose objects they are kept for
+	 * {@link #setExpireAgeMillis(long)}, counted from the time the pack was
+	 * written; {@link #prune()} deletes them afterwards.
+	 *
+	 * @param pack
+	 *            the pack about to be deleted.
+	 * @param delete
+	 *            names of all packs about to be deleted.
+	 * @throws IOException
+	 *             the pack cannot be read, or an object cannot be written.
+	 */
+	private void keepRecentObjects(PackFile pack, Set<String> delete)
+			throws IOException {
+		final long time = pack.getPackFile().lastModified();
+		if (time <= System.currentTimeMillis() - expireAgeMillis)
+			return;
+
+		final ObjectDirectory odb = repo.getObjectDatabase();
+		final List<PackFile> remaining = new ArrayList<PackFile>();
+		for (PackFile p : odb.getPacks()) {
+			if (!delete.contains(p.getPackName()))
+				remaining.add(p);
+		}
+
+		final WindowCursor wc = new WindowCursor(odb);
+		final ObjectDirectoryInserter ins = odb.newInserter();
+		try {
+			for (PackIndex.MutableEntry e : pack) {
+				final ObjectId id = e.toObjectId();
+				final File file = odb.fileFor(id);
+				if (isPacked(remaining, id) || file.exists())
+					continue;
+				final ObjectLoader ldr = pack.get(wc, id);
+				final ObjectStream in = ldr.openStream();
+				try {
+					ins.insert(ldr.getType(), ldr.getSize(), in, true);
+				} finally {
+					in.close();
+				}
+				file.setLastModified(time);
+			}
+		} finally {
+			ins.release();
+			wc.release();
+		}
+	}
+
+	private static boolean isPacked(List<PackFile> packs, ObjectId id)
+			throws IOException {
+		for (PackFile p : packs) {
+			if (p.hasObject(id))
+				return true;
+		}
+		return false;
+	}
+
+	private void writeCachedPacks(PackFile pack, Set<ObjectId> tips)
+			throws IOException {
+		final ObjectDirectory odb = repo.getObjectDatabase();
+		final Set<String> present = new HashSet<String>();
+		for (PackFile p : odb.getPacks())
+			present.add(p.getPackName());
+
+		// Entries naming a deleted pack are dropped, the others are kept.
+		final StringBuilder b = new StringBuilder();
+		boolean modified = false;
+		for (LocalCachedPack c : odb.getLocalCachedPacks()) {
+			final List<String> names = Arrays.asList(c.getPackNames());
+			if (!present.containsAll(names)
+					|| (cachePack && pack != null && names.contains(pack
+							.getPackName()))) {
+				modified = true;
+				continue;
+			}
+			appendCachedPack(b, c.getTips(), names);
+		}
+		if (cachePack && pack != null && !tips.isEmpty()) {
+			appendCachedPack(b, tips, Collections.singletonList(pack
+					.getPackName()));
+			modified = true;
+		}
+		if (!modified)
+			return;
+
+		final File file = odb.getCachedPacksFile();
+		if (b.length() == 0) {
+			FileUtils.delete(file, FileUtils.SKIP_MISSING);
+			return;
+		}
+		FileUtils.mkdirs(file.getParentFile(), true);
+		final LockFile lck = new LockFile(file, repo.getFS());
+		if (!lck.lock())
+			throw new IOException(MessageFormat.format(
+					JGitText.get().cannotLockFile, file));
+		try {
+			lck.write(Constants.encode(b.toString()));
+			if (!lck.commit())
+				throw new IOException(MessageFormat.format(
+						JGitText.get().couldNotRenameTemporaryFile, lck, file));
+		} finally {
+			lck.unlock();
+		}
+	}
+
+	private static void appendCachedPack(StringBuilder b,
+			Collection<? extends ObjectId> tips, Collection<String> names) {
+		for (ObjectId id : tips)
+			b.append("+ ").append(id.name()).append('\n');
+		for (String name : names)
+			b.append("P ").append(name).append('\n');
+		b.append('\n');
+	}
+
+	private void writeCommitGraph(Set<ObjectId> tips) throws IOException {
+		if (!repo.getConfig().getBoolean("gc", "writecommitgraph", true))
+			return;
+		if (!repo.getShallowCommits().isEmpty())
+			return;
+
+		final File file = repo.getObjectDatabase().getCommitGraphFile();
+		if (tips.isEmpty()) {
+			FileUtils.delete(file, FileUtils.SKIP_MISSING);
+			return;
+		}
+
+		FileUtils.mkdirs(file.getParentFile(), true);
+		final LockFile lck = new LockFile(file, repo.getFS());
+		if (!lck.lock())
+			throw new IOException(MessageFormat.format(
+					JGitText.get().cannotLockFile, file));
+		final ObjectReader reader = repo.newObjectReader();
+		try {
+			final OutputStream out = new BufferedOutputStream(
+					lck.getOutputStream());
+			try {
+				new CommitGraphWriter(reader).write(pm, out, tips);
+			} finally {
+				out.close();
+			}
+			if (!lck.commit())
+				throw new IOException(MessageFormat.format(
+						JGitText.get().couldNotRenameTemporaryFile, lck, file));
+		} finally {
+			reader.release();
+			lck.unlock();
+		}
+	}
+
+	private void writeMultiPackIndex() throws IOException {
+		final ObjectDirectory odb = repo.getObjectDatabase();
+		final File file = odb.getMultiPackIndexFile();
+		if (!file.exists())
+			return;
+
+		final Collection<PackFile> packs = odb.getPacks();
+		if (packs.size() < 2) {
+			// A single pack is searched as quickly through its own index.
+			FileUtils.delete(file, FileUtils.SKIP_MISSING);
+			return;
+		}
+
+		final LockFile lck = new LockFile(file, repo.getFS());
+		if (!lck.lock())
+			throw new IOException(MessageFormat.format(
+					JGitText.get().cannotLockFile, file));
+		try {
+			final OutputStream out = new BufferedOutputStream(
+					lck.getOutputStream());
+			try {
+				new MultiPackIndexWriter(packs).write(pm, out);
+			} finally {
+				out.close();
+			}
+			if (!lck.commit())
+				throw new IOException(MessageFormat.format(
+						JGitText.get().couldNotRenameTemporaryFile, lck, file));
+		} finally {
+			lck.unlock();
+		}
+	}
+
+	private void removeReachable(Map<ObjectId, File> expired,
+			Set<ObjectId> recent) throws IOException {
+		final ObjectWalk w = new ObjectWalk(repo);
+		try {
+			final Set<ObjectId> roots = getRefTips();
+			roots.addAll(getReflogObjects());
+			roots.addAll(recent);
+			for (ObjectId id : roots)
+				w.markStart(w.parseAny(id));
+
+			if (!repo.isBare()) {
+				DirCache dc = repo.readDirCache();
+				for (int i = 0; i < dc.getEntryCount(); i++)
+					expired.remove(dc.getEntry(i).getObjectId());
+			}
+
+			RevObject o;
+			while ((o = w.next()) != null) {
+				expired.remove(o);
+				pm.update(1);
+			}
+			while ((o = w.nextObject()) != null) {
+				expired.remove(o);
+				pm.update(1);
+			}
+		} catch (MissingObjectException notComplete) {
+			// Something reachable is missing, the set of reachable objects
+			// is unknown. Keep everything rather than risk deleting more.
+			//
+			expired.clear();
+		} finally {
+			w.release();
+		}
+	}
+
+	private static File[] listFanout(ObjectDirectory odb) {
+		final File[] dirs = odb.getDirectory().listFiles();
+		if (dirs == null)
+			return new File[0];
+		final List<File> r = new ArrayList<File>(256);
+		for (File d : dirs) {
+			if (d.getName().length() == 2 && isHex(d.getName())
+					&& d.isDirectory())
+				r.add(d);
+		}
+		return r.toArray(new File[r.size()]);
+	}
+
+	private static List<String> listLoose(File dir) {
+		final String[] names = dir.list();
+		if (names == null)
+			return Collections.emptyList();
+		final List<String> r = new ArrayList<String>(names.length);
+		for (String n : names) {
+			if (n.length() == Constants.OBJECT_ID_STRING_LENGTH - 2
+					&& isHex(n))
+				r.add(n);
+		}
+		return r;
+	}
+
+	private static boolean isHex(String s) {
+		for (int i = 0; i < s.length(); i++) {
+			final char c = s.charAt(i);
+			if (!('0' <= c && c <= '9') && !('a' <= c && c <= 'f'))
+				return false;
+		}
+		return true;
+	}
+
+	/** Counts of the objects and references of a repository. */
+	public static class RepoStatistics {
+		long numberOfPackedObjects;
+
+		long numberOfPackFiles;
+
+		long numberOfLooseObjects;
+
+		long sizeOfLooseObjects;
+
+		long sizeOfPackedObjects;
+
+		long numberOfLooseRefs;
+
+		long numberOfPackedRefs;
+
+		/** @return number of objects stored in pack files. */
+		public long getNumberOfPackedObjects() {
+			return numberOfPackedObjects;
+		}
+
+		/** @return number of pack files. */
+		public long getNumberOfPackFiles() {
+			return numberOfPackFiles;
+		}
+
+		/** @return number of loose objects. */
+		public long getNumberOfLooseObjects() {
+			return numberOfLooseObjects;
+		}
+
+		/** @return total size in bytes of the loose object files. */
+		public long getSizeOfLooseObjects() {
+			return sizeOfLooseObjects;
+		}
+
+		/** @return total size in bytes of the pack files. */
+		public long getSizeOfPackedObjects() {
+			return sizeOfPackedObjects;
+		}
+
+		/** @return number of references stored as loose files. */
+		public long getNumberOfLooseRefs() {
+			return numberOfLooseRefs;
+		}
+
+		/** @return number of references stored in packed-refs. */
+		public long getNumberOfPackedRefs() {
+			return numberOfPackedRefs;
+		}
+
+		@Override
+		public String toString() {
+			final StringBuilder b = new StringBuilder();
+			b.append("numberOfPackedObjects=").append(numberOfPackedObjects);
+			b.append(", numberOfPackFiles=").append(numberOfPackFiles);
+			b.append(", numberOfLooseObjects=").append(numberOfLooseObjects);
+			b.append(", sizeOfLooseObjects=").append(sizeOfLooseObjects);
+			b.append(", sizeOfPackedObjects=").append(sizeOfPackedObjects);
+			b.append(", numberOfLooseRefs=").append(numberOfLooseRefs);
+			b.append(", numberOfPackedRefs=").append(numberOfPackedRefs);
+			return b.toString();
+		}
+	}
+}
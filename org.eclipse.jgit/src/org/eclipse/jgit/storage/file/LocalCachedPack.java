@@ -82,6 +82,11 @@ public Set<ObjectId> getTips() {
 		return tips;
 	}
 
+	/** @return names of the packs, as returned by {@link PackFile#getPackName()}. */
+	String[] getPackNames() {
+		return packNames;
+	}
+
 	@Override
 	public long getObjectCount() throws IOException {
 		long cnt = 0;
@@ -0,0 +1,303 @@
+/*
+ * Copyright (C) 2011, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.eclipse.jgit.storage.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.text.MessageFormat;
+import java.util.Set;
+
+import org.eclipse.jgit.JGitText;
+import org.eclipse.jgit.errors.CorruptObjectException;
+import org.eclipse.jgit.lib.AbbreviatedObjectId;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.util.IO;
+import org.eclipse.jgit.util.NB;
+import org.eclipse.jgit.util.RawParseUtils;
+
+/**
+ * An index of the objects stored in several packs of a repository.
+ * <p>
+ * The index is read from {@code objects/pack/multi-pack-index} and uses the
+ * same layout as C Git. After a short header a table of contents lists the
+ * chunks of the file:
+ *
+ * <pre>
+ * PNAM  names of the pack index files, sorted, each terminated by '\0'
+ * OIDF  fanout table, 256 * uint32 cumulative object counts
+ * OIDL  sorted object names, N * byte[20]
+ * OOFF  object locations, N * {
+ *         uint32 pack id, position of the pack in PNAM
+ *         uint32 offset, or LARGE_OFFSET | index into LOFF
+ *       }
+ * LOFF  offsets beyond 2 GiB, uint64
+ * </pre>
+ *
+ * Each object is listed once, with one of the packs holding it. The file ends
+ * with the SHA-1 of its content.
+ */
+class MultiPackIndex {
+	static final byte[] SIGNATURE = { 'M', 'I', 'D', 'X' };
+
+	static final int VERSION = 1;
+
+	static final int HASH_SHA1 = 1;
+
+	static final int CHUNK_PACK_NAMES = 0x504e414d;
+
+	static final int CHUNK_OID_FANOUT = 0x4f494446;
+
+	static final int CHUNK_OID_LOOKUP = 0x4f49444c;
+
+	static final int CHUNK_OBJECT_OFFSETS = 0x4f4f4646;
+
+	static final int CHUNK_LARGE_OFFSETS = 0x4c4f4646;
+
+	static final int LARGE_OFFSET = 0x80000000;
+
+	static final int HEADER_LENGTH = 12;
+
+	/**
+	 * Read a multi-pack index from a file.
+	 *
+	 * @param path
+	 *            location of the index.
+	 * @return the index.
+	 * @throws IOException
+	 *             the file cannot be read, or is not a valid multi-pack index.
+	 */
+	static MultiPackIndex open(File path) throws IOException {
+		final byte[] raw = IO.readFully(path);
+		if (raw.length < HEADER_LENGTH + 12 + Constants.OBJECT_ID_LENGTH
+				|| !isSignature(raw))
+			throw new CorruptObjectException(MessageFormat.format(
+					JGitText.get().notAMultiPackIndex, path));
+
+		final int trailer = raw.length - Constants.OBJECT_ID_LENGTH;
+		final MessageDigest md = Constants.newMessageDigest();
+		md.update(raw, 0, trailer);
+		if (!ObjectId.equals(md.digest(), 0, raw, trailer))
+			throw new CorruptObjectException(MessageFormat.format(
+					JGitText.get().notAMultiPackIndex, path));
+
+		if (raw[4] != VERSION || raw[5] != HASH_SHA1 || raw[7] != 0)
+			throw new IOException(MessageFormat.format(
+					JGitText.get().unsupportedMultiPackIndexVersion,
+					Integer.valueOf(raw[4])));
+
+		final int chunkCnt = raw[6] & 0xff;
+		final int packCnt = NB.decodeInt32(raw, 8);
+		int names = -1;
+		int fanout = -1;
+		int lookup = -1;
+		int offsets = -1;
+		int large = -1;
+		for (int i = 0; i < chunkCnt; i++) {
+			final int ptr = HEADER_LENGTH + i * 12;
+			final int id = NB.decodeInt32(raw, ptr);
+			final long off = NB.decodeUInt64(raw, ptr + 4);
+			if (off < 0 || trailer < off)
+				throw new CorruptObjectException(MessageFormat.format(
+						JGitText.get().notAMultiPackIndex, path));
+			switch (id) {
+			case CHUNK_PACK_NAMES:
+				names = (int) off;
+				break;
+			case CHUNK_OID_FANOUT:
+				fanout = (int) off;
+				break;
+			case CHUNK_OID_LOOKUP:
+				lookup = (int) off;
+				break;
+			case CHUNK_OBJECT_OFFSETS:
+				offsets = (int) off;
+				break;
+			case CHUNK_LARGE_OFFSETS:
+				large = (int) off;
+				break;
+			default:
+				// Ignore chunks we do not understand.
+				break;
+			}
+		}
+		if (names < 0 || fanout < 0 || lookup < 0 || offsets < 0)
+			throw new CorruptObjectException(MessageFormat.format(
+					JGitText.get().notAMultiPackIndex, path));
+
+		final String[] packNames = new String[packCnt];
+		int ptr = names;
+		for (int i = 0; i < packCnt; i++) {
+			final int end = RawParseUtils.next(raw, ptr, '\0');
+			packNames[i] = RawParseUtils.decode(Constants.CHARSET, raw, ptr,
+					end - 1);
+			ptr = end;
+		}
+		return new MultiPackIndex(raw, packNames, fanout, lookup, offsets,
+				large);
+	}
+
+	private static boolean isSignature(byte[] raw) {
+		for (int i = 0; i < SIGNATURE.length; i++) {
+			if (raw[i] != SIGNATURE[i])
+				return false;
+		}
+		return true;
+	}
+
+	private final byte[] raw;
+
+	private final String[] packNames;
+
+	private final int[] fanoutTable;
+
+	private final int lookupOffset;
+
+	private final int objectOffsets;
+
+	private final int largeOffsets;
+
+	private MultiPackIndex(byte[] raw, String[] packNames, int fanout,
+			int lookup, int offsets, int large) {
+		this.raw = raw;
+		this.packNames = packNames;
+		this.fanoutTable = new int[256];
+		for (int k = 0; k < 256; k++)
+			fanoutTable[k] = NB.decodeInt32(raw, fanout + k * 4);
+		this.lookupOffset = lookup;
+		this.objectOffsets = offsets;
+		this.largeOffsets = large;
+	}
+
+	/** @return names of the pack index files covered, in pack id order. */
+	String[] getPackNames() {
+		return packNames;
+	}
+
+	/** @return number of objects in the index. */
+	int getObjectCount() {
+		return fanoutTable[255];
+	}
+
+	/**
+	 * Locate an object in the index.
+	 *
+	 * @param id
+	 *            the object to find.
+	 * @return position of the object; -1 if the object is not in any of the
+	 *         packs described by this index.
+	 */
+	int findPosition(AnyObjectId id) {
+		final int levelOne = id.getFirstByte();
+		int low = levelOne > 0 ? fanoutTable[levelOne - 1] : 0;
+		int high = fanoutTable[levelOne];
+		while (low < high) {
+			final int mid = (low + high) >>> 1;
+			final int cmp = id.compareTo(raw, lookupOffset + mid
+					* Constants.OBJECT_ID_LENGTH);
+			if (cmp < 0)
+				high = mid;
+			else if (cmp == 0)
+				return mid;
+			else
+				low = mid + 1;
+		}
+		return -1;
+	}
+
+	/**
+	 * @param position
+	 *            position of the object, from {@link #findPosition(AnyObjectId)}.
+	 * @return pack id of the pack holding the object.
+	 */
+	int getPackId(int position) {
+		return NB.decodeInt32(raw, objectOffsets + position * 8);
+	}
+
+	/**
+	 * @param position
+	 *            position of the object, from {@link #findPosition(AnyObjectId)}.
+	 * @return offset of the object within its pack.
+	 */
+	long getOffset(int position) {
+		final int off = NB.decodeInt32(raw, objectOffsets + position * 8 + 4);
+		if ((off & LARGE_OFFSET) == 0)
+			return off;
+		return NB.decodeUInt64(raw, largeOffsets + (off & ~LARGE_OFFSET) * 8);
+	}
+
+	void resolve(Set<ObjectId> matches, AbbreviatedObjectId id, int matchLimit) {
+		final int levelOne = id.getFirstByte();
+		int low = levelOne > 0 ? fanoutTable[levelOne - 1] : 0;
+		final int max = fanoutTable[levelOne];
+		int high = max;
+		while (low < high) {
+			int p = (low + high) >>> 1;
+			final int cmp = id.prefixCompare(raw, idOffset(p));
+			if (cmp < 0)
+				high = p;
+			else if (cmp == 0) {
+				// We may have landed in the middle of the matches. Move
+				// backwards to the start of matches, then walk forwards.
+				//
+				while (0 < p && id.prefixCompare(raw, idOffset(p - 1)) == 0)
+					p--;
+				for (; p < max && id.prefixCompare(raw, idOffset(p)) == 0; p++) {
+					matches.add(ObjectId.fromRaw(raw, idOffset(p)));
+					if (matches.size() > matchLimit)
+						break;
+				}
+				return;
+			} else
+				low = p + 1;
+		}
+	}
+
+	private int idOffset(int p) {
+		return lookupOffset + p * Constants.OBJECT_ID_LENGTH;
+	}
+}
@@ -0,0 +1,262 @@
+/*
+ * Copyright (C) 2011, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.eclipse.jgit.storage.file;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.eclipse.jgit.JGitText;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectIdOwnerMap;
+import org.eclipse.jgit.lib.ProgressMonitor;
+import org.eclipse.jgit.util.NB;
+
+/**
+ * Creates a multi-pack index describing the objects of a set of packs.
+ * <p>
+ * The index (stored in {@code objects/pack/multi-pack-index}) lets
+ * {@link ObjectDirectory} locate an object with a single binary search,
+ * instead of searching the index of every pack in turn. The file is written in
+ * the same format as C Git, see {@link MultiPackIndex}.
+ * <p>
+ * An object stored in more than one pack is indexed in the pack that is
+ * searched first by {@link ObjectDirectory}, the most recently modified one.
+ */
+public class MultiPackIndexWriter {
+	/** Name of the multi-pack index file, within {@code objects/pack}. */
+	public static final String FILE_NAME = "multi-pack-index";
+
+	private final PackFile[] packs;
+
+	/**
+	 * Create a writer for a multi-pack index.
+	 *
+	 * @param packs
+	 *            the packs to describe. All must be in the same directory as
+	 *            the index will be written to.
+	 */
+	public MultiPackIndexWriter(Collection<PackFile> packs) {
+		this.packs = packs.toArray(new PackFile[packs.size()]);
+	}
+
+	/**
+	 * Write the multi-pack index.
+	 *
+	 * @param monitor
+	 *            progress monitor, updated once per object.
+	 * @param dst
+	 *            output for the index. Caller is responsible for closing this
+	 *            stream.
+	 * @return number of objects written to the index.
+	 * @throws IOException
+	 *             a pack index cannot be read, or the output cannot be
+	 *             written.
+	 */
+	public int write(ProgressMonitor monitor, OutputStream dst)
+			throws IOException {
+		final String[] names = new String[packs.length];
+		for (int i = 0; i < packs.length; i++)
+			names[i] = "pack-" + packs[i].getPackName() + ".idx";
+		Arrays.sort(names);
+
+		final List<Entry> objects = collect(monitor, names);
+		final int cnt = objects.size();
+
+		int largeCnt = 0;
+		for (Entry e : objects) {
+			if (e.offset > Integer.MAX_VALUE)
+				largeCnt++;
+		}
+
+		int namesSize = 0;
+		for (String n : names)
+			namesSize += Constants.encode(n).length + 1;
+		final int namesPadding = (4 - namesSize % 4) % 4;
+
+		final List<Integer> chunkIds = new ArrayList<Integer>(5);
+		final List<Long> chunkSizes = new ArrayList<Long>(5);
+		chunkIds.add(Integer.valueOf(MultiPackIndex.CHUNK_PACK_NAMES));
+		chunkSizes.add(Long.valueOf(namesSize + namesPadding));
+		chunkIds.add(Integer.valueOf(MultiPackIndex.CHUNK_OID_FANOUT));
+		chunkSizes.add(Long.valueOf(256 * 4));
+		chunkIds.add(Integer.valueOf(MultiPackIndex.CHUNK_OID_LOOKUP));
+		chunkSizes.add(Long.valueOf((long) cnt * Constants.OBJECT_ID_LENGTH));
+		chunkIds.add(Integer.valueOf(MultiPackIndex.CHUNK_OBJECT_OFFSETS));
+		chunkSizes.add(Long.valueOf((long) cnt * 8));
+		if (0 < largeCnt) {
+			chunkIds.add(Integer.valueOf(MultiPackIndex.CHUNK_LARGE_OFFSETS));
+			chunkSizes.add(Long.valueOf((long) largeCnt * 8));
+		}
+
+		final DigestOutputStream out = new DigestOutputStream(
+				dst instanceof BufferedOutputStream ? dst
+						: new BufferedOutputStream(dst), Constants
+						.newMessageDigest());
+		final byte[] buf = new byte[Constants.OBJECT_ID_LENGTH];
+
+		out.write(MultiPackIndex.SIGNATURE);
+		buf[0] = MultiPackIndex.VERSION;
+		buf[1] = MultiPackIndex.HASH_SHA1;
+		buf[2] = (byte) chunkIds.size();
+		buf[3] = 0; // no base index
+		NB.encodeInt32(buf, 4, names.length);
+		out.write(buf, 0, 8);
+
+		long offset = MultiPackIndex.HEADER_LENGTH + (chunkIds.size() + 1)
+				* 12;
+		for (int i = 0; i < chunkIds.size(); i++) {
+			NB.encodeInt32(buf, 0, chunkIds.get(i).intValue());
+			NB.encodeInt64(buf, 4, offset);
+			out.write(buf, 0, 12);
+			offset += chunkSizes.get(i).longValue();
+		}
+		NB.encodeInt32(buf, 0, 0);
+		NB.encodeInt64(buf, 4, offset);
+		out.write(buf, 0, 12);
+
+		for (String n : names) {
+			out.write(Constants.encode(n));
+			out.write(0);
+		}
+		for (int i = 0; i < namesPadding; i++)
+			out.write(0);
+
+		final int[] fanout = new int[256];
+		for (Entry e : objects)
+			fanout[e.getFirstByte()]++;
+		for (int i = 1; i < 256; i++)
+			fanout[i] += fanout[i - 1];
+		for (int i = 0; i < 256; i++) {
+			NB.encodeInt32(buf, 0, fanout[i]);
+			out.write(buf, 0, 4);
+		}
+
+		for (Entry e : objects) {
+			e.copyRawTo(buf, 0);
+			out.write(buf, 0, Constants.OBJECT_ID_LENGTH);
+		}
+
+		int largePtr = 0;
+		for (Entry e : objects) {
+			NB.encodeInt32(buf, 0, e.packId);
+			if (e.offset > Integer.MAX_VALUE)
+				NB.encodeInt32(buf, 4, MultiPackIndex.LARGE_OFFSET
+						| largePtr++);
+			else
+				NB.encodeInt32(buf, 4, (int) e.offset);
+			out.write(buf, 0, 8);
+		}
+
+		for (Entry e : objects) {
+			if (e.offset > Integer.MAX_VALUE) {
+				NB.encodeInt64(buf, 0, e.offset);
+				out.write(buf, 0, 8);
+			}
+		}
+
+		out.on(false);
+		out.write(out.getMessageDigest().digest());
+		out.flush();
+		return cnt;
+	}
+
+	private List<Entry> collect(ProgressMonitor monitor, String[] names)
+			throws IOException {
+		// Search packs in the same order as ObjectDirectory, so the first
+		// copy of an object found is also the one it would have used.
+		final PackFile[] order = packs.clone();
+		Arrays.sort(order, PackFile.SORT);
+
+		int total = 0;
+		for (PackFile p : order)
+			total += (int) p.getObjectCount();
+
+		final ObjectIdOwnerMap<Entry> map = new ObjectIdOwnerMap<Entry>();
+		final List<Entry> objects = new ArrayList<Entry>(total);
+		monitor.beginTask(JGitText.get().writingMultiPackIndex, total);
+		for (PackFile p : order) {
+			final int packId = Arrays.binarySearch(names, "pack-"
+					+ p.getPackName() + ".idx");
+			for (PackIndex.MutableEntry ent : p) {
+				final AnyObjectId id = ent.toObjectId();
+				if (!map.contains(id)) {
+					final Entry e = new Entry(id, packId, ent.getOffset());
+					map.add(e);
+					objects.add(e);
+				}
+				monitor.update(1);
+			}
+		}
+		monitor.endTask();
+
+		Collections.sort(objects, new Comparator<Entry>() {
+			public int compare(Entry a, Entry b) {
+				return a.compareTo(b);
+			}
+		});
+		return objects;
+	}
+
+	private static class Entry extends ObjectIdOwnerMap.Entry {
+		final int packId;
+
+		final long offset;
+
+		Entry(AnyObjectId id, int packId, long offset) {
+			super(id);
+			this.packId = packId;
+			this.offset = offset;
+		}
+	}
+}
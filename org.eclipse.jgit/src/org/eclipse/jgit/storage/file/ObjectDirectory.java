@@ -75,6 +75,7 @@
 import org.eclipse.jgit.storage.pack.CachedPack;
 import org.eclipse.jgit.storage.pack.ObjectToPack;
 import org.eclipse.jgit.storage.pack.PackWriter;
+import org.eclipse.jgit.transport.PromisorRemote;
 import org.eclipse.jgit.util.FS;
 import org.eclipse.jgit.util.FileUtils;
 import org.eclipse.jgit.util.IO;
@@ -117,16 +118,25 @@ public class ObjectDirectory extends FileObjectDatabase {
 
 	private final File cachedPacksFile;
 
+	private final File commitGraphFile;
+
+	private final File multiPackIndexFile;
+
 	private final AtomicReference<PackList> packList;
 
 	private final AtomicReference<CachedPackList> cachedPacks;
 
+	private final AtomicReference<LoadedCommitGraph> commitGraph;
+
 	private final FS fs;
 
 	private final AtomicReference<AlternateHandle[]> alternates;
 
 	private final UnpackedObjectCache unpackedObjectCache;
 
+	/** Fetches objects a partial clone left out; null if not available. */
+	private volatile PromisorRemote promisor;
+
 	/**
 	 * Initialize a reference to an on-disk object directory.
 	 *
@@ -150,8 +160,12 @@ public ObjectDirectory(final Config cfg, final File dir,
 		packDirectory = new File(objects, "pack");
 		alternatesFile = new File(infoDirectory, "alternates");
 		cachedPacksFile = new File(infoDirectory, "cached-packs");
+		commitGraphFile = new File(infoDirectory, "commit-graph");
+		multiPackIndexFile = new File(packDirectory,
+				MultiPackIndexWriter.FILE_NAME);
 		packList = new AtomicReference<PackList>(NO_PACKS);
 		cachedPacks = new AtomicReference<CachedPackList>();
+		commitGraph = new AtomicReference<LoadedCommitGraph>();
 		unpackedObjectCache = new UnpackedObjectCache();
 		this.fs = fs;
 
@@ -237,11 +251,8 @@ public Collection<PackFile> getPacks() {
 
 	@Override
 	Collection<? extends CachedPack> getCachedPacks() throws IOException {
-		CachedPackList list = cachedPacks.get();
-		if (list == null || list.snapshot.isModified(cachedPacksFile))
-			list = scanCachedPacks(list);
-
-		Collection<CachedPack> result = list.getCachedPacks();
+		Collection<CachedPack> result = getLocalCachedPackList()
+				.getCachedPacks();
 		boolean resultIsCopy = false;
 
 		for (AlternateHandle h : myAlternates()) {
@@ -263,6 +274,59 @@ Collection<? extends CachedPack> getCachedPacks() throws IOException {
 		return result;
 	}
 
+	/**
+	 * @return the cached packs listed by this directory, excluding those of
+	 *         its alternates.
+	 * @throws IOException
+	 *             the list of cached packs cannot be read.
+	 */
+	Collection<LocalCachedPack> getLocalCachedPacks() throws IOException {
+		return getLocalCachedPackList().packs;
+	}
+
+	private CachedPackList getLocalCachedPackList() throws IOException {
+		CachedPackList list = cachedPacks.get();
+		if (list == null || list.snapshot.isModified(cachedPacksFile))
+			list = scanCachedPacks(list);
+		return list;
+	}
+
+	@Override
+	PackBitmapIndex getBitmapIndex() throws IOException {
+		PackList list = packList.get();
+		if (list == NO_PACKS)
+			list = scanPacks(list);
+		for (PackFile p : list.packs) {
+			try {
+				PackBitmapIndex bitmaps = p.getBitmapIndex();
+				if (bitmaps != null)
+					return bitmaps;
+			} catch (IOException e) {
+				// The bitmaps are only an optimization; if they cannot be
+				// read, try the next pack or let the caller walk the graph.
+				continue;
+			}
+		}
+		return null;
+	}
+
+	@Override
+	CommitGraphFile getCommitGraph() throws IOException {
+		LoadedCommitGraph g = commitGraph.get();
+		if (g == null || g.snapshot.isModified(commitGraphFile)) {
+			FileSnapshot s = FileSnapshot.save(commitGraphFile);
+			CommitGraphFile graph;
+			try {
+				graph = CommitGraphFile.open(commitGraphFile);
+			} catch (FileNotFoundException e) {
+				graph = null;
+			}
+			g = new LoadedCommitGraph(s, graph);
+			commitGraph.set(g);
+		}
+		return g.graph;
+	}
+
 	private CachedPackList scanCachedPacks(CachedPackList old)
 			throws IOException {
 		FileSnapshot s = FileSnapshot.save(cachedPacksFile);
@@ -343,6 +407,62 @@ public PackFile openPack(final File pack, final File idx)
 		return res;
 	}
 
+	/**
+	 * Remove a pack from the list of available packs and delete its files.
+	 * <p>
+	 * The index is deleted first, so a concurrent scan of the directory never
+	 * opens a pack whose data file is already gone.
+	 *
+	 * @param pack
+	 *            the pack to delete.
+	 * @throws IOException
+	 *             a file of the pack cannot be deleted.
+	 */
+	void deletePack(final PackFile pack) throws IOException {
+		removePack(pack);
+
+		final String base = "pack-" + pack.getPackName();
+		final int opts = FileUtils.SKIP_MISSING | FileUtils.RETRY;
+		FileUtils.delete(new File(packDirectory, base + ".idx"), opts);
+		FileUtils.delete(new File(packDirectory, base + ".pack"), opts);
+		FileUtils.delete(new File(packDirectory, base + ".rev"), opts);
+		FileUtils.delete(new File(packDirectory, base + ".bitmap"), opts);
+		FileUtils.delete(new File(packDirectory, base + ".promisor"), opts);
+	}
+
+	/**
+	 * Delete the file of a loose object.
+	 *
+	 * @param id
+	 *            the object to delete.
+	 * @throws IOException
+	 *             the file exists, but cannot be deleted.
+	 */
+	void deleteLooseObject(final AnyObjectId id) throws IOException {
+		FileUtils.delete(fileFor(id), FileUtils.SKIP_MISSING);
+		unpackedObjectCache.remove(id);
+	}
+
+	/** @return the {@code objects/pack} directory. */
+	File getPackDirectory() {
+		return packDirectory;
+	}
+
+	/** @return the {@code objects/info/commit-graph} file. */
+	File getCommitGraphFile() {
+		return commitGraphFile;
+	}
+
+	/** @return the {@code objects/info/cached-packs} file. */
+	File getCachedPacksFile() {
+		return cachedPacksFile;
+	}
+
+	/** @return the {@code objects/pack/multi-pack-index} file. */
+	File getMultiPackIndexFile() {
+		return multiPackIndexFile;
+	}
+
 	@Override
 	public String toString() {
 		return "ObjectDirectory[" + getDirectory() + "]";
@@ -351,7 +471,23 @@ public String toString() {
 	boolean hasObject1(final AnyObjectId objectId) {
 		if (unpackedObjectCache.isUnpacked(objectId))
 			return true;
-		for (final PackFile p : packList.get().packs) {
+		return hasPackedObject(objectId);
+	}
+
+	boolean hasPackedObject(final AnyObjectId objectId) {
+		final PackList pList = packList.get();
+		final MultiPackIndex midx = pList.index;
+		PackFile[] packs = pList.packs;
+		if (midx != null) {
+			final int pos = midx.findPosition(objectId);
+			if (0 <= pos) {
+				final PackFile p = pList.indexPacks[midx.getPackId(pos)];
+				if (!p.isCorrupt(midx.getOffset(pos)))
+					return true;
+			} else
+				packs = pList.unindexed;
+		}
+		for (final PackFile p : packs) {
 			try {
 				if (p.hasObject(objectId)) {
 					return true;
@@ -376,7 +512,14 @@ void resolve(Set<ObjectId> matches, AbbreviatedObjectId id)
 		int oldSize = matches.size();
 		PackList pList = packList.get();
 		for (;;) {
-			for (PackFile p : pList.packs) {
+			PackFile[] packs = pList.packs;
+			if (pList.index != null) {
+				pList.index.resolve(matches, id, RESOLVE_ABBREV_LIMIT);
+				if (matches.size() > RESOLVE_ABBREV_LIMIT)
+					return;
+				packs = pList.unindexed;
+			}
+			for (PackFile p : packs) {
 				try {
 					p.resolve(matches, id, RESOLVE_ABBREV_LIMIT);
 				} catch (IOException e) {
@@ -434,7 +577,32 @@ ObjectLoader openObject1(final WindowCursor curs,
 
 		PackList pList = packList.get();
 		SEARCH: for (;;) {
-			for (final PackFile p : pList.packs) {
+			final MultiPackIndex midx = pList.index;
+			PackFile[] packs = pList.packs;
+			if (midx != null) {
+				final int pos = midx.findPosition(objectId);
+				if (0 <= pos) {
+					final PackFile p = pList.indexPacks[midx.getPackId(pos)];
+					final long offset = midx.getOffset(pos);
+					if (!p.isCorrupt(offset)) {
+						try {
+							return p.load(curs, offset);
+						} catch (PackMismatchException e) {
+							// Pack was modified; refresh the entire pack list.
+							//
+							pList = scanPacks(pList);
+							continue SEARCH;
+						} catch (IOException e) {
+							// Assume the pack is corrupted, and look for
+							// another copy in the remaining packs.
+							//
+							removePack(p);
+						}
+					}
+				} else
+					packs = pList.unindexed;
+			}
+			for (final PackFile p : packs) {
 				try {
 					final ObjectLoader ldr = p.get(curs, objectId);
 					if (ldr != null)
@@ -458,7 +626,32 @@ long getObjectSize1(final WindowCursor curs, final AnyObjectId objectId)
 			throws IOException {
 		PackList pList = packList.get();
 		SEARCH: for (;;) {
-			for (final PackFile p : pList.packs) {
+			final MultiPackIndex midx = pList.index;
+			PackFile[] packs = pList.packs;
+			if (midx != null) {
+				final int pos = midx.findPosition(objectId);
+				if (0 <= pos) {
+					final PackFile p = pList.indexPacks[midx.getPackId(pos)];
+					final long offset = midx.getOffset(pos);
+					if (!p.isCorrupt(offset)) {
+						try {
+							return p.getObjectSize(curs, offset);
+						} catch (PackMismatchException e) {
+							// Pack was modified; refresh the entire pack list.
+							//
+							pList = scanPacks(pList);
+							continue SEARCH;
+						} catch (IOException e) {
+							// Assume the pack is corrupted, and look for
+							// another copy in the remaining packs.
+							//
+							removePack(p);
+						}
+					}
+				} else
+					packs = pList.unindexed;
+			}
+			for (final PackFile p : packs) {
 				try {
 					long sz = p.getObjectSize(curs, objectId);
 					if (0 <= sz)
@@ -598,6 +791,24 @@ InsertLooseObjectResult insertUnpackedObject(File tmp, ObjectId id,
 		return InsertLooseObjectResult.FAILURE;
 	}
 
+	/**
+	 * Set how objects left out by a partial clone are obtained.
+	 *
+	 * @param remote
+	 *            the remote to fetch missing objects from, if the repository
+	 *            is a partial clone; null to never fetch missing objects.
+	 */
+	void setPromisor(PromisorRemote remote) {
+		promisor = remote;
+	}
+
+	@Override
+	boolean fetchPromised(AnyObjectId objectId) throws IOException {
+		final PromisorRemote p = promisor;
+		return p != null
+				&& p.fetch(Collections.singleton(objectId.copy()));
+	}
+
 	boolean tryAgain1() {
 		final PackList old = packList.get();
 		if (old.snapshot.isModified(packDirectory))
@@ -635,7 +846,7 @@ private void insertPack(final PackFile pf) {
 			final PackFile[] newList = new PackFile[1 + oldList.length];
 			newList[0] = pf;
 			System.arraycopy(oldList, 0, newList, 1, oldList.length);
-			n = new PackList(o.snapshot, newList);
+			n = new PackList(o.snapshot, newList, o.loadedIndex);
 		} while (!packList.compareAndSet(o, n));
 	}
 
@@ -652,7 +863,7 @@ private void removePack(final PackFile deadPack) {
 			final PackFile[] newList = new PackFile[oldList.length - 1];
 			System.arraycopy(oldList, 0, newList, 0, j);
 			System.arraycopy(oldList, j + 1, newList, j, newList.length - j);
-			n = new PackList(o.snapshot, newList);
+			n = new PackList(o.snapshot, newList, o.loadedIndex);
 		} while (!packList.compareAndSet(o, n));
 		deadPack.close();
 	}
@@ -687,6 +898,7 @@ private PackList scanPacks(final PackList original) {
 	private PackList scanPacksImpl(final PackList old) {
 		final Map<String, PackFile> forReuse = reuseMap(old);
 		final FileSnapshot snapshot = FileSnapshot.save(packDirectory);
+		final LoadedMultiPackIndex midx = scanMultiPackIndex(old.loadedIndex);
 		final Set<String> names = listPackDirectory();
 		final List<PackFile> list = new ArrayList<PackFile>(names.size() >> 2);
 		boolean foundNew = false;
@@ -723,7 +935,8 @@ private PackList scanPacksImpl(final PackList old) {
 		// the same as the set we were given. Instead of building a new object
 		// return the same collection.
 		//
-		if (!foundNew && forReuse.isEmpty() && snapshot.equals(old.snapshot)) {
+		if (!foundNew && forReuse.isEmpty() && snapshot.equals(old.snapshot)
+				&& midx == old.loadedIndex) {
 			old.snapshot.setClean(snapshot);
 			return old;
 		}
@@ -737,7 +950,26 @@ private PackList scanPacksImpl(final PackList old) {
 
 		final PackFile[] r = list.toArray(new PackFile[list.size()]);
 		Arrays.sort(r, PackFile.SORT);
-		return new PackList(snapshot, r);
+		return new PackList(snapshot, r, midx);
+	}
+
+	private LoadedMultiPackIndex scanMultiPackIndex(
+			final LoadedMultiPackIndex old) {
+		if (old != null && !old.snapshot.isModified(multiPackIndexFile))
+			return old;
+
+		final FileSnapshot snapshot = FileSnapshot.save(multiPackIndexFile);
+		try {
+			return new LoadedMultiPackIndex(snapshot,
+					MultiPackIndex.open(multiPackIndexFile));
+		} catch (FileNotFoundException noFile) {
+			return null;
+		} catch (IOException badIndex) {
+			// The packs are still usable without the index, they just
+			// have to be searched one at a time.
+			//
+			return null;
+		}
 	}
 
 	private static Map<String, PackFile> reuseMap(final PackList old) {
@@ -840,9 +1072,84 @@ private static final class PackList {
 		/** All known packs, sorted by {@link PackFile#SORT}. */
 		final PackFile[] packs;
 
+		/** Multi-pack index read from the pack directory; may be null. */
+		final LoadedMultiPackIndex loadedIndex;
+
+		/** Index of {@link #indexPacks}; null if it cannot be used. */
+		final MultiPackIndex index;
+
+		/** Pack for each pack id of {@link #index}. */
+		final PackFile[] indexPacks;
+
+		/** Packs not covered by {@link #index}, sorted like {@link #packs}. */
+		final PackFile[] unindexed;
+
 		PackList(final FileSnapshot monitor, final PackFile[] packs) {
+			this(monitor, packs, null);
+		}
+
+		PackList(final FileSnapshot monitor, final PackFile[] packs,
+				final LoadedMultiPackIndex midx) {
 			this.snapshot = monitor;
 			this.packs = packs;
+			this.loadedIndex = midx;
+
+			final PackFile[] covered = midx != null ? cover(midx.index, packs)
+					: null;
+			if (covered != null) {
+				final List<PackFile> rest = new ArrayList<PackFile>();
+				for (final PackFile p : packs) {
+					if (indexOf(covered, p) < 0)
+						rest.add(p);
+				}
+				index = midx.index;
+				indexPacks = covered;
+				unindexed = rest.toArray(new PackFile[rest.size()]);
+			} else {
+				index = null;
+				indexPacks = null;
+				unindexed = packs;
+			}
+		}
+
+		private static PackFile[] cover(MultiPackIndex midx, PackFile[] packs) {
+			final Map<String, PackFile> byName = new HashMap<String, PackFile>();
+			for (final PackFile p : packs)
+				byName.put("pack-" + p.getPackName() + ".idx", p);
+
+			// The index can only be used if every pack it names is still
+			// present, otherwise it may claim objects that are gone.
+			//
+			final String[] names = midx.getPackNames();
+			final PackFile[] r = new PackFile[names.length];
+			for (int i = 0; i < names.length; i++) {
+				r[i] = byName.get(names[i]);
+				if (r[i] == null)
+					return null;
+			}
+			return r;
+		}
+	}
+
+	private static final class LoadedMultiPackIndex {
+		final FileSnapshot snapshot;
+
+		final MultiPackIndex index;
+
+		LoadedMultiPackIndex(FileSnapshot sn, MultiPackIndex idx) {
+			snapshot = sn;
+			index = idx;
+		}
+	}
+
+	private static final class LoadedCommitGraph {
+		final FileSnapshot snapshot;
+
+		final CommitGraphFile graph;
+
+		LoadedCommitGraph(FileSnapshot sn, CommitGraphFile g) {
+			snapshot = sn;
+			graph = g;
 		}
 	}
 
@@ -50,6 +50,8 @@
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.security.MessageDigest;
 import java.text.MessageFormat;
 import java.util.Arrays;
@@ -99,6 +101,8 @@ public class ObjectDirectoryPackParser extends PackParser {
 	 */
 	private File tmpIdx;
 
+	private File tmpRev;
+
 	/** Read/write handle to {@link #tmpPack} while it is being parsed. */
 	private RandomAccessFile out;
 
@@ -127,6 +131,7 @@ public class ObjectDirectoryPackParser extends PackParser {
 		this.tailDigest = Constants.newMessageDigest();
 
 		indexVersion = db.getConfig().get(CoreConfig.KEY).getPackIndexVersion();
+		setThreads(db.getConfig().getInt("pack", "indexthreads", 1));
 	}
 
 	/**
@@ -172,6 +177,7 @@ public PackLock parse(ProgressMonitor receiving, ProgressMonitor resolving)
 			throws IOException {
 		tmpPack = File.createTempFile("incoming_", ".pack", db.getDirectory());
 		tmpIdx = new File(db.getDirectory(), baseName(tmpPack) + ".idx");
+		tmpRev = new File(db.getDirectory(), baseName(tmpPack) + ".rev");
 		try {
 			out = new RandomAccessFile(tmpPack, "rw");
 
@@ -182,10 +188,14 @@ public PackLock parse(ProgressMonitor receiving, ProgressMonitor resolving)
 			out.getChannel().force(true);
 			out.close();
 
-			writeIdx();
+			final List<PackedObjectInfo> list;
+			list = getSortedObjectList(null /* by ObjectId */);
+			writeIdx(list);
+			writeRev(list);
 
 			tmpPack.setReadOnly();
 			tmpIdx.setReadOnly();
+			tmpRev.setReadOnly();
 
 			return renameAndOpenPack(getLockMessage());
 		} finally {
@@ -294,6 +304,76 @@ protected boolean checkCRC(int oldCRC) {
 		return oldCRC == (int) crc.getValue();
 	}
 
+	@Override
+	protected DatabaseReader newDatabaseReader() throws IOException {
+		return new TemporaryPackReader(out.getChannel());
+	}
+
+	/** Reads the temporary pack file using positional reads. */
+	private static class TemporaryPackReader extends DatabaseReader {
+		private final FileChannel channel;
+
+		private final CRC32 readCRC;
+
+		private final byte[] hdr;
+
+		private long position;
+
+		TemporaryPackReader(FileChannel channel) {
+			this.channel = channel;
+			this.readCRC = new CRC32();
+			this.hdr = new byte[MAX_HEADER_LENGTH];
+		}
+
+		@Override
+		protected ObjectTypeAndSize seek(PackedObjectInfo obj,
+				ObjectTypeAndSize info) throws IOException {
+			return seek(obj.getOffset(), info);
+		}
+
+		@Override
+		protected ObjectTypeAndSize seek(UnresolvedDelta delta,
+				ObjectTypeAndSize info) throws IOException {
+			return seek(delta.getOffset(), info);
+		}
+
+		private ObjectTypeAndSize seek(long offset, ObjectTypeAndSize info)
+				throws IOException {
+			position = offset;
+			int cnt = 0;
+			while (cnt < hdr.length) {
+				int n = read(hdr, cnt, hdr.length - cnt);
+				if (n <= 0)
+					break;
+				cnt += n;
+			}
+
+			int len = parseObjectHeader(hdr, cnt, info);
+			readCRC.reset();
+			readCRC.update(hdr, 0, len);
+			position = offset + len;
+			return info;
+		}
+
+		@Override
+		protected int read(byte[] dst, int pos, int cnt) throws IOException {
+			int n = channel.read(ByteBuffer.wrap(dst, pos, cnt), position);
+			if (0 < n)
+				position += n;
+			return n;
+		}
+
+		@Override
+		protected void onObjectData(byte[] raw, int pos, int len) {
+			readCRC.update(raw, pos, len);
+		}
+
+		@Override
+		protected boolean checkCRC(int oldCRC) {
+			return oldCRC == (int) readCRC.getValue();
+		}
+	}
+
 	private static String baseName(File tmpPack) {
 		String name = tmpPack.getName();
 		return name.substring(0, name.lastIndexOf('.'));
@@ -302,6 +382,8 @@ private static String baseName(File tmpPack) {
 	private void cleanupTemporaryFiles() {
 		if (tmpIdx != null && !tmpIdx.delete() && tmpIdx.exists())
 			tmpIdx.deleteOnExit();
+		if (tmpRev != null && !tmpRev.delete() && tmpRev.exists())
+			tmpRev.deleteOnExit();
 		if (tmpPack != null && !tmpPack.delete() && tmpPack.exists())
 			tmpPack.deleteOnExit();
 	}
@@ -392,8 +474,7 @@ protected void onEndThinPack() throws IOException {
 		packHash = packDigest.digest();
 	}
 
-	private void writeIdx() throws IOException {
-		List<PackedObjectInfo> list = getSortedObjectList(null /* by ObjectId */);
+	private void writeIdx(List<PackedObjectInfo> list) throws IOException {
 		final FileOutputStream os = new FileOutputStream(tmpIdx);
 		try {
 			final PackIndexWriter iw;
@@ -408,6 +489,16 @@ private void writeIdx() throws IOException {
 		}
 	}
 
+	private void writeRev(List<PackedObjectInfo> list) throws IOException {
+		final FileOutputStream os = new FileOutputStream(tmpRev);
+		try {
+			new PackReverseIndexWriter(os).write(list, packHash);
+			os.getChannel().force(true);
+		} finally {
+			os.close();
+		}
+	}
+
 	private PackLock renameAndOpenPack(final String lockMessage)
 			throws IOException {
 		if (!keepEmpty && getObjectCount() == 0) {
@@ -427,6 +518,9 @@ private PackLock renameAndOpenPack(final String lockMessage)
 		final File packDir = new File(db.getDirectory(), "pack");
 		final File finalPack = new File(packDir, "pack-" + name + ".pack");
 		final File finalIdx = new File(packDir, "pack-" + name + ".idx");
+		final File finalRev = new File(packDir, "pack-" + name + ".rev");
+		final File finalPromisor = new File(packDir, "pack-" + name
+				+ ".promisor");
 		final PackLock keep = new PackLock(finalPack, db.getFS());
 
 		if (!packDir.exists() && !packDir.mkdir() && !packDir.exists()) {
@@ -467,11 +561,41 @@ private PackLock renameAndOpenPack(final String lockMessage)
 					JGitText.get().cannotMovePackTo, finalPack));
 		}
 
+		// The reverse index must be in place before the index, as
+		// readers only look for it once the index makes the pack visible.
+		//
+		if (!tmpRev.renameTo(finalRev)) {
+			cleanupTemporaryFiles();
+			keep.unlock();
+			if (!finalPack.delete())
+				finalPack.deleteOnExit();
+			throw new IOException(MessageFormat.format(
+					JGitText.get().cannotMoveIndexTo, finalRev));
+		}
+
+		if (isPromisor()) {
+			try {
+				FileUtils.createNewFile(finalPromisor);
+			} catch (IOException e) {
+				cleanupTemporaryFiles();
+				keep.unlock();
+				if (!finalPack.delete())
+					finalPack.deleteOnExit();
+				if (!finalRev.delete())
+					finalRev.deleteOnExit();
+				throw e;
+			}
+		}
+
 		if (!tmpIdx.renameTo(finalIdx)) {
 			cleanupTemporaryFiles();
 			keep.unlock();
 			if (!finalPack.delete())
 				finalPack.deleteOnExit();
+			if (!finalRev.delete())
+				finalRev.deleteOnExit();
+			if (finalPromisor.exists() && !finalPromisor.delete())
+				finalPromisor.deleteOnExit();
 			throw new IOException(MessageFormat.format(
 					JGitText.get().cannotMoveIndexTo, finalIdx));
 		}
@@ -484,6 +608,10 @@ private PackLock renameAndOpenPack(final String lockMessage)
 				FileUtils.delete(finalPack);
 			if (finalIdx.exists())
 				FileUtils.delete(finalIdx);
+			if (finalRev.exists())
+				FileUtils.delete(finalRev);
+			if (finalPromisor.exists())
+				FileUtils.delete(finalPromisor);
 			throw err;
 		}
 
@@ -0,0 +1,441 @@
+/*
+ * Copyright (C) 2011, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.eclipse.jgit.storage.file;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.eclipse.jgit.JGitText;
+import org.eclipse.jgit.errors.CorruptObjectException;
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.errors.PackMismatchException;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.MutableObjectId;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectIdOwnerMap;
+import org.eclipse.jgit.lib.ProgressMonitor;
+import org.eclipse.jgit.revwalk.ObjectWalk;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevFlag;
+import org.eclipse.jgit.revwalk.RevObject;
+import org.eclipse.jgit.revwalk.RevTag;
+import org.eclipse.jgit.storage.pack.BitmapIndex;
+import org.eclipse.jgit.treewalk.CanonicalTreeParser;
+import org.eclipse.jgit.util.IO;
+import org.eclipse.jgit.util.IntList;
+import org.eclipse.jgit.util.NB;
+
+/**
+ * Reachability bitmaps for the objects of a single pack file.
+ * <p>
+ * The {@code .bitmap} file stored alongside a pack records, for a selection of
+ * commits, which objects of the pack are reachable from that commit. Bit
+ * {@code n} of each bitmap corresponds to the n-th object of the pack's index,
+ * that is the object returned by {@link PackIndex#getObjectId(long)}.
+ * <p>
+ * The file format is:
+ *
+ * <pre>
+ * 'BITM'                      magic
+ * uint32 version              currently 2
+ * uint32 objectCount          number of objects in the pack
+ * byte[20] packChecksum       trailing checksum of the pack
+ * bitmap commits, trees,      objects of each type
+ *        blobs, tags
+ * objectCount * {             (since version 2)
+ *   uint32 pathHash           path hash of the object, 0 if unknown
+ * }
+ * uint32 entryCount
+ * entryCount * {
+ *   byte[20] commitId
+ *   bitmap reachable          objects reachable from commitId
+ * }
+ * byte[20] checksum           SHA-1 of all preceding bytes
+ * </pre>
+ */
+class PackBitmapIndex implements BitmapIndex {
+	/** Magic number appearing at the start of every bitmap index. */
+	static final byte[] SIGNATURE = { 'B', 'I', 'T', 'M' };
+
+	/** Current version of the file format. */
+	static final int VERSION = 2;
+
+	/**
+	 * Read a bitmap index from a file.
+	 *
+	 * @param path
+	 *            location of the {@code .bitmap} file.
+	 * @param idx
+	 *            the index of the pack the bitmaps describe.
+	 * @return the bitmap index.
+	 * @throws IOException
+	 *             the file cannot be read, is corrupt, or does not match the
+	 *             pack index.
+	 */
+	static PackBitmapIndex open(File path, PackIndex idx) throws IOException {
+		final byte[] raw = IO.readFully(path);
+		final int hdrLen = SIGNATURE.length + 8 + Constants.OBJECT_ID_LENGTH;
+		if (raw.length < hdrLen + Constants.OBJECT_ID_LENGTH
+				|| !isSignature(raw))
+			throw new CorruptObjectException(MessageFormat.format(
+					JGitText.get().notABitmapIndex, path));
+
+		final int trailer = raw.length - Constants.OBJECT_ID_LENGTH;
+		final MessageDigest md = Constants.newMessageDigest();
+		md.update(raw, 0, trailer);
+		if (!ObjectId.equals(md.digest(), 0, raw, trailer))
+			throw new CorruptObjectException(MessageFormat.format(
+					JGitText.get().notABitmapIndex, path));
+
+		final int version = NB.decodeInt32(raw, 4);
+		if (version < 1 || VERSION < version)
+			throw new IOException(MessageFormat.format(
+					JGitText.get().unsupportedBitmapIndexVersion,
+					Integer.valueOf(version)));
+
+		final long objectCnt = NB.decodeUInt32(raw, 8);
+		if (objectCnt != idx.getObjectCount()
+				|| !ObjectId.equals(raw, 12, idx.packChecksum, 0))
+			throw new PackMismatchException(
+					JGitText.get().packChecksumMismatch);
+
+		final ByteArrayInputStream in = new ByteArrayInputStream(raw, hdrLen,
+				trailer - hdrLen);
+		final CompressedBitmap commits = CompressedBitmap.read(in);
+		final CompressedBitmap trees = CompressedBitmap.read(in);
+		final CompressedBitmap blobs = CompressedBitmap.read(in);
+		final CompressedBitmap tags = CompressedBitmap.read(in);
+
+		final byte[] buf = new byte[Constants.OBJECT_ID_LENGTH];
+		final int[] pathHashes = new int[(int) objectCnt];
+		if (2 <= version) {
+			for (int p = 0; p < pathHashes.length; p++) {
+				IO.readFully(in, buf, 0, 4);
+				pathHashes[p] = NB.decodeInt32(buf, 0);
+			}
+		}
+
+		IO.readFully(in, buf, 0, 4);
+		final int entryCnt = NB.decodeInt32(buf, 0);
+		final ObjectIdOwnerMap<StoredBitmap> bitmaps;
+		bitmaps = new ObjectIdOwnerMap<StoredBitmap>();
+		for (int i = 0; i < entryCnt; i++) {
+			IO.readFully(in, buf, 0, Constants.OBJECT_ID_LENGTH);
+			ObjectId id = ObjectId.fromRaw(buf);
+			bitmaps.add(new StoredBitmap(id, CompressedBitmap.read(in)));
+		}
+		return new PackBitmapIndex(idx, (int) objectCnt, bitmaps, pathHashes,
+				commits, trees, blobs, tags);
+	}
+
+	private static boolean isSignature(byte[] raw) {
+		for (int i = 0; i < SIGNATURE.length; i++) {
+			if (raw[i] != SIGNATURE[i])
+				return false;
+		}
+		return true;
+	}
+
+	private final PackIndex idx;
+
+	private final int objectCnt;
+
+	private final ObjectIdOwnerMap<StoredBitmap> bitmaps;
+
+	private final int[] pathHashes;
+
+	private final CompressedBitmap.Builder[] types;
+
+	private PackBitmapIndex(PackIndex idx, int objectCnt,
+			ObjectIdOwnerMap<StoredBitmap> bitmaps, int[] pathHashes,
+			CompressedBitmap commits, CompressedBitmap trees,
+			CompressedBitmap blobs, CompressedBitmap tags) {
+		this.idx = idx;
+		this.objectCnt = objectCnt;
+		this.bitmaps = bitmaps;
+		this.pathHashes = pathHashes;
+
+		types = new CompressedBitmap.Builder[Constants.OBJ_TAG + 1];
+		types[Constants.OBJ_COMMIT] = expand(commits);
+		types[Constants.OBJ_TREE] = expand(trees);
+		types[Constants.OBJ_BLOB] = expand(blobs);
+		types[Constants.OBJ_TAG] = expand(tags);
+	}
+
+	private CompressedBitmap.Builder expand(CompressedBitmap bitmap) {
+		CompressedBitmap.Builder b = new CompressedBitmap.Builder(objectCnt);
+		b.or(bitmap);
+		return b;
+	}
+
+	/** @return number of commits that have a stored bitmap. */
+	int getBitmapCount() {
+		return bitmaps.size();
+	}
+
+	public List<RevObject> findObjectsToPack(ProgressMonitor monitor,
+			ObjectWalk walk, Collection<? extends ObjectId> want,
+			Collection<? extends ObjectId> have, boolean ignoreMissingHave,
+			IntList pathHashCodes) throws IOException {
+		if (bitmaps.isEmpty())
+			return null;
+
+		final RevFlag haveFlag = walk.newFlag("bitmapHave");
+		final RevFlag wantFlag = walk.newFlag("bitmapWant");
+		try {
+			final Reachable haveSet = new Reachable(walk, haveFlag, null);
+			for (ObjectId id : have) {
+				final RevObject o;
+				try {
+					o = walk.parseAny(id);
+				} catch (MissingObjectException notFound) {
+					if (ignoreMissingHave)
+						continue;
+					throw notFound;
+				}
+				haveSet.include(o);
+			}
+
+			final Reachable wantSet = new Reachable(walk, wantFlag, haveSet);
+			for (ObjectId id : want)
+				wantSet.include(walk.parseAny(id));
+			wantSet.bits.andNot(haveSet.bits);
+
+			final int cnt = wantSet.bits.cardinality();
+			final List<InPack> inPack = new ArrayList<InPack>(cnt);
+			for (int p = wantSet.bits.nextSetBit(0); 0 <= p; p = wantSet.bits
+					.nextSetBit(p + 1)) {
+				ObjectId id = idx.getObjectId(p);
+				inPack.add(new InPack(idx.findOffset(id), id, typeOf(p),
+						pathHashes[p]));
+			}
+			Collections.sort(inPack);
+
+			final List<RevObject> result = new ArrayList<RevObject>(cnt
+					+ wantSet.extra.size());
+			for (InPack e : inPack) {
+				result.add(walk.lookupAny(e.id, e.type));
+				pathHashCodes.add(e.pathHash);
+				monitor.update(1);
+			}
+			for (int i = 0; i < wantSet.extra.size(); i++) {
+				result.add(wantSet.extra.get(i));
+				pathHashCodes.add(wantSet.extraPathHashes.get(i));
+				monitor.update(1);
+			}
+			return result;
+		} finally {
+			walk.disposeFlag(haveFlag);
+			walk.disposeFlag(wantFlag);
+		}
+	}
+
+	private int typeOf(int pos) {
+		for (int type = Constants.OBJ_COMMIT; type <= Constants.OBJ_TAG; type++) {
+			if (types[type] != null && types[type].get(pos))
+				return type;
+		}
+		throw new IllegalStateException();
+	}
+
+	/** Closure of objects reachable from a set of starting points. */
+	private class Reachable {
+		private final ObjectWalk walk;
+
+		private final RevFlag seen;
+
+		private final Reachable exclude;
+
+		private final CanonicalTreeParser parser = new CanonicalTreeParser();
+
+		private final MutableObjectId idBuf = new MutableObjectId();
+
+		final CompressedBitmap.Builder bits;
+
+		/** Reachable objects not stored in the pack. */
+		final List<RevObject> extra = new ArrayList<RevObject>();
+
+		/** Path hash of each object in {@link #extra}. */
+		final IntList extraPathHashes = new IntList();
+
+		Reachable(ObjectWalk walk, RevFlag seen, Reachable exclude) {
+			this.walk = walk;
+			this.seen = seen;
+			this.exclude = exclude;
+			this.bits = new CompressedBitmap.Builder(objectCnt);
+		}
+
+		void include(RevObject start) throws IOException {
+			final List<RevObject> pending = new ArrayList<RevObject>();
+			pending.add(start);
+
+			while (!pending.isEmpty()) {
+				final RevObject o = pending.remove(pending.size() - 1);
+				if (!mark(o, 0))
+					continue;
+
+				switch (o.getType()) {
+				case Constants.OBJ_COMMIT: {
+					final RevCommit c = (RevCommit) o;
+					walk.parseHeaders(c);
+					pending.add(c.getTree());
+					for (RevCommit p : c.getParents())
+						pending.add(p);
+					break;
+				}
+
+				case Constants.OBJ_TREE:
+					parser.reset(walk.getObjectReader(), o);
+					includeTree(parser);
+					break;
+
+				case Constants.OBJ_TAG: {
+					final RevTag t = (RevTag) o;
+					walk.parseHeaders(t);
+					pending.add(t.getObject());
+					break;
+				}
+				}
+			}
+		}
+
+		/** Marks the entries of a tree, recursing into its subtrees. */
+		private void includeTree(CanonicalTreeParser p) throws IOException {
+			for (; !p.eof(); p.next(1)) {
+				final FileMode mode = p.getEntryFileMode();
+				final int type = mode.getObjectType();
+				if (type == Constants.OBJ_BAD || mode == FileMode.GITLINK)
+					continue;
+				p.getEntryObjectId(idBuf);
+				if (skip(idBuf))
+					continue;
+				final RevObject o = walk.lookupAny(idBuf, type);
+				if (mark(o, p.getEntryPathHashCode())
+						&& type == Constants.OBJ_TREE)
+					includeTree(p.createSubtreeIterator0(walk
+							.getObjectReader(), idBuf));
+			}
+		}
+
+		/** @return true if the object is already known to be reachable. */
+		private boolean skip(AnyObjectId id) {
+			final long pos = idx.findPosition(id);
+			if (pos < 0)
+				return false;
+			final int p = (int) pos;
+			return bits.get(p) || (exclude != null && exclude.bits.get(p));
+		}
+
+		/** @return true if the caller must visit the object's references. */
+		private boolean mark(RevObject o, int pathHash) {
+			final long pos = idx.findPosition(o);
+			if (pos < 0) {
+				if (o.has(seen) || (exclude != null && o.has(exclude.seen)))
+					return false;
+				o.add(seen);
+				extra.add(o);
+				extraPathHashes.add(pathHash);
+				return true;
+			}
+
+			final int p = (int) pos;
+			if (bits.get(p) || (exclude != null && exclude.bits.get(p)))
+				return false;
+			if (o.getType() == Constants.OBJ_COMMIT) {
+				final StoredBitmap b = bitmaps.get(o);
+				if (b != null) {
+					bits.or(b.bitmap);
+					return false;
+				}
+			}
+			bits.set(p);
+			return true;
+		}
+	}
+
+	private static class InPack implements Comparable<InPack> {
+		final long offset;
+
+		final ObjectId id;
+
+		final int type;
+
+		final int pathHash;
+
+		InPack(long offset, ObjectId id, int type, int pathHash) {
+			this.offset = offset;
+			this.id = id;
+			this.type = type;
+			this.pathHash = pathHash;
+		}
+
+		public int compareTo(InPack o) {
+			if (offset < o.offset)
+				return -1;
+			if (offset > o.offset)
+				return 1;
+			return 0;
+		}
+	}
+
+	/** Bitmap of the objects reachable from a single commit. */
+	static class StoredBitmap extends ObjectIdOwnerMap.Entry {
+		final CompressedBitmap bitmap;
+
+		StoredBitmap(AnyObjectId id, CompressedBitmap bitmap) {
+			super(id);
+			this.bitmap = bitmap;
+		}
+	}
+}
@@ -0,0 +1,314 @@
+/*
+ * Copyright (C) 2011, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.eclipse.jgit.storage.file;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.eclipse.jgit.JGitText;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.MutableObjectId;
+import org.eclipse.jgit.lib.ObjectIdOwnerMap;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.ProgressMonitor;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevFlag;
+import org.eclipse.jgit.revwalk.RevObject;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.storage.pack.ObjectToPack;
+import org.eclipse.jgit.treewalk.CanonicalTreeParser;
+import org.eclipse.jgit.util.NB;
+
+/**
+ * Creates the reachability bitmaps of a pack file.
+ * <p>
+ * A bitmap index (the <code>.bitmap</code> suffix alongside a pack file pair)
+ * records the objects of the pack reachable from a selection of commits,
+ * allowing {@link PackBitmapIndex} to count the objects needed for a fetch or
+ * clone without walking the entire history.
+ * <p>
+ * A commit is only given a bitmap if every object reachable from it is
+ * contained in the pack. Commits are processed oldest first, so the walk for
+ * each commit stops at the older commits that already have a bitmap.
+ * <p>
+ * The index also stores the path hash of each tree and blob, as seen by the
+ * first walk reaching it, so objects counted through the bitmaps can still be
+ * grouped by path for the delta search.
+ */
+public class PackBitmapIndexWriter {
+	private final ObjectReader reader;
+
+	private final List<? extends ObjectToPack> objects;
+
+	private final byte[] packChecksum;
+
+	private final List<AnyObjectId> selected = new ArrayList<AnyObjectId>();
+
+	private final MutableObjectId idBuf = new MutableObjectId();
+
+	private int[] pathHashes;
+
+	/**
+	 * Create a writer for a pack's bitmaps.
+	 *
+	 * @param reader
+	 *            reader to parse the commits and trees of the pack.
+	 * @param objects
+	 *            the objects stored in the pack, sorted by name. This must be
+	 *            the same order as used for the pack's index.
+	 * @param packChecksum
+	 *            checksum of the pack, as stored at its end.
+	 */
+	public PackBitmapIndexWriter(ObjectReader reader,
+			List<? extends ObjectToPack> objects, byte[] packChecksum) {
+		this.reader = reader;
+		this.objects = objects;
+		this.packChecksum = packChecksum;
+	}
+
+	/**
+	 * Request a bitmap for a commit.
+	 *
+	 * @param id
+	 *            the commit, or an annotated tag that peels to a commit.
+	 *            Other object types are ignored.
+	 */
+	public void addCommit(AnyObjectId id) {
+		selected.add(id.copy());
+	}
+
+	/**
+	 * Compute the bitmaps and write the bitmap index.
+	 *
+	 * @param monitor
+	 *            progress monitor, updated once per selected commit.
+	 * @param dst
+	 *            output for the bitmap index. Caller is responsible for
+	 *            closing this stream.
+	 * @return number of commits a bitmap was written for.
+	 * @throws IOException
+	 *             the commits cannot be read, or the output cannot be
+	 *             written.
+	 */
+	public int write(ProgressMonitor monitor, OutputStream dst)
+			throws IOException {
+		pathHashes = new int[objects.size()];
+		final List<PackBitmapIndex.StoredBitmap> bitmaps = compute(monitor);
+
+		final DigestOutputStream out = new DigestOutputStream(
+				dst instanceof BufferedOutputStream ? dst
+						: new BufferedOutputStream(dst), Constants
+						.newMessageDigest());
+		final byte[] buf = new byte[Constants.OBJECT_ID_LENGTH];
+
+		out.write(PackBitmapIndex.SIGNATURE);
+		NB.encodeInt32(buf, 0, PackBitmapIndex.VERSION);
+		NB.encodeInt32(buf, 4, objects.size());
+		out.write(buf, 0, 8);
+		out.write(packChecksum, 0, Constants.OBJECT_ID_LENGTH);
+
+		for (int type = Constants.OBJ_COMMIT; type <= Constants.OBJ_TAG; type++) {
+			final CompressedBitmap.Builder b;
+			b = new CompressedBitmap.Builder(objects.size());
+			for (int p = 0; p < objects.size(); p++) {
+				if (objects.get(p).getType() == type)
+					b.set(p);
+			}
+			b.compress().writeTo(out);
+		}
+
+		for (int p = 0; p < objects.size(); p++) {
+			NB.encodeInt32(buf, 0, pathHashes[p]);
+			out.write(buf, 0, 4);
+		}
+
+		NB.encodeInt32(buf, 0, bitmaps.size());
+		out.write(buf, 0, 4);
+		for (PackBitmapIndex.StoredBitmap e : bitmaps) {
+			e.copyRawTo(buf, 0);
+			out.write(buf, 0, Constants.OBJECT_ID_LENGTH);
+			e.bitmap.writeTo(out);
+		}
+
+		out.on(false);
+		out.write(out.getMessageDigest().digest());
+		out.flush();
+		return bitmaps.size();
+	}
+
+	private List<PackBitmapIndex.StoredBitmap> compute(ProgressMonitor monitor)
+			throws IOException {
+		final RevWalk rw = new RevWalk(reader);
+		rw.setRetainBody(false);
+
+		final RevFlag added = rw.newFlag("added");
+		final List<RevCommit> commits = new ArrayList<RevCommit>();
+		for (AnyObjectId id : selected) {
+			RevObject o = rw.peel(rw.parseAny(id));
+			if (o instanceof RevCommit && !o.has(added)) {
+				o.add(added);
+				commits.add((RevCommit) o);
+			}
+		}
+
+		// Older commits first, so newer commits can reuse their bitmaps.
+		Collections.sort(commits, new Comparator<RevCommit>() {
+			public int compare(RevCommit a, RevCommit b) {
+				return a.getCommitTime() - b.getCommitTime();
+			}
+		});
+
+		final ObjectIdOwnerMap<PackBitmapIndex.StoredBitmap> done;
+		done = new ObjectIdOwnerMap<PackBitmapIndex.StoredBitmap>();
+		final List<PackBitmapIndex.StoredBitmap> result;
+		result = new ArrayList<PackBitmapIndex.StoredBitmap>(commits.size());
+
+		monitor.beginTask(JGitText.get().buildingBitmaps, commits.size());
+		for (RevCommit c : commits) {
+			CompressedBitmap bitmap = reachable(rw, c, done);
+			if (bitmap != null) {
+				PackBitmapIndex.StoredBitmap e;
+				e = new PackBitmapIndex.StoredBitmap(c, bitmap);
+				done.add(e);
+				result.add(e);
+			}
+			monitor.update(1);
+		}
+		monitor.endTask();
+		return result;
+	}
+
+	private CompressedBitmap reachable(RevWalk rw, RevCommit start,
+			ObjectIdOwnerMap<PackBitmapIndex.StoredBitmap> done)
+			throws IOException {
+		final CompressedBitmap.Builder bits;
+		bits = new CompressedBitmap.Builder(objects.size());
+		final CanonicalTreeParser parser = new CanonicalTreeParser();
+
+		final List<RevCommit> commits = new ArrayList<RevCommit>();
+		commits.add(start);
+
+		while (!commits.isEmpty()) {
+			final RevCommit c = commits.remove(commits.size() - 1);
+			final int pos = findPosition(c);
+			if (pos < 0)
+				return null;
+			if (bits.get(pos))
+				continue;
+
+			final PackBitmapIndex.StoredBitmap prior = done.get(c);
+			if (prior != null) {
+				bits.or(prior.bitmap);
+				continue;
+			}
+
+			bits.set(pos);
+			rw.parseHeaders(c);
+			for (RevCommit p : c.getParents())
+				commits.add(p);
+
+			final int treePos = findPosition(c.getTree());
+			if (treePos < 0)
+				return null;
+			if (bits.get(treePos))
+				continue;
+			bits.set(treePos);
+			parser.reset(reader, c.getTree());
+			if (!reachable(parser, bits))
+				return null;
+		}
+		return bits.compress();
+	}
+
+	private boolean reachable(CanonicalTreeParser parser,
+			CompressedBitmap.Builder bits) throws IOException {
+		for (; !parser.eof(); parser.next(1)) {
+			final FileMode mode = parser.getEntryFileMode();
+			final int type = mode.getObjectType();
+			if (type == Constants.OBJ_BAD || mode == FileMode.GITLINK)
+				continue;
+
+			parser.getEntryObjectId(idBuf);
+			final int pos = findPosition(idBuf);
+			if (pos < 0)
+				return false;
+			if (bits.get(pos))
+				continue;
+			bits.set(pos);
+			if (pathHashes[pos] == 0)
+				pathHashes[pos] = parser.getEntryPathHashCode();
+
+			if (type == Constants.OBJ_TREE
+					&& !reachable(parser.createSubtreeIterator0(reader, idBuf),
+							bits))
+				return false;
+		}
+		return true;
+	}
+
+	private int findPosition(AnyObjectId id) {
+		int low = 0;
+		int high = objects.size();
+		while (low < high) {
+			final int mid = (low + high) >>> 1;
+			final int cmp = objects.get(mid).compareTo(id);
+			if (cmp < 0)
+				low = mid + 1;
+			else if (cmp == 0)
+				return mid;
+			else
+				high = mid;
+		}
+		return -1;
+	}
+}
@@ -49,6 +49,7 @@
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel.MapMode;
 import java.text.MessageFormat;
@@ -57,6 +58,7 @@
 import java.util.Comparator;
 import java.util.Iterator;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.zip.CRC32;
 import java.util.zip.DataFormatException;
 import java.util.zip.Inflater;
@@ -117,9 +119,13 @@ public int compare(final PackFile a, final PackFile b) {
 
 	private byte[] packChecksum;
 
-	private PackIndex loadedIdx;
+	private volatile PackIndex loadedIdx;
 
-	private PackReverseIndex reverseIdx;
+	private volatile PackReverseIndex reverseIdx;
+
+	private PackBitmapIndex bitmapIdx;
+
+	private boolean bitmapIdxChecked;
 
 	/**
 	 * Objects we have tried to read, and discovered to be corrupt.
@@ -130,6 +136,15 @@ public int compare(final PackFile a, final PackFile b) {
 	 */
 	private volatile LongList corruptObjects;
 
+	/** Number of delta bases found in the {@link DeltaBaseCache}. */
+	final AtomicLong deltaBaseHits = new AtomicLong();
+
+	/** Number of delta bases not found in the {@link DeltaBaseCache}. */
+	final AtomicLong deltaBaseMisses = new AtomicLong();
+
+	/** Number of this pack's delta bases evicted from the cache. */
+	final AtomicLong deltaBaseEvictions = new AtomicLong();
+
 	/**
 	 * Construct a reader for an existing, pre-indexed packfile.
 	 *
@@ -150,13 +165,25 @@ public PackFile(final File idxFile, final File packFile) {
 		length = Long.MAX_VALUE;
 	}
 
-	private synchronized PackIndex idx() throws IOException {
+	private PackIndex idx() throws IOException {
+		// Once loaded the index is only replaced by close(), so readers can
+		// skip the monitor and use the volatile field directly. Only the
+		// first access, or one racing with close(), needs to take the lock.
+		//
+		final PackIndex idx = loadedIdx;
+		if (idx != null)
+			return idx;
+		return loadIdx();
+	}
+
+	private synchronized PackIndex loadIdx() throws IOException {
 		if (loadedIdx == null) {
 			if (invalid)
 				throw new PackInvalidException(packFile);
 
 			try {
-				final PackIndex idx = PackIndex.open(idxFile);
+				final PackIndex idx = PackIndex.open(idxFile,
+						WindowCache.isPackedGitIndexMMAP());
 
 				if (packChecksum == null)
 					packChecksum = idx.packChecksum;
@@ -191,6 +218,39 @@ public String getPackName() {
 		return name;
 	}
 
+	/**
+	 * @return true if a {@code .keep} file exists next to this pack, asking
+	 *         that the pack is never deleted or repacked.
+	 */
+	boolean shouldBeKept() {
+		return new File(packFile.getParentFile(), "pack-" + getPackName()
+				+ ".keep").exists();
+	}
+
+	/**
+	 * @return number of times a delta base of this pack was found in the
+	 *         shared delta base cache.
+	 */
+	public long getDeltaBaseCacheHitCount() {
+		return deltaBaseHits.get();
+	}
+
+	/**
+	 * @return number of times a delta base of this pack was not found in the
+	 *         shared delta base cache, and had to be rebuilt.
+	 */
+	public long getDeltaBaseCacheMissCount() {
+		return deltaBaseMisses.get();
+	}
+
+	/**
+	 * @return number of delta bases of this pack that were evicted from the
+	 *         shared delta base cache to make room for other bases.
+	 */
+	public long getDeltaBaseCacheEvictionCount() {
+		return deltaBaseEvictions.get();
+	}
+
 	/**
 	 * Determine if an object is contained within the pack file.
 	 * <p>
@@ -237,9 +297,12 @@ void resolve(Set<ObjectId> matches, AbbreviatedObjectId id, int matchLimit)
 	 */
 	public void close() {
 		WindowCache.purge(this);
+		DeltaBaseCache.purge(this);
 		synchronized (this) {
 			loadedIdx = null;
 			reverseIdx = null;
+			bitmapIdx = null;
+			bitmapIdxChecked = false;
 		}
 	}
 
@@ -615,6 +678,27 @@ ByteArrayWindow read(final long pos, int size) throws IOException {
 		}
 	}
 
+	ByteWindow readDirect(final long pos, int size) throws IOException {
+		synchronized (readLock) {
+			if (length < pos + size)
+				size = (int) (length - pos);
+			// Read through the RandomAccessFile, not its channel. An
+			// interrupt during a channel read closes the channel, and so
+			// the pack, for every thread sharing it.
+			//
+			final ByteBuffer buf = ByteBuffer.allocateDirect(size);
+			final byte[] tmp = new byte[Math.min(size, 8192)];
+			fd.seek(pos);
+			while (buf.hasRemaining()) {
+				final int n = Math.min(buf.remaining(), tmp.length);
+				fd.readFully(tmp, 0, n);
+				buf.put(tmp, 0, n);
+			}
+			buf.flip();
+			return new ByteBufferWindow(this, pos, buf);
+		}
+	}
+
 	ByteWindow mmap(final long pos, int size) throws IOException {
 		synchronized (readLock) {
 			if (length < pos + size)
@@ -722,7 +806,7 @@ ObjectLoader load(final WindowCursor curs, long pos)
 					if (sz != delta.deltaSize)
 						break SEARCH;
 
-					DeltaBaseCache.Entry e = curs.getDeltaBaseCache().get(this, base);
+					DeltaBaseCache.Entry e = DeltaBaseCache.get(this, base);
 					if (e != null) {
 						type = e.type;
 						data = e.data;
@@ -740,7 +824,7 @@ ObjectLoader load(final WindowCursor curs, long pos)
 					if (sz != delta.deltaSize)
 						break SEARCH;
 
-					DeltaBaseCache.Entry e = curs.getDeltaBaseCache().get(this, base);
+					DeltaBaseCache.Entry e = DeltaBaseCache.get(this, base);
 					if (e != null) {
 						type = e.type;
 						data = e.data;
@@ -763,12 +847,14 @@ ObjectLoader load(final WindowCursor curs, long pos)
 			if (data == null)
 				return delta.large(this, curs);
 
+			int depth = 0;
 			do {
 				// Cache only the base immediately before desired object.
 				if (cached)
 					cached = false;
 				else if (delta.next == null)
-					curs.getDeltaBaseCache().store(this, delta.basePos, data, type);
+					DeltaBaseCache.store(this, delta.basePos, data, type, depth);
+				depth++;
 
 				pos = delta.deltaPos;
 
@@ -1020,13 +1106,61 @@ private long findEndOffset(final long startOffset)
 		return getReverseIdx().findNextOffset(startOffset, maxOffset);
 	}
 
-	private synchronized PackReverseIndex getReverseIdx() throws IOException {
-		if (reverseIdx == null)
-			reverseIdx = new PackReverseIndex(idx());
+	private PackReverseIndex getReverseIdx() throws IOException {
+		final PackReverseIndex rev = reverseIdx;
+		if (rev != null)
+			return rev;
+		return loadReverseIdx();
+	}
+
+	private synchronized PackReverseIndex loadReverseIdx() throws IOException {
+		if (reverseIdx == null) {
+			final PackIndex idx = idx();
+			String name = packFile.getName();
+			if (name.endsWith(".pack"))
+				name = name.substring(0, name.length() - ".pack".length());
+			final File revFile = new File(packFile.getParentFile(), name
+					+ ".rev");
+			PackReverseIndex rev = null;
+			if (revFile.exists()) {
+				try {
+					rev = PackReverseIndex.read(revFile, idx);
+				} catch (IOException badRev) {
+					// The .rev file is only an optimization, the same
+					// data can be computed from the forward index.
+					//
+					rev = null;
+				}
+			}
+			if (rev == null)
+				rev = PackReverseIndex.computeFromIndex(idx);
+			reverseIdx = rev;
+		}
 		return reverseIdx;
 	}
 
-	private boolean isCorrupt(long offset) {
+	/**
+	 * Get the reachability bitmaps stored alongside this pack.
+	 *
+	 * @return the bitmap index; null if the pack has no {@code .bitmap} file.
+	 * @throws IOException
+	 *             the bitmap index exists but cannot be read.
+	 */
+	synchronized PackBitmapIndex getBitmapIndex() throws IOException {
+		if (!bitmapIdxChecked) {
+			String name = packFile.getName();
+			if (name.endsWith(".pack"))
+				name = name.substring(0, name.length() - ".pack".length());
+			final File bitmapFile = new File(packFile.getParentFile(), name
+					+ ".bitmap");
+			bitmapIdxChecked = true;
+			if (bitmapFile.exists())
+				bitmapIdx = PackBitmapIndex.open(bitmapFile, idx());
+		}
+		return bitmapIdx;
+	}
+
+	boolean isCorrupt(long offset) {
 		LongList list = corruptObjects;
 		if (list == null)
 			return false;
@@ -48,6 +48,9 @@
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel.MapMode;
 import java.text.MessageFormat;
 import java.util.Iterator;
 import java.util.Set;
@@ -118,6 +121,58 @@ public static PackIndex open(final File idxFile) throws IOException {
 		}
 	}
 
+	/**
+	 * Open an existing pack <code>.idx</code> file for reading.
+	 * <p>
+	 * When {@code mmap} is true and the file uses the version 2 format it is
+	 * mapped into memory and served without copying any of its tables onto
+	 * the Java heap. Other formats, and files too large to be mapped by a
+	 * single buffer, are read as by {@link #open(File)}.
+	 *
+	 * @param idxFile
+	 *            existing pack .idx to read.
+	 * @param mmap
+	 *            true to prefer a memory mapped implementation.
+	 * @return access implementation for the requested file.
+	 * @throws FileNotFoundException
+	 *             the file does not exist.
+	 * @throws IOException
+	 *             the file exists but could not be read due to security errors,
+	 *             unrecognized data version, or unexpected data corruption.
+	 */
+	static PackIndex open(final File idxFile, final boolean mmap)
+			throws IOException {
+		if (!mmap)
+			return open(idxFile);
+
+		final RandomAccessFile fd = new RandomAccessFile(idxFile, "r");
+		try {
+			final long len = fd.length();
+			final byte[] hdr = new byte[8];
+			if (len < hdr.length || Integer.MAX_VALUE < len)
+				return open(idxFile);
+			fd.readFully(hdr);
+			if (!isTOC(hdr) || NB.decodeInt32(hdr, 4) != 2)
+				return open(idxFile);
+
+			final MappedByteBuffer map = fd.getChannel().map(
+					MapMode.READ_ONLY, 0, len);
+			return new PackIndexV2Mapped(map);
+		} catch (IOException ioe) {
+			final String path = idxFile.getAbsolutePath();
+			final IOException err;
+			err = new IOException(MessageFormat.format(JGitText.get().unreadablePackIndex, path));
+			err.initCause(ioe);
+			throw err;
+		} finally {
+			try {
+				fd.close();
+			} catch (IOException err2) {
+				// ignore
+			}
+		}
+	}
+
 	private static boolean isTOC(final byte[] h) {
 		final byte[] toc = PackIndexWriter.TOC;
 		for (int i = 0; i < toc.length; i++)
@@ -218,6 +273,29 @@ final ObjectId getObjectId(final int nthPosition) {
 		return getObjectId(((long) u31) << 1 | one);
 	}
 
+	/**
+	 * Get the pack offset of the n-th object entry returned by
+	 * {@link #iterator()}.
+	 *
+	 * @param nthPosition
+	 *            position within the traversal of {@link #iterator()} that the
+	 *            caller needs the offset for. The first returned
+	 *            {@link MutableEntry} is 0, the second is 1, etc.
+	 * @return offset of the object's header in the pack file.
+	 */
+	abstract long getOffset(long nthPosition);
+
+	/**
+	 * Locate the position of an object within {@link #iterator()}.
+	 *
+	 * @param objId
+	 *            name of the object to locate within the pack.
+	 * @return position of the object in sorted name order, suitable for
+	 *         {@link #getObjectId(long)}; -1 if the object does not exist in
+	 *         this index.
+	 */
+	abstract long findPosition(AnyObjectId objId);
+
 	/**
 	 * Locate the file offset position for the requested object.
 	 *
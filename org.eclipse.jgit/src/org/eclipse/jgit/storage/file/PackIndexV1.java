@@ -114,13 +114,26 @@ long getOffset64Count() {
 
 	@Override
 	ObjectId getObjectId(final long nthPosition) {
+		final int levelOne = findLevelOne(nthPosition);
+		final int p = getLevelTwo(nthPosition, levelOne);
+		final int dataIdx = idOffset(p);
+		return ObjectId.fromRaw(idxdata[levelOne], dataIdx);
+	}
+
+	@Override
+	long getOffset(final long nthPosition) {
+		final int levelOne = findLevelOne(nthPosition);
+		final int p = getLevelTwo(nthPosition, levelOne);
+		return NB.decodeUInt32(idxdata[levelOne], idOffset(p) - 4);
+	}
+
+	private int findLevelOne(final long nthPosition) {
 		int levelOne = Arrays.binarySearch(idxHeader, nthPosition + 1);
-		long base;
 		if (levelOne >= 0) {
 			// If we hit the bucket exactly the item is in the bucket, or
 			// any bucket before it which has the same object count.
 			//
-			base = idxHeader[levelOne];
+			final long base = idxHeader[levelOne];
 			while (levelOne > 0 && base == idxHeader[levelOne - 1])
 				levelOne--;
 		} else {
@@ -128,11 +141,34 @@ ObjectId getObjectId(final long nthPosition) {
 			//
 			levelOne = -(levelOne + 1);
 		}
+		return levelOne;
+	}
 
-		base = levelOne > 0 ? idxHeader[levelOne - 1] : 0;
-		final int p = (int) (nthPosition - base);
-		final int dataIdx = idOffset(p);
-		return ObjectId.fromRaw(idxdata[levelOne], dataIdx);
+	private int getLevelTwo(final long nthPosition, final int levelOne) {
+		final long base = levelOne > 0 ? idxHeader[levelOne - 1] : 0;
+		return (int) (nthPosition - base);
+	}
+
+	@Override
+	long findPosition(final AnyObjectId objId) {
+		final int levelOne = objId.getFirstByte();
+		byte[] data = idxdata[levelOne];
+		if (data == null)
+			return -1;
+		int high = data.length / (4 + Constants.OBJECT_ID_LENGTH);
+		int low = 0;
+		do {
+			final int mid = (low + high) >>> 1;
+			final int cmp = objId.compareTo(data, idOffset(mid));
+			if (cmp < 0)
+				high = mid;
+			else if (cmp == 0) {
+				final long base = levelOne > 0 ? idxHeader[levelOne - 1] : 0;
+				return base + mid;
+			} else
+				low = mid + 1;
+		} while (low < high);
+		return -1;
 	}
 
 	long findOffset(final AnyObjectId objId) {
@@ -0,0 +1,280 @@
+/*
+ * Copyright (C) 2011, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.eclipse.jgit.storage.file;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.eclipse.jgit.JGitText;
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.lib.AbbreviatedObjectId;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.util.NB;
+
+/**
+ * Support for the pack index v2 format, read from a memory mapped file.
+ * <p>
+ * Unlike {@link PackIndexV2} no part of the index is copied onto the Java
+ * heap. Every lookup reads the names, offsets and CRC-32 values directly
+ * from the mapped buffer, leaving the operating system's page cache to hold
+ * the frequently accessed parts of the file.
+ */
+class PackIndexV2Mapped extends PackIndex {
+	private static final long IS_O64 = 1L << 31;
+
+	private static final int FANOUT = 256;
+
+	private static final int FANOUT_OFFSET = 8;
+
+	private static final int ID_WORDS = Constants.OBJECT_ID_LENGTH / 4;
+
+	private final ByteBuffer buf;
+
+	private final int objectCnt;
+
+	private final int namesOffset;
+
+	private final int crc32Offset;
+
+	private final int offset32Offset;
+
+	private final int offset64Offset;
+
+	private final int offset64Cnt;
+
+	PackIndexV2Mapped(final ByteBuffer buf) throws IOException {
+		this.buf = buf;
+
+		final int fixed = FANOUT_OFFSET + 4 * FANOUT + 2
+				* Constants.OBJECT_ID_LENGTH;
+		if (buf.limit() < fixed)
+			throw new EOFException(JGitText.get().shortReadOfBlock);
+
+		final long cnt = fanout(FANOUT - 1);
+		final long tables = fixed + cnt
+				* (Constants.OBJECT_ID_LENGTH + 4 + 4);
+		if (buf.limit() < tables || (buf.limit() - tables) % 8 != 0)
+			throw new EOFException(JGitText.get().shortReadOfBlock);
+
+		objectCnt = (int) cnt;
+		namesOffset = FANOUT_OFFSET + 4 * FANOUT;
+		crc32Offset = namesOffset + objectCnt * Constants.OBJECT_ID_LENGTH;
+		offset32Offset = crc32Offset + objectCnt * 4;
+		offset64Offset = offset32Offset + objectCnt * 4;
+		offset64Cnt = (int) ((buf.limit() - tables) / 8);
+
+		packChecksum = new byte[20];
+		final int csum = offset64Offset + offset64Cnt * 8;
+		for (int i = 0; i < packChecksum.length; i++)
+			packChecksum[i] = buf.get(csum + i);
+	}
+
+	@Override
+	long getObjectCount() {
+		return objectCnt;
+	}
+
+	@Override
+	long getOffset64Count() {
+		return offset64Cnt;
+	}
+
+	@Override
+	ObjectId getObjectId(final long nthPosition) {
+		final int[] tmp = new int[ID_WORDS];
+		readId(tmp, (int) nthPosition);
+		return ObjectId.fromRaw(tmp);
+	}
+
+	@Override
+	long getOffset(final long nthPosition) {
+		return offsetAt((int) nthPosition);
+	}
+
+	@Override
+	long findPosition(final AnyObjectId objId) {
+		return binarySearch(objId);
+	}
+
+	@Override
+	long findOffset(final AnyObjectId objId) {
+		final int pos = binarySearch(objId);
+		if (pos == -1)
+			return -1;
+		return offsetAt(pos);
+	}
+
+	@Override
+	long findCRC32(AnyObjectId objId) throws MissingObjectException {
+		final int pos = binarySearch(objId);
+		if (pos == -1)
+			throw new MissingObjectException(objId.copy(), "unknown");
+		return buf.getInt(crc32Offset + (pos << 2)) & 0xffffffffL;
+	}
+
+	@Override
+	boolean hasCRC32Support() {
+		return true;
+	}
+
+	public Iterator<MutableEntry> iterator() {
+		return new EntriesIteratorV2Mapped();
+	}
+
+	@Override
+	void resolve(Set<ObjectId> matches, AbbreviatedObjectId id, int matchLimit)
+			throws IOException {
+		final int levelOne = id.getFirstByte();
+		final int max = (int) fanout(levelOne);
+		int low = levelOne > 0 ? (int) fanout(levelOne - 1) : 0;
+		int high = max;
+		final int[] tmp = new int[ID_WORDS];
+		while (low < high) {
+			int p = (low + high) >>> 1;
+			final int cmp = prefixCompare(id, tmp, p);
+			if (cmp < 0)
+				high = p;
+			else if (cmp == 0) {
+				// We may have landed in the middle of the matches.  Move
+				// backwards to the start of matches, then walk forwards.
+				//
+				while (0 < p && prefixCompare(id, tmp, p - 1) == 0)
+					p--;
+				for (; p < max && prefixCompare(id, tmp, p) == 0; p++) {
+					matches.add(ObjectId.fromRaw(tmp));
+					if (matches.size() > matchLimit)
+						break;
+				}
+				return;
+			} else
+				low = p + 1;
+		}
+	}
+
+	private int prefixCompare(AbbreviatedObjectId id, int[] tmp, int pos) {
+		readId(tmp, pos);
+		return id.prefixCompare(tmp, 0);
+	}
+
+	private int binarySearch(final AnyObjectId objId) {
+		final int levelOne = objId.getFirstByte();
+		int low = levelOne > 0 ? (int) fanout(levelOne - 1) : 0;
+		int high = (int) fanout(levelOne);
+		if (low == high)
+			return -1;
+
+		final int[] key = new int[ID_WORDS];
+		objId.copyRawTo(key, 0);
+		do {
+			final int mid = (low + high) >>> 1;
+			final int cmp = compare(key, mid);
+			if (cmp < 0)
+				high = mid;
+			else if (cmp == 0)
+				return mid;
+			else
+				low = mid + 1;
+		} while (low < high);
+		return -1;
+	}
+
+	private int compare(final int[] key, final int pos) {
+		final int ptr = namesOffset + pos * Constants.OBJECT_ID_LENGTH;
+		for (int i = 0; i < ID_WORDS; i++) {
+			final int cmp = NB.compareUInt32(key[i], buf.getInt(ptr + (i << 2)));
+			if (cmp != 0)
+				return cmp;
+		}
+		return 0;
+	}
+
+	private void readId(final int[] dst, final int pos) {
+		final int ptr = namesOffset + pos * Constants.OBJECT_ID_LENGTH;
+		for (int i = 0; i < ID_WORDS; i++)
+			dst[i] = buf.getInt(ptr + (i << 2));
+	}
+
+	private long fanout(final int levelOne) {
+		return buf.getInt(FANOUT_OFFSET + (levelOne << 2)) & 0xffffffffL;
+	}
+
+	private long offsetAt(final int pos) {
+		final long off = buf.getInt(offset32Offset + (pos << 2)) & 0xffffffffL;
+		if ((off & IS_O64) != 0)
+			return buf.getLong(offset64Offset + (8 * (int) (off & ~IS_O64)));
+		return off;
+	}
+
+	private class EntriesIteratorV2Mapped extends EntriesIterator {
+		private final int[] tmp = new int[ID_WORDS];
+
+		private int pos;
+
+		@Override
+		protected MutableEntry initEntry() {
+			return new MutableEntry() {
+				protected void ensureId() {
+					readId(tmp, pos - 1);
+					idBuffer.fromRaw(tmp, 0);
+				}
+			};
+		}
+
+		public MutableEntry next() {
+			if (pos < objectCnt) {
+				entry.offset = offsetAt(pos++);
+				returnedNumber++;
+				return entry;
+			}
+			throw new NoSuchElementException();
+		}
+	}
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2011, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.eclipse.jgit.storage.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel.MapMode;
+import java.text.MessageFormat;
+
+import org.eclipse.jgit.JGitText;
+import org.eclipse.jgit.errors.CorruptObjectException;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+
+/**
+ * Reverse index read from a {@code pack-*.rev} file.
+ * <p>
+ * The file uses the same layout as C Git:
+ *
+ * <pre>
+ * byte[4]   'RIDX'
+ * uint32    version, 1
+ * uint32    hash function, 1 for SHA-1
+ * uint32[N] positions in the forward index, sorted by pack offset
+ * byte[20]  checksum of the pack
+ * byte[20]  checksum of this file
+ * </pre>
+ *
+ * The file is memory mapped and never copied onto the heap. Offsets are
+ * obtained from the forward index, so each step of a search costs one lookup
+ * in {@link PackIndex#getOffset(long)}. The trailing checksum is not verified,
+ * as that would require reading the entire file.
+ */
+class PackReverseIndexFile extends PackReverseIndex {
+	static final byte[] SIGNATURE = { 'R', 'I', 'D', 'X' };
+
+	static final int VERSION = 1;
+
+	static final int HASH_SHA1 = 1;
+
+	static final int HEADER_LENGTH = 12;
+
+	static PackReverseIndexFile open(File path, PackIndex index)
+			throws IOException {
+		final long cnt = index.getObjectCount();
+		final long expected = HEADER_LENGTH + 4 * cnt + 2
+				* Constants.OBJECT_ID_LENGTH;
+
+		final MappedByteBuffer map;
+		final RandomAccessFile fd = new RandomAccessFile(path, "r");
+		try {
+			if (fd.length() != expected || Integer.MAX_VALUE < expected)
+				throw new CorruptObjectException(MessageFormat.format(
+						JGitText.get().notAReverseIndex, path));
+			map = fd.getChannel().map(MapMode.READ_ONLY, 0, expected);
+		} finally {
+			fd.close();
+		}
+
+		for (int i = 0; i < SIGNATURE.length; i++) {
+			if (map.get(i) != SIGNATURE[i])
+				throw new CorruptObjectException(MessageFormat.format(
+						JGitText.get().notAReverseIndex, path));
+		}
+		final int version = map.getInt(4);
+		if (version != VERSION || map.getInt(8) != HASH_SHA1)
+			throw new IOException(MessageFormat.format(
+					JGitText.get().unsupportedReverseIndexVersion,
+					Integer.valueOf(version)));
+
+		final int trailer = (int) (HEADER_LENGTH + 4 * cnt);
+		for (int i = 0; i < Constants.OBJECT_ID_LENGTH; i++) {
+			if (map.get(trailer + i) != index.packChecksum[i])
+				throw new IOException(MessageFormat.format(
+						JGitText.get().reverseIndexDoesNotMatchPack, path));
+		}
+
+		map.position(HEADER_LENGTH);
+		map.limit(trailer);
+		return new PackReverseIndexFile(index, map.slice().asIntBuffer());
+	}
+
+	/** Index that has our offsets and ObjectId data. */
+	private final PackIndex index;
+
+	/** Positions in {@link #index}, sorted by offset. */
+	private final IntBuffer positions;
+
+	private PackReverseIndexFile(PackIndex index, IntBuffer positions) {
+		this.index = index;
+		this.positions = positions;
+	}
+
+	@Override
+	ObjectId findObject(long offset) {
+		final int i = find(offset);
+		if (i < 0)
+			return null;
+		return index.getObjectId(position(i));
+	}
+
+	@Override
+	long findNextOffset(long offset, long maxOffset)
+			throws CorruptObjectException {
+		final int i = find(offset);
+		if (i < 0)
+			throw new CorruptObjectException(MessageFormat.format(
+					JGitText.get().cantFindObjectInReversePackIndexForTheSpecifiedOffset,
+					Long.valueOf(offset)));
+		if (i + 1 == positions.limit())
+			return maxOffset;
+		return index.getOffset(position(i + 1));
+	}
+
+	private int find(long offset) {
+		int low = 0;
+		int high = positions.limit();
+		while (low < high) {
+			final int mid = (low + high) >>> 1;
+			final long o = index.getOffset(position(mid));
+			if (offset < o)
+				high = mid;
+			else if (offset == o)
+				return mid;
+			else
+				low = mid + 1;
+		}
+		return -1;
+	}
+
+	private long position(int i) {
+		return positions.get(i) & 0xffffffffL;
+	}
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2011, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.eclipse.jgit.storage.file;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.util.Arrays;
+import java.util.List;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.transport.PackedObjectInfo;
+import org.eclipse.jgit.util.NB;
+
+/**
+ * Creates a reverse index ({@code .rev} file) for a pack.
+ * <p>
+ * The reverse index lists the objects of the pack in the order they appear in
+ * the pack, allowing {@link PackFile} to map an offset to an object without
+ * first sorting the entire forward index in memory.
+ *
+ * @see PackReverseIndexFile
+ */
+public class PackReverseIndexWriter {
+	private final DigestOutputStream out;
+
+	/**
+	 * Create a new writer instance.
+	 *
+	 * @param dst
+	 *            the stream this instance outputs to. If not already buffered
+	 *            it will be automatically wrapped in a buffered stream.
+	 */
+	public PackReverseIndexWriter(final OutputStream dst) {
+		out = new DigestOutputStream(dst instanceof BufferedOutputStream ? dst
+				: new BufferedOutputStream(dst), Constants.newMessageDigest());
+	}
+
+	/**
+	 * Write the reverse index of the objects.
+	 * <p>
+	 * After writing the stream passed to the constructor is flushed but
+	 * remains open. Callers are always responsible for closing the output
+	 * stream.
+	 *
+	 * @param toStore
+	 *            sorted list of objects, in the same order as they were given
+	 *            to {@link PackIndexWriter#write(List, byte[])}.
+	 * @param packDataChecksum
+	 *            checksum signature of the entire pack data content.
+	 * @throws IOException
+	 *             an error occurred while writing to the output stream.
+	 */
+	public void write(final List<? extends PackedObjectInfo> toStore,
+			final byte[] packDataChecksum) throws IOException {
+		final int cnt = toStore.size();
+		final long[] offsets = new long[cnt];
+		for (int i = 0; i < cnt; i++)
+			offsets[i] = toStore.get(i).getOffset();
+		final long[] sorted = offsets.clone();
+		Arrays.sort(sorted);
+
+		// Offsets within a pack are unique, so the rank of each offset
+		// identifies the slot its index position belongs in.
+		final int[] positions = new int[cnt];
+		for (int i = 0; i < cnt; i++)
+			positions[Arrays.binarySearch(sorted, offsets[i])] = i;
+
+		final byte[] buf = new byte[4];
+		out.write(PackReverseIndexFile.SIGNATURE);
+		NB.encodeInt32(buf, 0, PackReverseIndexFile.VERSION);
+		out.write(buf);
+		NB.encodeInt32(buf, 0, PackReverseIndexFile.HASH_SHA1);
+		out.write(buf);
+		for (int i = 0; i < cnt; i++) {
+			NB.encodeInt32(buf, 0, positions[i]);
+			out.write(buf);
+		}
+		out.write(packDataChecksum);
+
+		out.on(false);
+		out.write(out.getMessageDigest().digest());
+		out.flush();
+	}
+}
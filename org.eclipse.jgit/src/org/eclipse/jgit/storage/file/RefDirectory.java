@@ -587,6 +587,95 @@ void delete(RefDirectoryUpdate update) throws IOException {
 		fireRefsChanged();
 	}
 
+	/**
+	 * Move a set of loose references into the packed-refs file.
+	 * <p>
+	 * Symbolic references are skipped. Every reference is peeled before it
+	 * is written. A loose file is only deleted once packed-refs has been
+	 * committed, and only if it still holds the value that was packed; a
+	 * reference updated concurrently keeps its newer loose file.
+	 *
+	 * @param refs
+	 *            fully qualified names of the references to pack.
+	 * @throws IOException
+	 *             packed-refs cannot be locked, read or written.
+	 */
+	void pack(List<String> refs) throws IOException {
+		if (refs.isEmpty())
+			return;
+
+		final FS fs = parent.getFS();
+		final LockFile lck = new LockFile(packedRefsFile, fs);
+		if (!lck.lock())
+			throw new IOException(MessageFormat.format(
+					JGitText.get().cannotLockFile, packedRefsFile));
+		try {
+			final PackedRefList packed = getPackedRefs();
+			RefList<Ref> cur = readPackedRefs();
+			for (String name : refs) {
+				Ref ref = readRef(name, cur);
+				if (ref == null || ref.isSymbolic())
+					continue;
+				int idx = cur.find(name);
+				if (0 <= idx)
+					cur = cur.set(idx, peeledPackedRef(ref));
+				else
+					cur = cur.add(-(idx + 1), peeledPackedRef(ref));
+			}
+
+			// A peeled header claims every entry is peeled, so entries
+			// which were previously written without it must be peeled too.
+			//
+			for (int i = 0; i < cur.size(); i++) {
+				if (!cur.get(i).isPeeled())
+					cur = cur.set(i, peeledPackedRef(cur.get(i)));
+			}
+			commitPackedRefs(lck, cur, packed);
+
+			for (String name : refs) {
+				final File file = fileFor(name);
+				if (!file.exists())
+					continue;
+				final LockFile refLck = new LockFile(file, fs);
+				if (!refLck.lock())
+					continue;
+				try {
+					LooseRef loose = scanRef(null, name);
+					Ref p = cur.get(name);
+					if (loose == null || loose.isSymbolic() || p == null
+							|| !p.getObjectId().equals(loose.getObjectId()))
+						continue;
+
+					RefList<LooseRef> curLoose, newLoose;
+					do {
+						curLoose = looseRefs.get();
+						int idx = curLoose.find(name);
+						if (idx < 0)
+							break;
+						newLoose = curLoose.remove(idx);
+					} while (!looseRefs.compareAndSet(curLoose, newLoose));
+					delete(file, levelsIn(name) - 2);
+				} finally {
+					refLck.unlock();
+				}
+			}
+		} finally {
+			lck.unlock();
+		}
+		modCnt.incrementAndGet();
+		fireRefsChanged();
+	}
+
+	private Ref peeledPackedRef(Ref ref) throws IOException {
+		if (!ref.isPeeled())
+			ref = doPeel(ref);
+		if (ref.getPeeledObjectId() != null)
+			return new ObjectIdRef.PeeledTag(PACKED, ref.getName(),
+					ref.getObjectId(), ref.getPeeledObjectId());
+		return new ObjectIdRef.PeeledNonTag(PACKED, ref.getName(),
+				ref.getObjectId());
+	}
+
 	void log(final RefUpdate update, final String msg, final boolean deref)
 			throws IOException {
 		final ObjectId oldId = update.getOldObjectId();
@@ -705,11 +794,32 @@ private PackedRefList getPackedRefs() throws IOException {
 			return curList;
 
 		final PackedRefList newList = readPackedRefs();
-		if (packedRefs.compareAndSet(curList, newList))
+		if (packedRefs.compareAndSet(curList, newList)
+				&& !sameRefs(curList, newList))
 			modCnt.incrementAndGet();
 		return newList;
 	}
 
+	private static boolean sameRefs(RefList<Ref> a, RefList<Ref> b) {
+		// A racily clean file is read again even if it did not change,
+		// only count it as a modification if its content differs.
+		if (a.size() != b.size())
+			return false;
+		for (int i = 0; i < a.size(); i++) {
+			Ref x = a.get(i);
+			Ref y = b.get(i);
+			if (!x.getName().equals(y.getName())
+					|| !sameId(x.getObjectId(), y.getObjectId())
+					|| !sameId(x.getPeeledObjectId(), y.getPeeledObjectId()))
+				return false;
+		}
+		return true;
+	}
+
+	private static boolean sameId(ObjectId a, ObjectId b) {
+		return a == b || (a != null && a.equals(b));
+	}
+
 	private PackedRefList readPackedRefs()
 			throws IOException {
 		final FileSnapshot snapshot = FileSnapshot.save(packedRefsFile);
@@ -54,6 +54,9 @@ class UnpackedObjectCache {
 
 	private static final int MAX_BITS = 11; // size = 2048
 
+	/** Statistics summed over every instance. */
+	static final UnpackedObjectCacheStats stats = new UnpackedObjectCacheStats();
+
 	private volatile Table table;
 
 	UnpackedObjectCache() {
@@ -61,7 +64,12 @@ class UnpackedObjectCache {
 	}
 
 	boolean isUnpacked(AnyObjectId objectId) {
-		return table.contains(objectId);
+		if (table.contains(objectId)) {
+			stats.hits.increment();
+			return true;
+		}
+		stats.misses.increment();
+		return false;
 	}
 
 	void add(AnyObjectId objectId) {
@@ -75,6 +83,7 @@ void add(AnyObjectId objectId) {
 			// cache removal by just dropping the table away, but double
 			// it in size for the next incarnation.
 			//
+			stats.evictions.increment();
 			Table n = new Table(Math.min(t.bits + 1, MAX_BITS));
 			n.add(objectId);
 			table = n;
@@ -82,7 +91,7 @@ void add(AnyObjectId objectId) {
 	}
 
 	void remove(AnyObjectId objectId) {
-		if (isUnpacked(objectId))
+		if (table.contains(objectId))
 			clear();
 	}
 
@@ -45,13 +45,8 @@
 package org.eclipse.jgit.storage.file;
 
 import java.io.IOException;
-import java.lang.ref.ReferenceQueue;
-import java.lang.ref.SoftReference;
-import java.util.Random;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
-import java.util.concurrent.atomic.AtomicReferenceArray;
-import java.util.concurrent.locks.ReentrantLock;
 
 import org.eclipse.jgit.JGitText;
 
@@ -59,68 +54,37 @@
  * Caches slices of a {@link PackFile} in memory for faster read access.
  * <p>
  * The WindowCache serves as a Java based "buffer cache", loading segments of a
- * PackFile into the JVM heap prior to use. As JGit often wants to do reads of
- * only tiny slices of a file, the WindowCache tries to smooth out these tiny
- * reads into larger block-sized IO operations.
+ * PackFile into memory prior to use. As JGit often wants to do reads of only
+ * tiny slices of a file, the WindowCache tries to smooth out these tiny reads
+ * into larger block-sized IO operations.
  * <p>
  * Whenever a cache miss occurs, {@link #load(PackFile, long)} is invoked by
  * exactly one thread for the given <code>(PackFile,position)</code> key tuple.
  * This is ensured by an array of locks, with the tuple hashed to a lock
  * instance.
  * <p>
- * During a miss, older entries are evicted from the cache so long as
- * {@link #isFull()} returns true.
- * <p>
- * Its too expensive during object access to be 100% accurate with a least
- * recently used (LRU) algorithm. Strictly ordering every read is a lot of
- * overhead that typically doesn't yield a corresponding benefit to the
- * application.
- * <p>
- * This cache implements a loose LRU policy by randomly picking a window
- * comprised of roughly 10% of the cache, and evicting the oldest accessed entry
- * within that window.
- * <p>
- * Entities created by the cache are held under SoftReferences, permitting the
- * Java runtime's garbage collector to evict entries when heap memory gets low.
- * Most JREs implement a loose least recently used algorithm for this eviction.
- * <p>
- * The internal hash table does not expand at runtime, instead it is fixed in
- * size at cache creation time. The internal lock table used to gate load
- * invocations is also fixed in size.
+ * Two implementations are available, selected by
+ * {@link WindowCacheConfig#getPackedGitCacheEngine()}:
+ * <ul>
+ * <li>{@link SoftWindowCache} holds windows on the Java heap under
+ * SoftReferences, letting the garbage collector evict entries when heap
+ * memory gets low.</li>
+ * <li>{@link ClockWindowCache} holds windows in direct or memory mapped
+ * buffers outside of the Java heap, and evicts them itself once the
+ * configured byte limit is reached.</li>
+ * </ul>
  * <p>
  * The key tuple is passed through to methods as a pair of parameters rather
  * than as a single Object, thus reducing the transient memory allocations of
  * callers. It is more efficient to avoid the allocation, as we can't be 100%
  * sure that a JIT would be able to stack-allocate a key tuple.
  * <p>
- * This cache has an implementation rule such that:
- * <ul>
- * <li>{@link #load(PackFile, long)} is invoked by at most one thread at a time
- * for a given <code>(PackFile,position)</code> tuple.</li>
- * <li>For every <code>load()</code> invocation there is exactly one
- * {@link #createRef(PackFile, long, ByteWindow)} invocation to wrap a
- * SoftReference around the cached entity.</li>
- * <li>For every Reference created by <code>createRef()</code> there will be
- * exactly one call to {@link #clear(Ref)} to cleanup any resources associated
- * with the (now expired) cached entity.</li>
- * </ul>
- * <p>
- * Therefore, it is safe to perform resource accounting increments during the
- * {@link #load(PackFile, long)} or
- * {@link #createRef(PackFile, long, ByteWindow)} methods, and matching
- * decrements during {@link #clear(Ref)}. Implementors may need to override
- * {@link #createRef(PackFile, long, ByteWindow)} in order to embed additional
- * accounting information into an implementation specific {@link Ref} subclass,
- * as the cached entity may have already been evicted by the JRE's garbage
- * collector.
- * <p>
- * To maintain higher concurrency workloads, during eviction only one thread
- * performs the eviction work, while other threads can continue to insert new
- * objects in parallel. This means that the cache can be temporarily over limit,
- * especially if the nominated eviction thread is being starved relative to the
- * other threads.
+ * For every successful {@link #load(PackFile, long)} an implementation must
+ * eventually call {@link #close(PackFile)} exactly once, when the loaded
+ * window is no longer held by the cache. This keeps the count of open files
+ * accurate, and allows a pack's file descriptor to be released.
  */
-public class WindowCache {
+public abstract class WindowCache {
 	private static final int bits(int newSize) {
 		if (newSize < 4096)
 			throw new IllegalArgumentException(JGitText.get().invalidWindowSize);
@@ -129,12 +93,15 @@ private static final int bits(int newSize) {
 		return Integer.numberOfTrailingZeros(newSize);
 	}
 
-	private static final Random rng = new Random();
+	/** Statistics shared by every configuration of the cache. */
+	static final WindowCacheStats stats = new WindowCacheStats();
 
 	private static volatile WindowCache cache;
 
 	private static volatile int streamFileThreshold;
 
+	private static volatile boolean packedGitIndexMMAP;
+
 	static {
 		reconfigure(new WindowCacheConfig());
 	}
@@ -181,12 +148,22 @@ public static void reconfigure(final int packedGitLimit,
 	 *             settings, usually too low of a limit.
 	 */
 	public static void reconfigure(final WindowCacheConfig cfg) {
-		final WindowCache nc = new WindowCache(cfg);
+		final WindowCache nc;
+		switch (cfg.getPackedGitCacheEngine()) {
+		case CLOCK:
+			nc = new ClockWindowCache(cfg);
+			break;
+		case SOFT:
+		default:
+			nc = new SoftWindowCache(cfg);
+			break;
+		}
 		final WindowCache oc = cache;
 		if (oc != null)
 			oc.removeAll();
 		cache = nc;
 		streamFileThreshold = cfg.getStreamFileThreshold();
+		packedGitIndexMMAP = cfg.isPackedGitIndexMMAP();
 		DeltaBaseCache.reconfigure(cfg);
 	}
 
@@ -194,6 +171,10 @@ static int getStreamFileThreshold() {
 		return streamFileThreshold;
 	}
 
+	static boolean isPackedGitIndexMMAP() {
+		return packedGitIndexMMAP;
+	}
+
 	static WindowCache getInstance() {
 		return cache;
 	}
@@ -217,69 +198,42 @@ static final void purge(final PackFile pack) {
 		cache.removeAll(pack);
 	}
 
-	/** ReferenceQueue to cleanup released and garbage collected windows. */
-	private final ReferenceQueue<ByteWindow> queue;
-
-	/** Number of entries in {@link #table}. */
-	private final int tableSize;
-
-	/** Access clock for loose LRU. */
-	private final AtomicLong clock;
-
-	/** Hash bucket directory; entries are chained below. */
-	private final AtomicReferenceArray<Entry> table;
-
 	/** Locks to prevent concurrent loads for same (PackFile,position). */
 	private final Lock[] locks;
 
-	/** Lock to elect the eviction thread after a load occurs. */
-	private final ReentrantLock evictLock;
-
-	/** Number of {@link #table} buckets to scan for an eviction window. */
-	private final int evictBatch;
-
-	private final int maxFiles;
+	/** Maximum number of pack files that may be held open. */
+	final int maxFiles;
 
-	private final long maxBytes;
+	/** Maximum number of bytes that may be held by cached windows. */
+	final long maxBytes;
 
 	private final boolean mmap;
 
+	private final boolean directBuffers;
+
 	private final int windowSizeShift;
 
 	private final int windowSize;
 
-	private final AtomicInteger openFiles;
+	/** Number of pack files held open by windows in this cache. */
+	final AtomicInteger openFiles;
 
-	private final AtomicLong openBytes;
+	/** Number of bytes held by windows in this cache. */
+	final AtomicLong openBytes;
 
-	private WindowCache(final WindowCacheConfig cfg) {
-		tableSize = tableSize(cfg);
+	WindowCache(final WindowCacheConfig cfg, final boolean directBuffers) {
 		final int lockCount = lockCount(cfg);
-		if (tableSize < 1)
-			throw new IllegalArgumentException(JGitText.get().tSizeMustBeGreaterOrEqual1);
 		if (lockCount < 1)
 			throw new IllegalArgumentException(JGitText.get().lockCountMustBeGreaterOrEqual1);
 
-		queue = new ReferenceQueue<ByteWindow>();
-		clock = new AtomicLong(1);
-		table = new AtomicReferenceArray<Entry>(tableSize);
 		locks = new Lock[lockCount];
 		for (int i = 0; i < locks.length; i++)
 			locks[i] = new Lock();
-		evictLock = new ReentrantLock();
-
-		int eb = (int) (tableSize * .1);
-		if (64 < eb)
-			eb = 64;
-		else if (eb < 4)
-			eb = 4;
-		if (tableSize < eb)
-			eb = tableSize;
-		evictBatch = eb;
 
 		maxFiles = cfg.getPackedGitOpenFiles();
 		maxBytes = cfg.getPackedGitLimit();
 		mmap = cfg.isPackedGitMMAP();
+		this.directBuffers = directBuffers;
 		windowSizeShift = bits(cfg.getPackedGitWindowSize());
 		windowSize = 1 << windowSizeShift;
 
@@ -300,195 +254,30 @@ long getOpenBytes() {
 		return openBytes.get();
 	}
 
-	private int hash(final int packHash, final long off) {
-		return packHash + (int) (off >>> windowSizeShift);
-	}
-
-	private ByteWindow load(final PackFile pack, final long offset)
-			throws IOException {
-		if (pack.beginWindowCache())
-			openFiles.incrementAndGet();
-		try {
-			if (mmap)
-				return pack.mmap(offset, windowSize);
-			return pack.read(offset, windowSize);
-		} catch (IOException e) {
-			close(pack);
-			throw e;
-		} catch (RuntimeException e) {
-			close(pack);
-			throw e;
-		} catch (Error e) {
-			close(pack);
-			throw e;
-		}
-	}
-
-	private Ref createRef(final PackFile p, final long o, final ByteWindow v) {
-		final Ref ref = new Ref(p, o, v, queue);
-		openBytes.addAndGet(ref.size);
-		return ref;
-	}
-
-	private void clear(final Ref ref) {
-		openBytes.addAndGet(-ref.size);
-		close(ref.pack);
-	}
-
-	private void close(final PackFile pack) {
-		if (pack.endWindowCache())
-			openFiles.decrementAndGet();
-	}
-
-	private boolean isFull() {
-		return maxFiles < openFiles.get() || maxBytes < openBytes.get();
-	}
-
-	private long toStart(final long offset) {
-		return (offset >>> windowSizeShift) << windowSizeShift;
-	}
-
-	private static int tableSize(final WindowCacheConfig cfg) {
-		final int wsz = cfg.getPackedGitWindowSize();
-		final long limit = cfg.getPackedGitLimit();
-		if (wsz <= 0)
-			throw new IllegalArgumentException(JGitText.get().invalidWindowSize);
-		if (limit < wsz)
-			throw new IllegalArgumentException(JGitText.get().windowSizeMustBeLesserThanLimit);
-		return (int) Math.min(5 * (limit / wsz) / 2, 2000000000);
-	}
-
-	private static int lockCount(final WindowCacheConfig cfg) {
-		return Math.max(cfg.getPackedGitOpenFiles(), 32);
-	}
-
 	/**
-	 * Lookup a cached object, creating and loading it if it doesn't exist.
+	 * Lookup a cached window, creating and loading it if it doesn't exist.
 	 *
 	 * @param pack
 	 *            the pack that "contains" the cached object.
 	 * @param position
-	 *            offset within <code>pack</code> of the object.
-	 * @return the object reference.
+	 *            offset within <code>pack</code> of the window.
+	 * @return the window.
 	 * @throws IOException
-	 *             the object reference was not in the cache and could not be
-	 *             obtained by {@link #load(PackFile, long)}.
+	 *             the window was not in the cache and could not be obtained by
+	 *             {@link #load(PackFile, long)}.
 	 */
-	private ByteWindow getOrLoad(final PackFile pack, final long position)
-			throws IOException {
-		final int slot = slot(pack, position);
-		final Entry e1 = table.get(slot);
-		ByteWindow v = scan(e1, pack, position);
-		if (v != null)
-			return v;
-
-		synchronized (lock(pack, position)) {
-			Entry e2 = table.get(slot);
-			if (e2 != e1) {
-				v = scan(e2, pack, position);
-				if (v != null)
-					return v;
-			}
-
-			v = load(pack, position);
-			final Ref ref = createRef(pack, position, v);
-			hit(ref);
-			for (;;) {
-				final Entry n = new Entry(clean(e2), ref);
-				if (table.compareAndSet(slot, e2, n))
-					break;
-				e2 = table.get(slot);
-			}
-		}
-
-		if (evictLock.tryLock()) {
-			try {
-				gc();
-				evict();
-			} finally {
-				evictLock.unlock();
-			}
-		}
-
-		return v;
-	}
-
-	private ByteWindow scan(Entry n, final PackFile pack, final long position) {
-		for (; n != null; n = n.next) {
-			final Ref r = n.ref;
-			if (r.pack == pack && r.position == position) {
-				final ByteWindow v = r.get();
-				if (v != null) {
-					hit(r);
-					return v;
-				}
-				n.kill();
-				break;
-			}
-		}
-		return null;
-	}
-
-	private void hit(final Ref r) {
-		// We don't need to be 100% accurate here. Its sufficient that at least
-		// one thread performs the increment. Any other concurrent access at
-		// exactly the same time can simply use the same clock value.
-		//
-		// Consequently we attempt the set, but we don't try to recover should
-		// it fail. This is why we don't use getAndIncrement() here.
-		//
-		final long c = clock.get();
-		clock.compareAndSet(c, c + 1);
-		r.lastAccess = c;
-	}
-
-	private void evict() {
-		while (isFull()) {
-			int ptr = rng.nextInt(tableSize);
-			Entry old = null;
-			int slot = 0;
-			for (int b = evictBatch - 1; b >= 0; b--, ptr++) {
-				if (tableSize <= ptr)
-					ptr = 0;
-				for (Entry e = table.get(ptr); e != null; e = e.next) {
-					if (e.dead)
-						continue;
-					if (old == null || e.ref.lastAccess < old.ref.lastAccess) {
-						old = e;
-						slot = ptr;
-					}
-				}
-			}
-			if (old != null) {
-				old.kill();
-				gc();
-				final Entry e1 = table.get(slot);
-				table.compareAndSet(slot, e1, clean(e1));
-			}
-		}
-	}
+	abstract ByteWindow getOrLoad(PackFile pack, long position)
+			throws IOException;
 
 	/**
 	 * Clear every entry from the cache.
 	 * <p>
 	 * This is a last-ditch effort to clear out the cache, such as before it
-	 * gets replaced by another cache that is configured differently. This
-	 * method tries to force every cached entry through {@link #clear(Ref)} to
-	 * ensure that resources are correctly accounted for and cleaned up by the
-	 * subclass. A concurrent reader loading entries while this method is
-	 * running may cause resource accounting failures.
+	 * gets replaced by another cache that is configured differently. A
+	 * concurrent reader loading entries while this method is running may cause
+	 * resource accounting failures.
 	 */
-	private void removeAll() {
-		for (int s = 0; s < tableSize; s++) {
-			Entry e1;
-			do {
-				e1 = table.get(s);
-				for (Entry e = e1; e != null; e = e.next)
-					e.kill();
-			} while (!table.compareAndSet(s, e1, null));
-		}
-		gc();
-	}
+	abstract void removeAll();
 
 	/**
 	 * Clear all entries related to a single file.
@@ -501,127 +290,66 @@ private void removeAll() {
 	 * @param pack
 	 *            the file to purge all entries of.
 	 */
-	private void removeAll(final PackFile pack) {
-		for (int s = 0; s < tableSize; s++) {
-			final Entry e1 = table.get(s);
-			boolean hasDead = false;
-			for (Entry e = e1; e != null; e = e.next) {
-				if (e.ref.pack == pack) {
-					e.kill();
-					hasDead = true;
-				} else if (e.dead)
-					hasDead = true;
-			}
-			if (hasDead)
-				table.compareAndSet(s, e1, clean(e1));
-		}
-		gc();
+	abstract void removeAll(PackFile pack);
+
+	int hash(final int packHash, final long off) {
+		return packHash + (int) (off >>> windowSizeShift);
 	}
 
-	private void gc() {
-		Ref r;
-		while ((r = (Ref) queue.poll()) != null) {
-			// Sun's Java 5 and 6 implementation have a bug where a Reference
-			// can be enqueued and dequeued twice on the same reference queue
-			// due to a race condition within ReferenceQueue.enqueue(Reference).
-			//
-			// http://bugs.sun.com/bugdatabase/view_bug.do?bug_id=6837858
-			//
-			// We CANNOT permit a Reference to come through us twice, as it will
-			// skew the resource counters we maintain. Our canClear() check here
-			// provides a way to skip the redundant dequeues, if any.
-			//
-			if (r.canClear()) {
-				clear(r);
-
-				boolean found = false;
-				final int s = slot(r.pack, r.position);
-				final Entry e1 = table.get(s);
-				for (Entry n = e1; n != null; n = n.next) {
-					if (n.ref == r) {
-						n.dead = true;
-						found = true;
-						break;
-					}
-				}
-				if (found)
-					table.compareAndSet(s, e1, clean(e1));
+	ByteWindow load(final PackFile pack, final long offset)
+			throws IOException {
+		stats.misses.increment();
+		if (pack.beginWindowCache())
+			openFiles.incrementAndGet();
+		final long start = System.nanoTime();
+		try {
+			final ByteWindow w;
+			if (mmap) {
+				w = pack.mmap(offset, windowSize);
+				stats.mappedBytes.add(w.size());
+			} else {
+				if (directBuffers)
+					w = pack.readDirect(offset, windowSize);
+				else
+					w = pack.read(offset, windowSize);
+				stats.copiedBytes.add(w.size());
 			}
+			stats.loadLatency.record(System.nanoTime() - start);
+			return w;
+		} catch (IOException e) {
+			stats.loadFailures.increment();
+			close(pack);
+			throw e;
+		} catch (RuntimeException e) {
+			stats.loadFailures.increment();
+			close(pack);
+			throw e;
+		} catch (Error e) {
+			stats.loadFailures.increment();
+			close(pack);
+			throw e;
 		}
 	}
 
-	private int slot(final PackFile pack, final long position) {
-		return (hash(pack.hash, position) >>> 1) % tableSize;
+	void close(final PackFile pack) {
+		if (pack.endWindowCache())
+			openFiles.decrementAndGet();
 	}
 
-	private Lock lock(final PackFile pack, final long position) {
-		return locks[(hash(pack.hash, position) >>> 1) % locks.length];
+	boolean isFull() {
+		return maxFiles < openFiles.get() || maxBytes < openBytes.get();
 	}
 
-	private static Entry clean(Entry top) {
-		while (top != null && top.dead) {
-			top.ref.enqueue();
-			top = top.next;
-		}
-		if (top == null)
-			return null;
-		final Entry n = clean(top.next);
-		return n == top.next ? top : new Entry(n, top.ref);
+	private long toStart(final long offset) {
+		return (offset >>> windowSizeShift) << windowSizeShift;
 	}
 
-	private static class Entry {
-		/** Next entry in the hash table's chain list. */
-		final Entry next;
-
-		/** The referenced object. */
-		final Ref ref;
-
-		/**
-		 * Marked true when ref.get() returns null and the ref is dead.
-		 * <p>
-		 * A true here indicates that the ref is no longer accessible, and that
-		 * we therefore need to eventually purge this Entry object out of the
-		 * bucket's chain.
-		 */
-		volatile boolean dead;
-
-		Entry(final Entry n, final Ref r) {
-			next = n;
-			ref = r;
-		}
-
-		final void kill() {
-			dead = true;
-			ref.enqueue();
-		}
+	private static int lockCount(final WindowCacheConfig cfg) {
+		return Math.max(cfg.getPackedGitOpenFiles(), 32);
 	}
 
-	/** A soft reference wrapped around a cached object. */
-	private static class Ref extends SoftReference<ByteWindow> {
-		final PackFile pack;
-
-		final long position;
-
-		final int size;
-
-		long lastAccess;
-
-		private boolean cleared;
-
-		protected Ref(final PackFile pack, final long position,
-				final ByteWindow v, final ReferenceQueue<ByteWindow> queue) {
-			super(v, queue);
-			this.pack = pack;
-			this.position = position;
-			this.size = v.size();
-		}
-
-		final synchronized boolean canClear() {
-			if (cleared)
-				return false;
-			cleared = true;
-			return true;
-		}
+	Object lock(final PackFile pack, final long position) {
+		return locks[(hash(pack.hash, position) >>> 1) % locks.length];
 	}
 
 	private static final class Lock {
@@ -48,6 +48,23 @@
 
 /** Configuration parameters for {@link WindowCache}. */
 public class WindowCacheConfig {
+	/** Implementation used to hold pack windows in memory. */
+	public static enum Engine {
+		/**
+		 * Windows are held on the Java heap under SoftReferences, and may be
+		 * evicted by the garbage collector when memory runs low.
+		 */
+		SOFT,
+
+		/**
+		 * Windows are held in direct or memory mapped buffers outside of the
+		 * Java heap. The cache evicts windows itself, using a CLOCK policy
+		 * with frequency based admission, to stay within
+		 * {@link WindowCacheConfig#getPackedGitLimit()}.
+		 */
+		CLOCK;
+	}
+
 	/** 1024 (number of bytes in one kibibyte/kilobyte) */
 	public static final int KB = 1024;
 
@@ -62,6 +79,10 @@ public class WindowCacheConfig {
 
 	private boolean packedGitMMAP;
 
+	private boolean packedGitIndexMMAP;
+
+	private Engine packedGitCacheEngine;
+
 	private int deltaBaseCacheLimit;
 
 	private int streamFileThreshold;
@@ -72,6 +93,8 @@ public WindowCacheConfig() {
 		packedGitLimit = 10 * MB;
 		packedGitWindowSize = 8 * KB;
 		packedGitMMAP = false;
+		packedGitIndexMMAP = false;
+		packedGitCacheEngine = Engine.SOFT;
 		deltaBaseCacheLimit = 10 * MB;
 		streamFileThreshold = PackConfig.DEFAULT_BIG_FILE_THRESHOLD;
 	}
@@ -145,6 +168,41 @@ public void setPackedGitMMAP(final boolean usemmap) {
 		packedGitMMAP = usemmap;
 	}
 
+	/**
+	 * @return true serves pack indexes directly from a memory mapped
+	 *         <code>.idx</code> file; false reads each index onto the Java
+	 *         heap when the pack is first accessed. <b>Default false.</b>
+	 */
+	public boolean isPackedGitIndexMMAP() {
+		return packedGitIndexMMAP;
+	}
+
+	/**
+	 * @param usemmap
+	 *            true serves pack indexes directly from a memory mapped
+	 *            <code>.idx</code> file; false reads each index onto the Java
+	 *            heap when the pack is first accessed.
+	 */
+	public void setPackedGitIndexMMAP(final boolean usemmap) {
+		packedGitIndexMMAP = usemmap;
+	}
+
+	/**
+	 * @return implementation used to hold pack windows in memory.
+	 *         <b>Default {@link Engine#SOFT}.</b>
+	 */
+	public Engine getPackedGitCacheEngine() {
+		return packedGitCacheEngine;
+	}
+
+	/**
+	 * @param engine
+	 *            implementation used to hold pack windows in memory.
+	 */
+	public void setPackedGitCacheEngine(final Engine engine) {
+		packedGitCacheEngine = engine;
+	}
+
 	/**
 	 * @return maximum number of bytes to cache in {@link DeltaBaseCache}
 	 *         for inflated, recently accessed objects, without delta chains.
@@ -193,6 +251,8 @@ public void fromConfig(final Config rc) {
 		setPackedGitLimit(rc.getLong("core", null, "packedgitlimit", getPackedGitLimit()));
 		setPackedGitWindowSize(rc.getInt("core", null, "packedgitwindowsize", getPackedGitWindowSize()));
 		setPackedGitMMAP(rc.getBoolean("core", null, "packedgitmmap", isPackedGitMMAP()));
+		setPackedGitIndexMMAP(rc.getBoolean("core", null, "packedgitindexmmap", isPackedGitIndexMMAP()));
+		setPackedGitCacheEngine(rc.getEnum(Engine.values(), "core", null, "packedgitcacheengine", getPackedGitCacheEngine()));
 		setDeltaBaseCacheLimit(rc.getInt("core", null, "deltabasecachelimit", getDeltaBaseCacheLimit()));
 
 		long maxMem = Runtime.getRuntime().maxMemory();
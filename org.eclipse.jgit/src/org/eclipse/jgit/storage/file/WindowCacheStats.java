@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2011, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.eclipse.jgit.storage.file;
+
+import org.eclipse.jgit.util.LatencyHistogram;
+import org.eclipse.jgit.util.StripedCounter;
+
+/** Counters updated by {@link WindowCache} and {@link WindowCursor}. */
+class WindowCacheStats implements WindowCacheStatsMBean {
+	final StripedCounter hits = new StripedCounter();
+
+	final StripedCounter misses = new StripedCounter();
+
+	final StripedCounter evictions = new StripedCounter();
+
+	final StripedCounter loadFailures = new StripedCounter();
+
+	final StripedCounter mappedBytes = new StripedCounter();
+
+	final StripedCounter copiedBytes = new StripedCounter();
+
+	final LatencyHistogram loadLatency = new LatencyHistogram();
+
+	final LatencyHistogram inflateLatency = new LatencyHistogram();
+
+	public long getHitCount() {
+		return hits.get();
+	}
+
+	public long getMissCount() {
+		return misses.get();
+	}
+
+	public long getEvictionCount() {
+		return evictions.get();
+	}
+
+	public long getLoadFailureCount() {
+		return loadFailures.get();
+	}
+
+	public long[] getLoadLatencyHistogram() {
+		return loadLatency.getCounts();
+	}
+
+	public long getTotalLoadTime() {
+		return loadLatency.getTotalTime();
+	}
+
+	public long[] getInflateLatencyHistogram() {
+		return inflateLatency.getCounts();
+	}
+
+	public long getTotalInflateTime() {
+		return inflateLatency.getTotalTime();
+	}
+
+	public long[] getLatencyBucketLimits() {
+		return LatencyHistogram.getBucketLimits();
+	}
+
+	public int getOpenFileCount() {
+		return WindowCache.getInstance().getOpenFiles();
+	}
+
+	public long getOpenByteCount() {
+		return WindowCache.getInstance().getOpenBytes();
+	}
+
+	public long getMappedByteCount() {
+		return mappedBytes.get();
+	}
+
+	public long getCopiedByteCount() {
+		return copiedBytes.get();
+	}
+}
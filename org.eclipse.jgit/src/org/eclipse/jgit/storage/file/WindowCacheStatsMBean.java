@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2011, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.eclipse.jgit.storage.file;
+
+import org.eclipse.jgit.util.LatencyHistogram;
+
+/**
+ * Statistics of the {@link WindowCache}.
+ * <p>
+ * Counters are cumulative since the JVM started and survive reconfiguration
+ * of the cache. Latency histograms use the buckets described by
+ * {@link LatencyHistogram}.
+ */
+public interface WindowCacheStatsMBean {
+	/** @return number of window requests served from the cache. */
+	long getHitCount();
+
+	/** @return number of window requests that had to load the window. */
+	long getMissCount();
+
+	/** @return number of windows dropped to make room for others. */
+	long getEvictionCount();
+
+	/** @return number of window loads that failed with an exception. */
+	long getLoadFailureCount();
+
+	/** @return number of successful window loads in each latency bucket. */
+	long[] getLoadLatencyHistogram();
+
+	/** @return total time spent loading windows, in nanoseconds. */
+	long getTotalLoadTime();
+
+	/**
+	 * @return number of objects inflated from packs in each latency bucket.
+	 *         The time includes loading any window the object spans.
+	 */
+	long[] getInflateLatencyHistogram();
+
+	/** @return total time spent inflating objects, in nanoseconds. */
+	long getTotalInflateTime();
+
+	/**
+	 * @return upper bound of each latency bucket in microseconds, the last is
+	 *         {@link Long#MAX_VALUE}.
+	 */
+	long[] getLatencyBucketLimits();
+
+	/** @return number of pack files currently held open by the cache. */
+	int getOpenFileCount();
+
+	/** @return number of bytes currently held by cached windows. */
+	long getOpenByteCount();
+
+	/** @return total number of bytes loaded by memory mapping pack files. */
+	long getMappedByteCount();
+
+	/** @return total number of bytes loaded by copying from pack files. */
+	long getCopiedByteCount();
+}
@@ -61,6 +61,7 @@
 import org.eclipse.jgit.errors.StoredObjectRepresentationNotAvailableException;
 import org.eclipse.jgit.lib.AbbreviatedObjectId;
 import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.CommitGraph;
 import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.InflaterCache;
 import org.eclipse.jgit.lib.ObjectId;
@@ -68,6 +69,8 @@
 import org.eclipse.jgit.lib.ObjectReader;
 import org.eclipse.jgit.lib.ProgressMonitor;
 import org.eclipse.jgit.revwalk.RevObject;
+import org.eclipse.jgit.storage.pack.BitmapIndex;
+import org.eclipse.jgit.storage.pack.BitmapIndexProvider;
 import org.eclipse.jgit.storage.pack.CachedPack;
 import org.eclipse.jgit.storage.pack.ObjectReuseAsIs;
 import org.eclipse.jgit.storage.pack.ObjectToPack;
@@ -75,7 +78,8 @@
 import org.eclipse.jgit.storage.pack.PackWriter;
 
 /** Active handle to a ByteWindow. */
-final class WindowCursor extends ObjectReader implements ObjectReuseAsIs {
+final class WindowCursor extends ObjectReader implements ObjectReuseAsIs,
+		BitmapIndexProvider {
 	/** Temporary buffer large enough for at least one raw object id. */
 	final byte[] tempId = new byte[Constants.OBJECT_ID_LENGTH];
 
@@ -83,20 +87,12 @@ final class WindowCursor extends ObjectReader implements ObjectReuseAsIs {
 
 	private ByteWindow window;
 
-	private DeltaBaseCache baseCache;
-
 	final FileObjectDatabase db;
 
 	WindowCursor(FileObjectDatabase db) {
 		this.db = db;
 	}
 
-	DeltaBaseCache getDeltaBaseCache() {
-		if (baseCache == null)
-			baseCache = new DeltaBaseCache();
-		return baseCache;
-	}
-
 	@Override
 	public ObjectReader newReader() {
 		return new WindowCursor(db);
@@ -119,7 +115,9 @@ public boolean has(AnyObjectId objectId) throws IOException {
 	public ObjectLoader open(AnyObjectId objectId, int typeHint)
 			throws MissingObjectException, IncorrectObjectTypeException,
 			IOException {
-		final ObjectLoader ldr = db.openObject(this, objectId);
+		ObjectLoader ldr = db.openObject(this, objectId);
+		if (ldr == null && db.fetchPromised(objectId))
+			ldr = db.openObject(this, objectId);
 		if (ldr == null) {
 			if (typeHint == OBJ_ANY)
 				throw new MissingObjectException(objectId.copy(), "unknown");
@@ -134,6 +132,8 @@ public long getObjectSize(AnyObjectId objectId, int typeHint)
 			throws MissingObjectException, IncorrectObjectTypeException,
 			IOException {
 		long sz = db.getObjectSize(this, objectId);
+		if (sz < 0 && db.fetchPromised(objectId))
+			sz = db.getObjectSize(this, objectId);
 		if (sz < 0) {
 			if (typeHint == OBJ_ANY)
 				throw new MissingObjectException(objectId.copy(), "unknown");
@@ -173,6 +173,15 @@ public Collection<CachedPack> getCachedPacks() throws IOException {
 		return (Collection<CachedPack>) db.getCachedPacks();
 	}
 
+	public BitmapIndex getBitmapIndex() throws IOException {
+		return db.getBitmapIndex();
+	}
+
+	@Override
+	public CommitGraph getCommitGraph() throws IOException {
+		return db.getCommitGraph();
+	}
+
 	/**
 	 * Copy bytes from the window to a caller supplied buffer.
 	 *
@@ -281,6 +290,7 @@ void copyPackAsIs(final PackFile pack, final long length, boolean validate,
 	 */
 	int inflate(final PackFile pack, long position, final byte[] dstbuf,
 			int dstoff) throws IOException, DataFormatException {
+		final long start = System.nanoTime();
 		prepareInflater();
 		pin(pack, position);
 		position += window.setInput(position, inf);
@@ -291,12 +301,13 @@ int inflate(final PackFile pack, long position, final byte[] dstbuf,
 					pin(pack, position);
 					position += window.setInput(position, inf);
 				} else if (inf.finished())
-					return dstoff;
+					break;
 				else
 					throw new DataFormatException();
 			}
 			dstoff += n;
 		} while (dstoff < dstbuf.length);
+		WindowCache.stats.inflateLatency.record(System.nanoTime() - start);
 		return dstoff;
 	}
 
@@ -342,7 +353,6 @@ int getStreamFileThreshold() {
 	/** Release the current window cursor. */
 	public void release() {
 		window = null;
-		baseCache = null;
 		try {
 			InflaterCache.release(inf);
 		} finally {
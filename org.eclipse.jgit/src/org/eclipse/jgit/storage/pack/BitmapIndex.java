@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2011, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.eclipse.jgit.storage.pack;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ProgressMonitor;
+import org.eclipse.jgit.revwalk.ObjectWalk;
+import org.eclipse.jgit.revwalk.RevObject;
+import org.eclipse.jgit.util.IntList;
+
+/**
+ * Precomputed reachability information used to count objects for a pack.
+ * <p>
+ * A bitmap index stores, for a selection of commits, the set of objects
+ * reachable from that commit. {@link PackWriter} uses the index to compute the
+ * objects to send as the difference between the objects reachable from the
+ * wants and those reachable from the haves, avoiding a full object walk.
+ */
+public interface BitmapIndex {
+	/**
+	 * Compute the objects reachable from {@code want} but not {@code have}.
+	 *
+	 * @param monitor
+	 *            progress monitor, updated once per object found.
+	 * @param walk
+	 *            walker used to parse and allocate the returned objects. The
+	 *            walker is not reset, and may have flags applied to objects.
+	 * @param want
+	 *            objects the client wants.
+	 * @param have
+	 *            objects the client already has.
+	 * @param ignoreMissingHave
+	 *            if true, objects in {@code have} that do not exist in the
+	 *            repository are silently ignored.
+	 * @param pathHashCodes
+	 *            receives the path hash of each returned object, in the same
+	 *            order, so the objects can be grouped by path for the delta
+	 *            search. The hash is 0 if the path is not known.
+	 * @return objects that must be packed, in an order suitable for writing
+	 *         them to a pack. Null if the index cannot answer this query, in
+	 *         which case the caller should fall back to walking the graph.
+	 * @throws IOException
+	 *             the repository cannot be accessed.
+	 */
+	public List<RevObject> findObjectsToPack(ProgressMonitor monitor,
+			ObjectWalk walk, Collection<? extends ObjectId> want,
+			Collection<? extends ObjectId> have, boolean ignoreMissingHave,
+			IntList pathHashCodes) throws IOException;
+}
@@ -0,0 +1,337 @@
+/*
+ * Copyright (C) 2011, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.eclipse.jgit.storage.pack;
+
+import java.util.AbstractList;
+import java.util.List;
+
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.util.NB;
+
+/**
+ * Objects of one type to pack, stored without an {@link ObjectToPack} each.
+ * <p>
+ * Object names, path hashes and the offset and CRC assigned when written are
+ * kept in blocks of primitive arrays, and found by name through an open
+ * addressing table of positions. An object costs about
+ * {@link #BYTES_PER_OBJECT} bytes of heap, much less than the instance
+ * PackWriter otherwise keeps for it.
+ */
+final class CompactObjectList {
+	/** Approximate heap used by each object in the list. */
+	static final int BYTES_PER_OBJECT = 56;
+
+	private static final int BLOCK_BITS = 10;
+
+	private static final int BLOCK_SIZE = 1 << BLOCK_BITS;
+
+	private static final int BLOCK_MASK = BLOCK_SIZE - 1;
+
+	private static final int ID_INTS = Constants.OBJECT_ID_LENGTH / 4;
+
+	/** Bits of a {@link #sortByName} entry holding the position. */
+	private static final int POS_BITS = 29;
+
+	private static final int POS_MASK = (1 << POS_BITS) - 1;
+
+	/**
+	 * Sort the objects of several lists by name.
+	 * <p>
+	 * Only an int per object is kept; the returned list creates each object
+	 * again when read. This allows the index of a pack to be written without
+	 * holding an {@link ObjectToPack} for every object it contains.
+	 *
+	 * @param lists
+	 *            lists to sort, indexed by type. Null elements are skipped.
+	 * @return objects of all lists, sorted by name.
+	 */
+	static List<ObjectToPack> sortByName(final CompactObjectList[] lists) {
+		int cnt = 0;
+		for (CompactObjectList src : lists) {
+			if (src != null)
+				cnt += src.size();
+		}
+
+		int[] order = new int[cnt];
+		int n = 0;
+		for (int t = 0; t < lists.length; t++) {
+			if (lists[t] == null)
+				continue;
+			for (int pos = 0; pos < lists[t].size(); pos++)
+				order[n++] = (t << POS_BITS) | pos;
+		}
+		final int[] sorted = sort(lists, order, new int[cnt]);
+
+		return new AbstractList<ObjectToPack>() {
+			@Override
+			public ObjectToPack get(int i) {
+				int e = sorted[i];
+				return lists[e >>> POS_BITS].get(e & POS_MASK);
+			}
+
+			@Override
+			public int size() {
+				return sorted.length;
+			}
+		};
+	}
+
+	/** @return whichever of the two arrays holds the merged entries. */
+	private static int[] sort(CompactObjectList[] lists, int[] src, int[] tmp) {
+		for (int w = 1; w < src.length; w <<= 1) {
+			for (int lo = 0; lo < src.length; lo += w << 1) {
+				int mid = Math.min(lo + w, src.length);
+				int hi = Math.min(lo + (w << 1), src.length);
+				int a = lo, b = mid, k = lo;
+				while (a < mid && b < hi) {
+					if (compare(lists, src[b], src[a]) < 0)
+						tmp[k++] = src[b++];
+					else
+						tmp[k++] = src[a++];
+				}
+				while (a < mid)
+					tmp[k++] = src[a++];
+				while (b < hi)
+					tmp[k++] = src[b++];
+			}
+			int[] t = src;
+			src = tmp;
+			tmp = t;
+		}
+		return src;
+	}
+
+	private static int compare(CompactObjectList[] lists, int x, int y) {
+		int[] a = lists[x >>> POS_BITS].ids[(x & POS_MASK) >>> BLOCK_BITS];
+		int[] b = lists[y >>> POS_BITS].ids[(y & POS_MASK) >>> BLOCK_BITS];
+		int i = (x & BLOCK_MASK) * ID_INTS;
+		int j = (y & BLOCK_MASK) * ID_INTS;
+		for (int k = 0; k < ID_INTS; k++) {
+			int cmp = NB.compareUInt32(a[i + k], b[j + k]);
+			if (cmp != 0)
+				return cmp;
+		}
+		return 0;
+	}
+
+	private final int type;
+
+	private int[][] ids;
+
+	private int[][] pathHashes;
+
+	private long[][] offsets;
+
+	private int[][] crcs;
+
+	private int size;
+
+	/** Position plus 1 of each object, 0 marks an empty slot. */
+	private int[] table;
+
+	CompactObjectList(int type) {
+		this.type = type;
+		this.ids = new int[4][];
+		this.pathHashes = new int[4][];
+		this.offsets = new long[4][];
+		this.crcs = new int[4][];
+		this.table = new int[64];
+	}
+
+	/** @return type of every object in this list. */
+	int getType() {
+		return type;
+	}
+
+	/** @return number of objects in the list. */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Append an object; the caller must ensure it is not yet in the list.
+	 *
+	 * @param id
+	 *            name of the object.
+	 * @param pathHash
+	 *            hash of the path the object was found at.
+	 * @return position of the object.
+	 */
+	int add(AnyObjectId id, int pathHash) {
+		int pos = size;
+		int b = pos >>> BLOCK_BITS;
+		if (b == ids.length)
+			grow();
+		if (ids[b] == null) {
+			ids[b] = new int[BLOCK_SIZE * ID_INTS];
+			pathHashes[b] = new int[BLOCK_SIZE];
+			offsets[b] = new long[BLOCK_SIZE];
+			crcs[b] = new int[BLOCK_SIZE];
+		}
+		int i = pos & BLOCK_MASK;
+		id.copyRawTo(ids[b], i * ID_INTS);
+		pathHashes[b][i] = pathHash;
+		size++;
+
+		if (table.length < size * 2)
+			rehash(table.length << 1);
+		insert(id.hashCode(), pos);
+		return pos;
+	}
+
+	/**
+	 * Locate an object by name.
+	 *
+	 * @param id
+	 *            name of the object.
+	 * @return position of the object, or -1 if it is not in the list.
+	 */
+	int find(AnyObjectId id) {
+		int mask = table.length - 1;
+		for (int s = id.hashCode() & mask;; s = (s + 1) & mask) {
+			int p = table[s] - 1;
+			if (p < 0)
+				return -1;
+			if (id.compareTo(ids[p >>> BLOCK_BITS], (p & BLOCK_MASK)
+					* ID_INTS) == 0)
+				return p;
+		}
+	}
+
+	ObjectId getObjectId(int pos) {
+		return ObjectId.fromRaw(ids[pos >>> BLOCK_BITS], (pos & BLOCK_MASK)
+				* ID_INTS);
+	}
+
+	int getPathHash(int pos) {
+		return pathHashes[pos >>> BLOCK_BITS][pos & BLOCK_MASK];
+	}
+
+	boolean isWritten(int pos) {
+		return getOffset(pos) != 0;
+	}
+
+	long getOffset(int pos) {
+		return offsets[pos >>> BLOCK_BITS][pos & BLOCK_MASK];
+	}
+
+	/**
+	 * Record where an object was written in the pack.
+	 *
+	 * @param pos
+	 *            position of the object.
+	 * @param otp
+	 *            the written object, supplying offset and CRC.
+	 */
+	void setWritten(int pos, ObjectToPack otp) {
+		offsets[pos >>> BLOCK_BITS][pos & BLOCK_MASK] = otp.getOffset();
+		crcs[pos >>> BLOCK_BITS][pos & BLOCK_MASK] = otp.getCRC();
+	}
+
+	/** @return a view of the list, creating each object again when read. */
+	List<ObjectToPack> asList() {
+		return new AbstractList<ObjectToPack>() {
+			@Override
+			public ObjectToPack get(int pos) {
+				return CompactObjectList.this.get(pos);
+			}
+
+			@Override
+			public int size() {
+				return size;
+			}
+		};
+	}
+
+	/**
+	 * Create a standalone copy of an object.
+	 *
+	 * @param pos
+	 *            position of the object.
+	 * @return a new object carrying the name, type, offset and CRC.
+	 */
+	ObjectToPack get(int pos) {
+		ObjectToPack otp = new ObjectToPack(getObjectId(pos), type);
+		otp.setPathHash(getPathHash(pos));
+		otp.setOffset(getOffset(pos));
+		otp.setCRC(crcs[pos >>> BLOCK_BITS][pos & BLOCK_MASK]);
+		return otp;
+	}
+
+	private void grow() {
+		int n = ids.length << 1;
+		ids = copyOf(ids, new int[n][]);
+		pathHashes = copyOf(pathHashes, new int[n][]);
+		crcs = copyOf(crcs, new int[n][]);
+		long[][] o = new long[n][];
+		System.arraycopy(offsets, 0, o, 0, offsets.length);
+		offsets = o;
+	}
+
+	private static int[][] copyOf(int[][] src, int[][] dst) {
+		System.arraycopy(src, 0, dst, 0, src.length);
+		return dst;
+	}
+
+	private void rehash(int n) {
+		table = new int[n];
+		for (int p = 0; p < size - 1; p++) {
+			int b = p >>> BLOCK_BITS;
+			int i = (p & BLOCK_MASK) * ID_INTS;
+			// The second word of the name is its hashCode().
+			insert(ids[b][i + 1], p);
+		}
+	}
+
+	private void insert(int hash, int pos) {
+		int mask = table.length - 1;
+		int s = hash & mask;
+		while (table[s] != 0)
+			s = (s + 1) & mask;
+		table[s] = pos + 1;
+	}
+}
@@ -0,0 +1,401 @@
+/*
+ * Copyright (C) 2011, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.eclipse.jgit.storage.pack;
+
+import java.io.IOException;
+import java.text.MessageFormat;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.jgit.JGitText;
+import org.eclipse.jgit.errors.CorruptObjectException;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.MutableObjectId;
+import org.eclipse.jgit.lib.ObjectIdOwnerMap;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.ThreadSafeProgressMonitor;
+import org.eclipse.jgit.revwalk.RevObject;
+import org.eclipse.jgit.treewalk.CanonicalTreeParser;
+
+/**
+ * Walks the trees of a clone request on several threads.
+ * <p>
+ * Every object reached is recorded in a shared table along with its position
+ * in the serial traversal {@link org.eclipse.jgit.revwalk.ObjectWalk} would
+ * have made: the index of the root, followed by the index of each tree entry
+ * on the path down to the object. Threads race to claim objects, but an
+ * object always ends up keeping its smallest position, so sorting the table
+ * reproduces the serial output order exactly.
+ * <p>
+ * A position is stored as the tree entry the object was found at, that is
+ * the tree's own table entry and the index within it. When a tree moves to
+ * a smaller position its children move along without being updated. Once
+ * every object below a tree was found through it, the tree is marked
+ * complete and is not walked again when it moves; only a tree some object
+ * below moved out of must be revisited.
+ * <p>
+ * Moves happen under one lock, so the positions compared to decide a move
+ * cannot change meanwhile. An object already found at a smaller position,
+ * the common case, is rejected without taking that lock.
+ */
+final class CountingTask implements Callable<Object> {
+	/** Number of independently locked tables, a power of 2. */
+	private static final int TABLES = 32;
+
+	/** An object found by the walk, and where the serial walk finds it. */
+	static final class Entry extends ObjectIdOwnerMap.Entry {
+		final int type;
+
+		/** Tree holding the object; null if the object is a root. */
+		private Entry parent;
+
+		/** Index within {@link #parent}, or of the root. */
+		private int index;
+
+		private int pathHash;
+
+		/**
+		 * True if everything below the object is found through it.
+		 * <p>
+		 * Only changed while holding the block's move lock.
+		 */
+		private volatile boolean complete;
+
+		/** Number of times an object below was moved out of this tree. */
+		private volatile int moves;
+
+		Entry(AnyObjectId id, int type, Entry parent, int index, int pathHash) {
+			super(id);
+			this.type = type;
+			this.parent = parent;
+			this.index = index;
+			this.pathHash = pathHash;
+			this.complete = type != Constants.OBJ_TREE;
+		}
+
+		synchronized int getPathHash() {
+			return pathHash;
+		}
+
+		synchronized boolean isAt(Entry p, int i) {
+			return parent == p && index == i;
+		}
+
+		/** @return true if the tree entry is a smaller position. */
+		boolean isLowerAt(Entry p, int i) {
+			return CountingTask.compare(append(path(p), i), path(this)) < 0;
+		}
+
+		/** Move the object; the caller holds the block's move lock. */
+		void moveTo(Entry p, int i, int hash) {
+			Entry old;
+			synchronized (this) {
+				old = parent;
+				parent = p;
+				index = i;
+				pathHash = hash;
+			}
+			for (Entry t = old; t != null; t = t.parent) {
+				t.complete = false;
+				t.moves++;
+			}
+		}
+
+		/** @return the position, read while other threads move entries. */
+		private static int[] path(Entry e) {
+			int[] r = new int[16];
+			int n = 0;
+			while (e != null) {
+				Entry next;
+				synchronized (e) {
+					if (n == r.length) {
+						int[] b = new int[r.length * 2];
+						System.arraycopy(r, 0, b, 0, n);
+						r = b;
+					}
+					r[n++] = e.index;
+					next = e.parent;
+				}
+				e = next;
+			}
+			int[] p = new int[n];
+			for (int k = 0; k < n; k++)
+				p[k] = r[n - 1 - k];
+			return p;
+		}
+
+		private int depth() {
+			int d = 0;
+			for (Entry e = parent; e != null; e = e.parent)
+				d++;
+			return d;
+		}
+	}
+
+	/** State shared by all tasks counting the same request. */
+	static final class Block {
+		final List<RevObject> roots;
+
+		final AtomicInteger nextRoot;
+
+		private final ObjectIdOwnerMap<Entry>[] tables;
+
+		private final Object moveLock;
+
+		@SuppressWarnings("unchecked")
+		Block(List<RevObject> roots) {
+			this.roots = roots;
+			this.nextRoot = new AtomicInteger();
+			this.moveLock = new Object();
+			this.tables = new ObjectIdOwnerMap[TABLES];
+			for (int i = 0; i < TABLES; i++)
+				tables[i] = new ObjectIdOwnerMap<Entry>();
+		}
+
+		private ObjectIdOwnerMap<Entry> tableFor(AnyObjectId id) {
+			// The maps index by the first word, select by another one.
+			return tables[id.getByte(4) & (TABLES - 1)];
+		}
+
+		/**
+		 * Remove all objects found from the tables.
+		 * <p>
+		 * Must only be called once all tasks completed.
+		 *
+		 * @return all objects found, in the order of the serial walk.
+		 */
+		Entry[] sortedObjects() {
+			int cnt = 0;
+			for (ObjectIdOwnerMap<Entry> t : tables)
+				cnt += t.size();
+			Entry[] list = new Entry[cnt];
+			int n = 0;
+			for (int i = 0; i < TABLES; i++) {
+				for (Entry e : tables[i])
+					list[n++] = e;
+				tables[i] = null;
+			}
+			Arrays.sort(list, new Comparator<Entry>() {
+				public int compare(Entry a, Entry b) {
+					return CountingTask.compare(a, b);
+				}
+			});
+			return list;
+		}
+	}
+
+	/** The object is found at a smaller position elsewhere. */
+	private static final int REFUSED = 0;
+
+	/** The object is found here, and so is everything below it. */
+	private static final int DONE = 1;
+
+	/** The object is found here, but its tree must be (re)visited. */
+	private static final int VISIT = 2;
+
+	private final Block block;
+
+	private final ObjectReader templateReader;
+
+	private final ThreadSafeProgressMonitor pm;
+
+	private final MutableObjectId idBuf;
+
+	private ObjectReader reader;
+
+	private int found;
+
+	/** Entry of the object passed to the last {@link #claim}. */
+	private Entry claimed;
+
+	CountingTask(Block block, ObjectReader reader,
+			ThreadSafeProgressMonitor pm) {
+		this.block = block;
+		this.templateReader = reader;
+		this.pm = pm;
+		this.idBuf = new MutableObjectId();
+	}
+
+	public Object call() throws Exception {
+		reader = templateReader.newReader();
+		try {
+			int i;
+			while ((i = block.nextRoot.getAndIncrement()) < block.roots.size()) {
+				RevObject root = block.roots.get(i);
+				if (claim(root, root.getType(), null, i, 0) == VISIT) {
+					Entry e = claimed;
+					CanonicalTreeParser p = new CanonicalTreeParser();
+					p.reset(reader, root);
+					walk(p, e, root);
+				}
+				pm.update(found);
+				found = 0;
+			}
+		} finally {
+			reader.release();
+			pm.endWorker();
+		}
+		return null;
+	}
+
+	/** @return true if everything below the tree is found through it. */
+	private boolean walk(CanonicalTreeParser p, Entry tree, AnyObjectId root)
+			throws IOException {
+		final int moves = tree.moves;
+		boolean complete = true;
+		for (int i = 0; !p.eof(); p.next(1), i++) {
+			FileMode mode = p.getEntryFileMode();
+			int type = mode.getObjectType();
+			switch (type) {
+			case Constants.OBJ_BLOB:
+			case Constants.OBJ_TREE: {
+				p.getEntryObjectId(idBuf);
+				switch (claim(idBuf, type, tree, i, p.getEntryPathHashCode())) {
+				case REFUSED:
+					complete = false;
+					break;
+				case VISIT:
+					Entry e = claimed;
+					if (!walk(p.createSubtreeIterator0(reader, idBuf), e, root))
+						complete = false;
+					break;
+				}
+				break;
+			}
+			default:
+				if (FileMode.GITLINK.equals(mode))
+					break;
+				p.getEntryObjectId(idBuf);
+				throw new CorruptObjectException(MessageFormat.format(
+						JGitText.get().corruptObjectInvalidMode3, mode,
+						idBuf.name(), p.getEntryPathString(), root.name()));
+			}
+		}
+		synchronized (block.moveLock) {
+			// An object moved out meanwhile may not have been seen above.
+			complete &= tree.moves == moves;
+			tree.complete = complete;
+		}
+		return complete;
+	}
+
+	/**
+	 * Record an object at a position, leaving its entry in {@link #claimed}.
+	 *
+	 * @return {@link #REFUSED}, {@link #DONE} or {@link #VISIT}.
+	 */
+	private int claim(AnyObjectId id, int type, Entry parent, int index,
+			int pathHash) {
+		ObjectIdOwnerMap<Entry> table = block.tableFor(id);
+		Entry e;
+		synchronized (table) {
+			e = table.get(id);
+			if (e == null) {
+				e = new Entry(id, type, parent, index, pathHash);
+				table.add(e);
+				found++;
+				claimed = e;
+				return type == Constants.OBJ_TREE ? VISIT : DONE;
+			}
+		}
+		claimed = e;
+		if (!e.isAt(parent, index)) {
+			// Positions only get smaller. A refusal leaves the parent
+			// incomplete, so whoever moves it later walks it again.
+			if (!e.isLowerAt(parent, index))
+				return REFUSED;
+			synchronized (block.moveLock) {
+				if (!e.isAt(parent, index)) {
+					if (!e.isLowerAt(parent, index))
+						return REFUSED;
+					e.moveTo(parent, index, pathHash);
+				}
+			}
+		}
+		return e.complete ? DONE : VISIT;
+	}
+
+	private static int[] append(int[] parent, int i) {
+		int[] r = new int[parent.length + 1];
+		System.arraycopy(parent, 0, r, 0, parent.length);
+		r[parent.length] = i;
+		return r;
+	}
+
+	static int compare(int[] a, int[] b) {
+		int n = Math.min(a.length, b.length);
+		for (int i = 0; i < n; i++) {
+			if (a[i] != b[i])
+				return a[i] < b[i] ? -1 : 1;
+		}
+		return a.length - b.length;
+	}
+
+	/** Compare the positions of two entries no longer being moved. */
+	static int compare(Entry a, Entry b) {
+		final int da = a.depth();
+		final int db = b.depth();
+		Entry x = a;
+		Entry y = b;
+		for (int d = da; db < d; d--)
+			x = x.parent;
+		for (int d = db; da < d; d--)
+			y = y.parent;
+		if (x == y) {
+			// One is within the other, the tree comes first.
+			return da - db;
+		}
+		while (x.parent != y.parent) {
+			x = x.parent;
+			y = y.parent;
+		}
+		return x.index < y.index ? -1 : (x.index == y.index ? 0 : 1);
+	}
+}
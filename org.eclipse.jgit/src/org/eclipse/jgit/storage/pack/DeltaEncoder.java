@@ -73,14 +73,19 @@ public class DeltaEncoder {
 	/** Maximum length that an an insert command can encode at once. */
 	private static final int MAX_INSERT_DATA_SIZE = 127;
 
-	private final OutputStream out;
+	private OutputStream out;
 
 	private final byte[] buf = new byte[MAX_COPY_CMD_SIZE * 4];
 
-	private final int limit;
+	private int limit;
 
 	private int size;
 
+	/** Create an encoder to be started later by {@link #reset}. */
+	DeltaEncoder() {
+		// Nothing to initialize until the first instruction stream.
+	}
+
 	/**
 	 * Create an encoder with no upper bound on the instruction stream size.
 	 *
@@ -120,8 +125,30 @@ public DeltaEncoder(OutputStream out, long baseSize, long resultSize)
 	 */
 	public DeltaEncoder(OutputStream out, long baseSize, long resultSize,
 			int limit) throws IOException {
-		this.out = out;
-		this.limit = limit;
+		reset(out, baseSize, resultSize, limit);
+	}
+
+	/**
+	 * Start a new instruction stream, reusing this encoder.
+	 *
+	 * @param dst
+	 *            buffer to store the instructions written.
+	 * @param baseSize
+	 *            size of the base object, in bytes.
+	 * @param resultSize
+	 *            size of the resulting object, in bytes.
+	 * @param max
+	 *            maximum number of bytes to write to the out buffer, or 0 to
+	 *            specify an infinite limit.
+	 * @throws IOException
+	 *             the output buffer cannot store the instruction stream's
+	 *             header with the size fields.
+	 */
+	void reset(OutputStream dst, long baseSize, long resultSize, int max)
+			throws IOException {
+		out = dst;
+		limit = max;
+		size = 0;
 		writeVarint(baseSize);
 		writeVarint(resultSize);
 	}
@@ -93,7 +93,7 @@ public static long estimateIndexSize(int sourceLength) {
 	private static final int MAX_CHAIN_LENGTH = 64;
 
 	/** Original source file that we indexed. */
-	private final byte[] src;
+	private byte[] src;
 
 	/**
 	 * Pointers into the {@link #entries} table, indexed by block hash.
@@ -104,9 +104,13 @@ public static long estimateIndexSize(int sourceLength) {
 	 * same masked hash. If there are no matching blocks, 0 is stored instead.
 	 * <p>
 	 * Note that this table is always a power of 2 in size, to support fast
-	 * normalization of a block hash into an array index.
+	 * normalization of a block hash into an array index. A reused index may
+	 * have a longer array than {@link #tableSize}.
 	 */
-	private final int[] table;
+	private int[] table;
+
+	/** Number of slots of {@link #table} in use; 0 if the source is empty. */
+	private int tableSize;
 
 	/**
 	 * Pairs of block hash value and {@link #src} offsets.
@@ -116,10 +120,13 @@ public static long estimateIndexSize(int sourceLength) {
 	 * slot. Remaining entries are pairs of integers, with the upper 32 bits
 	 * holding the block hash and the lower 32 bits holding the source offset.
 	 */
-	private final long[] entries;
+	private long[] entries;
+
+	/** One past the last entry of {@link #entries} in use. */
+	private int entryEnd;
 
 	/** Mask to make block hashes into an array index for {@link #table}. */
-	private final int tableMask;
+	private int tableMask;
 
 	/**
 	 * Construct an index from the source file.
@@ -138,12 +145,51 @@ public DeltaIndex(byte[] sourceBuffer) {
 		// values at each position, but we want the same-length array.
 		//
 		table = scan.table;
+		tableSize = scan.tableSize;
 		tableMask = scan.tableMask;
 
 		// Because entry index 0 means there are no entries for the
 		// slot in the table, we have to allocate one extra position.
 		//
-		entries = new long[1 + countEntries(scan)];
+		entryEnd = 1 + countEntries(scan);
+		entries = new long[entryEnd];
+		copyEntries(scan);
+	}
+
+	/** Create an empty index, to be filled by {@link #reset}. */
+	DeltaIndex() {
+		src = new byte[0];
+		table = new int[0];
+		entries = new long[1];
+		entryEnd = 1;
+	}
+
+	/**
+	 * Rebuild this index for another source, reusing its arrays.
+	 * <p>
+	 * The arrays only grow when the new source needs more space than any
+	 * source indexed before. The index must not be in use by another thread
+	 * while it is being reset.
+	 *
+	 * @param sourceBuffer
+	 *            the source file's raw contents. The buffer will be held by the
+	 *            index instance to facilitate matching, and therefore must not
+	 *            be modified by the caller.
+	 * @param scan
+	 *            scanner to examine the source with. Its state is overwritten.
+	 */
+	void reset(byte[] sourceBuffer, DeltaIndexScanner scan) {
+		src = sourceBuffer;
+		scan.scan(src, src.length);
+
+		tableSize = scan.tableSize;
+		tableMask = scan.tableMask;
+		if (table.length < tableSize)
+			table = new int[tableSize];
+
+		entryEnd = 1 + countEntries(scan);
+		if (entries.length < entryEnd)
+			entries = new long[entryEnd];
 		copyEntries(scan);
 	}
 
@@ -154,8 +200,8 @@ private int countEntries(DeltaIndexScanner scan) {
 		// logic linear in the size of the input rather than quadratic.
 		//
 		int cnt = 0;
-		for (int i = 0; i < table.length; i++) {
-			int h = table[i];
+		for (int i = 0; i < tableSize; i++) {
+			int h = scan.table[i];
 			if (h == 0)
 				continue;
 
@@ -178,10 +224,12 @@ private void copyEntries(DeltaIndexScanner scan) {
 		// then later discard the next list, along with the scanner.
 		//
 		int next = 1;
-		for (int i = 0; i < table.length; i++) {
-			int h = table[i];
-			if (h == 0)
+		for (int i = 0; i < tableSize; i++) {
+			int h = scan.table[i];
+			if (h == 0) {
+				table[i] = 0;
 				continue;
+			}
 
 			table[i] = next;
 			do {
@@ -279,15 +327,20 @@ public void encode(OutputStream out, byte[] res) throws IOException {
 	 */
 	public boolean encode(OutputStream out, byte[] res, int deltaSizeLimit)
 			throws IOException {
+		return encode(new DeltaEncoder(), out, res, deltaSizeLimit);
+	}
+
+	boolean encode(DeltaEncoder enc, OutputStream out, byte[] res,
+			int deltaSizeLimit) throws IOException {
 		final int end = res.length;
-		final DeltaEncoder enc = newEncoder(out, end, deltaSizeLimit);
+		enc.reset(out, getSourceSize(), end, deltaSizeLimit);
 
 		// If either input is smaller than one full block, we simply punt
 		// and construct a delta as a literal. This implies that any file
 		// smaller than our block size is never delta encoded as the delta
 		// will always be larger than the file itself would be.
 		//
-		if (end < BLKSZ || table.length == 0)
+		if (end < BLKSZ || tableSize == 0)
 			return enc.insert(res);
 
 		// Bootstrap the scan by constructing a hash for the first block
@@ -338,7 +391,7 @@ public boolean encode(OutputStream out, byte[] res, int deltaSizeLimit)
 					}
 				} else if ((keyOf(ent) & tableMask) != tableIdx)
 					break;
-			} while (bestLen < 4096 && entryIdx < entries.length);
+			} while (bestLen < 4096 && entryIdx < entryEnd);
 
 			if (bestLen < BLKSZ) {
 				// All of the locations were false positives, or the copy
@@ -390,11 +443,6 @@ public boolean encode(OutputStream out, byte[] res, int deltaSizeLimit)
 		return true;
 	}
 
-	private DeltaEncoder newEncoder(OutputStream out, long resSize, int limit)
-			throws IOException {
-		return new DeltaEncoder(out, getSourceSize(), resSize, limit);
-	}
-
 	private static int fwdmatch(byte[] res, int resPtr, byte[] src, int srcPtr) {
 		int start = resPtr;
 		for (; resPtr < res.length && srcPtr < src.length; resPtr++, srcPtr++) {
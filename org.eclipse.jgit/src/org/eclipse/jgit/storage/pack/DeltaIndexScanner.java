@@ -43,53 +43,81 @@
 
 package org.eclipse.jgit.storage.pack;
 
+import java.util.Arrays;
+
 /**
  * Supports {@link DeltaIndex} by performing a partial scan of the content.
+ * <p>
+ * A scanner can be reused for several sources by calling
+ * {@link #scan(byte[], int)} again. Its arrays are only reallocated when a
+ * source needs more entries than any source scanned before it.
  */
 class DeltaIndexScanner {
-	final int[] table;
+	private static final int[] NO_TABLE = {};
+
+	private static final long[] NO_ENTRIES = {};
+
+	int[] table;
 
 	// To save memory the buckets for hash chains are stored in correlated
 	// arrays. This permits us to get 3 values per entry, without paying
 	// the penalty for an object header on each entry.
 
-	final long[] entries;
+	long[] entries;
 
-	final int[] next;
+	int[] next;
 
-	final int tableMask;
+	/** Number of slots of {@link #table} in use; 0 if nothing was scanned. */
+	int tableSize;
+
+	int tableMask;
 
 	private int entryCnt;
 
+	DeltaIndexScanner() {
+		table = NO_TABLE;
+		entries = NO_ENTRIES;
+		next = NO_TABLE;
+	}
+
 	DeltaIndexScanner(byte[] raw, int len) {
+		this();
+		scan(raw, len);
+	}
+
+	void scan(byte[] raw, int len) {
 		// Clip the length so it falls on a block boundary. We won't
 		// bother to scan the final partial block.
 		//
 		len -= (len % DeltaIndex.BLKSZ);
 
 		final int worstCaseBlockCnt = len / DeltaIndex.BLKSZ;
+		entryCnt = 0;
 		if (worstCaseBlockCnt < 1) {
-			table = new int[] {};
+			tableSize = 0;
 			tableMask = 0;
 
-			entries = new long[] {};
-			next = new int[] {};
-
 		} else {
-			table = new int[tableSize(worstCaseBlockCnt)];
-			tableMask = table.length - 1;
+			tableSize = tableSize(worstCaseBlockCnt);
+			tableMask = tableSize - 1;
+			if (table.length < tableSize)
+				table = new int[tableSize];
+			else
+				Arrays.fill(table, 0, tableSize, 0);
 
 			// As we insert blocks we preincrement so that 0 is never a
 			// valid entry. Therefore we have to allocate one extra space.
 			//
-			entries = new long[1 + worstCaseBlockCnt];
-			next = new int[entries.length];
+			if (entries.length < 1 + worstCaseBlockCnt) {
+				entries = new long[1 + worstCaseBlockCnt];
+				next = new int[entries.length];
+			}
 
-			scan(raw, len);
+			scanBlocks(raw, len);
 		}
 	}
 
-	private void scan(byte[] raw, final int end) {
+	private void scanBlocks(byte[] raw, final int end) {
 		// We scan the input backwards, and always insert onto the
 		// front of the chain. This ensures that chains will have lower
 		// offsets at the front of the chain, allowing us to prefer the
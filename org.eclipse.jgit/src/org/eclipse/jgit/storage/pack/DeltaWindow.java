@@ -43,17 +43,18 @@
 
 package org.eclipse.jgit.storage.pack;
 
+import java.io.ByteArrayOutputStream;
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.zip.Deflater;
 
+import org.eclipse.jgit.JGitText;
 import org.eclipse.jgit.errors.IncorrectObjectTypeException;
 import org.eclipse.jgit.errors.LargeObjectException;
 import org.eclipse.jgit.errors.MissingObjectException;
 import org.eclipse.jgit.lib.ObjectReader;
 import org.eclipse.jgit.lib.ProgressMonitor;
-import org.eclipse.jgit.util.TemporaryBuffer;
 
 class DeltaWindow {
 	private static final int NEXT_RES = 0;
@@ -93,7 +94,26 @@ class DeltaWindow {
 	private DeltaWindowEntry res;
 
 	/** If we have a delta for {@link #res}, this is the shortest found yet. */
-	private TemporaryBuffer.Heap bestDelta;
+	private ByteArrayOutputStream bestDelta;
+
+	// A window is only ever used by one thread, so it keeps the storage
+	// needed to index and encode objects and reuses it for the next one.
+
+	/** Buffers for delta attempts; {@link #bestDelta} is one of them. */
+	private final ByteArrayOutputStream[] deltaBuf = {
+			new ByteArrayOutputStream(), new ByteArrayOutputStream() };
+
+	/** Buffer in {@link #deltaBuf} the next delta attempt is written to. */
+	private ByteArrayOutputStream nextDelta = deltaBuf[0];
+
+	private final DeltaEncoder encoder = new DeltaEncoder();
+
+	private final DeltaIndexScanner scanner = new DeltaIndexScanner();
+
+	/** Indexes no longer held by an entry, ready to index another object. */
+	private final DeltaIndex[] freeIndexes;
+
+	private int freeIndexCnt;
 
 	/** If we have {@link #bestDelta}, the window position it was created by. */
 	private int bestSlot;
@@ -120,6 +140,7 @@ class DeltaWindow {
 		window = new DeltaWindowEntry[config.getDeltaSearchWindowSize() + 1];
 		for (int i = 0; i < window.length; i++)
 			window[i] = new DeltaWindowEntry();
+		freeIndexes = new DeltaIndex[window.length];
 
 		maxMemory = config.getDeltaSearchMemoryLimit();
 		maxDepth = config.getMaxDeltaDepth();
@@ -129,11 +150,18 @@ void search(ProgressMonitor monitor, ObjectToPack[] toSearch, int off,
 			int cnt) throws IOException {
 		try {
 			for (int end = off + cnt; off < end; off++) {
+				if (monitor.isCancelled())
+					throw new IOException(
+							JGitText.get().packingCancelledDuringDeltaSearch);
 				res = window[resSlot];
+				recycle(res);
 				if (0 < maxMemory) {
-					clear(res);
 					int tail = next(resSlot);
 					final long need = estimateSize(toSearch[off]);
+					while (maxMemory < loaded + need && 0 < freeIndexCnt) {
+						loaded -= freeIndexes[--freeIndexCnt].getIndexSize();
+						freeIndexes[freeIndexCnt] = null;
+					}
 					while (maxMemory < loaded + need && tail != resSlot) {
 						clear(window[tail]);
 						tail = next(tail);
@@ -164,6 +192,16 @@ private static long estimateSize(ObjectToPack ent) {
 		return DeltaIndex.estimateIndexSize(ent.getWeight());
 	}
 
+	private void recycle(DeltaWindowEntry ent) {
+		if (ent.index != null && freeIndexCnt < freeIndexes.length) {
+			// The pooled index still occupies its memory, so it
+			// remains counted in loaded until it is dropped.
+			freeIndexes[freeIndexCnt++] = ent.index;
+			ent.set(null);
+		} else
+			clear(ent);
+	}
+
 	private void clear(DeltaWindowEntry ent) {
 		if (ent.index != null)
 			loaded -= ent.index.getIndexSize();
@@ -225,7 +263,7 @@ private void search() throws IOException {
 		resObj.clearReuseAsIs();
 		cacheDelta(srcObj, resObj);
 
-		// Discard the cached best result, otherwise it leaks.
+		// Forget the best result, its buffer is reused for the next object.
 		//
 		bestDelta = null;
 
@@ -295,37 +333,33 @@ private int delta(final DeltaWindowEntry src, final int srcSlot)
 
 		// If we already have a delta for the current object, abort
 		// encoding early if this new pairing produces a larger delta.
-		if (bestDelta != null && bestDelta.length() < msz)
-			msz = (int) bestDelta.length();
+		if (bestDelta != null && bestDelta.size() < msz)
+			msz = bestDelta.size();
 
-		TemporaryBuffer.Heap delta = new TemporaryBuffer.Heap(msz);
-		try {
-			if (!srcIndex.encode(delta, resBuf, msz))
-				return NEXT_SRC;
-		} catch (IOException deltaTooBig) {
-			// This only happens when the heap overflows our limit.
+		ByteArrayOutputStream delta = nextDelta;
+		delta.reset();
+		if (!srcIndex.encode(encoder, delta, resBuf, msz))
 			return NEXT_SRC;
-		}
 
 		if (isBetterDelta(src, delta)) {
 			bestDelta = delta;
 			bestSlot = srcSlot;
+
+			// Any previous best is now discarded, overwrite it next.
+			nextDelta = delta == deltaBuf[0] ? deltaBuf[1] : deltaBuf[0];
 		}
 
 		return NEXT_SRC;
 	}
 
 	private void cacheDelta(ObjectToPack srcObj, ObjectToPack resObj) {
-		if (Integer.MAX_VALUE < bestDelta.length())
-			return;
-
-		int rawsz = (int) bestDelta.length();
+		int rawsz = bestDelta.size();
 		if (deltaCache.canCache(rawsz, srcObj, resObj)) {
 			try {
 				byte[] zbuf = new byte[deflateBound(rawsz)];
 
 				ZipStream zs = new ZipStream(deflater(), zbuf);
-				bestDelta.writeTo(zs, null);
+				bestDelta.writeTo(zs);
 				bestDelta = null;
 				int len = zs.finish();
 
@@ -382,7 +416,7 @@ private void dropFromWindow(@SuppressWarnings("unused") int srcSlot) {
 	}
 
 	private boolean isBetterDelta(DeltaWindowEntry src,
-			TemporaryBuffer.Heap resDelta) {
+			ByteArrayOutputStream resDelta) {
 		if (bestDelta == null)
 			return true;
 
@@ -390,10 +424,10 @@ private boolean isBetterDelta(DeltaWindowEntry src,
 		// that has a shorter delta chain since it would be faster
 		// to access during reads.
 		//
-		if (resDelta.length() == bestDelta.length())
+		if (resDelta.size() == bestDelta.size())
 			return src.depth() < window[bestSlot].depth();
 
-		return resDelta.length() < bestDelta.length();
+		return resDelta.size() < bestDelta.size();
 	}
 
 	private static int deltaSizeLimit(DeltaWindowEntry res, int maxDepth,
@@ -421,7 +455,15 @@ private DeltaIndex index(DeltaWindowEntry ent)
 		DeltaIndex idx = ent.index;
 		if (idx == null) {
 			try {
-				idx = new DeltaIndex(buffer(ent));
+				byte[] buf = buffer(ent);
+				if (0 < freeIndexCnt) {
+					idx = freeIndexes[--freeIndexCnt];
+					freeIndexes[freeIndexCnt] = null;
+					if (0 < maxMemory)
+						loaded -= idx.getIndexSize();
+				} else
+					idx = new DeltaIndex();
+				idx.reset(buf, scanner);
 			} catch (OutOfMemoryError noMemory) {
 				LargeObjectException.OutOfMemory e;
 				e = new LargeObjectException.OutOfMemory(noMemory);
@@ -66,6 +66,8 @@ public class ObjectToPack extends PackedObjectInfo {
 
 	private static final int EDGE = 1 << 3;
 
+	private static final int DELTA_PENDING = 1 << 4;
+
 	private static final int TYPE_SHIFT = 5;
 
 	private static final int EXT_SHIFT = 8;
@@ -88,7 +90,7 @@ public class ObjectToPack extends PackedObjectInfo {
 	 * <li>1 bit: canReuseAsIs</li>
 	 * <li>1 bit: doNotDelta</li>
 	 * <li>1 bit: edgeObject</li>
-	 * <li>1 bit: unused</li>
+	 * <li>1 bit: deltaPending</li>
 	 * <li>3 bits: type</li>
 	 * <li>4 bits: subclass flags (if any)</li>
 	 * <li>--</li>
@@ -178,8 +180,7 @@ void clearDeltaBase() {
 		this.deltaBase = null;
 
 		if (cachedDelta != null) {
-			cachedDelta.clear();
-			cachedDelta.enqueue();
+			cachedDelta.release();
 			cachedDelta = null;
 		}
 	}
@@ -265,6 +266,18 @@ void setEdge() {
 		flags |= EDGE;
 	}
 
+	/** @return true if a delta search may still change this object. */
+	boolean isDeltaPending() {
+		return (flags & DELTA_PENDING) != 0;
+	}
+
+	void setDeltaPending(boolean pending) {
+		if (pending)
+			flags |= DELTA_PENDING;
+		else
+			flags &= ~DELTA_PENDING;
+	}
+
 	/** @return the extended flags on this object, in the range [0x0, 0xf]. */
 	protected int getExtendedFlags() {
 		return (flags >>> EXT_SHIFT) & EXT_MASK;
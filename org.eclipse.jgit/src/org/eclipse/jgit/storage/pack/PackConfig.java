@@ -123,6 +123,13 @@ public class PackConfig {
 	 */
 	public static final int DEFAULT_DELTA_CACHE_LIMIT = 100;
 
+	/**
+	 * Default value of the off-heap delta cache option: {@value}
+	 *
+	 * @see #setDeltaCacheOffHeap(boolean)
+	 */
+	public static final boolean DEFAULT_DELTA_CACHE_OFF_HEAP = false;
+
 	/**
 	 * Default index version: {@value}
 	 *
@@ -130,6 +137,41 @@ public class PackConfig {
 	 */
 	public static final int DEFAULT_INDEX_VERSION = 2;
 
+	/**
+	 * Default value of the use bitmaps option: {@value}
+	 *
+	 * @see #setUseBitmaps(boolean)
+	 */
+	public static final boolean DEFAULT_USE_BITMAPS = true;
+
+	/**
+	 * Default distance between commits given a bitmap: {@value}
+	 *
+	 * @see #setBitmapCommitSpacing(int)
+	 */
+	public static final int DEFAULT_BITMAP_COMMIT_SPACING = 100;
+
+	/**
+	 * Default value of the parallel counting option: {@value}
+	 *
+	 * @see #setParallelCounting(boolean)
+	 */
+	public static final boolean DEFAULT_PARALLEL_COUNTING = false;
+
+	/**
+	 * Default memory limit for the object list: {@value}
+	 *
+	 * @see #setObjectListMemoryLimit(long)
+	 */
+	public static final long DEFAULT_OBJECT_LIST_MEMORY_LIMIT = 0;
+
+	/**
+	 * Default value of the pipelined writing option: {@value}
+	 *
+	 * @see #setPipelinedWriting(boolean)
+	 */
+	public static final boolean DEFAULT_PIPELINED_WRITING = false;
+
 
 	private int compressionLevel = Deflater.DEFAULT_COMPRESSION;
 
@@ -151,6 +193,8 @@ public class PackConfig {
 
 	private int deltaCacheLimit = DEFAULT_DELTA_CACHE_LIMIT;
 
+	private boolean deltaCacheOffHeap = DEFAULT_DELTA_CACHE_OFF_HEAP;
+
 	private int bigFileThreshold = DEFAULT_BIG_FILE_THRESHOLD;
 
 	private int threads;
@@ -159,6 +203,16 @@ public class PackConfig {
 
 	private int indexVersion = DEFAULT_INDEX_VERSION;
 
+	private boolean useBitmaps = DEFAULT_USE_BITMAPS;
+
+	private int bitmapCommitSpacing = DEFAULT_BITMAP_COMMIT_SPACING;
+
+	private boolean parallelCounting = DEFAULT_PARALLEL_COUNTING;
+
+	private long objectListMemoryLimit = DEFAULT_OBJECT_LIST_MEMORY_LIMIT;
+
+	private boolean pipelinedWriting = DEFAULT_PIPELINED_WRITING;
+
 
 	/** Create a default configuration. */
 	public PackConfig() {
@@ -459,6 +513,35 @@ public void setDeltaCacheLimit(int size) {
 		deltaCacheLimit = size;
 	}
 
+	/**
+	 * True if cached deltas are stored outside of the Java heap.
+	 *
+	 * Default setting: {@value #DEFAULT_DELTA_CACHE_OFF_HEAP}
+	 *
+	 * @return true if the delta cache uses direct memory.
+	 */
+	public boolean isDeltaCacheOffHeap() {
+		return deltaCacheOffHeap;
+	}
+
+	/**
+	 * Set whether cached deltas are stored outside of the Java heap.
+	 * <p>
+	 * The in-heap cache holds deltas through soft references, which the
+	 * garbage collector must trace and may discard under memory pressure.
+	 * The off-heap cache instead allocates up to {@link #getDeltaCacheSize()}
+	 * bytes of direct memory in slabs, and charges each delta for exactly the
+	 * space it occupies there. Deltas stay cached until they are written.
+	 *
+	 * Default setting: {@value #DEFAULT_DELTA_CACHE_OFF_HEAP}
+	 *
+	 * @param offHeap
+	 *            true to cache deltas in direct memory.
+	 */
+	public void setDeltaCacheOffHeap(boolean offHeap) {
+		deltaCacheOffHeap = offHeap;
+	}
+
 	/**
 	 * Get the maximum file size that will be delta compressed.
 	 *
@@ -591,6 +674,166 @@ public void setIndexVersion(final int version) {
 		indexVersion = version;
 	}
 
+	/**
+	 * True if the writer should count objects using reachability bitmaps.
+	 *
+	 * Default setting: {@value #DEFAULT_USE_BITMAPS}
+	 *
+	 * @return true if bitmaps are used when the repository provides them.
+	 */
+	public boolean isUseBitmaps() {
+		return useBitmaps;
+	}
+
+	/**
+	 * Set whether the writer should count objects using reachability bitmaps.
+	 * <p>
+	 * When the repository has a bitmap index, the objects to pack are computed
+	 * as the difference between the bitmaps of the wanted and uninteresting
+	 * commits, rather than by walking the object graph. Objects found this way
+	 * have no path information, so new deltas may be searched for less
+	 * effectively; existing deltas are still reused.
+	 *
+	 * Default setting: {@value #DEFAULT_USE_BITMAPS}
+	 *
+	 * @param useBitmaps
+	 *            true to use bitmaps when the repository provides them.
+	 */
+	public void setUseBitmaps(boolean useBitmaps) {
+		this.useBitmaps = useBitmaps;
+	}
+
+	/**
+	 * Get the number of commits between two commits given a bitmap.
+	 *
+	 * Default setting: {@value #DEFAULT_BITMAP_COMMIT_SPACING}
+	 *
+	 * @return the number of commits in the pack for each commit selected to
+	 *         receive a bitmap, in addition to the pack's tips.
+	 */
+	public int getBitmapCommitSpacing() {
+		return bitmapCommitSpacing;
+	}
+
+	/**
+	 * Set the number of commits between two commits given a bitmap.
+	 * <p>
+	 * Smaller values create a larger bitmap index, but shorten the walk needed
+	 * to reach the nearest bitmap when counting objects.
+	 *
+	 * Default setting: {@value #DEFAULT_BITMAP_COMMIT_SPACING}
+	 *
+	 * @param spacing
+	 *            the number of commits in the pack for each commit selected
+	 *            to receive a bitmap. Must be at least 1.
+	 */
+	public void setBitmapCommitSpacing(int spacing) {
+		bitmapCommitSpacing = Math.max(1, spacing);
+	}
+
+	/**
+	 * True if the writer may enumerate trees on several threads.
+	 *
+	 * Default setting: {@value #DEFAULT_PARALLEL_COUNTING}
+	 *
+	 * @return true if trees may be walked in parallel while counting objects.
+	 */
+	public boolean isParallelCounting() {
+		return parallelCounting;
+	}
+
+	/**
+	 * Set whether the writer may enumerate trees on several threads.
+	 * <p>
+	 * When bitmaps cannot be used and the request has no uninteresting
+	 * objects (for example a clone), the trees of the wanted commits are
+	 * walked by up to {@link #getThreads()} threads, using the executor from
+	 * {@link #getExecutor()} if one was set. The objects found are sorted back
+	 * into the order a single threaded walk would produce, so the resulting
+	 * pack does not depend on this setting.
+	 * <p>
+	 * The objects found in parallel cannot be held in compact lists, so this
+	 * setting is ignored when {@link #getObjectListMemoryLimit()} is set.
+	 *
+	 * Default setting: {@value #DEFAULT_PARALLEL_COUNTING}
+	 *
+	 * @param parallelCounting
+	 *            true to walk trees in parallel when possible.
+	 */
+	public void setParallelCounting(boolean parallelCounting) {
+		this.parallelCounting = parallelCounting;
+	}
+
+	/**
+	 * Get the memory limit for the list of objects to pack.
+	 *
+	 * Default setting: {@value #DEFAULT_OBJECT_LIST_MEMORY_LIMIT}
+	 *
+	 * @return the approximate number of bytes the writer may spend on its
+	 *         list of objects before compacting it. 0 means unlimited.
+	 */
+	public long getObjectListMemoryLimit() {
+		return objectListMemoryLimit;
+	}
+
+	/**
+	 * Set the memory limit for the list of objects to pack.
+	 * <p>
+	 * A writer normally keeps an {@link ObjectToPack} for every object it
+	 * will output, which for very large repositories can take gigabytes of
+	 * heap per writer. When counting the objects of a request without
+	 * uninteresting objects (for example a clone) exceeds this limit, the
+	 * list is moved to a compact encoding of roughly half the size.
+	 * Representation selection and delta search are then done on one slice
+	 * of the list at a time, right before the slice is written; deltas
+	 * against objects of a later slice are not reused, and index files
+	 * written afterwards temporarily expand the list again.
+	 *
+	 * Default setting: {@value #DEFAULT_OBJECT_LIST_MEMORY_LIMIT}
+	 *
+	 * @param limit
+	 *            approximate number of bytes the writer may spend on its
+	 *            list of objects. 0 (or less) disables the limit.
+	 */
+	public void setObjectListMemoryLimit(long limit) {
+		objectListMemoryLimit = limit;
+	}
+
+	/**
+	 * True if the writer may stream objects while deltas are being searched.
+	 *
+	 * Default setting: {@value #DEFAULT_PIPELINED_WRITING}
+	 *
+	 * @return true if objects are written during delta compression.
+	 */
+	public boolean isPipelinedWriting() {
+		return pipelinedWriting;
+	}
+
+	/**
+	 * Set whether the writer may stream objects while deltas are searched.
+	 * <p>
+	 * Normally nothing but the pack header is written until delta compression
+	 * has finished. When enabled, the delta search runs in the background and
+	 * objects whose representation cannot change anymore (commits, tags,
+	 * reused objects and objects excluded from the search) are written in the
+	 * meantime. A reused delta is only written early if its base is too. The
+	 * searched objects follow once the search completes, so the order of
+	 * objects in the pack differs from a non-pipelined pack.
+	 * <p>
+	 * Both progress monitors of {@link PackWriter#writePack} are active at the
+	 * same time, so they should not share one display. They are still only
+	 * updated from the thread calling it.
+	 *
+	 * Default setting: {@value #DEFAULT_PIPELINED_WRITING}
+	 *
+	 * @param pipelined
+	 *            true to write objects while the delta search runs.
+	 */
+	public void setPipelinedWriting(boolean pipelined) {
+		pipelinedWriting = pipelined;
+	}
+
 	/**
 	 * Update properties by setting fields from the configuration.
 	 *
@@ -606,6 +849,7 @@ public void fromConfig(final Config rc) {
 		setDeltaSearchMemoryLimit(rc.getLong("pack", "windowmemory", getDeltaSearchMemoryLimit()));
 		setDeltaCacheSize(rc.getLong("pack", "deltacachesize", getDeltaCacheSize()));
 		setDeltaCacheLimit(rc.getInt("pack", "deltacachelimit", getDeltaCacheLimit()));
+		setDeltaCacheOffHeap(rc.getBoolean("pack", "deltacacheoffheap", isDeltaCacheOffHeap()));
 		setCompressionLevel(rc.getInt("pack", "compression",
 				rc.getInt("core", "compression", getCompressionLevel())));
 		setIndexVersion(rc.getInt("pack", "indexversion", getIndexVersion()));
@@ -617,5 +861,10 @@ public void fromConfig(final Config rc) {
 		setReuseDeltas(rc.getBoolean("pack", "reusedeltas", isReuseDeltas()));
 		setReuseObjects(rc.getBoolean("pack", "reuseobjects", isReuseObjects()));
 		setDeltaCompress(rc.getBoolean("pack", "deltacompression", isDeltaCompress()));
+		setUseBitmaps(rc.getBoolean("pack", "usebitmaps", isUseBitmaps()));
+		setBitmapCommitSpacing(rc.getInt("pack", "bitmapcommitspacing", getBitmapCommitSpacing()));
+		setParallelCounting(rc.getBoolean("pack", "parallelcounting", isParallelCounting()));
+		setObjectListMemoryLimit(rc.getLong("pack", "objectlistmemory", getObjectListMemoryLimit()));
+		setPipelinedWriting(rc.getBoolean("pack", "pipelinedwriting", isPipelinedWriting()));
 	}
 }
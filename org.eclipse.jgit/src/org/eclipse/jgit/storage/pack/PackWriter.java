@@ -63,6 +63,7 @@
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
@@ -98,8 +99,12 @@
 import org.eclipse.jgit.revwalk.RevSort;
 import org.eclipse.jgit.revwalk.RevTag;
 import org.eclipse.jgit.revwalk.RevTree;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.storage.file.PackBitmapIndexWriter;
 import org.eclipse.jgit.storage.file.PackIndexWriter;
+import org.eclipse.jgit.storage.file.PackReverseIndexWriter;
 import org.eclipse.jgit.util.BlockList;
+import org.eclipse.jgit.util.IntList;
 import org.eclipse.jgit.util.TemporaryBuffer;
 
 /**
@@ -138,6 +143,22 @@
 public class PackWriter {
 	private static final int PACK_VERSION_GENERATED = 2;
 
+	/**
+	 * Approximate heap used per object in {@link #objectsLists}, including
+	 * its {@link ObjectToPack} and the slots in the lists and map.
+	 */
+	private static final int OBJECT_TO_PACK_SIZE = 112;
+
+	/** Types in the order their objects are written to the pack. */
+	private static final int[] WRITE_ORDER = { Constants.OBJ_COMMIT,
+			Constants.OBJ_TAG, Constants.OBJ_TREE, Constants.OBJ_BLOB };
+
+	/**
+	 * Longest reused delta chain written while deltas are searched. Longer
+	 * chains, or cycles, wait until the search has completed.
+	 */
+	private static final int MAX_FINAL_CHAIN = 1024;
+
 	@SuppressWarnings("unchecked")
 	private final BlockList<ObjectToPack> objectsLists[] = new BlockList[Constants.OBJ_TAG + 1];
 	{
@@ -149,6 +170,12 @@ public class PackWriter {
 
 	private final ObjectIdOwnerMap<ObjectToPack> objectsMap = new ObjectIdOwnerMap<ObjectToPack>();
 
+	/** Replaces {@link #objectsLists} once it exceeds the memory limit. */
+	private CompactObjectList[] compactLists;
+
+	/** True while counting may move objects to {@link #compactLists}. */
+	private boolean canCompact;
+
 	// edge objects for thin packs
 	private List<ObjectToPack> edgeObjects = new BlockList<ObjectToPack>();
 
@@ -158,6 +185,12 @@ public class PackWriter {
 
 	private Deflater myDeflater;
 
+	/** Delta cache shared by all searches, if it lives off the heap. */
+	private SlabDeltaCache slabDeltaCache;
+
+	/** Progress of a delta search running while objects are written. */
+	private ThreadSafeProgressMonitor pipelineMonitor;
+
 	private final ObjectReader reader;
 
 	/** {@link #reader} recast to the reuse interface, if it supports it. */
@@ -189,6 +222,12 @@ public class PackWriter {
 
 	private boolean pruneCurrentObjectList;
 
+	private Set<? extends ObjectId> shallowCommits;
+
+	private long filterBlobLimit = -1;
+
+	private boolean ignoreMissingBlobs;
+
 	/**
 	 * Create writer for specified repository.
 	 * <p>
@@ -363,6 +402,52 @@ public void setUseCachedPacks(boolean useCached) {
 		useCachedPacks = useCached;
 	}
 
+	/**
+	 * Set the commits the object enumeration treats as having no parents.
+	 * <p>
+	 * A shallow pack stops at these commits: they are included, but none of
+	 * their ancestors are. The walk used by
+	 * {@link #preparePack(ProgressMonitor, ObjectWalk, Collection, Collection)}
+	 * must not have parsed any of them yet. Cached packs and bitmaps describe
+	 * complete histories, and are not used while shallow commits are set.
+	 *
+	 * @param commits
+	 *            the shallow boundary; empty to pack complete histories.
+	 */
+	public void setShallowCommits(Set<? extends ObjectId> commits) {
+		shallowCommits = commits.isEmpty() ? null : commits;
+	}
+
+	/**
+	 * Omit blobs from the pack by size, for a partial clone.
+	 * <p>
+	 * Blobs reached through trees are left out if they are at least
+	 * {@code limit} bytes long. Blobs named directly in the want list are
+	 * always included. Cached packs and bitmaps contain all blobs, and are not
+	 * used while a limit is set.
+	 *
+	 * @param limit
+	 *            blobs of this size or larger are omitted; 0 to omit all blobs;
+	 *            -1 to include all blobs.
+	 */
+	public void setFilterBlobLimit(long limit) {
+		filterBlobLimit = limit;
+	}
+
+	/**
+	 * Omit blobs which are not present in the source repository.
+	 * <p>
+	 * A partial clone lacks the blobs its remote filtered out. Packing such a
+	 * repository leaves them out, instead of failing on the first one.
+	 *
+	 * @param ignore
+	 *            true to omit missing blobs; false to fail if a blob is
+	 *            missing.
+	 */
+	public void setIgnoreMissingBlobs(boolean ignore) {
+		ignoreMissingBlobs = ignore;
+	}
+
 	/**
 	 * @return true to ignore objects that are uninteresting and also not found
 	 *         on local disk; false to throw a {@link MissingObjectException}
@@ -416,6 +501,12 @@ public long getObjectCount() throws IOException {
 			objCnt += objectsLists[Constants.OBJ_TREE].size();
 			objCnt += objectsLists[Constants.OBJ_BLOB].size();
 			objCnt += objectsLists[Constants.OBJ_TAG].size();
+			if (compactLists != null) {
+				objCnt += compactLists[Constants.OBJ_COMMIT].size();
+				objCnt += compactLists[Constants.OBJ_TREE].size();
+				objCnt += compactLists[Constants.OBJ_BLOB].size();
+				objCnt += compactLists[Constants.OBJ_TAG].size();
+			}
 
 			for (CachedPack pack : cachedPacks)
 				objCnt += pack.getObjectCount();
@@ -531,6 +622,8 @@ public void preparePack(ProgressMonitor countingMonitor,
 	 */
 	public boolean willInclude(final AnyObjectId id) throws IOException {
 		ObjectToPack obj = objectsMap.get(id);
+		if (obj == null)
+			obj = findCompact(id);
 		return obj != null && !obj.isEdge();
 	}
 
@@ -543,9 +636,22 @@ public boolean willInclude(final AnyObjectId id) throws IOException {
 	 */
 	public ObjectToPack get(AnyObjectId id) {
 		ObjectToPack obj = objectsMap.get(id);
+		if (obj == null)
+			obj = findCompact(id);
 		return obj != null && !obj.isEdge() ? obj : null;
 	}
 
+	private ObjectToPack findCompact(AnyObjectId id) {
+		if (compactLists != null) {
+			for (int type = Constants.OBJ_COMMIT; type <= Constants.OBJ_TAG; type++) {
+				int pos = compactLists[type].find(id);
+				if (0 <= pos)
+					return compactLists[type].get(pos);
+			}
+		}
+		return null;
+	}
+
 	/**
 	 * Computes SHA-1 of lexicographically sorted objects ids written in this
 	 * pack, as used to name a pack file in repository.
@@ -590,24 +696,104 @@ public void writeIndex(final OutputStream indexStream) throws IOException {
 		iw.write(list, packcsum);
 	}
 
+	/**
+	 * Create a reverse index ({@code .rev} file) to match the pack file just
+	 * written.
+	 * <p>
+	 * This method can only be invoked after {@link #writePack(ProgressMonitor,
+	 * ProgressMonitor, OutputStream)} has been invoked and completed
+	 * successfully. The reverse index lets readers map a pack offset to an
+	 * object without sorting the pack index in memory.
+	 *
+	 * @param reverseIndexStream
+	 *            output for the reverse index data. Caller is responsible for
+	 *            closing this stream.
+	 * @throws IOException
+	 *             the reverse index data could not be written to the supplied
+	 *             stream.
+	 */
+	public void writeReverseIndex(final OutputStream reverseIndexStream)
+			throws IOException {
+		if (!cachedPacks.isEmpty())
+			throw new IOException(JGitText.get().cachedPacksPreventsIndexCreation);
+
+		new PackReverseIndexWriter(reverseIndexStream).write(sortByName(),
+				packcsum);
+	}
+
+	/**
+	 * Create a bitmap index to match the pack file just written.
+	 * <p>
+	 * This method can only be invoked after {@link #writePack(ProgressMonitor,
+	 * ProgressMonitor, OutputStream)} has been invoked and completed
+	 * successfully. Bitmaps are computed for the wanted tips of the pack, and
+	 * for every {@link PackConfig#getBitmapCommitSpacing()} commits of the
+	 * pack. A commit is skipped if it can reach objects outside of the pack.
+	 *
+	 * @param monitor
+	 *            progress monitor to report the number of commits processed.
+	 * @param bitmapStream
+	 *            output for the bitmap data. Caller is responsible for closing
+	 *            this stream.
+	 * @throws IOException
+	 *             the bitmap data could not be written to the supplied
+	 *             stream, or the commits of the pack cannot be read.
+	 */
+	public void writeBitmapIndex(ProgressMonitor monitor,
+			OutputStream bitmapStream) throws IOException {
+		if (!cachedPacks.isEmpty())
+			throw new IOException(JGitText.get().cachedPacksPreventsIndexCreation);
+
+		final PackBitmapIndexWriter bw = new PackBitmapIndexWriter(reader,
+				sortByName(), packcsum);
+		if (stats.interestingObjects != null) {
+			for (ObjectId id : stats.interestingObjects)
+				bw.addCommit(id);
+		}
+
+		final List<ObjectToPack> commits = writtenObjects(Constants.OBJ_COMMIT);
+		final int spacing = config.getBitmapCommitSpacing();
+		for (int i = 0; i < commits.size(); i += spacing)
+			bw.addCommit(commits.get(i));
+		bw.write(monitor, bitmapStream);
+	}
+
 	private List<ObjectToPack> sortByName() {
-		if (sortedByName == null) {
+		if (sortedByName == null && compactLists != null) {
+			// Avoid holding an object for each entry of a compacted pack
+			// until its index is written; the list creates them as needed.
+			sortedByName = CompactObjectList.sortByName(compactLists);
+		} else if (sortedByName == null) {
+			List<ObjectToPack> commits = writtenObjects(Constants.OBJ_COMMIT);
+			List<ObjectToPack> trees = writtenObjects(Constants.OBJ_TREE);
+			List<ObjectToPack> blobs = writtenObjects(Constants.OBJ_BLOB);
+			List<ObjectToPack> tags = writtenObjects(Constants.OBJ_TAG);
+
 			int cnt = 0;
-			cnt += objectsLists[Constants.OBJ_COMMIT].size();
-			cnt += objectsLists[Constants.OBJ_TREE].size();
-			cnt += objectsLists[Constants.OBJ_BLOB].size();
-			cnt += objectsLists[Constants.OBJ_TAG].size();
+			cnt += commits.size();
+			cnt += trees.size();
+			cnt += blobs.size();
+			cnt += tags.size();
 
 			sortedByName = new BlockList<ObjectToPack>(cnt);
-			sortedByName.addAll(objectsLists[Constants.OBJ_COMMIT]);
-			sortedByName.addAll(objectsLists[Constants.OBJ_TREE]);
-			sortedByName.addAll(objectsLists[Constants.OBJ_BLOB]);
-			sortedByName.addAll(objectsLists[Constants.OBJ_TAG]);
+			sortedByName.addAll(commits);
+			sortedByName.addAll(trees);
+			sortedByName.addAll(blobs);
+			sortedByName.addAll(tags);
 			Collections.sort(sortedByName);
 		}
 		return sortedByName;
 	}
 
+	private List<ObjectToPack> writtenObjects(int type) {
+		if (compactLists == null)
+			return objectsLists[type];
+
+		// The compacted objects were dropped after being written; the
+		// view recreates them with the name, offset and CRC when read.
+		return compactLists[type].asList();
+	}
+
 	/**
 	 * Write the prepared pack to the supplied stream.
 	 * <p>
@@ -640,13 +826,20 @@ public void writePack(ProgressMonitor compressMonitor,
 		if (writeMonitor == null)
 			writeMonitor = NullProgressMonitor.INSTANCE;
 
-		if (reuseSupport != null && (
-				   reuseDeltas
-				|| config.isReuseObjects()
-				|| !cachedPacks.isEmpty()))
-			searchForReuse(compressMonitor);
-		if (config.isDeltaCompress())
-			searchForDeltas(compressMonitor);
+		boolean pipelined = false;
+		if (compactLists == null) {
+			if (reuseSupport != null && (
+					   reuseDeltas
+					|| config.isReuseObjects()
+					|| !cachedPacks.isEmpty()))
+				searchForReuse(compressMonitor);
+			if (config.isDeltaCompress()) {
+				if (config.isPipelinedWriting())
+					pipelined = true;
+				else
+					searchForDeltas(compressMonitor, null);
+			}
+		}
 
 		final PackOutputStream out = new PackOutputStream(writeMonitor,
 				packStream, this);
@@ -659,7 +852,12 @@ public void writePack(ProgressMonitor compressMonitor,
 		out.writeFileHeader(PACK_VERSION_GENERATED, objCnt);
 		out.flush();
 
-		writeObjects(out);
+		if (compactLists != null)
+			writeCompactObjects(out);
+		else if (pipelined)
+			writePipelinedObjects(compressMonitor, out);
+		else
+			writeObjects(out);
 		if (!edgeObjects.isEmpty() || !cachedPacks.isEmpty()) {
 			for (Statistics.ObjectType typeStat : stats.objectTypes) {
 				if (typeStat == null)
@@ -691,6 +889,7 @@ public void writePack(ProgressMonitor compressMonitor,
 			stats.totalDeltas += typeStat.cntDeltas;
 		}
 
+		releaseDeltaCache();
 		reader.release();
 		writeMonitor.endTask();
 	}
@@ -706,6 +905,7 @@ public Statistics getStatistics() {
 
 	/** Release all resources used by this writer. */
 	public void release() {
+		releaseDeltaCache();
 		reader.release();
 		if (myDeflater != null) {
 			myDeflater.end();
@@ -747,7 +947,7 @@ private void searchForReuse(ProgressMonitor monitor) throws IOException {
 		}
 
 		monitor.endTask();
-		stats.timeSearchingForReuse = System.currentTimeMillis() - start;
+		stats.timeSearchingForReuse += System.currentTimeMillis() - start;
 	}
 
 	private void searchForReuse(ProgressMonitor monitor, List<ObjectToPack> list)
@@ -758,7 +958,19 @@ private void searchForReuse(ProgressMonitor monitor, List<ObjectToPack> list)
 			pruneEdgesFromObjectList(list);
 	}
 
-	private void searchForDeltas(ProgressMonitor monitor)
+	/**
+	 * Search for deltas, optionally writing other objects meanwhile.
+	 *
+	 * @param monitor
+	 *            progress of the delta search.
+	 * @param out
+	 *            if not null, the search runs in the background and objects
+	 *            whose representation is final are written here until it has
+	 *            completed.
+	 * @throws IOException
+	 *             an object could not be read, or written to {@code out}.
+	 */
+	private void searchForDeltas(ProgressMonitor monitor, PackOutputStream out)
 			throws MissingObjectException, IncorrectObjectTypeException,
 			IOException {
 		// Commits and annotated tags tend to have too many differences to
@@ -839,7 +1051,7 @@ else if (sz <= DeltaIndex.BLKSZ)
 			sizeQueue.release();
 		}
 		monitor.endTask();
-		stats.timeSearchingForSizes = System.currentTimeMillis() - sizingStart;
+		stats.timeSearchingForSizes += System.currentTimeMillis() - sizingStart;
 
 		// Sort the objects by path hash so like files are near each other,
 		// and then by size descending so that bigger files are first. This
@@ -885,16 +1097,37 @@ public int compare(ObjectToPack a, ObjectToPack b) {
 
 		final long searchStart = System.currentTimeMillis();
 		monitor.beginTask(JGitText.get().compressingObjects, nonEdgeCnt);
-		searchForDeltas(monitor, list, cnt);
+		if (out != null)
+			searchWhileWriting(monitor, out, list, cnt);
+		else
+			searchForDeltas(monitor, list, cnt, reader);
 		monitor.endTask();
-		stats.deltaSearchNonEdgeObjects = nonEdgeCnt;
-		stats.timeCompressing = System.currentTimeMillis() - searchStart;
+		stats.deltaSearchNonEdgeObjects += nonEdgeCnt;
+		stats.timeCompressing += System.currentTimeMillis() - searchStart;
 
 		for (int i = 0; i < cnt; i++)
 			if (!list[i].isEdge() && list[i].isDeltaRepresentation())
 				stats.deltasFound++;
 	}
 
+	private DeltaCache newDeltaCache(boolean threadSafe) {
+		if (config.isDeltaCacheOffHeap()) {
+			if (slabDeltaCache == null)
+				slabDeltaCache = new SlabDeltaCache(config);
+			return slabDeltaCache;
+		}
+		if (threadSafe)
+			return new ThreadSafeDeltaCache(config);
+		return new DeltaCache(config);
+	}
+
+	private void releaseDeltaCache() {
+		if (slabDeltaCache != null) {
+			slabDeltaCache.close();
+			slabDeltaCache = null;
+		}
+	}
+
 	private int findObjectsNeedingDelta(ObjectToPack[] list, int cnt, int type) {
 		for (ObjectToPack otp : objectsLists[type]) {
 			if (otp.isReuseAsIs()) // already reusing a representation
@@ -907,8 +1140,73 @@ private int findObjectsNeedingDelta(ObjectToPack[] list, int cnt, int type) {
 		return cnt;
 	}
 
+	private void searchWhileWriting(ProgressMonitor monitor,
+			PackOutputStream out, final ObjectToPack[] list, final int cnt)
+			throws IOException {
+		// Until the search completes none of these objects may be written,
+		// nor chosen as the base of a reused delta.
+		//
+		for (int i = 0; i < cnt; i++)
+			if (!list[i].isEdge())
+				list[i].setDeltaPending(true);
+
+		final ThreadSafeProgressMonitor pm = new ThreadSafeProgressMonitor(
+				monitor);
+		final SearchMonitor searchMonitor = new SearchMonitor(pm);
+		final ObjectReader searchReader = reader.newReader();
+		final ExecutorService pool = Executors.newSingleThreadExecutor();
+		Future<Object> search = null;
+		try {
+			pm.startWorker();
+			search = pool.submit(new Callable<Object>() {
+				public Object call() throws Exception {
+					try {
+						searchForDeltas(searchMonitor, list, cnt,
+								searchReader);
+						return null;
+					} finally {
+						searchReader.release();
+						pm.endWorker();
+					}
+				}
+			});
+
+			pipelineMonitor = pm;
+			try {
+				writeFinalObjects(out);
+			} finally {
+				pipelineMonitor = null;
+			}
+
+			pm.waitForCompletion();
+			search.get();
+		} catch (InterruptedException ie) {
+			throw new IOException(
+					JGitText.get().packingCancelledDuringObjectsWriting);
+		} catch (ExecutionException failed) {
+			throw rethrow(failed.getCause());
+		} finally {
+			// Stop the search if writing failed; its result is useless.
+			// Wait for it, so no thread keeps reading once we return.
+			if (search != null && !search.isDone()) {
+				searchMonitor.cancel();
+				try {
+					search.get();
+				} catch (InterruptedException ie) {
+					Thread.currentThread().interrupt();
+				} catch (ExecutionException cancelled) {
+					// Expected, the search stopped.
+				}
+			}
+			pool.shutdown();
+		}
+
+		for (int i = 0; i < cnt; i++)
+			list[i].setDeltaPending(false);
+	}
+
 	private void searchForDeltas(final ProgressMonitor monitor,
-			final ObjectToPack[] list, final int cnt)
+			final ObjectToPack[] list, final int cnt, ObjectReader or)
 			throws MissingObjectException, IncorrectObjectTypeException,
 			LargeObjectException, IOException {
 		int threads = config.getThreads();
@@ -916,13 +1214,13 @@ private void searchForDeltas(final ProgressMonitor monitor,
 			threads = Runtime.getRuntime().availableProcessors();
 
 		if (threads <= 1 || cnt <= 2 * config.getDeltaSearchWindowSize()) {
-			DeltaCache dc = new DeltaCache(config);
-			DeltaWindow dw = new DeltaWindow(config, dc, reader);
+			DeltaCache dc = newDeltaCache(false);
+			DeltaWindow dw = new DeltaWindow(config, dc, or);
 			dw.search(monitor, list, 0, cnt);
 			return;
 		}
 
-		final DeltaCache dc = new ThreadSafeDeltaCache(config);
+		final DeltaCache dc = newDeltaCache(true);
 		final ThreadSafeProgressMonitor pm = new ThreadSafeProgressMonitor(monitor);
 
 		// Guess at the size of batch we want. Because we don't really
@@ -959,10 +1257,15 @@ private void searchForDeltas(final ProgressMonitor monitor,
 				batchSize = end - start;
 			}
 			i += batchSize;
-			myTasks.add(new DeltaTask(config, reader, dc, pm, batchSize, start, list));
+			myTasks.add(new DeltaTask(config, or, dc, pm, batchSize, start, list));
 		}
 		pm.startWorkers(myTasks.size());
+		executeTasks(pm, myTasks, threads);
+	}
 
+	private void executeTasks(final ThreadSafeProgressMonitor pm,
+			final List<? extends Callable<Object>> myTasks, int threads)
+			throws IOException {
 		final Executor executor = config.getExecutor();
 		final List<Throwable> errors = Collections
 				.synchronizedList(new ArrayList<Throwable>());
@@ -995,7 +1298,7 @@ private void searchForDeltas(final ProgressMonitor monitor,
 			// asynchronous execution.  Wrap everything and hope it
 			// can schedule these for us.
 			//
-			for (final DeltaTask task : myTasks) {
+			for (final Callable<Object> task : myTasks) {
 				executor.execute(new Runnable() {
 					public void run() {
 						try {
@@ -1020,25 +1323,28 @@ public void run() {
 		// If any task threw an error, try to report it back as
 		// though we weren't using a threaded search algorithm.
 		//
-		if (!errors.isEmpty()) {
-			Throwable err = errors.get(0);
-			if (err instanceof Error)
-				throw (Error) err;
-			if (err instanceof RuntimeException)
-				throw (RuntimeException) err;
-			if (err instanceof IOException)
-				throw (IOException) err;
+		if (!errors.isEmpty())
+			throw rethrow(errors.get(0));
+	}
 
-			IOException fail = new IOException(err.getMessage());
-			fail.initCause(err);
-			throw fail;
-		}
+	private static IOException rethrow(Throwable err) throws IOException {
+		if (err instanceof Error)
+			throw (Error) err;
+		if (err instanceof RuntimeException)
+			throw (RuntimeException) err;
+		if (err instanceof IOException)
+			throw (IOException) err;
+
+		IOException fail = new IOException(err.getMessage());
+		fail.initCause(err);
+		return fail;
 	}
 
 	private void runTasks(ExecutorService pool, ThreadSafeProgressMonitor pm,
-			List<DeltaTask> tasks, List<Throwable> errors) throws IOException {
+			List<? extends Callable<Object>> tasks, List<Throwable> errors)
+			throws IOException {
 		List<Future<?>> futures = new ArrayList<Future<?>>(tasks.size());
-		for (DeltaTask task : tasks)
+		for (Callable<Object> task : tasks)
 			futures.add(pool.submit(task));
 
 		try {
@@ -1065,6 +1371,102 @@ private void writeObjects(PackOutputStream out) throws IOException {
 		writeObjects(out, objectsLists[Constants.OBJ_BLOB]);
 	}
 
+	private void writePipelinedObjects(ProgressMonitor compressMonitor,
+			PackOutputStream out) throws IOException {
+		searchForDeltas(compressMonitor, out);
+
+		// Whatever was not written while searching follows in the usual
+		// order. Delta bases among them are still written first.
+		//
+		for (int type : WRITE_ORDER) {
+			List<ObjectToPack> rest = new ArrayList<ObjectToPack>();
+			for (ObjectToPack otp : objectsLists[type])
+				if (!otp.isWritten())
+					rest.add(otp);
+			writeObjects(out, rest);
+		}
+	}
+
+	private void writeFinalObjects(PackOutputStream out) throws IOException {
+		for (int type : WRITE_ORDER) {
+			List<ObjectToPack> ready = new ArrayList<ObjectToPack>();
+			for (ObjectToPack otp : objectsLists[type])
+				if (isFinal(otp))
+					ready.add(otp);
+			writeObjects(out, ready);
+		}
+	}
+
+	/**
+	 * Check if an object can be written while deltas are searched.
+	 * <p>
+	 * An object whose delta search is pending may become a delta itself, so
+	 * it cannot be written yet, and neither can a reused delta based on it,
+	 * as in-pack bases must precede their deltas.
+	 */
+	private static boolean isFinal(ObjectToPack otp) {
+		for (int hops = 0; otp != null; otp = otp.getDeltaBase()) {
+			if (otp.isDeltaPending() || MAX_FINAL_CHAIN < ++hops)
+				return false;
+			if (otp.isWritten())
+				return true;
+		}
+		return true;
+	}
+
+	private void writeCompactObjects(PackOutputStream out) throws IOException {
+		// Expand one slice of the list at a time, and select representations
+		// and search for deltas only within that slice before writing it.
+		//
+		int batchSize = (int) Math.min(Integer.MAX_VALUE,
+				config.getObjectListMemoryLimit() / OBJECT_TO_PACK_SIZE / 2);
+		batchSize = Math.max(batchSize, 2 * config.getDeltaSearchWindowSize());
+		batchSize = Math.max(batchSize, 1);
+
+		writeCompactObjects(out, compactLists[Constants.OBJ_COMMIT], batchSize);
+		writeCompactObjects(out, compactLists[Constants.OBJ_TAG], batchSize);
+		writeCompactObjects(out, compactLists[Constants.OBJ_TREE], batchSize);
+		writeCompactObjects(out, compactLists[Constants.OBJ_BLOB], batchSize);
+	}
+
+	private void writeCompactObjects(PackOutputStream out,
+			CompactObjectList src, int batchSize) throws IOException {
+		final List<ObjectToPack> list = objectsLists[src.getType()];
+		for (int start = 0; start < src.size(); start += batchSize) {
+			int end = Math.min(start + batchSize, src.size());
+			RevWalk rw = new RevWalk(reader);
+			for (int pos = start; pos < end; pos++) {
+				RevObject obj = rw.lookupAny(src.getObjectId(pos), src.getType());
+				ObjectToPack otp = newObjectToPack(obj);
+				otp.setPathHash(src.getPathHash(pos));
+				list.add(otp);
+				objectsMap.add(otp);
+			}
+
+			if (reuseSupport != null
+					&& (reuseDeltas || config.isReuseObjects()))
+				searchForReuse(NullProgressMonitor.INSTANCE);
+			if (config.isDeltaCompress())
+				searchForDeltas(NullProgressMonitor.INSTANCE, null);
+			writeObjects(out, list);
+
+			for (ObjectToPack otp : list)
+				src.setWritten(src.find(otp), otp);
+			list.clear();
+			objectsMap.clear();
+		}
+	}
+
+	private ObjectToPack findWrittenCompact(int type, AnyObjectId id) {
+		if (compactLists == null)
+			return null;
+		CompactObjectList src = compactLists[type];
+		int pos = src.find(id);
+		if (pos < 0 || !src.isWritten(pos))
+			return null;
+		return src.get(pos);
+	}
+
 	private void writeObjects(PackOutputStream out, List<ObjectToPack> list)
 			throws IOException {
 		if (list.isEmpty())
@@ -1081,12 +1483,14 @@ private void writeObjects(PackOutputStream out, List<ObjectToPack> list)
 		}
 
 		typeStats.bytes += out.length() - beginOffset;
-		typeStats.cntObjects = list.size();
+		typeStats.cntObjects += list.size();
 	}
 
 	void writeObject(PackOutputStream out, ObjectToPack otp) throws IOException {
 		if (!otp.isWritten())
 			writeObjectImpl(out, otp);
+		if (pipelineMonitor != null)
+			pipelineMonitor.pollForUpdates();
 	}
 
 	private void writeObjectImpl(PackOutputStream out, ObjectToPack otp)
@@ -1185,6 +1589,7 @@ private void writeDeltaObjectDeflate(PackOutputStream out,
 		DeltaCache.Ref ref = otp.popCachedDelta();
 		if (ref != null) {
 			byte[] zbuf = ref.get();
+			ref.release();
 			if (zbuf != null) {
 				out.writeHeader(otp, otp.getCachedSize());
 				out.write(zbuf);
@@ -1258,6 +1663,19 @@ private void findObjectsToPack(final ProgressMonitor countingMonitor,
 		stats.interestingObjects = Collections.unmodifiableSet(new HashSet<ObjectId>(want));
 		stats.uninterestingObjects = Collections.unmodifiableSet(new HashSet<ObjectId>(have));
 
+		// Bitmaps and cached packs describe complete histories and trees,
+		// they cannot be used if some of the objects are left out.
+		boolean partial = shallowCommits != null || 0 <= filterBlobLimit
+				|| ignoreMissingBlobs;
+		if (shallowCommits != null)
+			walker.setShallowCommits(shallowCommits);
+		if (!partial
+				&& findObjectsUsingBitmaps(countingMonitor, walker, want, have)) {
+			countingMonitor.endTask();
+			stats.timeCounting = System.currentTimeMillis() - countingStart;
+			return;
+		}
+
 		List<ObjectId> all = new ArrayList<ObjectId>(want.size() + have.size());
 		all.addAll(want);
 		all.addAll(have);
@@ -1276,7 +1694,7 @@ private void findObjectsToPack(final ProgressMonitor countingMonitor,
 		int haveEst = have.size();
 		if (have.isEmpty()) {
 			walker.sort(RevSort.COMMIT_TIME_DESC);
-			if (useCachedPacks && reuseSupport != null) {
+			if (useCachedPacks && reuseSupport != null && !partial) {
 				Set<ObjectId> need = new HashSet<ObjectId>(want);
 				List<CachedPack> shortCircuit = new LinkedList<CachedPack>();
 
@@ -1357,14 +1775,19 @@ private void findObjectsToPack(final ProgressMonitor countingMonitor,
 			}
 		}
 
-		for (RevObject obj : wantObjs)
+		Set<RevObject> wantBlobs = new HashSet<RevObject>();
+		for (RevObject obj : wantObjs) {
 			walker.markStart(obj);
+			if (obj.getType() == Constants.OBJ_BLOB)
+				wantBlobs.add(obj);
+		}
 		for (RevObject obj : haveObjs)
 			walker.markUninteresting(obj);
 
 		final int maxBases = config.getDeltaSearchWindowSize();
 		Set<RevTree> baseTrees = new HashSet<RevTree>();
 		BlockList<RevCommit> commits = new BlockList<RevCommit>();
+		boolean sawUninteresting = false;
 		RevCommit c;
 		while ((c = walker.next()) != null) {
 			if (c.has(inCachedPack)) {
@@ -1382,6 +1805,7 @@ private void findObjectsToPack(final ProgressMonitor countingMonitor,
 			}
 
 			if (c.has(RevFlag.UNINTERESTING)) {
+				sawUninteresting = true;
 				if (baseTrees.size() <= maxBases)
 					baseTrees.add(c.getTree());
 				continue;
@@ -1391,9 +1815,19 @@ private void findObjectsToPack(final ProgressMonitor countingMonitor,
 			countingMonitor.update(1);
 		}
 
+		// A request without uninteresting objects or cached packs (such
+		// as a clone) needs no delta base search and has no edges, so its
+		// trees can be counted in parallel and its object list compacted.
+		//
+		boolean noEdges = !sawUninteresting && haveObjs.isEmpty()
+				&& cachedPacks.isEmpty();
+		canCompact = noEdges;
+
+		List<RevTree> treeRoots = new ArrayList<RevTree>(commits.size());
 		int commitCnt = 0;
 		boolean putTagTargets = false;
 		for (RevCommit cmit : commits) {
+			treeRoots.add(cmit.getTree());
 			if (!cmit.has(added)) {
 				cmit.add(added);
 				addObject(cmit, 0);
@@ -1425,12 +1859,23 @@ private void findObjectsToPack(final ProgressMonitor countingMonitor,
 		}
 		commits = null;
 
+		if (noEdges && canCountInParallel()) {
+			countInParallel(countingMonitor, walker, wantObjs, wantBlobs,
+					treeRoots);
+			countingMonitor.endTask();
+			stats.timeCounting = System.currentTimeMillis() - countingStart;
+			return;
+		}
+
 		BaseSearch bases = new BaseSearch(countingMonitor, baseTrees, //
 				objectsMap, edgeObjects, reader);
 		RevObject o;
 		while ((o = walker.nextObject()) != null) {
 			if (o.has(RevFlag.UNINTERESTING))
 				continue;
+			if (o.getType() == Constants.OBJ_BLOB && !wantBlobs.contains(o)
+					&& omitBlob(o))
+				continue;
 
 			int pathHash = walker.getPathHashCode();
 			byte[] pathBuf = walker.getPathBuffer();
@@ -1447,6 +1892,108 @@ private void findObjectsToPack(final ProgressMonitor countingMonitor,
 		stats.timeCounting = System.currentTimeMillis() - countingStart;
 	}
 
+	private boolean canCountInParallel() {
+		// The table of the parallel walk cannot be compacted, a limited
+		// object list has to be built by the serial walk.
+		return config.isParallelCounting() && countingThreads() > 1
+				&& config.getObjectListMemoryLimit() <= 0;
+	}
+
+	private int countingThreads() {
+		int threads = config.getThreads();
+		if (threads == 0)
+			threads = Runtime.getRuntime().availableProcessors();
+		return threads;
+	}
+
+	private void countInParallel(ProgressMonitor countingMonitor,
+			ObjectWalk walker, List<RevObject> wantObjs,
+			Set<RevObject> wantBlobs, List<RevTree> trees) throws IOException {
+		// Roots are listed in the same order ObjectWalk would visit
+		// them: the annotated tags and non-commit objects wanted by
+		// the caller, then the tree of each commit as it was output.
+		//
+		List<RevObject> roots = new ArrayList<RevObject>();
+		for (RevObject o : wantObjs) {
+			while (o instanceof RevTag) {
+				roots.add(o);
+				o = ((RevTag) o).getObject();
+			}
+			if (!(o instanceof RevCommit))
+				roots.add(o);
+		}
+		roots.addAll(trees);
+
+		int threads = Math.min(countingThreads(), roots.size());
+		if (threads == 0)
+			return;
+
+		final ThreadSafeProgressMonitor pm = new ThreadSafeProgressMonitor(
+				countingMonitor);
+		final CountingTask.Block block = new CountingTask.Block(roots);
+		final List<CountingTask> myTasks = new ArrayList<CountingTask>(threads);
+		for (int i = 0; i < threads; i++)
+			myTasks.add(new CountingTask(block, reader, pm));
+		pm.startWorkers(myTasks.size());
+		executeTasks(pm, myTasks, threads);
+
+		// Entries are released as they are added, so the table and the
+		// object lists are not both held in full.
+		final CountingTask.Entry[] found = block.sortedObjects();
+		for (int i = 0; i < found.length; i++) {
+			CountingTask.Entry e = found[i];
+			found[i] = null;
+			RevObject o = walker.lookupAny(e, e.type);
+			if (e.type == Constants.OBJ_BLOB && !wantBlobs.contains(o)
+					&& omitBlob(o))
+				continue;
+			addObject(o, e.getPathHash());
+		}
+	}
+
+	private boolean omitBlob(RevObject blob) throws IOException {
+		if (ignoreMissingBlobs && !reader.has(blob))
+			return true;
+		if (filterBlobLimit < 0)
+			return false;
+		return filterBlobLimit == 0
+				|| filterBlobLimit <= reader.getObjectSize(blob,
+						Constants.OBJ_BLOB);
+	}
+
+	private boolean findObjectsUsingBitmaps(ProgressMonitor countingMonitor,
+			ObjectWalk walker, Collection<? extends ObjectId> want,
+			Collection<? extends ObjectId> have) throws IOException {
+		if (!config.isUseBitmaps() || reuseSupport == null)
+			return false;
+
+		// A cached pack can be sent with even less effort than the bitmaps.
+		if (useCachedPacks && !reuseSupport.getCachedPacks().isEmpty())
+			return false;
+
+		if (!(reuseSupport instanceof BitmapIndexProvider))
+			return false;
+
+		BitmapIndex bitmaps = ((BitmapIndexProvider) reuseSupport)
+				.getBitmapIndex();
+		if (bitmaps == null)
+			return false;
+
+		IntList pathHashCodes = new IntList();
+		List<RevObject> objs = bitmaps.findObjectsToPack(countingMonitor,
+				walker, want, have, ignoreMissingUninteresting, pathHashCodes);
+		if (objs == null)
+			return false;
+
+		// Without haves, such as for a clone, the objects have no edges and
+		// the list can be compacted to stay within the memory limit.
+		canCompact = have.isEmpty();
+
+		for (int i = 0; i < objs.size(); i++)
+			addObject(objs.get(i), pathHashCodes.get(i));
+		return true;
+	}
+
 	private static void pruneEdgesFromObjectList(List<ObjectToPack> list) {
 		final int size = list.size();
 		int src = 0;
@@ -1511,14 +2058,39 @@ public void addObject(final RevObject object)
 	}
 
 	private void addObject(final RevObject object, final int pathHashCode) {
-		final ObjectToPack otp;
-		if (reuseSupport != null)
-			otp = reuseSupport.newObjectToPack(object);
-		else
-			otp = new ObjectToPack(object);
+		if (compactLists != null) {
+			compactLists[object.getType()].add(object, pathHashCode);
+			return;
+		}
+
+		final ObjectToPack otp = newObjectToPack(object);
 		otp.setPathHash(pathHashCode);
 		objectsLists[object.getType()].add(otp);
 		objectsMap.add(otp);
+
+		if (canCompact) {
+			long limit = config.getObjectListMemoryLimit();
+			if (0 < limit && limit / OBJECT_TO_PACK_SIZE < objectsMap.size())
+				compactObjectLists();
+		}
+	}
+
+	private ObjectToPack newObjectToPack(RevObject object) {
+		if (reuseSupport != null)
+			return reuseSupport.newObjectToPack(object);
+		return new ObjectToPack(object);
+	}
+
+	private void compactObjectLists() {
+		compactLists = new CompactObjectList[objectsLists.length];
+		for (int type = Constants.OBJ_COMMIT; type <= Constants.OBJ_TAG; type++) {
+			CompactObjectList dst = new CompactObjectList(type);
+			for (ObjectToPack otp : objectsLists[type])
+				dst.add(otp, otp.getPathHash());
+			compactLists[type] = dst;
+			objectsLists[type] = new BlockList<ObjectToPack>();
+		}
+		objectsMap.clear();
 	}
 
 	/**
@@ -1555,7 +2127,9 @@ public void select(ObjectToPack otp, StoredObjectRepresentation next) {
 		if (nFmt == PACK_DELTA && reuseDeltas && reuseDeltaFor(otp)) {
 			ObjectId baseId = next.getDeltaBase();
 			ObjectToPack ptr = objectsMap.get(baseId);
-			if (ptr != null && !ptr.isEdge()) {
+			if (ptr == null)
+				ptr = findWrittenCompact(otp.getType(), baseId);
+			if (ptr != null && !ptr.isEdge() && !ptr.isDeltaPending()) {
 				otp.setDeltaBase(ptr);
 				otp.setReuseAsIs();
 			} else if (thin && ptr != null && ptr.isEdge()) {
@@ -1600,6 +2174,41 @@ private boolean reuseDeltaFor(ObjectToPack otp) {
 		}
 	}
 
+	/** Monitor of a delta search that can be stopped by the writer. */
+	private static final class SearchMonitor implements ProgressMonitor {
+		private final ProgressMonitor pm;
+
+		private volatile boolean cancelled;
+
+		SearchMonitor(ProgressMonitor pm) {
+			this.pm = pm;
+		}
+
+		void cancel() {
+			cancelled = true;
+		}
+
+		public void start(int totalTasks) {
+			pm.start(totalTasks);
+		}
+
+		public void beginTask(String title, int totalWork) {
+			pm.beginTask(title, totalWork);
+		}
+
+		public void update(int completed) {
+			pm.update(completed);
+		}
+
+		public void endTask() {
+			pm.endTask();
+		}
+
+		public boolean isCancelled() {
+			return cancelled || pm.isCancelled();
+		}
+	}
+
 	/** Summary of how PackWriter created the pack. */
 	public static class Statistics {
 		/** Statistics about a single class of object. */
@@ -0,0 +1,273 @@
+/*
+ * Copyright (C) 2011, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.eclipse.jgit.storage.pack;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Delta cache storing compressed deltas outside of the Java heap.
+ * <p>
+ * Direct memory is allocated in slabs, and each delta is placed in a chunk
+ * of the smallest power of two size that holds it. Released chunks go to a
+ * free list per size and are reused before a slab is carved further. The
+ * cache is charged for whole chunks, and never allocates more slabs than
+ * {@link PackConfig#getDeltaCacheSize()} allows. Slabs of closed caches are
+ * kept in a small process wide pool for the next writer, as direct memory
+ * is expensive to allocate and is only freed by the garbage collector.
+ */
+class SlabDeltaCache extends ThreadSafeDeltaCache {
+	private static final int MAX_SLAB_SIZE = 1 << 20;
+
+	private static final int MIN_CHUNK_BITS = 4;
+
+	private static final int MAX_POOLED_SLABS = 64;
+
+	private static final List<ByteBuffer> pool = new ArrayList<ByteBuffer>();
+
+	private final int slabSize;
+
+	private final long maxSlabs;
+
+	private final List<ByteBuffer> slabs;
+
+	/** Free chunk addresses, indexed by the log2 of the chunk size. */
+	private final long[][] freeChunks;
+
+	private final int[] freeCount;
+
+	private int tailPos;
+
+	private long inUse;
+
+	private boolean closed;
+
+	SlabDeltaCache(PackConfig pc) {
+		super(pc);
+		long size = pc.getDeltaCacheSize();
+		if (0 < size) {
+			slabSize = (int) Long.highestOneBit(Math.min(size, MAX_SLAB_SIZE));
+			maxSlabs = size / slabSize;
+		} else {
+			slabSize = MAX_SLAB_SIZE;
+			maxSlabs = Long.MAX_VALUE;
+		}
+		slabs = new ArrayList<ByteBuffer>();
+		freeChunks = new long[Integer.numberOfTrailingZeros(slabSize) + 1][];
+		freeCount = new int[freeChunks.length];
+		tailPos = slabSize;
+	}
+
+	@Override
+	Ref cache(byte[] data, int actLen, int reservedSize) {
+		int bits = chunkBits(actLen);
+		long addr = -1;
+		if (bits < freeChunks.length) {
+			synchronized (this) {
+				addr = closed ? -1 : allocate(bits);
+				if (0 <= addr) {
+					ByteBuffer slab = slabs.get(slabIndex(addr));
+					slab.position(slabOffset(addr));
+					slab.put(data, 0, actLen);
+					inUse += 1 << bits;
+				}
+			}
+		}
+		if (addr < 0) {
+			credit(reservedSize);
+			return null;
+		}
+
+		// Charge the cache for the chunk, rather than the inflated
+		// delta size reserved by canCache().
+		//
+		credit(reservedSize - (1 << bits));
+		return new SlabRef(addr, actLen, bits);
+	}
+
+	/** @return bytes of direct memory held by this cache. */
+	synchronized long getAllocatedBytes() {
+		return (long) slabs.size() * slabSize;
+	}
+
+	/** @return bytes of the allocated memory occupied by deltas. */
+	synchronized long getUsedBytes() {
+		return inUse;
+	}
+
+	/** Discard all deltas and return the slabs to the shared pool. */
+	synchronized void close() {
+		if (closed)
+			return;
+		closed = true;
+		for (ByteBuffer slab : slabs)
+			releaseSlab(slab);
+		slabs.clear();
+		for (int i = 0; i < freeCount.length; i++)
+			freeCount[i] = 0;
+		inUse = 0;
+	}
+
+	private long allocate(int bits) {
+		if (0 < freeCount[bits])
+			return freeChunks[bits][--freeCount[bits]];
+
+		int chunk = 1 << bits;
+		if (slabSize - tailPos < chunk) {
+			if (maxSlabs <= slabs.size())
+				return -1;
+			ByteBuffer slab;
+			try {
+				slab = acquireSlab(slabSize);
+			} catch (OutOfMemoryError noDirectMemory) {
+				return -1;
+			}
+
+			// Keep the unused end of the old slab as smaller chunks.
+			while (slabSize - tailPos >= 1 << MIN_CHUNK_BITS) {
+				int b = 31 - Integer.numberOfLeadingZeros(slabSize - tailPos);
+				free(address(slabs.size() - 1, tailPos), b);
+				tailPos += 1 << b;
+			}
+			slabs.add(slab);
+			tailPos = 0;
+		}
+
+		long addr = address(slabs.size() - 1, tailPos);
+		tailPos += chunk;
+		return addr;
+	}
+
+	private void free(long addr, int bits) {
+		long[] list = freeChunks[bits];
+		int n = freeCount[bits];
+		if (list == null) {
+			list = new long[16];
+			freeChunks[bits] = list;
+		} else if (n == list.length) {
+			long[] nlist = new long[n * 2];
+			System.arraycopy(list, 0, nlist, 0, n);
+			list = nlist;
+			freeChunks[bits] = list;
+		}
+		list[n] = addr;
+		freeCount[bits] = n + 1;
+	}
+
+	private static int chunkBits(int length) {
+		if (length <= 1 << MIN_CHUNK_BITS)
+			return MIN_CHUNK_BITS;
+		return 32 - Integer.numberOfLeadingZeros(length - 1);
+	}
+
+	private static long address(int slab, int offset) {
+		return ((long) slab << 32) | offset;
+	}
+
+	private static int slabIndex(long addr) {
+		return (int) (addr >>> 32);
+	}
+
+	private static int slabOffset(long addr) {
+		return (int) addr;
+	}
+
+	private static ByteBuffer acquireSlab(int size) {
+		synchronized (pool) {
+			for (int i = pool.size() - 1; 0 <= i; i--) {
+				if (pool.get(i).capacity() == size)
+					return pool.remove(i);
+			}
+		}
+		return ByteBuffer.allocateDirect(size);
+	}
+
+	private static void releaseSlab(ByteBuffer slab) {
+		synchronized (pool) {
+			if (pool.size() < MAX_POOLED_SLABS)
+				pool.add(slab);
+		}
+	}
+
+	private class SlabRef implements Ref {
+		private final long addr;
+
+		private final int length;
+
+		private final int bits;
+
+		private boolean released;
+
+		SlabRef(long addr, int length, int bits) {
+			this.addr = addr;
+			this.length = length;
+			this.bits = bits;
+		}
+
+		public byte[] get() {
+			synchronized (SlabDeltaCache.this) {
+				if (released || closed)
+					return null;
+				byte[] data = new byte[length];
+				ByteBuffer slab = slabs.get(slabIndex(addr));
+				slab.position(slabOffset(addr));
+				slab.get(data, 0, length);
+				return data;
+			}
+		}
+
+		public void release() {
+			synchronized (SlabDeltaCache.this) {
+				if (released || closed)
+					return;
+				released = true;
+				free(addr, bits);
+				inUse -= 1 << bits;
+			}
+			credit(1 << bits);
+		}
+	}
+}
@@ -53,6 +53,7 @@
 import java.text.MessageFormat;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Set;
 
 import org.eclipse.jgit.JGitText;
@@ -120,10 +121,17 @@ abstract class BasePackConnection extends BaseConnection {
 	/** Extra objects the remote has, but which aren't offered as refs. */
 	protected final Set<ObjectId> additionalHaves = new HashSet<ObjectId>();
 
+	/** Ref name prefixes to list if the remote speaks protocol version 2. */
+	private final List<String> refPrefixes;
+
+	/** True if the remote answered using protocol version 2. */
+	private boolean protocolV2;
+
 	BasePackConnection(final PackTransport packTransport) {
 		transport = (Transport) packTransport;
 		local = transport.local;
 		uri = transport.uri;
+		refPrefixes = transport.getRefPrefixes();
 	}
 
 	/**
@@ -207,6 +215,14 @@ private void readAdvertisedRefsImpl() throws IOException {
 				throw new RemoteRepositoryException(uri, line.substring(4));
 			}
 
+			if (avail.isEmpty() && line.equals("version 2")) {
+				// Only capabilities were sent, we have to ask for refs.
+				protocolV2 = true;
+				readCapabilitiesV2();
+				lsRefsV2(avail);
+				break;
+			}
+
 			if (avail.isEmpty()) {
 				final int nul = line.indexOf('\0');
 				if (nul >= 0) {
@@ -250,6 +266,91 @@ private void readAdvertisedRefsImpl() throws IOException {
 		available(avail);
 	}
 
+	private void readCapabilitiesV2() throws IOException {
+		for (;;) {
+			String line = pckIn.readString();
+			if (line == PacketLineIn.END)
+				break;
+			remoteCapablities.add(line);
+
+			// Keys with values, e.g. "fetch=shallow", are known by key and
+			// by each key=value pair.
+			final int eq = line.indexOf('=');
+			if (eq > 0) {
+				final String key = line.substring(0, eq);
+				remoteCapablities.add(key);
+				for (String v : line.substring(eq + 1).split(" "))
+					remoteCapablities.add(key + "=" + v);
+			}
+		}
+	}
+
+	private void lsRefsV2(final LinkedHashMap<String, Ref> avail)
+			throws IOException {
+		if (!isCapableOf(UploadPack.COMMAND_LS_REFS))
+			throw new PackProtocolException(uri, MessageFormat.format(
+					JGitText.get().expectedGot, UploadPack.COMMAND_LS_REFS,
+					remoteCapablities));
+
+		beginCommandV2();
+		pckOut.writeString("command=" + UploadPack.COMMAND_LS_REFS + "\n");
+		pckOut.writeDelim();
+		pckOut.writeString("peel\n");
+		for (String prefix : refPrefixes)
+			pckOut.writeString("ref-prefix " + prefix + "\n");
+		pckOut.end();
+
+		for (;;) {
+			String line = pckIn.readString();
+			if (line == PacketLineIn.END)
+				break;
+			if (line.startsWith("ERR "))
+				throw new RemoteRepositoryException(uri, line.substring(4));
+
+			// <id> SP <name> (SP <attribute>)*
+			String[] parts = line.split(" ");
+			if (parts.length < 2 || !ObjectId.isId(parts[0]))
+				throw new PackProtocolException(uri, MessageFormat.format(
+						JGitText.get().expectedGot, "<id> <name>", line));
+
+			final String name = parts[1];
+			final ObjectId id = ObjectId.fromString(parts[0]);
+			ObjectId peeled = null;
+			for (int i = 2; i < parts.length; i++) {
+				if (parts[i].startsWith("peeled:"))
+					peeled = ObjectId.fromString(parts[i].substring(7));
+			}
+
+			final Ref ref;
+			if (peeled != null)
+				ref = new ObjectIdRef.PeeledTag(Ref.Storage.NETWORK, name,
+						id, peeled);
+			else
+				ref = new ObjectIdRef.PeeledNonTag(Ref.Storage.NETWORK, name,
+						id);
+			if (avail.put(name, ref) != null)
+				throw duplicateAdvertisement(name);
+		}
+	}
+
+	/**
+	 * Prepare the streams to send a protocol version 2 command.
+	 * <p>
+	 * Bi-directional connections keep using the same pipe. Stateless RPC
+	 * connections must override this to start a new request.
+	 *
+	 * @throws IOException
+	 *             the request could not be started.
+	 */
+	protected void beginCommandV2() throws IOException {
+		// Commands follow each other on the same pipe.
+	}
+
+	/** @return true if the remote is speaking protocol version 2. */
+	protected boolean isProtocolV2() {
+		return protocolV2;
+	}
+
 	/**
 	 * Create an exception to indicate problems finding a remote repository. The
 	 * caller is expected to throw the returned exception.
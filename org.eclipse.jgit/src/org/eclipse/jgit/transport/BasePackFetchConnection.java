@@ -51,10 +51,12 @@
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.Set;
 
 import org.eclipse.jgit.JGitText;
 import org.eclipse.jgit.errors.PackProtocolException;
+import org.eclipse.jgit.errors.RemoteRepositoryException;
 import org.eclipse.jgit.errors.TransportException;
 import org.eclipse.jgit.lib.AnyObjectId;
 import org.eclipse.jgit.lib.Config;
@@ -75,6 +77,7 @@
 import org.eclipse.jgit.revwalk.filter.RevFilter;
 import org.eclipse.jgit.storage.file.PackLock;
 import org.eclipse.jgit.transport.PacketLineIn.AckNackResult;
+import org.eclipse.jgit.transport.TransferConfig.NegotiationAlgorithm;
 import org.eclipse.jgit.util.TemporaryBuffer;
 
 /**
@@ -136,6 +139,10 @@ public abstract class BasePackFetchConnection extends BasePackConnection
 
 	static final String OPTION_SHALLOW = "shallow";
 
+	static final String OPTION_DEEPEN_SINCE = "deepen-since";
+
+	static final String OPTION_FILTER = "filter";
+
 	static final String OPTION_NO_PROGRESS = "no-progress";
 
 	static final String OPTION_NO_DONE = "no-done";
@@ -173,6 +180,24 @@ static enum MultiAck {
 
 	private boolean noDone;
 
+	/** Number of commits to fetch from each want; 0 for complete history. */
+	private final int depth;
+
+	/** Oldest commit time to fetch, in seconds; 0 for complete history. */
+	private final int deepenSince;
+
+	/** Commits the remote told us to record as shallow. */
+	private final Set<ObjectId> shallowCommits = new HashSet<ObjectId>();
+
+	/** Shallow commits whose parents the remote is sending. */
+	private final Set<ObjectId> unshallowCommits = new HashSet<ObjectId>();
+
+	/** Objects the remote should leave out of the pack. */
+	private final FilterSpec filterSpec;
+
+	/** Selects the commits offered as have lines. */
+	private final FetchNegotiator negotiator;
+
 	private String lockMessage;
 
 	private PackLock packLock;
@@ -193,8 +218,19 @@ public BasePackFetchConnection(final PackTransport packTransport) {
 
 		final FetchConfig cfg = local.getConfig().get(FetchConfig.KEY);
 		includeTags = transport.getTagOpt() != TagOpt.NO_TAGS;
-		thinPack = transport.isFetchThin();
+		filterSpec = transport.getFilterSpec();
+
+		// A thin pack may be based on blobs an earlier filtered fetch
+		// left out, which could not be resolved here.
+		thinPack = transport.isFetchThin() && filterSpec.isNoOp();
 		allowOfsDelta = cfg.allowOfsDelta;
+		depth = transport.getDepth();
+		if (transport.getDeepenSince() != null)
+			deepenSince = (int) (transport.getDeepenSince().getTime() / 1000L);
+		else
+			deepenSince = 0;
+
+		negotiator = newNegotiator(transport.getNegotiationAlgorithm());
 
 		walk = new RevWalk(local);
 		reachableCommits = new RevCommitList<RevCommit>();
@@ -208,6 +244,16 @@ public BasePackFetchConnection(final PackTransport packTransport) {
 		walk.carry(ADVERTISED);
 	}
 
+	private static FetchNegotiator newNegotiator(NegotiationAlgorithm algorithm) {
+		switch (algorithm) {
+		case SKIPPING:
+			return new SkippingNegotiator();
+		case CONSECUTIVE:
+		default:
+			return new ConsecutiveNegotiator();
+		}
+	}
+
 	private static class FetchConfig {
 		static final SectionParser<FetchConfig> KEY = new SectionParser<FetchConfig>() {
 			public FetchConfig parse(final Config cfg) {
@@ -268,13 +314,19 @@ protected void doFetch(final ProgressMonitor monitor,
 			markRefsAdvertised();
 			markReachable(have, maxTimeWanted(want));
 
-			if (statelessRPC) {
+			if (statelessRPC || isProtocolV2()) {
 				state = new TemporaryBuffer.Heap(Integer.MAX_VALUE);
 				pckState = new PacketLineOut(state);
 			}
 
-			if (sendWants(want)) {
-				negotiate(monitor);
+			if (isProtocolV2() ? sendWantsV2(want) : sendWants(want)) {
+				if (isProtocolV2())
+					negotiateV2(monitor);
+				else {
+					if (isDeepen() && !statelessRPC)
+						readShallowUpdates();
+					negotiate(monitor);
+				}
 
 				walk.dispose();
 				reachableCommits = null;
@@ -282,6 +334,7 @@ protected void doFetch(final ProgressMonitor monitor,
 				pckState = null;
 
 				receivePack(monitor);
+				updateShallowCommits();
 			}
 		} catch (CancelledException ce) {
 			close();
@@ -377,7 +430,8 @@ private boolean sendWants(final Collection<Ref> want) throws IOException {
 		boolean first = true;
 		for (final Ref r : want) {
 			try {
-				if (walk.parseAny(r.getObjectId()).has(REACHABLE)) {
+				if (!isDeepen()
+						&& walk.parseAny(r.getObjectId()).has(REACHABLE)) {
 					// We already have this object. Asking for it is
 					// not a very good idea.
 					//
@@ -400,12 +454,109 @@ private boolean sendWants(final Collection<Ref> want) throws IOException {
 		}
 		if (first)
 			return false;
+		sendShallow(p);
+		sendFilter(p);
 		p.end();
 		outNeedsEnd = false;
 		return true;
 	}
 
-	private String enableCapabilities() throws TransportException {
+	private boolean isDeepen() {
+		return depth != 0 || deepenSince != 0;
+	}
+
+	private void sendShallow(final PacketLineOut p) throws IOException {
+		for (ObjectId id : local.getShallowCommits())
+			p.writeString("shallow " + id.name() + "\n");
+		if (depth != 0)
+			p.writeString("deepen " + depth + "\n");
+		if (deepenSince != 0)
+			p.writeString(OPTION_DEEPEN_SINCE + " " + deepenSince + "\n");
+	}
+
+	private void sendFilter(final PacketLineOut p) throws IOException {
+		if (!filterSpec.isNoOp())
+			p.writeString(OPTION_FILTER + " " + filterSpec.filterLine() + "\n");
+	}
+
+	private void readShallowUpdates() throws IOException {
+		for (;;) {
+			String line = pckIn.readString();
+			if (line == PacketLineIn.END || line == PacketLineIn.DELIM)
+				break;
+			if (line.startsWith("ERR "))
+				throw new RemoteRepositoryException(uri, line.substring(4));
+			if (line.startsWith("shallow ") && line.length() == 48) {
+				ObjectId id = ObjectId.fromString(line.substring(8));
+				shallowCommits.add(id);
+				unshallowCommits.remove(id);
+			} else if (line.startsWith("unshallow ") && line.length() == 50) {
+				ObjectId id = ObjectId.fromString(line.substring(10));
+				unshallowCommits.add(id);
+				shallowCommits.remove(id);
+			} else
+				throw new PackProtocolException(uri, MessageFormat.format(
+						JGitText.get().expectedGot, "shallow", line));
+		}
+	}
+
+	private void updateShallowCommits() throws IOException {
+		if (shallowCommits.isEmpty() && unshallowCommits.isEmpty())
+			return;
+		Set<ObjectId> s = new HashSet<ObjectId>(local.getShallowCommits());
+		s.addAll(shallowCommits);
+		s.removeAll(unshallowCommits);
+		local.setShallowCommits(s);
+	}
+
+	private boolean sendWantsV2(final Collection<Ref> want)
+			throws IOException {
+		// Every request repeats the command, the wants and the common
+		// objects found so far, as the server may not keep any state.
+		boolean first = true;
+		for (final Ref r : want) {
+			try {
+				if (!isDeepen()
+						&& walk.parseAny(r.getObjectId()).has(REACHABLE))
+					continue;
+			} catch (IOException err) {
+				// Its OK, we don't have it, but we want to fix that
+				// by fetching the object from the other side.
+			}
+
+			if (first) {
+				pckState.writeString("command=" + UploadPack.COMMAND_FETCH
+						+ "\n");
+				pckState.writeDelim();
+				if (thinPack)
+					pckState.writeString(OPTION_THIN_PACK + "\n");
+				if (allowOfsDelta)
+					pckState.writeString(OPTION_OFS_DELTA + "\n");
+				if (includeTags)
+					pckState.writeString(OPTION_INCLUDE_TAG + "\n");
+				first = false;
+			}
+			pckState.writeString("want " + r.getObjectId().name() + "\n");
+		}
+		if (first)
+			return false;
+		if (isDeepen() || !local.getShallowCommits().isEmpty()) {
+			if (!isCapableOf(UploadPack.COMMAND_FETCH + "=" + OPTION_SHALLOW))
+				throw new PackProtocolException(uri,
+						JGitText.get().shallowNotSupported);
+			sendShallow(pckState);
+		}
+		if (!filterSpec.isNoOp()) {
+			if (!isCapableOf(UploadPack.COMMAND_FETCH + "=" + OPTION_FILTER))
+				throw new PackProtocolException(uri,
+						JGitText.get().filterNotSupported);
+			sendFilter(pckState);
+		}
+		sideband = true;
+		return true;
+	}
+
+	private String enableCapabilities() throws IOException {
 		final StringBuilder line = new StringBuilder();
 		if (includeTags)
 			includeTags = wantCapability(line, OPTION_INCLUDE_TAG);
@@ -421,6 +572,16 @@ private String enableCapabilities() throws TransportException {
 		else
 			multiAck = MultiAck.OFF;
 
+		if (isDeepen() || !local.getShallowCommits().isEmpty()) {
+			if (!wantCapability(line, OPTION_SHALLOW)
+					|| (deepenSince != 0 && !isCapableOf(OPTION_DEEPEN_SINCE)))
+				throw new PackProtocolException(uri,
+						JGitText.get().shallowNotSupported);
+		}
+		if (!filterSpec.isNoOp() && !wantCapability(line, OPTION_FILTER))
+			throw new PackProtocolException(uri,
+					JGitText.get().filterNotSupported);
+
 		if (thinPack)
 			thinPack = wantCapability(line, OPTION_THIN_PACK);
 		if (wantCapability(line, OPTION_SIDE_BAND_64K))
@@ -454,7 +615,7 @@ private void negotiate(final ProgressMonitor monitor) throws IOException,
 
 		negotiateBegin();
 		SEND_HAVES: while (!receivedReady) {
-			final RevCommit c = walk.next();
+			final RevCommit c = negotiator.next();
 			if (c == null)
 				break SEND_HAVES;
 
@@ -485,6 +646,9 @@ private void negotiate(final ProgressMonitor monitor) throws IOException,
 				continue;
 			}
 
+			if (statelessRPC && isDeepen())
+				readShallowUpdates();
+
 			READ_RESULT: for (;;) {
 				final AckNackResult anr = pckIn.readACK(ackId);
 				switch (anr) {
@@ -553,6 +717,9 @@ private void negotiate(final ProgressMonitor monitor) throws IOException,
 			//
 			pckOut.writeString("done\n");
 			pckOut.flush();
+
+			if (statelessRPC && isDeepen())
+				readShallowUpdates();
 		}
 
 		if (!receivedAck) {
@@ -594,6 +761,84 @@ private void negotiate(final ProgressMonitor monitor) throws IOException,
 		}
 	}
 
+	private void negotiateV2(final ProgressMonitor monitor)
+			throws IOException, CancelledException {
+		int havesSinceLastAck = 0;
+		boolean receivedAck = false;
+		boolean receivedReady = false;
+
+		negotiateBegin();
+		SEND_HAVES: for (;;) {
+			state.writeTo(out, null);
+
+			int havesSent = 0;
+			RevCommit c;
+			while (havesSent < 32 && (c = negotiator.next()) != null) {
+				pckOut.writeString("have " + c.getId().name() + "\n");
+				havesSent++;
+			}
+			havesSinceLastAck += havesSent;
+
+			if (monitor.isCancelled())
+				throw new CancelledException();
+
+			if (havesSent < 32
+					|| (receivedAck && havesSinceLastAck > MAX_HAVES)) {
+				// We ran out of history to talk about, or our history is
+				// so different that the remote recognizes none of it.
+				// Either way the pack follows without acknowledgments.
+				//
+				pckOut.writeString("done\n");
+				pckOut.end();
+				break SEND_HAVES;
+			}
+			pckOut.end();
+
+			String line = pckIn.readString();
+			if (line.startsWith("ERR "))
+				throw new RemoteRepositoryException(uri, line.substring(4));
+			if (!line.equals("acknowledgments"))
+				throw new PackProtocolException(uri, MessageFormat.format(
+						JGitText.get().expectedGot, "acknowledgments", line));
+
+			READ_RESULT: for (;;) {
+				line = pckIn.readString();
+				if (line == PacketLineIn.END)
+					break READ_RESULT;
+				else if (line == PacketLineIn.DELIM) {
+					// The remote is done with negotiation, the pack follows.
+					if (!receivedReady)
+						throw new PackProtocolException(uri, MessageFormat
+								.format(JGitText.get().expectedGot, "ready",
+										line));
+					break SEND_HAVES;
+				} else if (line.equals("NAK"))
+					continue;
+				else if (line.equals("ready"))
+					receivedReady = true;
+				else if (line.startsWith("ACK ") && line.length() == 44) {
+					ObjectId id = ObjectId.fromString(line.substring(4));
+					markCommon(walk.parseAny(id), AckNackResult.ACK_COMMON);
+					receivedAck = true;
+					havesSinceLastAck = 0;
+				} else
+					throw new PackProtocolException(uri, MessageFormat.format(
+							JGitText.get().expectedACKNAKGot, line));
+			}
+		}
+
+		String line = pckIn.readString();
+		if (line.equals("shallow-info")) {
+			readShallowUpdates();
+			line = pckIn.readString();
+		}
+		if (line.startsWith("ERR "))
+			throw new RemoteRepositoryException(uri, line.substring(4));
+		if (!line.equals("packfile"))
+			throw new PackProtocolException(uri, MessageFormat.format(
+					JGitText.get().expectedGot, "packfile", line));
+	}
+
 	private void negotiateBegin() throws IOException {
 		walk.resetRetain(REACHABLE, ADVERTISED);
 		walk.markStart(reachableCommits);
@@ -623,6 +868,7 @@ public boolean requiresCommitBody() {
 				return false;
 			}
 		});
+		negotiator.init(walk);
 	}
 
 	private void markRefsAdvertised() {
@@ -643,7 +889,10 @@ private void markAdvertised(final AnyObjectId id) {
 
 	private void markCommon(final RevObject obj, final AckNackResult anr)
 			throws IOException {
-		if (statelessRPC && anr == AckNackResult.ACK_COMMON && !obj.has(STATE)) {
+		if (obj instanceof RevCommit)
+			negotiator.ack((RevCommit) obj);
+		if (pckState != null && anr == AckNackResult.ACK_COMMON
+				&& !obj.has(STATE)) {
 			StringBuilder s;
 
 			s = new StringBuilder(6 + Constants.OBJECT_ID_STRING_LENGTH);
@@ -669,6 +918,7 @@ private void receivePack(final ProgressMonitor monitor) throws IOException {
 			parser.setAllowThin(thinPack);
 			parser.setObjectChecking(transport.isCheckFetchedObjects());
 			parser.setLockMessage(lockMessage);
+			parser.setPromisor(!filterSpec.isNoOp());
 			packLock = parser.parse(monitor);
 			ins.flush();
 		} finally {
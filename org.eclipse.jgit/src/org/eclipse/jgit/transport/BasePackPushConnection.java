@@ -262,6 +262,7 @@ private void writePack(final Map<String, RemoteRefUpdate> refUpdates,
 			writer.setThin(thinPack);
 			writer.setReuseValidatingObjects(false);
 			writer.setDeltaBaseAsOffset(capableOfsDelta);
+			writer.setShallowCommits(local.getShallowCommits());
 			writer.preparePack(monitor, newObjects, remoteObjects);
 			writer.writePack(monitor, monitor, out);
 		} finally {
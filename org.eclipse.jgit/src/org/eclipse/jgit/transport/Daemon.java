@@ -43,6 +43,8 @@
 
 package org.eclipse.jgit.transport;
 
+import java.io.Closeable;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InterruptedIOException;
@@ -52,8 +54,23 @@
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
 
 import org.eclipse.jgit.JGitText;
+import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.errors.RepositoryNotFoundException;
 import org.eclipse.jgit.lib.PersonIdent;
 import org.eclipse.jgit.lib.Repository;
@@ -63,6 +80,7 @@
 import org.eclipse.jgit.transport.resolver.ServiceNotAuthorizedException;
 import org.eclipse.jgit.transport.resolver.ServiceNotEnabledException;
 import org.eclipse.jgit.transport.resolver.UploadPackFactory;
+import org.eclipse.jgit.util.RawParseUtils;
 
 /** Basic daemon for the anonymous <code>git://</code> transport protocol. */
 public class Daemon {
@@ -83,8 +101,14 @@ public class Daemon {
 
 	private int timeout;
 
+	private Executor executor;
+
+	private ScheduledExecutorService timeoutScheduler;
+
 	private PackConfig packConfig;
 
+	private RefAdvertisementCache refAdvertisementCache;
+
 	private volatile RepositoryResolver<DaemonClient> repositoryResolver;
 
 	private volatile UploadPackFactory<DaemonClient> uploadPackFactory;
@@ -116,6 +140,7 @@ public UploadPack create(DaemonClient req, Repository db)
 				UploadPack up = new UploadPack(db);
 				up.setTimeout(getTimeout());
 				up.setPackConfig(getPackConfig());
+				up.setRefAdvertisementCache(getRefAdvertisementCache());
 				return up;
 			}
 		};
@@ -151,6 +176,10 @@ protected void execute(final DaemonClient dc,
 							ServiceNotEnabledException,
 							ServiceNotAuthorizedException {
 						UploadPack up = uploadPackFactory.create(dc, db);
+						up.setExtraParameters(dc.getExtraParameters());
+						ScheduledExecutorService timer = getTimeoutScheduler();
+						if (timer != null)
+							up.setTimeoutScheduler(timer);
 						InputStream in = dc.getInputStream();
 						OutputStream out = dc.getOutputStream();
 						up.upload(in, out, null);
@@ -166,6 +195,9 @@ protected void execute(final DaemonClient dc,
 							ServiceNotEnabledException,
 							ServiceNotAuthorizedException {
 						ReceivePack rp = receivePackFactory.create(dc, db);
+						ScheduledExecutorService timer = getTimeoutScheduler();
+						if (timer != null)
+							rp.setTimeoutScheduler(timer);
 						InputStream in = dc.getInputStream();
 						OutputStream out = dc.getOutputStream();
 						rp.receive(in, out, null);
@@ -214,6 +246,32 @@ public void setTimeout(final int seconds) {
 		timeout = seconds;
 	}
 
+	/** @return executor serving clients; null if each client gets a thread. */
+	public synchronized Executor getExecutor() {
+		return executor;
+	}
+
+	/**
+	 * Serve clients on an executor instead of a new thread per client.
+	 * <p>
+	 * With an executor the daemon accepts connections and reads their request
+	 * line on a single thread using non-blocking IO. A client is only handed
+	 * to the executor once its request is complete. A bounded executor, such
+	 * as one created by
+	 * {@link java.util.concurrent.Executors#newFixedThreadPool(int)}, limits
+	 * the number of threads serving clients and queues further connections
+	 * until one of its threads is available. The timeouts of all clients are
+	 * run on a single timer thread owned by the daemon.
+	 * <p>
+	 * The executor must be set before the daemon is started.
+	 *
+	 * @param exec
+	 *            the executor; null to start a new thread for each client.
+	 */
+	public synchronized void setExecutor(Executor exec) {
+		executor = exec;
+	}
+
 	/** @return configuration controlling packing, may be null. */
 	public PackConfig getPackConfig() {
 		return packConfig;
@@ -230,6 +288,22 @@ public void setPackConfig(PackConfig pc) {
 		this.packConfig = pc;
 	}
 
+	/** @return cache of ref advertisements, null if not caching. */
+	public RefAdvertisementCache getRefAdvertisementCache() {
+		return refAdvertisementCache;
+	}
+
+	/**
+	 * Set the cache shared by all upload requests to reuse advertisements.
+	 *
+	 * @param cache
+	 *            the cache. If null every advertisement is formatted from
+	 *            the refs of the repository.
+	 */
+	public void setRefAdvertisementCache(RefAdvertisementCache cache) {
+		this.refAdvertisementCache = cache;
+	}
+
 	/**
 	 * Set the resolver used to locate a repository by name.
 	 *
@@ -279,6 +353,10 @@ public void setReceivePackFactory(ReceivePackFactory<DaemonClient> factory) {
 	public synchronized void start() throws IOException {
 		if (acceptThread != null)
 			throw new IllegalStateException(JGitText.get().daemonAlreadyRunning);
+		if (executor != null) {
+			startSelector(executor);
+			return;
+		}
 
 		final ServerSocket listenSock = new ServerSocket(
 				myAddress != null ? myAddress.getPort() : 0, BACKLOG,
@@ -325,42 +403,211 @@ public synchronized void stop() {
 		}
 	}
 
-	private void startClient(final Socket s) {
-		final DaemonClient dc = new DaemonClient(this);
-
-		final SocketAddress peer = s.getRemoteSocketAddress();
-		if (peer instanceof InetSocketAddress)
-			dc.setRemoteAddress(((InetSocketAddress) peer).getAddress());
+	private void startSelector(final Executor exec) throws IOException {
+		final ServerSocketChannel listen = ServerSocketChannel.open();
+		final Selector selector;
+		try {
+			listen.socket().bind(
+					myAddress != null ? myAddress : new InetSocketAddress(0),
+					BACKLOG);
+			listen.configureBlocking(false);
+			selector = Selector.open();
+			listen.register(selector, SelectionKey.OP_ACCEPT);
+		} catch (IOException err) {
+			close(listen);
+			throw err;
+		}
+		myAddress = (InetSocketAddress) listen.socket().getLocalSocketAddress();
+
+		final ScheduledExecutorService timer = Executors
+				.newSingleThreadScheduledExecutor(new ThreadFactory() {
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(processors, r, "Git-Daemon-Timer");
+						t.setDaemon(true);
+						return t;
+					}
+				});
+		timeoutScheduler = timer;
 
-		new Thread(processors, "Git-Daemon-Client " + peer.toString()) {
+		run = true;
+		acceptThread = new Thread(processors, "Git-Daemon-Accept") {
 			public void run() {
 				try {
-					dc.execute(s);
-				} catch (RepositoryNotFoundException e) {
-					// Ignored. Client cannot use this repository.
-				} catch (ServiceNotEnabledException e) {
-					// Ignored. Client cannot use this repository.
-				} catch (ServiceNotAuthorizedException e) {
-					// Ignored. Client cannot use this repository.
+					while (isRunning())
+						select(selector, exec);
 				} catch (IOException e) {
-					// Ignore unexpected IO exceptions from clients
-					e.printStackTrace();
+					// Stop accepting, as the blocking server socket does.
 				} finally {
+					for (SelectionKey key : selector.keys())
+						close(key.channel());
 					try {
-						s.getInputStream().close();
+						selector.close();
 					} catch (IOException e) {
 						// Ignore close exceptions
 					}
-					try {
-						s.getOutputStream().close();
-					} catch (IOException e) {
-						// Ignore close exceptions
+					// Timeouts already armed still fire after the shutdown.
+					timer.shutdown();
+					synchronized (Daemon.this) {
+						if (timeoutScheduler == timer)
+							timeoutScheduler = null;
+						acceptThread = null;
+					}
+				}
+			}
+		};
+		acceptThread.start();
+	}
+
+	private synchronized ScheduledExecutorService getTimeoutScheduler() {
+		return timeoutScheduler;
+	}
+
+	private void select(Selector selector, Executor exec) throws IOException {
+		long now = System.currentTimeMillis();
+		long wait = 0;
+		for (SelectionKey key : selector.keys()) {
+			PendingRequest r = (PendingRequest) key.attachment();
+			if (r == null || r.deadline == 0 || !key.isValid())
+				continue;
+			if (r.deadline <= now) {
+				// The client did not send its request in time.
+				key.cancel();
+				close(key.channel());
+			} else if (wait == 0 || r.deadline - now < wait)
+				wait = r.deadline - now;
+		}
+
+		selector.select(wait);
+		List<SocketChannel> ready = new ArrayList<SocketChannel>();
+		List<String> requests = new ArrayList<String>();
+		Iterator<SelectionKey> i = selector.selectedKeys().iterator();
+		while (i.hasNext()) {
+			SelectionKey key = i.next();
+			i.remove();
+			if (!key.isValid())
+				continue;
+
+			if (key.isAcceptable())
+				accept(selector, (ServerSocketChannel) key.channel());
+			else if (key.isReadable()) {
+				SocketChannel ch = (SocketChannel) key.channel();
+				try {
+					String cmd = ((PendingRequest) key.attachment()).read(ch);
+					if (cmd != null) {
+						key.cancel();
+						ready.add(ch);
+						requests.add(cmd);
 					}
+				} catch (IOException e) {
+					key.cancel();
+					close(ch);
 				}
 			}
+		}
+		if (ready.isEmpty())
+			return;
+
+		// Complete the deregistration of the cancelled keys, so the
+		// channels can be switched back to blocking mode.
+		selector.selectNow();
+		for (int n = 0; n < ready.size(); n++) {
+			SocketChannel ch = ready.get(n);
+			try {
+				ch.configureBlocking(true);
+			} catch (IOException e) {
+				close(ch);
+				continue;
+			}
+			startClient(ch.socket(), requests.get(n), exec);
+		}
+	}
+
+	private void accept(Selector selector, ServerSocketChannel listen)
+			throws IOException {
+		SocketChannel ch;
+		while ((ch = listen.accept()) != null) {
+			long deadline = 0;
+			if (0 < getTimeout())
+				deadline = System.currentTimeMillis() + getTimeout() * 1000L;
+			try {
+				ch.configureBlocking(false);
+				ch.register(selector, SelectionKey.OP_READ, new PendingRequest(
+						deadline));
+			} catch (IOException e) {
+				close(ch);
+			}
+		}
+	}
+
+	private void startClient(final Socket s) {
+		final DaemonClient dc = newClient(s);
+		new Thread(processors, "Git-Daemon-Client "
+				+ s.getRemoteSocketAddress().toString()) {
+			public void run() {
+				serve(dc, s, null);
+			}
 		}.start();
 	}
 
+	private void startClient(final Socket s, final String request,
+			final Executor exec) {
+		final DaemonClient dc = newClient(s);
+		try {
+			exec.execute(new Runnable() {
+				public void run() {
+					serve(dc, s, request);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			close(s.getChannel());
+		}
+	}
+
+	private DaemonClient newClient(final Socket s) {
+		final DaemonClient dc = new DaemonClient(this);
+		final SocketAddress peer = s.getRemoteSocketAddress();
+		if (peer instanceof InetSocketAddress)
+			dc.setRemoteAddress(((InetSocketAddress) peer).getAddress());
+		return dc;
+	}
+
+	private static void serve(DaemonClient dc, Socket s, String request) {
+		try {
+			if (request != null)
+				dc.execute(s, request);
+			else
+				dc.execute(s);
+		} catch (RepositoryNotFoundException e) {
+			// Ignored. Client cannot use this repository.
+		} catch (ServiceNotEnabledException e) {
+			// Ignored. Client cannot use this repository.
+		} catch (ServiceNotAuthorizedException e) {
+			// Ignored. Client cannot use this repository.
+		} catch (IOException e) {
+			// Ignore unexpected IO exceptions from clients
+			e.printStackTrace();
+		} finally {
+			try {
+				s.getInputStream().close();
+			} catch (IOException e) {
+				// Ignore close exceptions
+			}
+			try {
+				s.getOutputStream().close();
+			} catch (IOException e) {
+				// Ignore close exceptions
+			}
+		}
+	}
+
+	private static void close(Closeable c) {
+		try {
+			c.close();
+		} catch (IOException e) {
+			// Ignore close exceptions
+		}
+	}
+
 	synchronized DaemonService matchService(final String cmd) {
 		for (final DaemonService d : services) {
 			if (d.handles(cmd))
@@ -396,4 +643,59 @@ Repository openRepository(DaemonClient client, String name) {
 			return null;
 		}
 	}
+
+	/** Request line of a connection, read without blocking. */
+	private static class PendingRequest {
+		/** Time the request must be complete by; 0 to wait forever. */
+		final long deadline;
+
+		private final ByteBuffer header = ByteBuffer.allocate(4);
+
+		private ByteBuffer line;
+
+		PendingRequest(long deadline) {
+			this.deadline = deadline;
+		}
+
+		/**
+		 * Read available data of the request line.
+		 * <p>
+		 * Only the bytes of the request line are consumed, data the client
+		 * sends after it is left on the channel for the service.
+		 *
+		 * @param ch
+		 *            the client's channel.
+		 * @return the request line; null if it is not yet complete.
+		 * @throws IOException
+		 *             the client closed the connection or sent an invalid
+		 *             line.
+		 */
+		String read(SocketChannel ch) throws IOException {
+			if (line == null) {
+				if (ch.read(header) < 0)
+					throw new EOFException();
+				if (header.hasRemaining())
+					return null;
+
+				int len;
+				try {
+					len = RawParseUtils.parseHexInt16(header.array(), 0);
+				} catch (ArrayIndexOutOfBoundsException e) {
+					len = -1;
+				}
+				if (len < 4)
+					throw new IOException(MessageFormat.format(
+							JGitText.get().invalidPacketLineHeader,
+							RawParseUtils.decode(header.array())));
+				line = ByteBuffer.allocate(len - 4);
+			}
+
+			if (line.hasRemaining() && ch.read(line) < 0)
+				throw new EOFException();
+			if (line.hasRemaining())
+				return null;
+			return RawParseUtils.decode(Constants.CHARSET, line.array(), 0,
+					line.limit());
+		}
+	}
 }
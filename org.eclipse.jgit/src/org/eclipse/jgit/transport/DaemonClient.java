@@ -50,9 +50,14 @@
 import java.io.OutputStream;
 import java.net.InetAddress;
 import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 
 import org.eclipse.jgit.transport.resolver.ServiceNotAuthorizedException;
 import org.eclipse.jgit.transport.resolver.ServiceNotEnabledException;
+import org.eclipse.jgit.util.io.ChannelOutputStream;
 
 /** Active network client of {@link Daemon}. */
 public class DaemonClient {
@@ -64,6 +69,8 @@ public class DaemonClient {
 
 	private OutputStream rawOut;
 
+	private Collection<String> extraParameters = Collections.emptyList();
+
 	DaemonClient(final Daemon d) {
 		daemon = d;
 	}
@@ -92,20 +99,50 @@ public OutputStream getOutputStream() {
 		return rawOut;
 	}
 
+	/**
+	 * @return extra parameters the client sent after the host name of its
+	 *         request, such as {@code version=2}. Empty if there are none.
+	 */
+	public Collection<String> getExtraParameters() {
+		return extraParameters;
+	}
+
 	void execute(final Socket sock) throws IOException,
 			ServiceNotEnabledException, ServiceNotAuthorizedException {
-		rawIn = new BufferedInputStream(sock.getInputStream());
-		rawOut = new BufferedOutputStream(sock.getOutputStream());
-
+		open(sock);
 		if (0 < daemon.getTimeout())
 			sock.setSoTimeout(daemon.getTimeout() * 1000);
-		String cmd = new PacketLineIn(rawIn).readStringRaw();
+		startService(sock, new PacketLineIn(rawIn).readStringRaw());
+	}
+
+	void execute(final Socket sock, final String request) throws IOException,
+			ServiceNotEnabledException, ServiceNotAuthorizedException {
+		// The request line was already read by the daemon's selector.
+		open(sock);
+		startService(sock, request);
+	}
+
+	private void open(final Socket sock) throws IOException {
+		rawIn = new BufferedInputStream(sock.getInputStream());
+		if (sock.getChannel() != null) {
+			// Let cached pack responses be sent directly to the socket.
+			rawOut = new ChannelOutputStream(sock.getOutputStream(),
+					sock.getChannel());
+		} else
+			rawOut = new BufferedOutputStream(sock.getOutputStream());
+	}
+
+	private void startService(final Socket sock, String cmd)
+			throws IOException, ServiceNotEnabledException,
+			ServiceNotAuthorizedException {
 		final int nul = cmd.indexOf('\0');
 		if (nul >= 0) {
 			// Newer clients hide a "host" header behind this byte.
 			// Currently we don't use it for anything, so we ignore
-			// this portion of the command.
+			// this portion of the command. Extra parameters may follow
+			// the host behind a second NUL byte.
 			//
+			parseExtraParameters(cmd.substring(nul + 1));
 			cmd = cmd.substring(0, nul);
 		}
 
@@ -115,4 +152,18 @@ void execute(final Socket sock) throws IOException,
 		sock.setSoTimeout(0);
 		srv.execute(this, cmd);
 	}
+
+	private void parseExtraParameters(String hostAndParams) {
+		int nul = hostAndParams.indexOf('\0');
+		if (nul < 0 || nul + 1 >= hostAndParams.length()
+				|| hostAndParams.charAt(nul + 1) != '\0')
+			return;
+
+		List<String> params = new ArrayList<String>();
+		for (String p : hostAndParams.substring(nul + 2).split("\0")) {
+			if (p.length() > 0)
+				params.add(p);
+		}
+		extraParameters = params;
+	}
 }
@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2011, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.eclipse.jgit.transport;
+
+import java.io.IOException;
+
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+
+/**
+ * Strategy selecting the commits a fetch client offers as {@code have} lines.
+ * <p>
+ * A negotiator is used for a single fetch. The connection prepares a walk
+ * over the local history, which only produces commits the remote is not yet
+ * known to have, and asks the negotiator for the next commit to offer until
+ * the remote is ready to send the pack.
+ */
+public interface FetchNegotiator {
+	/**
+	 * Start a new negotiation.
+	 *
+	 * @param walk
+	 *            walk started from the local ref tips, sorted by commit time
+	 *            with the most recent commit first. Commits known to be
+	 *            common with the remote are filtered out.
+	 */
+	void init(RevWalk walk);
+
+	/**
+	 * Select the next commit to offer to the remote.
+	 *
+	 * @return the commit to send as {@code have} line; null if no commits
+	 *         are left to offer.
+	 * @throws IOException
+	 *             the local history could not be read.
+	 */
+	RevCommit next() throws IOException;
+
+	/**
+	 * Notify the negotiator the remote acknowledged a commit.
+	 * <p>
+	 * The connection already marks the commit and its ancestors as common,
+	 * so the walk will not produce them again.
+	 *
+	 * @param commit
+	 *            the commit the remote has.
+	 */
+	void ack(RevCommit commit);
+}
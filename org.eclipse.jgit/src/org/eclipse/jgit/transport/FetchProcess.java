@@ -109,9 +109,13 @@ void execute(final ProgressMonitor monitor, final FetchResult result)
 		fetchHeadUpdates.clear();
 		packLocks.clear();
 
+		// Objects this fetch finds missing are the ones it is about to
+		// download, they must not be fetched one by one from a promisor.
+		PromisorRemote.beginFetch();
 		try {
 			executeImp(monitor, result);
 		} finally {
+			PromisorRemote.endFetch();
 			try {
 			for (final PackLock lock : packLocks)
 				lock.unlock();
@@ -124,7 +128,7 @@ void execute(final ProgressMonitor monitor, final FetchResult result)
 	private void executeImp(final ProgressMonitor monitor,
 			final FetchResult result) throws NotSupportedException,
 			TransportException {
-		conn = transport.openFetch();
+		conn = transport.openFetch(toFetch);
 		try {
 			result.setAdvertisedRefs(transport.getURI(), conn.getRefsMap());
 			final Set<Ref> matched = new HashSet<Ref>();
@@ -147,7 +151,7 @@ else if (tagopt == TagOpt.FETCH_TAGS)
 				expandFetchTags();
 
 			final boolean includedTags;
-			if (!askFor.isEmpty() && !askForIsComplete()) {
+			if (!askFor.isEmpty() && (isDeepen() || !askForIsComplete())) {
 				fetchObjects(monitor);
 				includedTags = conn.didFetchIncludeTags();
 
@@ -245,7 +249,7 @@ private void reopenConnection() throws NotSupportedException,
 		if (conn != null)
 			return;
 
-		conn = transport.openFetch();
+		conn = transport.openFetch(toFetch);
 
 		// Since we opened a new connection we cannot be certain
 		// that the system we connected to has the same exact set
@@ -314,6 +318,11 @@ private void updateFETCH_HEAD(final FetchResult result) throws IOException {
 		}
 	}
 
+	private boolean isDeepen() {
+		return transport.getDepth() != 0
+				|| transport.getDeepenSince() != null;
+	}
+
 	private boolean askForIsComplete() throws TransportException {
 		try {
 			final ObjectWalk ow = new ObjectWalk(transport.local);
@@ -322,7 +331,10 @@ private boolean askForIsComplete() throws TransportException {
 					ow.markStart(ow.parseAny(want));
 				for (final Ref ref : transport.local.getAllRefs().values())
 					ow.markUninteresting(ow.parseAny(ref.getObjectId()));
-				ow.checkConnectivity();
+				if (transport.getFilterSpec().isNoOp())
+					ow.checkConnectivity();
+				else
+					checkFilteredConnectivity(ow);
 			} finally {
 				ow.release();
 			}
@@ -334,6 +346,23 @@ private boolean askForIsComplete() throws TransportException {
 		}
 	}
 
+	/**
+	 * Check the objects a filtered fetch has to supply.
+	 * <p>
+	 * Commits and trees must be present, and the walk fails if it cannot read
+	 * one of them. Blobs may have been filtered out by the remote, which
+	 * promises to send them when they are needed, so they are not checked.
+	 */
+	private static void checkFilteredConnectivity(ObjectWalk ow)
+			throws IOException {
+		while (ow.next() != null) {
+			// Parsing the commit is enough to know it is present.
+		}
+		while (ow.nextObject() != null) {
+			// Trees are read as the walk enters them.
+		}
+	}
+
 	private void expandWildcard(final RefSpec spec, final Set<Ref> matched)
 			throws TransportException {
 		for (final Ref src : conn.getRefs()) {
@@ -406,8 +435,12 @@ private void want(final Ref src, final RefSpec spec)
 		if (spec.getDestination() != null) {
 			try {
 				final TrackingRefUpdate tru = createUpdate(spec, newId);
-				if (newId.equals(tru.getOldObjectId()))
+				if (newId.equals(tru.getOldObjectId())) {
+					// A deeper history may still be missing below the ref.
+					if (isDeepen())
+						askFor.put(newId, src);
 					return;
+				}
 				localUpdates.add(tru);
 			} catch (IOException err) {
 				// Bad symbolic ref? That is the most likely cause.
@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2011, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.eclipse.jgit.transport;
+
+import java.text.MessageFormat;
+
+import org.eclipse.jgit.JGitText;
+
+/**
+ * Describes which objects a partial clone leaves out of a fetch.
+ * <p>
+ * Only blob filters are supported: {@code blob:none} omits all blobs, and
+ * {@code blob:limit=<n>[kmg]} omits blobs of at least {@code n} bytes. Trees
+ * and commits are always sent, as are blobs the client asked for by name.
+ */
+public final class FilterSpec {
+	/** A filter which sends every object. */
+	public static final FilterSpec NO_FILTER = new FilterSpec(-1);
+
+	/**
+	 * Parse the argument of a {@code filter} line.
+	 *
+	 * @param line
+	 *            the filter, for example {@code blob:none}.
+	 * @return the filter described by the line.
+	 * @throws IllegalArgumentException
+	 *             the filter is not supported.
+	 */
+	public static FilterSpec fromFilterLine(final String line) {
+		if (line.equals("blob:none"))
+			return withBlobLimit(0);
+		if (line.startsWith("blob:limit=")) {
+			String n = line.substring("blob:limit=".length());
+			long unit = 1;
+			if (n.endsWith("k") || n.endsWith("K"))
+				unit = 1024;
+			else if (n.endsWith("m") || n.endsWith("M"))
+				unit = 1024 * 1024;
+			else if (n.endsWith("g") || n.endsWith("G"))
+				unit = 1024 * 1024 * 1024;
+			if (unit != 1)
+				n = n.substring(0, n.length() - 1);
+			try {
+				long limit = Long.parseLong(n);
+				if (0 <= limit)
+					return withBlobLimit(limit * unit);
+			} catch (NumberFormatException notNumber) {
+				// Fall through and report the filter as invalid.
+			}
+		}
+		throw new IllegalArgumentException(MessageFormat.format(
+				JGitText.get().invalidFilter, line));
+	}
+
+	/**
+	 * @param limit
+	 *            blobs of this size or larger are omitted; 0 omits all blobs.
+	 * @return the filter.
+	 */
+	public static FilterSpec withBlobLimit(final long limit) {
+		if (limit < 0)
+			throw new IllegalArgumentException(MessageFormat.format(
+					JGitText.get().invalidFilter, Long.valueOf(limit)));
+		return new FilterSpec(limit);
+	}
+
+	private final long blobLimit;
+
+	private FilterSpec(final long blobLimit) {
+		this.blobLimit = blobLimit;
+	}
+
+	/**
+	 * @return blobs of this size or larger are omitted; 0 if all blobs are
+	 *         omitted; -1 if no blobs are omitted.
+	 */
+	public long getBlobLimit() {
+		return blobLimit;
+	}
+
+	/** @return true if this filter sends every object. */
+	public boolean isNoOp() {
+		return blobLimit < 0;
+	}
+
+	/** @return the argument of the {@code filter} line for this filter. */
+	public String filterLine() {
+		if (blobLimit == 0)
+			return "blob:none";
+		return "blob:limit=" + blobLimit;
+	}
+
+	@Override
+	public String toString() {
+		return isNoOp() ? "" : filterLine();
+	}
+}
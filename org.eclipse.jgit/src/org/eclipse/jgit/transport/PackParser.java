@@ -54,6 +54,12 @@
 import java.util.Arrays;
 import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.zip.DataFormatException;
 import java.util.zip.Inflater;
 
@@ -178,6 +184,17 @@ public static enum Source {
 	/** Message to protect the pack data from garbage collection. */
 	private String lockMessage;
 
+	private boolean promisor;
+
+	/** Number of threads resolving deltas; 0 uses one per processor. */
+	private int threads = 1;
+
+	/** Runs the delta resolution tasks, if {@link #threads} is not 1. */
+	private Executor executor;
+
+	/** First error reported by a parallel delta resolution task. */
+	private volatile Throwable resolveFailure;
+
 	/**
 	 * Initialize a pack parser.
 	 *
@@ -363,6 +380,71 @@ public void setLockMessage(String msg) {
 		lockMessage = msg;
 	}
 
+	/**
+	 * @return true if the incoming pack came from a filtered fetch, and may
+	 *         refer to objects which are not present locally.
+	 */
+	public boolean isPromisor() {
+		return promisor;
+	}
+
+	/**
+	 * Mark the incoming pack as coming from a promisor remote.
+	 * <p>
+	 * Objects the remote filtered out of the pack are promised by it, and are
+	 * fetched from it again when they are needed. Implementations which store
+	 * the pack should record that it is such a pack.
+	 *
+	 * @param promisor
+	 *            true if the remote was asked to filter objects out.
+	 */
+	public void setPromisor(boolean promisor) {
+		this.promisor = promisor;
+	}
+
+	/**
+	 * @return number of threads used to resolve deltas. 0 means one thread
+	 *         per available processor; 1 resolves on the calling thread.
+	 */
+	public int getThreads() {
+		return threads;
+	}
+
+	/**
+	 * Set the number of threads used to resolve deltas.
+	 * <p>
+	 * Delta chains rooted at different whole objects are independent of each
+	 * other, and may be resolved concurrently if the implementation supports
+	 * reading its database from more than one thread at once (see
+	 * {@link #newDatabaseReader()}). Deltas whose bases are outside of a thin
+	 * pack are always resolved on the calling thread.
+	 *
+	 * @param threads
+	 *            number of threads to use. 0 uses one thread per available
+	 *            processor. 1 (the default) disables parallel resolution.
+	 */
+	public void setThreads(int threads) {
+		this.threads = Math.max(0, threads);
+	}
+
+	/** @return the executor running delta resolution tasks; may be null. */
+	public Executor getExecutor() {
+		return executor;
+	}
+
+	/**
+	 * Set the executor that runs the delta resolution tasks.
+	 * <p>
+	 * If no executor is supplied and more than one thread is requested, a
+	 * temporary thread pool is created for the duration of the resolution.
+	 *
+	 * @param executor
+	 *            executor to run tasks on, or null to create a pool as needed.
+	 */
+	public void setExecutor(Executor executor) {
+		this.executor = executor;
+	}
+
 	/**
 	 * Get the number of objects in the stream.
 	 * <p>
@@ -519,6 +601,12 @@ public PackLock parse(ProgressMonitor receiving, ProgressMonitor resolving)
 
 	private void resolveDeltas(final ProgressMonitor progress)
 			throws IOException {
+		int n = getThreads();
+		if (n == 0)
+			n = Runtime.getRuntime().availableProcessors();
+		if (1 < n && 1 < entryCount && resolveDeltasInParallel(progress, n))
+			return;
+
 		progress.beginTask(JGitText.get().resolvingDeltas, deltaCount);
 		final int last = entryCount;
 		for (int i = 0; i < last; i++) {
@@ -606,6 +694,105 @@ private void resolveDeltas(DeltaVisit visit, final int type,
 		} while (visit != null);
 	}
 
+	private boolean resolveDeltasInParallel(final ProgressMonitor progress,
+			int n) throws IOException {
+		final int last = entryCount;
+		final AtomicInteger nextBase = new AtomicInteger();
+		final List<DeltaResolver> tasks = new ArrayList<DeltaResolver>(n);
+		try {
+			while (tasks.size() < n) {
+				DatabaseReader db = newDatabaseReader();
+				if (db == null)
+					break;
+				tasks.add(new DeltaResolver(db, progress, nextBase, last));
+			}
+		} catch (IOException err) {
+			for (DeltaResolver task : tasks)
+				task.release();
+			throw err;
+		}
+		if (tasks.isEmpty())
+			return false; // Database cannot be read concurrently.
+
+		progress.beginTask(JGitText.get().resolvingDeltas, deltaCount);
+		resolveFailure = null;
+		final CountDownLatch done = new CountDownLatch(tasks.size());
+		final List<Runnable> jobs = new ArrayList<Runnable>(tasks.size());
+		for (final DeltaResolver task : tasks) {
+			jobs.add(new Runnable() {
+				public void run() {
+					try {
+						task.run();
+					} catch (Throwable err) {
+						if (resolveFailure == null)
+							resolveFailure = err;
+					} finally {
+						task.release();
+						done.countDown();
+					}
+				}
+			});
+		}
+
+		ExecutorService pool = null;
+		Executor exec = getExecutor();
+		if (exec == null) {
+			// Caller didn't give us a way to run the tasks, spawn up a
+			// temporary thread pool and tear it down when we are done.
+			//
+			pool = Executors.newFixedThreadPool(jobs.size());
+			exec = pool;
+		}
+		try {
+			for (Runnable job : jobs) {
+				try {
+					exec.execute(job);
+				} catch (RejectedExecutionException busy) {
+					job.run();
+				}
+			}
+
+			// The tasks update this parser's state and read its database,
+			// so they must finish before the caller can be released. If
+			// we are interrupted, ask them to stop and keep waiting.
+			//
+			boolean interrupted = false;
+			for (;;) {
+				try {
+					done.await();
+					break;
+				} catch (InterruptedException e) {
+					interrupted = true;
+					if (resolveFailure == null)
+						resolveFailure = new IOException(
+								JGitText.get().downloadCancelledDuringIndexing);
+				}
+			}
+			if (interrupted)
+				Thread.currentThread().interrupt();
+		} finally {
+			if (pool != null)
+				pool.shutdown();
+		}
+
+		Throwable err = resolveFailure;
+		resolveFailure = null;
+		if (err != null) {
+			if (err instanceof Error)
+				throw (Error) err;
+			if (err instanceof RuntimeException)
+				throw (RuntimeException) err;
+			if (err instanceof IOException)
+				throw (IOException) err;
+
+			IOException fail = new IOException(err.getMessage());
+			fail.initCause(err);
+			throw fail;
+		}
+		progress.endTask();
+		return true;
+	}
+
 	/**
 	 * Read the header of the current object.
 	 * <p>
@@ -1311,6 +1498,28 @@ protected abstract ObjectTypeAndSize seekDatabase(UnresolvedDelta delta,
 	protected abstract int readDatabase(byte[] dst, int pos, int cnt)
 			throws IOException;
 
+	/**
+	 * Create an additional, independent reader over the database.
+	 * <p>
+	 * When {@link #setThreads(int)} permits parallel delta resolution, each
+	 * resolving thread obtains its own reader from this method, and uses it
+	 * instead of {@link #seekDatabase(PackedObjectInfo, ObjectTypeAndSize)},
+	 * {@link #readDatabase(byte[], int, int)} and {@link #checkCRC(int)}.
+	 * Readers are used by one thread at a time, but many readers may be in
+	 * use concurrently with each other.
+	 * <p>
+	 * The default implementation returns null, resolving deltas on the
+	 * calling thread.
+	 *
+	 * @return a new reader, or null if the database cannot be read by more
+	 *         than one thread.
+	 * @throws IOException
+	 *             the reader cannot be created.
+	 */
+	protected DatabaseReader newDatabaseReader() throws IOException {
+		return null;
+	}
+
 	/**
 	 * Check the current CRC matches the expected value.
 	 * <p>
@@ -1416,6 +1625,154 @@ public static class ObjectTypeAndSize {
 		public long size;
 	}
 
+	/**
+	 * Reads previously stored objects back from the database on behalf of one
+	 * delta resolving thread.
+	 * <p>
+	 * Each method mirrors the parser's own method of the same purpose, but
+	 * must keep its position and checksum state inside of the reader so that
+	 * several readers can be used at the same time.
+	 *
+	 * @see PackParser#newDatabaseReader()
+	 */
+	protected static abstract class DatabaseReader {
+		/** Maximum length of an object header in the pack stream. */
+		protected static final int MAX_HEADER_LENGTH = 32;
+
+		/**
+		 * Reposition the reader to re-read a previously stored object.
+		 * <p>
+		 * If the reader is computing CRC-32 checksums for object data, it
+		 * should reset its checksum and include the object header.
+		 *
+		 * @param obj
+		 *            the object position to begin reading from.
+		 * @param info
+		 *            object to populate with type and size.
+		 * @return the {@code info} object.
+		 * @throws IOException
+		 *             the database cannot reposition to this location.
+		 */
+		protected abstract ObjectTypeAndSize seek(PackedObjectInfo obj,
+				ObjectTypeAndSize info) throws IOException;
+
+		/**
+		 * Reposition the reader to re-read a previously stored delta.
+		 *
+		 * @param delta
+		 *            the delta position to begin reading from.
+		 * @param info
+		 *            object to populate with type and size.
+		 * @return the {@code info} object.
+		 * @throws IOException
+		 *             the database cannot reposition to this location.
+		 */
+		protected abstract ObjectTypeAndSize seek(UnresolvedDelta delta,
+				ObjectTypeAndSize info) throws IOException;
+
+		/**
+		 * Read from the reader's current position into the buffer.
+		 *
+		 * @param dst
+		 *            the buffer to copy read data into.
+		 * @param pos
+		 *            position within {@code dst} to start copying data into.
+		 * @param cnt
+		 *            ideal target number of bytes to read.
+		 * @return number of bytes stored; 0 or less at the end of the data.
+		 * @throws IOException
+		 *             the database cannot be accessed.
+		 */
+		protected abstract int read(byte[] dst, int pos, int cnt)
+				throws IOException;
+
+		/**
+		 * Notification of the bytes consumed while inflating an object.
+		 *
+		 * @param raw
+		 *            buffer previously filled by {@link #read(byte[], int, int)}.
+		 * @param pos
+		 *            first offset within {@code raw} that was consumed.
+		 * @param len
+		 *            number of bytes consumed.
+		 */
+		protected void onObjectData(byte[] raw, int pos, int len) {
+			// By default the data is not checked.
+		}
+
+		/**
+		 * Check the CRC of the object just read matches the expected value.
+		 *
+		 * @param oldCRC
+		 *            CRC recorded during the first scan of the object.
+		 * @return true if the CRC matches; false if it does not.
+		 */
+		protected abstract boolean checkCRC(int oldCRC);
+
+		/** Release resources held by this reader. */
+		protected void release() {
+			// By default there is nothing to release.
+		}
+
+		/**
+		 * Parse an object header previously stored in the pack stream.
+		 *
+		 * @param hdr
+		 *            buffer holding the header at offset 0. Reading
+		 *            {@link #MAX_HEADER_LENGTH} bytes is always sufficient.
+		 * @param len
+		 *            number of valid bytes in {@code hdr}.
+		 * @param info
+		 *            object to populate with type and size.
+		 * @return length of the header, in bytes.
+		 * @throws IOException
+		 *             the header is truncated or of an unknown type.
+		 */
+		protected static int parseObjectHeader(byte[] hdr, int len,
+				ObjectTypeAndSize info) throws IOException {
+			try {
+				int ptr = 0;
+				int c = hdr[ptr++] & 0xff;
+				info.type = (c >> 4) & 7;
+				long sz = c & 15;
+				int shift = 4;
+				while ((c & 0x80) != 0) {
+					c = hdr[ptr++] & 0xff;
+					sz += ((long) (c & 0x7f)) << shift;
+					shift += 7;
+				}
+				info.size = sz;
+
+				switch (info.type) {
+				case Constants.OBJ_COMMIT:
+				case Constants.OBJ_TREE:
+				case Constants.OBJ_BLOB:
+				case Constants.OBJ_TAG:
+					break;
+
+				case Constants.OBJ_OFS_DELTA:
+					c = hdr[ptr++] & 0xff;
+					while ((c & 128) != 0)
+						c = hdr[ptr++] & 0xff;
+					break;
+
+				case Constants.OBJ_REF_DELTA:
+					ptr += 20;
+					break;
+
+				default:
+					throw new IOException(MessageFormat.format(
+							JGitText.get().unknownObjectType, info.type));
+				}
+				if (len < ptr)
+					throw new EOFException(JGitText.get().packfileIsTruncated);
+				return ptr;
+			} catch (ArrayIndexOutOfBoundsException e) {
+				throw new EOFException(JGitText.get().packfileIsTruncated);
+			}
+		}
+	}
+
 	private void inflateAndSkip(final Source src, final long inflatedSize)
 			throws IOException {
 		final InputStream inf = inflate(src, inflatedSize);
@@ -1530,6 +1887,205 @@ private void addObjectAndTrack(PackedObjectInfo oe) {
 			newObjectIds.add(oe);
 	}
 
+	/** Resolves whole delta trees on behalf of one thread. */
+	private class DeltaResolver {
+		private final DatabaseReader db;
+
+		private final ProgressMonitor progress;
+
+		private final AtomicInteger nextBase;
+
+		private final int last;
+
+		private final MessageDigest md;
+
+		private final MutableObjectId idBuf;
+
+		private final byte[] readBuf;
+
+		private final byte[] skipBuf;
+
+		private Inflater inf;
+
+		DeltaResolver(DatabaseReader db, ProgressMonitor progress,
+				AtomicInteger nextBase, int last) {
+			this.db = db;
+			this.progress = progress;
+			this.nextBase = nextBase;
+			this.last = last;
+			this.md = Constants.newMessageDigest();
+			this.idBuf = new MutableObjectId();
+			this.readBuf = new byte[BUFFER_SIZE];
+			this.skipBuf = new byte[1];
+		}
+
+		void release() {
+			try {
+				db.release();
+			} finally {
+				if (inf != null) {
+					InflaterCache.release(inf);
+					inf = null;
+				}
+			}
+		}
+
+		void run() throws IOException {
+			inf = InflaterCache.get();
+			int i;
+			while ((i = nextBase.getAndIncrement()) < last) {
+				if (resolveFailure != null)
+					return;
+				resolve(entries[i]);
+			}
+		}
+
+		private void resolve(PackedObjectInfo oe) throws IOException {
+			UnresolvedDelta children;
+			synchronized (PackParser.this) {
+				children = firstChildOf(oe);
+			}
+			if (children == null)
+				return;
+
+			DeltaVisit visit = new DeltaVisit();
+			visit.nextChild = children;
+
+			ObjectTypeAndSize info = db.seek(oe, new ObjectTypeAndSize());
+			switch (info.type) {
+			case Constants.OBJ_COMMIT:
+			case Constants.OBJ_TREE:
+			case Constants.OBJ_BLOB:
+			case Constants.OBJ_TAG:
+				visit.data = inflate(info.size);
+				visit.id = oe;
+				break;
+			default:
+				throw new IOException(MessageFormat.format(
+						JGitText.get().unknownObjectType, info.type));
+			}
+
+			if (!db.checkCRC(oe.getCRC())) {
+				throw new IOException(MessageFormat.format(
+						JGitText.get().corruptionDetectedReReadingAt, oe
+								.getOffset()));
+			}
+
+			resolve(visit.next(), info.type, info);
+		}
+
+		private void resolve(DeltaVisit visit, final int type,
+				ObjectTypeAndSize info) throws IOException {
+			do {
+				if (resolveFailure != null)
+					return;
+
+				info = db.seek(visit.delta, info);
+				switch (info.type) {
+				case Constants.OBJ_OFS_DELTA:
+				case Constants.OBJ_REF_DELTA:
+					break;
+
+				default:
+					throw new IOException(MessageFormat.format(
+							JGitText.get().unknownObjectType, info.type));
+				}
+
+				visit.data = BinaryDelta.apply(visit.parent.data,
+						inflate(info.size));
+
+				if (!db.checkCRC(visit.delta.crc))
+					throw new IOException(MessageFormat.format(
+							JGitText.get().corruptionDetectedReReadingAt,
+							visit.delta.position));
+
+				md.update(Constants.encodedTypeString(type));
+				md.update((byte) ' ');
+				md.update(Constants.encodeASCII(visit.data.length));
+				md.update((byte) 0);
+				md.update(visit.data);
+				idBuf.fromRaw(md.digest(), 0);
+
+				// Everything below touches state shared with the other
+				// threads, or calls the subclass, which is not thread safe.
+				//
+				synchronized (PackParser.this) {
+					verifySafeObject(idBuf, type, visit.data);
+
+					PackedObjectInfo oe;
+					oe = newInfo(idBuf, visit.delta, visit.parent.id);
+					oe.setOffset(visit.delta.position);
+					onInflatedObjectData(oe, type, visit.data);
+					addObjectAndTrack(oe);
+					visit.id = oe;
+
+					visit.nextChild = firstChildOf(oe);
+
+					progress.update(1);
+					if (progress.isCancelled())
+						throw new IOException(
+								JGitText.get().downloadCancelledDuringIndexing);
+				}
+				visit = visit.next();
+			} while (visit != null);
+		}
+
+		private byte[] inflate(long inflatedSize) throws IOException {
+			final byte[] dst = new byte[(int) inflatedSize];
+			int n = 0;
+			int avail = 0;
+			try {
+				for (;;) {
+					int r;
+					if (n < dst.length) {
+						r = inf.inflate(dst, n, dst.length - n);
+						n += r;
+					} else {
+						// Pump the trailing checksum into the Inflater, and
+						// catch streams that inflate to more than expected.
+						r = inf.inflate(skipBuf, 0, 1);
+						if (r != 0)
+							throw wrongDecompressedLength();
+					}
+					if (inf.finished())
+						break;
+					if (r == 0) {
+						if (!inf.needsInput())
+							throw new CorruptObjectException(
+									MessageFormat.format(
+											JGitText.get().packfileCorruptionDetected,
+											JGitText.get().unknownZlibError));
+						if (0 < avail)
+							db.onObjectData(readBuf, 0, avail);
+						avail = db.read(readBuf, 0, readBuf.length);
+						if (avail <= 0)
+							throw new EOFException(
+									JGitText.get().packfileIsTruncated);
+						inf.setInput(readBuf, 0, avail);
+					}
+				}
+				if (n != dst.length)
+					throw wrongDecompressedLength();
+
+				int used = avail - inf.getRemaining();
+				if (0 < used)
+					db.onObjectData(readBuf, 0, used);
+				return dst;
+			} catch (DataFormatException dfe) {
+				throw new CorruptObjectException(MessageFormat.format(JGitText
+						.get().packfileCorruptionDetected, dfe.getMessage()));
+			} finally {
+				inf.reset();
+			}
+		}
+
+		private CorruptObjectException wrongDecompressedLength() {
+			return new CorruptObjectException(MessageFormat.format(JGitText
+					.get().packfileCorruptionDetected,
+					JGitText.get().wrongDecompressedLength));
+		}
+	}
+
 	private class InflaterStream extends InputStream {
 		private final Inflater inf;
 
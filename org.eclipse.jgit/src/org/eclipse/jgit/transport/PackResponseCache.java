@@ -0,0 +1,312 @@
+/*
+ * Copyright (C) 2011, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.eclipse.jgit.transport;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.text.MessageFormat;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.eclipse.jgit.JGitText;
+import org.eclipse.jgit.util.io.ChannelOutputStream;
+import org.eclipse.jgit.util.io.FileRegionOutput;
+
+/**
+ * Disk cache of the packs sent by {@link UploadPack}.
+ * <p>
+ * Many clients of a busy server, such as build machines starting after a
+ * merge, send the very same request within a short time. With a cache set
+ * through {@link UploadPack#setPackResponseCache(PackResponseCache)} the pack
+ * is generated once, written to a file in the cache directory while it is
+ * sent to the first client, and copied from that file for the following
+ * requests. If the connection allows it the file is transferred to the
+ * client's socket without passing through the Java heap.
+ * <p>
+ * A response is identified by the advertised refs, the objects the client
+ * wants and has, and the capabilities influencing the pack's content, so a
+ * change to any ref shown to the client misses the old entries. Entries are
+ * evicted in least recently used order once the files exceed the size limit.
+ * <p>
+ * The cache owns its directory; files already present when the cache is
+ * created are reused as entries.
+ */
+public class PackResponseCache {
+	private static final String SUFFIX = ".pack";
+
+	private final File directory;
+
+	private final long limit;
+
+	private final Map<String, Long> entries = new LinkedHashMap<String, Long>(
+			16, 0.75f, true);
+
+	private long size;
+
+	private volatile PackResponseCachePolicy policy = PackResponseCachePolicy.ALL;
+
+	/**
+	 * Create a cache.
+	 *
+	 * @param directory
+	 *            directory to store the cached packs in. It is created if it
+	 *            does not exist.
+	 * @param limit
+	 *            upper bound on the total size of the files in the cache, in
+	 *            bytes.
+	 * @throws IOException
+	 *             the directory cannot be created.
+	 */
+	public PackResponseCache(File directory, long limit) throws IOException {
+		this.directory = directory;
+		this.limit = limit;
+
+		if (!directory.isDirectory() && !directory.mkdirs())
+			throw new IOException(MessageFormat.format(
+					JGitText.get().mkDirsFailed, directory.getAbsolutePath()));
+		File[] files = directory.listFiles();
+		if (files == null)
+			files = new File[0];
+		Arrays.sort(files, new Comparator<File>() {
+			public int compare(File a, File b) {
+				long x = a.lastModified();
+				long y = b.lastModified();
+				return x < y ? -1 : (x == y ? 0 : 1);
+			}
+		});
+		for (File f : files) {
+			String name = f.getName();
+			if (name.endsWith(SUFFIX) && f.isFile())
+				add(name.substring(0, name.length() - SUFFIX.length()), f
+						.length());
+			else if (name.startsWith("incoming_"))
+				f.delete();
+		}
+		evict();
+	}
+
+	/** @return the policy deciding which responses are cached. */
+	public PackResponseCachePolicy getPolicy() {
+		return policy;
+	}
+
+	/**
+	 * Set the policy deciding which responses are cached.
+	 *
+	 * @param policy
+	 *            the policy; null to cache every response.
+	 */
+	public void setPolicy(PackResponseCachePolicy policy) {
+		this.policy = policy != null ? policy : PackResponseCachePolicy.ALL;
+	}
+
+	/** @return total size of the cached responses, in bytes. */
+	public synchronized long getSize() {
+		return size;
+	}
+
+	/** @return number of cached responses. */
+	public synchronized int getEntryCount() {
+		return entries.size();
+	}
+
+	/**
+	 * Open a cached response.
+	 *
+	 * @param key
+	 *            identity of the response.
+	 * @return stream reading the response; null if it is not cached.
+	 */
+	synchronized FileInputStream open(String key) {
+		if (entries.get(key) == null)
+			return null;
+		try {
+			return new FileInputStream(fileFor(key));
+		} catch (FileNotFoundException gone) {
+			remove(key);
+			return null;
+		}
+	}
+
+	/**
+	 * Start storing a response.
+	 *
+	 * @param key
+	 *            identity of the response.
+	 * @return stream the response should be copied to.
+	 * @throws IOException
+	 *             the temporary file cannot be created.
+	 */
+	Inserter newInserter(String key) throws IOException {
+		return new Inserter(key, File.createTempFile("incoming_", ".tmp",
+				directory));
+	}
+
+	private synchronized void commit(String key, File tmp) {
+		if (entries.containsKey(key) || limit < tmp.length()) {
+			// Another client stored the same response first.
+			tmp.delete();
+			return;
+		}
+		File dst = fileFor(key);
+		if (!tmp.renameTo(dst)) {
+			tmp.delete();
+			return;
+		}
+		add(key, dst.length());
+		evict();
+	}
+
+	private void add(String key, long len) {
+		entries.put(key, Long.valueOf(len));
+		size += len;
+	}
+
+	private void remove(String key) {
+		Long len = entries.remove(key);
+		if (len != null)
+			size -= len.longValue();
+	}
+
+	private void evict() {
+		Iterator<Map.Entry<String, Long>> i = entries.entrySet().iterator();
+		while (limit < size && i.hasNext()) {
+			Map.Entry<String, Long> e = i.next();
+			i.remove();
+			size -= e.getValue().longValue();
+			fileFor(e.getKey()).delete();
+		}
+	}
+
+	private File fileFor(String key) {
+		return new File(directory, key + SUFFIX);
+	}
+
+	/**
+	 * Stream storing a response into the cache.
+	 * <p>
+	 * Failures to write the file are not reported, the response is then just
+	 * not cached.
+	 */
+	class Inserter extends OutputStream implements FileRegionOutput {
+		private final String key;
+
+		private final File tmp;
+
+		private FileOutputStream out;
+
+		Inserter(String key, File tmp) throws IOException {
+			this.key = key;
+			this.tmp = tmp;
+			this.out = new FileOutputStream(tmp);
+		}
+
+		@Override
+		public void write(int b) {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] buf, int pos, int cnt) {
+			if (out == null)
+				return;
+			try {
+				out.write(buf, pos, cnt);
+			} catch (IOException err) {
+				abort();
+			}
+		}
+
+		public boolean isTransferToSupported() {
+			return true;
+		}
+
+		public void transferFrom(FileChannel src, long position, long length) {
+			if (out == null)
+				return;
+			try {
+				ChannelOutputStream.transfer(src, position, length, out
+						.getChannel());
+			} catch (IOException err) {
+				abort();
+			}
+		}
+
+		/** Store the response, it was completely sent to the client. */
+		void commit() {
+			if (out == null)
+				return;
+			try {
+				out.close();
+			} catch (IOException err) {
+				abort();
+				return;
+			}
+			out = null;
+			PackResponseCache.this.commit(key, tmp);
+		}
+
+		/** Discard the response, it was not completely sent. */
+		void abort() {
+			if (out != null) {
+				try {
+					out.close();
+				} catch (IOException err) {
+					// Ignore close exceptions, the file is deleted.
+				}
+				out = null;
+			}
+			tmp.delete();
+		}
+	}
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2011, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.eclipse.jgit.transport;
+
+import java.util.Collection;
+
+import org.eclipse.jgit.lib.ObjectId;
+
+/**
+ * Decides which pack responses of {@link UploadPack} are kept in a
+ * {@link PackResponseCache}.
+ * <p>
+ * The policy is consulted after the {@link PreUploadHook} allowed the pack to
+ * be sent, so it may assume the client is permitted to receive it. Only
+ * requests whose response can be shared with other clients should be
+ * cached, for example clones and fetches by build machines that all track
+ * the same branches.
+ */
+public interface PackResponseCachePolicy {
+	/** A policy caching every response that can be cached. */
+	public static final PackResponseCachePolicy ALL = new PackResponseCachePolicy() {
+		public boolean isCacheable(UploadPack up,
+				Collection<? extends ObjectId> wants,
+				Collection<? extends ObjectId> haves) {
+			return true;
+		}
+	};
+
+	/**
+	 * Decide if the pack for a request should be served from and stored in
+	 * the cache.
+	 *
+	 * @param up
+	 *            the upload pack instance handling the request.
+	 * @param wants
+	 *            the objects the client asked for.
+	 * @param haves
+	 *            the objects the client and the server have in common.
+	 * @return true to look the response up in the cache, and store it there
+	 *         if it is not yet present.
+	 */
+	public boolean isCacheable(UploadPack up,
+			Collection<? extends ObjectId> wants,
+			Collection<? extends ObjectId> haves);
+}
@@ -70,6 +70,14 @@ public class PacketLineIn {
 	/** Magic return from {@link #readString()} when a flush packet is found. */
 	public static final String END = new StringBuilder(0).toString(); 	/* must not string pool */
 
+	/**
+	 * Magic return from {@link #readString()} when a delim packet is found.
+	 * <p>
+	 * The delim packet ("0001") separates the sections of a protocol version
+	 * 2 request or response.
+	 */
+	public static final String DELIM = new String(""); 	/* must not string pool */
+
 	static enum AckNackResult {
 		/** NAK */
 		NAK,
@@ -130,14 +138,16 @@ else if (arg.equals(" ready"))
 	 * use {@link #readStringRaw()} instead.
 	 *
 	 * @return the string. {@link #END} if the string was the magic flush
-	 *         packet.
+	 *         packet, {@link #DELIM} if it was the magic delim packet.
 	 * @throws IOException
 	 *             the stream cannot be read.
 	 */
 	public String readString() throws IOException {
-		int len = readLength();
+		int len = readLengthOrDelim();
 		if (len == 0)
 			return END;
+		if (len == 1)
+			return DELIM;
 
 		len -= 4; // length header (4 bytes)
 		if (len == 0)
@@ -161,14 +171,16 @@ public String readString() throws IOException {
 	 * Unlike {@link #readString()} a trailing LF will be retained.
 	 *
 	 * @return the string. {@link #END} if the string was the magic flush
-	 *         packet.
+	 *         packet, {@link #DELIM} if it was the magic delim packet.
 	 * @throws IOException
 	 *             the stream cannot be read.
 	 */
 	public String readStringRaw() throws IOException {
-		int len = readLength();
+		int len = readLengthOrDelim();
 		if (len == 0)
 			return END;
+		if (len == 1)
+			return DELIM;
 
 		len -= 4; // length header (4 bytes)
 
@@ -183,16 +195,27 @@ public String readStringRaw() throws IOException {
 	}
 
 	int readLength() throws IOException {
+		final int len = readLengthOrDelim();
+		if (len == 1)
+			throw invalidHeader();
+		return len;
+	}
+
+	private int readLengthOrDelim() throws IOException {
 		IO.readFully(in, lineBuffer, 0, 4);
 		try {
 			final int len = RawParseUtils.parseHexInt16(lineBuffer, 0);
-			if (len != 0 && len < 4)
+			if (len != 0 && len != 1 && len < 4)
 				throw new ArrayIndexOutOfBoundsException();
 			return len;
 		} catch (ArrayIndexOutOfBoundsException err) {
-			throw new IOException(MessageFormat.format(JGitText.get().invalidPacketLineHeader,
-					"" + (char) lineBuffer[0] + (char) lineBuffer[1]
-					+ (char) lineBuffer[2] + (char) lineBuffer[3]));
+			throw invalidHeader();
 		}
 	}
+
+	private IOException invalidHeader() {
+		return new IOException(MessageFormat.format(JGitText.get().invalidPacketLineHeader,
+				"" + (char) lineBuffer[0] + (char) lineBuffer[1]
+				+ (char) lineBuffer[2] + (char) lineBuffer[3]));
+	}
 }
@@ -119,6 +119,18 @@ public void writePacket(final byte[] packet) throws IOException {
 		out.write(packet);
 	}
 
+	/**
+	 * Write data which is already framed as a sequence of packets.
+	 *
+	 * @param packets
+	 *            the encoded packets, copied to the stream unmodified.
+	 * @throws IOException
+	 *             the data could not be written.
+	 */
+	void writeEncoded(final byte[] packets) throws IOException {
+		out.write(packets);
+	}
+
 	/**
 	 * Write a packet end marker, sometimes referred to as a flush command.
 	 * <p>
@@ -139,6 +151,22 @@ public void end() throws IOException {
 			flush();
 	}
 
+	/**
+	 * Write a delim packet, separating sections of a protocol version 2
+	 * request or response.
+	 * <p>
+	 * Unlike {@link #end()} this does not flush the underlying OutputStream.
+	 *
+	 * @throws IOException
+	 *             the delim marker could not be written, the stream is
+	 *             corrupted as the marker may have been only partially
+	 *             written.
+	 */
+	public void writeDelim() throws IOException {
+		formatLength(1);
+		out.write(lenbuffer, 0, 4);
+	}
+
 	/**
 	 * Flush the underlying OutputStream.
 	 * <p>
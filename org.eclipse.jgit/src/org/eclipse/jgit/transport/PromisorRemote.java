@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2011, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.eclipse.jgit.transport;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.eclipse.jgit.JGitText;
+import org.eclipse.jgit.errors.TransportException;
+import org.eclipse.jgit.lib.ConfigConstants;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectIdRef;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+
+/**
+ * Fetches the objects a partial clone left out from the remote promising them.
+ * <p>
+ * A repository is a partial clone if {@code extensions.partialclone} names
+ * one of its remotes. Fetches from that remote ask it to filter objects out
+ * of the pack, and the remote promises to send any of them later by name.
+ * <p>
+ * While a fetch runs on a thread, objects it finds missing are the ones it is
+ * about to download. No objects are fetched from the promisor on that thread
+ * until it completes.
+ */
+public class PromisorRemote {
+	/** Number of fetches running on the current thread. */
+	private static final ThreadLocal<int[]> fetching = new ThreadLocal<int[]>() {
+		@Override
+		protected int[] initialValue() {
+			return new int[1];
+		}
+	};
+
+	static void beginFetch() {
+		fetching.get()[0]++;
+	}
+
+	static void endFetch() {
+		fetching.get()[0]--;
+	}
+
+	/**
+	 * @param repo
+	 *            the repository.
+	 * @return name of the remote promising the objects missing from the
+	 *         repository; null if the repository is not a partial clone.
+	 */
+	public static String getRemoteName(final Repository repo) {
+		return repo.getConfig().getString(
+				ConfigConstants.CONFIG_EXTENSIONS_SECTION, null,
+				ConfigConstants.CONFIG_KEY_PARTIALCLONE);
+	}
+
+	private final Repository local;
+
+	/**
+	 * Create a fetcher for promised objects.
+	 *
+	 * @param local
+	 *            the repository to fetch the objects into.
+	 */
+	public PromisorRemote(final Repository local) {
+		this.local = local;
+	}
+
+	/**
+	 * Fetch objects from the promisor remote.
+	 * <p>
+	 * All objects are fetched with a single request. Objects which are
+	 * already present, perhaps fetched meanwhile by another thread, are not
+	 * requested again.
+	 *
+	 * @param objects
+	 *            the objects to fetch.
+	 * @return true if the objects are now present; false if the repository is
+	 *         not a partial clone, or a fetch is already running on the
+	 *         current thread.
+	 * @throws IOException
+	 *             the objects could not be fetched.
+	 */
+	public synchronized boolean fetch(
+			final Collection<? extends ObjectId> objects) throws IOException {
+		final String name = getRemoteName(local);
+		if (name == null || 0 < fetching.get()[0])
+			return false;
+
+		final List<Ref> want = new ArrayList<Ref>(objects.size());
+		final ObjectReader reader = local.newObjectReader();
+		try {
+			for (ObjectId id : objects) {
+				if (!reader.has(id))
+					want.add(new ObjectIdRef.Unpeeled(Ref.Storage.NETWORK, id
+							.name(), id.copy()));
+			}
+		} finally {
+			reader.release();
+		}
+		if (want.isEmpty())
+			return true;
+
+		beginFetch();
+		try {
+			final Transport tn = Transport.open(local, name);
+			try {
+				final FetchConnection conn = tn.openFetch();
+				try {
+					conn.fetch(NullProgressMonitor.INSTANCE, want, Collections
+							.<ObjectId> emptySet());
+				} finally {
+					conn.close();
+				}
+			} finally {
+				tn.close();
+			}
+		} catch (URISyntaxException e) {
+			throw new TransportException(MessageFormat.format(
+					JGitText.get().invalidRemote, name), e);
+		} finally {
+			endFetch();
+		}
+		return true;
+	}
+}
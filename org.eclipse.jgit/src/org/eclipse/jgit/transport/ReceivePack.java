@@ -62,6 +62,7 @@
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
 import org.eclipse.jgit.JGitText;
@@ -150,6 +151,9 @@ public class ReceivePack {
 	/** Timer to manage {@link #timeout}. */
 	private InterruptTimer timer;
 
+	/** Scheduler to run {@link #timeout} on; null to start a thread. */
+	private ScheduledExecutorService timeoutScheduler;
+
 	private TimeoutInputStream timeoutIn;
 
 	private InputStream rawIn;
@@ -493,6 +497,19 @@ public void setTimeout(final int seconds) {
 		timeout = seconds;
 	}
 
+	/**
+	 * Set the scheduler to run the timeout of IO calls on.
+	 * <p>
+	 * By default each push with a timeout starts its own timer thread. A server
+	 * handling many connections can share one scheduler between them.
+	 *
+	 * @param scheduler
+	 *            the scheduler; null to start a timer thread for each push.
+	 */
+	public void setTimeoutScheduler(ScheduledExecutorService scheduler) {
+		timeoutScheduler = scheduler;
+	}
+
 	/** @return all of the command received by the current request. */
 	public List<ReceiveCommand> getAllCommands() {
 		return Collections.unmodifiableList(commands);
@@ -582,7 +599,10 @@ public void receive(final InputStream input, final OutputStream output,
 
 			if (timeout > 0) {
 				final Thread caller = Thread.currentThread();
-				timer = new InterruptTimer(caller.getName() + "-Timer");
+				if (timeoutScheduler != null)
+					timer = new InterruptTimer(timeoutScheduler);
+				else
+					timer = new InterruptTimer(caller.getName() + "-Timer");
 				timeoutIn = new TimeoutInputStream(rawIn, timer);
 				TimeoutOutputStream o = new TimeoutOutputStream(rawOut, timer);
 				timeoutIn.setTimeout(timeout * 1000);
@@ -0,0 +1,330 @@
+/*
+ * Copyright (C) 2011, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.eclipse.jgit.transport;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import org.eclipse.jgit.events.ListenerHandle;
+import org.eclipse.jgit.events.RefsChangedEvent;
+import org.eclipse.jgit.events.RefsChangedListener;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+
+/**
+ * Cache of fully encoded ref advertisements.
+ * <p>
+ * Formatting the advertisement of a repository with many refs costs more than
+ * sending it. Servers answering many connections for the same repository can
+ * share one cache between their {@link UploadPack} instances, which will then
+ * write the pre-built packet lines directly to the client instead of
+ * formatting every ref again.
+ * <p>
+ * Entries are kept per {@link Repository} instance and per set of advertised
+ * capabilities, and are dropped when the repository fires a
+ * {@link RefsChangedEvent}. The cache must therefore only be used with
+ * repositories whose ref database fires that event when it notices a change,
+ * as the file based implementation does.
+ * <p>
+ * When the cache is full, the least recently used advertisements of any
+ * repository are evicted until a new one fits. The cache listens to each
+ * repository it has seen; {@link #close()} removes these listeners.
+ */
+public class RefAdvertisementCache {
+	/** Default upper bound on the total size of the cached advertisements. */
+	public static final long DEFAULT_LIMIT = 16 * 1024 * 1024;
+
+	private final long limit;
+
+	private final Map<Repository, Slot> slots = new WeakHashMap<Repository, Slot>();
+
+	/** All entries, least recently used first. */
+	private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<Key, Entry>(
+			16, 0.75f, true);
+
+	private long size;
+
+	/** Create a cache holding at most {@link #DEFAULT_LIMIT} bytes. */
+	public RefAdvertisementCache() {
+		this(DEFAULT_LIMIT);
+	}
+
+	/**
+	 * Create a cache.
+	 *
+	 * @param limit
+	 *            upper bound on the total number of bytes of advertisement
+	 *            data retained by the cache, including the names of the
+	 *            advertised objects.
+	 */
+	public RefAdvertisementCache(long limit) {
+		this.limit = limit;
+	}
+
+	/** @return total number of bytes currently held by the cache. */
+	public synchronized long getSize() {
+		return size;
+	}
+
+	/** Discard all cached advertisements. */
+	public synchronized void clear() {
+		for (Slot s : slots.values())
+			s.keys.clear();
+		entries.clear();
+		size = 0;
+	}
+
+	/**
+	 * Discard all cached advertisements and stop listening to the ref changes
+	 * of the repositories.
+	 * <p>
+	 * A closed cache may still be used. It registers its listeners again as
+	 * repositories are accessed through it.
+	 */
+	public synchronized void close() {
+		clear();
+		for (Slot s : slots.values())
+			s.handle.remove();
+		slots.clear();
+	}
+
+	/**
+	 * Get the current generation of a repository's entries.
+	 * <p>
+	 * The generation must be obtained before the refs are read, and supplied
+	 * again to {@link #put(Repository, String, int, Entry)}, so that an
+	 * advertisement formatted from refs that changed in the meantime is not
+	 * retained.
+	 *
+	 * @param db
+	 *            the repository.
+	 * @return the generation, incremented each time the refs change.
+	 */
+	synchronized int getGeneration(Repository db) {
+		return slot(db).generation;
+	}
+
+	synchronized Entry get(Repository db, String key) {
+		Slot s = slots.get(db);
+		return s != null ? entries.get(new Key(s, key)) : null;
+	}
+
+	synchronized void put(Repository db, String key, int generation,
+			Entry entry) {
+		Slot s = slot(db);
+		if (s.generation != generation || limit < entry.getSize())
+			return;
+		remove(s, key);
+		Iterator<Map.Entry<Key, Entry>> lru = entries.entrySet().iterator();
+		while (limit < size + entry.getSize()) {
+			Map.Entry<Key, Entry> oldest = lru.next();
+			lru.remove();
+			oldest.getKey().slot.keys.remove(oldest.getKey().name);
+			size -= oldest.getValue().getSize();
+		}
+		entries.put(new Key(s, key), entry);
+		s.keys.add(key);
+		size += entry.getSize();
+	}
+
+	private void remove(Slot s, String key) {
+		if (s.keys.remove(key))
+			size -= entries.remove(new Key(s, key)).getSize();
+	}
+
+	private Slot slot(Repository db) {
+		Slot s = slots.get(db);
+		if (s == null) {
+			s = new Slot();
+			s.handle = db.getListenerList().addRefsChangedListener(s);
+			slots.put(db, s);
+		}
+		return s;
+	}
+
+	private synchronized void invalidate(Slot s) {
+		s.generation++;
+		for (String key : s.keys.toArray(new String[s.keys.size()]))
+			remove(s, key);
+	}
+
+	/**
+	 * Entries of one repository.
+	 * <p>
+	 * The slot is registered as a listener of the repository, so it must not
+	 * hold a reference back to it, or the repository could never be removed
+	 * from the weak map.
+	 */
+	private class Slot implements RefsChangedListener {
+		final Set<String> keys = new HashSet<String>();
+
+		ListenerHandle handle;
+
+		int generation;
+
+		public void onRefsChanged(RefsChangedEvent event) {
+			invalidate(this);
+		}
+	}
+
+	/** Name of an entry, unique across all repositories. */
+	private static class Key {
+		final Slot slot;
+
+		final String name;
+
+		Key(Slot slot, String name) {
+			this.slot = slot;
+			this.name = name;
+		}
+
+		@Override
+		public int hashCode() {
+			return slot.hashCode() * 31 + name.hashCode();
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (o instanceof Key) {
+				Key k = (Key) o;
+				return slot == k.slot && name.equals(k.name);
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * One encoded advertisement.
+	 * <p>
+	 * The advertised objects are kept as their raw names in one sorted array,
+	 * as a set of ObjectId would be several times larger than the encoded
+	 * advertisement itself.
+	 */
+	static class Entry {
+		private static final int ID_INTS = Constants.OBJECT_ID_LENGTH / 4;
+
+		final byte[] encoded;
+
+		final Set<ObjectId> advertised;
+
+		private final int[] ids;
+
+		Entry(byte[] encoded, Set<ObjectId> advertised) {
+			ObjectId[] sorted = advertised.toArray(new ObjectId[advertised
+					.size()]);
+			Arrays.sort(sorted);
+
+			this.encoded = encoded;
+			this.ids = new int[sorted.length * ID_INTS];
+			for (int i = 0; i < sorted.length; i++)
+				sorted[i].copyRawTo(ids, i * ID_INTS);
+			this.advertised = new AbstractSet<ObjectId>() {
+				@Override
+				public boolean contains(Object o) {
+					return o instanceof AnyObjectId
+							&& find((AnyObjectId) o) >= 0;
+				}
+
+				@Override
+				public Iterator<ObjectId> iterator() {
+					return new Iterator<ObjectId>() {
+						private int next;
+
+						public boolean hasNext() {
+							return next < ids.length;
+						}
+
+						public ObjectId next() {
+							if (!hasNext())
+								throw new NoSuchElementException();
+							ObjectId id = ObjectId.fromRaw(ids, next);
+							next += ID_INTS;
+							return id;
+						}
+
+						public void remove() {
+							throw new UnsupportedOperationException();
+						}
+					};
+				}
+
+				@Override
+				public int size() {
+					return ids.length / ID_INTS;
+				}
+			};
+		}
+
+		/** @return approximate number of bytes retained by this entry. */
+		long getSize() {
+			return encoded.length + 4L * ids.length;
+		}
+
+		private int find(AnyObjectId id) {
+			int low = 0;
+			int high = ids.length / ID_INTS;
+			while (low < high) {
+				final int mid = (low + high) >>> 1;
+				final int cmp = id.compareTo(ids, mid * ID_INTS);
+				if (cmp < 0)
+					high = mid;
+				else if (cmp == 0)
+					return mid;
+				else
+					low = mid + 1;
+			}
+			return -1;
+		}
+	}
+}
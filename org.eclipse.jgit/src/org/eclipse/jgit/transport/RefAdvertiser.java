@@ -83,6 +83,22 @@ protected void writeOne(final CharSequence line) throws IOException {
 		protected void end() throws IOException {
 			pckOut.end();
 		}
+
+		/**
+		 * Write an advertisement formatted earlier by another instance.
+		 *
+		 * @param cached
+		 *            the encoded advertisement.
+		 * @return set of ObjectIds that were advertised to the client.
+		 * @throws IOException
+		 *             the underlying output stream failed to write out the
+		 *             advertisement.
+		 */
+		Set<ObjectId> send(RefAdvertisementCache.Entry cached)
+				throws IOException {
+			pckOut.writeEncoded(cached.encoded);
+			return markSent(cached);
+		}
 	}
 
 	private final StringBuilder tmpLine = new StringBuilder(100);
@@ -179,6 +195,13 @@ public Set<ObjectId> send(Map<String, Ref> refs) throws IOException {
 		return sent;
 	}
 
+	Set<ObjectId> markSent(RefAdvertisementCache.Entry cached) {
+		if (cached.encoded.length > 0)
+			first = false;
+		sent.addAll(cached.advertised);
+		return sent;
+	}
+
 	private Iterable<Ref> getSortedRefs(Map<String, Ref> all) {
 		if (all instanceof RefMap
 				|| (all instanceof SortedMap && ((SortedMap) all).comparator() == null))
@@ -84,6 +84,10 @@ public class RemoteConfig implements Serializable {
 
 	private static final String KEY_TIMEOUT = "timeout";
 
+	private static final String KEY_PROMISOR = "promisor";
+
+	private static final String KEY_PARTIALCLONEFILTER = "partialclonefilter";
+
 	private static final boolean DEFAULT_MIRROR = false;
 
 	/** Default value for {@link #getUploadPack()} if not specified. */
@@ -138,6 +142,8 @@ public static List<RemoteConfig> getAllRemoteConfigs(final Config rc)
 
 	private int timeout;
 
+	private String partialCloneFilter;
+
 	/**
 	 * Parse a remote block from an existing configuration file.
 	 * <p>
@@ -194,6 +200,8 @@ public RemoteConfig(final Config rc, final String remoteName)
 		tagopt = TagOpt.fromOption(val);
 		mirror = rc.getBoolean(SECTION, name, KEY_MIRROR, DEFAULT_MIRROR);
 		timeout = rc.getInt(SECTION, name, KEY_TIMEOUT, 0);
+		partialCloneFilter = rc.getString(SECTION, name,
+				KEY_PARTIALCLONEFILTER);
 	}
 
 	/**
@@ -230,6 +238,14 @@ public void update(final Config rc) {
 		set(rc, KEY_TAGOPT, getTagOpt().option(), TagOpt.AUTO_FOLLOW.option());
 		set(rc, KEY_MIRROR, mirror, DEFAULT_MIRROR);
 		set(rc, KEY_TIMEOUT, timeout, 0);
+		if (partialCloneFilter != null) {
+			rc.setBoolean(SECTION, getName(), KEY_PROMISOR, true);
+			rc.setString(SECTION, getName(), KEY_PARTIALCLONEFILTER,
+					partialCloneFilter);
+		} else {
+			unset(rc, KEY_PROMISOR);
+			unset(rc, KEY_PARTIALCLONEFILTER);
+		}
 	}
 
 	private void set(final Config rc, final String key,
@@ -508,4 +524,26 @@ public int getTimeout() {
 	public void setTimeout(final int seconds) {
 		timeout = seconds;
 	}
+
+	/**
+	 * @return filter applied to every fetch from this remote, such as
+	 *         {@code blob:none}; null if complete objects are fetched.
+	 */
+	public String getPartialCloneFilter() {
+		return partialCloneFilter;
+	}
+
+	/**
+	 * Set the filter applied to every fetch from this remote.
+	 * <p>
+	 * A remote with a filter is recorded as a promisor remote: objects it
+	 * left out of a fetch are fetched from it again when they are needed.
+	 *
+	 * @param filter
+	 *            the filter, as accepted by {@link FilterSpec#fromFilterLine};
+	 *            null to fetch complete objects.
+	 */
+	public void setPartialCloneFilter(final String filter) {
+		partialCloneFilter = filter;
+	}
 }
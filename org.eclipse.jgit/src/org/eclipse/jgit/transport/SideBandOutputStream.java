@@ -45,17 +45,23 @@
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.channels.FileChannel;
 import java.text.MessageFormat;
 
 import org.eclipse.jgit.JGitText;
+import org.eclipse.jgit.util.io.FileRegionOutput;
 
 /**
  * Multiplexes data and progress messages.
  * <p>
  * This stream is buffered at packet sizes, so the caller doesn't need to wrap
  * it in yet another buffered stream.
+ * <p>
+ * If the underlying stream is a {@link FileRegionOutput}, file regions are
+ * framed into packets whose payload is transferred without passing through
+ * the Java heap.
  */
-class SideBandOutputStream extends OutputStream {
+class SideBandOutputStream extends OutputStream implements FileRegionOutput {
 	static final int CH_DATA = SideBandInputStream.CH_DATA;
 
 	static final int CH_PROGRESS = SideBandInputStream.CH_PROGRESS;
@@ -153,6 +159,27 @@ public void write(final int b) throws IOException {
 		buffer[cnt++] = (byte) b;
 	}
 
+	public boolean isTransferToSupported() {
+		return out instanceof FileRegionOutput
+				&& ((FileRegionOutput) out).isTransferToSupported();
+	}
+
+	public void transferFrom(FileChannel src, long position, long length)
+			throws IOException {
+		final FileRegionOutput dst = (FileRegionOutput) out;
+		flushBuffer();
+
+		// The buffer is empty, its header area formats each packet header.
+		while (0 < length) {
+			final int n = (int) Math.min(length, buffer.length - HDR_SIZE);
+			PacketLineOut.formatLength(buffer, HDR_SIZE + n);
+			out.write(buffer, 0, HDR_SIZE);
+			dst.transferFrom(src, position, n);
+			position += n;
+			length -= n;
+		}
+	}
+
 	private void writeBuffer() throws IOException {
 		PacketLineOut.formatLength(buffer, cnt);
 		out.write(buffer, 0, cnt);
@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2011, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.eclipse.jgit.transport;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+
+/**
+ * Offers an exponentially thinning sample of the local history.
+ * <p>
+ * Along each line of history the distance between two offered commits
+ * doubles after every commit the remote did not acknowledge. A client that
+ * is far ahead of, or has diverged from, the remote therefore reaches a
+ * common ancestor in a logarithmic number of rounds. The price is that the
+ * common commit found may be older than the most recent one, making the
+ * pack sent by the remote slightly larger.
+ * <p>
+ * The tips of the local history are always offered. Once the remote
+ * acknowledges a commit its ancestors are no longer considered.
+ */
+public class SkippingNegotiator implements FetchNegotiator {
+	/** Upper bound on the number of commits skipped at once. */
+	private static final int MAX_SKIP = 1 << 16;
+
+	private static final Entry TIP = new Entry(0, 0);
+
+	private final Map<RevCommit, Entry> pending = new HashMap<RevCommit, Entry>();
+
+	private RevWalk walk;
+
+	public void init(RevWalk w) {
+		walk = w;
+		pending.clear();
+	}
+
+	public RevCommit next() throws IOException {
+		for (;;) {
+			final RevCommit c = walk.next();
+			if (c == null)
+				return null;
+
+			Entry e = pending.remove(c);
+			if (e == null)
+				e = TIP;
+
+			final Entry n;
+			if (0 < e.remaining)
+				n = new Entry(e.remaining - 1, e.skip);
+			else {
+				int skip = e.skip == 0 ? 1 : Math.min(2 * e.skip, MAX_SKIP);
+				n = new Entry(skip, skip);
+			}
+			for (int i = 0; i < c.getParentCount(); i++) {
+				RevCommit p = c.getParent(i);
+				Entry o = pending.get(p);
+				if (o == null || n.remaining < o.remaining)
+					pending.put(p, n);
+			}
+
+			if (e.remaining == 0)
+				return c;
+		}
+	}
+
+	public void ack(RevCommit commit) {
+		// Common commits are filtered by the walk, their ancestors are not
+		// produced again and need no state.
+	}
+
+	private static class Entry {
+		/** Commits still to skip before the next one is offered. */
+		final int remaining;
+
+		/** Length of the range currently being skipped. */
+		final int skip;
+
+		Entry(int remaining, int skip) {
+			this.remaining = remaining;
+			this.skip = skip;
+		}
+	}
+}
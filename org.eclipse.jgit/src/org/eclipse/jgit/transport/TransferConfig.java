@@ -47,7 +47,8 @@
 import org.eclipse.jgit.lib.Config.SectionParser;
 
 /**
- * The standard "transfer", "fetch" and "receive" configuration parameters.
+ * The standard "transfer", "fetch", "receive" and "uploadpack" configuration
+ * parameters.
  */
 public class TransferConfig {
 	/** Key for {@link Config#get(SectionParser)}. */
@@ -57,10 +58,33 @@ public TransferConfig parse(final Config cfg) {
 		}
 	};
 
+	/** Permissible values for {@code fetch.negotiationAlgorithm}. */
+	public static enum NegotiationAlgorithm {
+		/** Offer every local commit, see {@link ConsecutiveNegotiator}. */
+		CONSECUTIVE,
+
+		/** Offer a thinning sample, see {@link SkippingNegotiator}. */
+		SKIPPING;
+	}
+
 	private final boolean fsckObjects;
 
+	private final int protocolVersion;
+
+	private final boolean allowFilter;
+
+	private final boolean allowAnySha1InWant;
+
+	private final NegotiationAlgorithm negotiationAlgorithm;
+
 	private TransferConfig(final Config rc) {
 		fsckObjects = rc.getBoolean("receive", "fsckobjects", false);
+		protocolVersion = rc.getInt("protocol", "version", 0);
+		allowFilter = rc.getBoolean("uploadpack", "allowfilter", false);
+		allowAnySha1InWant = rc.getBoolean("uploadpack",
+				"allowanysha1inwant", false);
+		negotiationAlgorithm = rc.getEnum("fetch", null,
+				"negotiationalgorithm", NegotiationAlgorithm.CONSECUTIVE);
 	}
 
 	/**
@@ -69,4 +93,36 @@ private TransferConfig(final Config rc) {
 	public boolean isFsckObjects() {
 		return fsckObjects;
 	}
+
+	/**
+	 * @return wire protocol version a client should request when fetching;
+	 *         0 for the original protocol, 2 for protocol version 2.
+	 */
+	public int getProtocolVersion() {
+		return protocolVersion;
+	}
+
+	/**
+	 * @return may clients of upload-pack ask for objects to be filtered out
+	 *         of the pack they receive?
+	 */
+	public boolean isAllowFilter() {
+		return allowFilter;
+	}
+
+	/**
+	 * @return may clients of upload-pack ask for any object, even if no
+	 *         advertised ref points at it?
+	 */
+	public boolean isAllowAnySha1InWant() {
+		return allowAnySha1InWant;
+	}
+
+	/**
+	 * @return strategy a fetch client uses to select the commits it offers
+	 *         to the remote.
+	 */
+	public NegotiationAlgorithm getNegotiationAlgorithm() {
+		return negotiationAlgorithm;
+	}
 }
@@ -59,6 +59,7 @@
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Date;
 import java.util.Enumeration;
 import java.util.HashSet;
 import java.util.LinkedList;
@@ -76,6 +77,7 @@
 import org.eclipse.jgit.lib.Ref;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.storage.pack.PackConfig;
+import org.eclipse.jgit.transport.TransferConfig.NegotiationAlgorithm;
 
 /**
  * Connects two Git repositories together and copies objects between them.
@@ -719,6 +721,24 @@ private static String findTrackingRefName(final String remoteName,
 	/** Assists with authentication the connection. */
 	private CredentialsProvider credentialsProvider;
 
+	/** Wire protocol version to request from upload-pack; 0 or 2. */
+	private int protocolVersion;
+
+	/** Ref name prefixes the next fetch connection should list. */
+	private List<String> refPrefixes = Collections.emptyList();
+
+	/** Number of commits to fetch from each ref; 0 for complete history. */
+	private int depth;
+
+	/** Oldest commit time to fetch; null for complete history. */
+	private Date deepenSince;
+
+	/** Objects the remote should leave out of fetched packs. */
+	private FilterSpec filterSpec = FilterSpec.NO_FILTER;
+
+	/** Strategy selecting the commits offered to the remote. */
+	private NegotiationAlgorithm negotiationAlgorithm;
+
 	/**
 	 * Create a new transport instance.
 	 *
@@ -735,6 +755,8 @@ protected Transport(final Repository local, final URIish uri) {
 		this.local = local;
 		this.uri = uri;
 		this.checkFetchedObjects = tc.isFsckObjects();
+		this.protocolVersion = tc.getProtocolVersion();
+		this.negotiationAlgorithm = tc.getNegotiationAlgorithm();
 		this.credentialsProvider = CredentialsProvider.getDefault();
 	}
 
@@ -917,6 +939,8 @@ public void applyConfig(final RemoteConfig cfg) {
 		fetch = cfg.getFetchRefSpecs();
 		push = cfg.getPushRefSpecs();
 		timeout = cfg.getTimeout();
+		if (cfg.getPartialCloneFilter() != null)
+			filterSpec = FilterSpec.fromFilterLine(cfg.getPartialCloneFilter());
 	}
 
 	/**
@@ -940,6 +964,119 @@ public void setDryRun(final boolean dryRun) {
 		this.dryRun = dryRun;
 	}
 
+	/**
+	 * @return wire protocol version requested when fetching; 0 for the
+	 *         original protocol, 2 for protocol version 2. Defaults to the
+	 *         <code>protocol.version</code> setting of the local repository.
+	 */
+	public int getProtocolVersion() {
+		return protocolVersion;
+	}
+
+	/**
+	 * Set the wire protocol version requested when fetching.
+	 * <p>
+	 * With protocol version 2 the remote only lists the refs matching the
+	 * fetch specifications, instead of advertising every ref it has. Servers
+	 * not supporting version 2 ignore the request and answer with the
+	 * original protocol.
+	 *
+	 * @param version
+	 *            0 for the original protocol, 2 for protocol version 2.
+	 */
+	public void setProtocolVersion(final int version) {
+		protocolVersion = version;
+	}
+
+	/**
+	 * @return number of commits fetched from the tip of each ref; 0 if the
+	 *         complete history is fetched.
+	 */
+	public int getDepth() {
+		return depth;
+	}
+
+	/**
+	 * Limit the history fetched to a number of commits from each tip.
+	 * <p>
+	 * The oldest commits fetched are recorded as shallow in the local
+	 * repository. Fetching again with a larger depth deepens the history.
+	 *
+	 * @param depth
+	 *            number of commits to fetch from each ref, at least 1; 0 to
+	 *            fetch the complete history.
+	 */
+	public void setDepth(final int depth) {
+		if (depth < 0)
+			throw new IllegalArgumentException(MessageFormat.format(
+					JGitText.get().invalidDepth, Integer.valueOf(depth)));
+		this.depth = depth;
+	}
+
+	/**
+	 * @return oldest commit time fetched; null if the complete history is
+	 *         fetched.
+	 */
+	public Date getDeepenSince() {
+		return deepenSince;
+	}
+
+	/**
+	 * Limit the history fetched to commits made after a point in time.
+	 *
+	 * @param since
+	 *            commits older than this are not fetched; null to fetch the
+	 *            complete history.
+	 */
+	public void setDeepenSince(final Date since) {
+		deepenSince = since;
+	}
+
+	/**
+	 * @return objects the remote leaves out of fetched packs; never null.
+	 */
+	public FilterSpec getFilterSpec() {
+		return filterSpec;
+	}
+
+	/**
+	 * Ask the remote to leave objects out of fetched packs.
+	 * <p>
+	 * Packs fetched with a filter are recorded as promisor packs. Objects
+	 * missing from them are fetched from the remote configured by
+	 * {@code extensions.partialclone} when they are first read.
+	 *
+	 * @param filter
+	 *            the filter; {@link FilterSpec#NO_FILTER} to fetch all
+	 *            objects.
+	 */
+	public void setFilterSpec(final FilterSpec filter) {
+		filterSpec = filter != null ? filter : FilterSpec.NO_FILTER;
+	}
+
+	/**
+	 * @return strategy used to select the commits offered to the remote
+	 *         while fetching. Defaults to the
+	 *         <code>fetch.negotiationAlgorithm</code> setting of the local
+	 *         repository.
+	 */
+	public NegotiationAlgorithm getNegotiationAlgorithm() {
+		return negotiationAlgorithm;
+	}
+
+	/**
+	 * Set the strategy used to select the commits offered to the remote.
+	 *
+	 * @param algorithm
+	 *            the strategy; {@link NegotiationAlgorithm#SKIPPING} reaches a
+	 *            common ancestor in fewer round trips when the local history
+	 *            has diverged far from the remote.
+	 */
+	public void setNegotiationAlgorithm(final NegotiationAlgorithm algorithm) {
+		negotiationAlgorithm = algorithm != null ? algorithm
+				: NegotiationAlgorithm.CONSECUTIVE;
+	}
+
 	/** @return timeout (in seconds) before aborting an IO operation. */
 	public int getTimeout() {
 		return timeout;
@@ -1155,6 +1292,61 @@ public Collection<RemoteRefUpdate> findRemoteRefUpdatesFor(
 	public abstract FetchConnection openFetch() throws NotSupportedException,
 			TransportException;
 
+	/**
+	 * Begins a new connection for fetching from the remote repository.
+	 * <p>
+	 * If the connection uses protocol version 2 only the refs which may match
+	 * one of the specifications are requested from the remote, see
+	 * {@link #setProtocolVersion(int)}. Otherwise this is the same as
+	 * {@link #openFetch()}.
+	 *
+	 * @param refSpecs
+	 *            specifications of the refs the caller is interested in.
+	 * @return a fresh connection to fetch from the remote repository.
+	 * @throws NotSupportedException
+	 *             the implementation does not support fetching.
+	 * @throws TransportException
+	 *             the remote connection could not be established.
+	 */
+	public FetchConnection openFetch(final Collection<RefSpec> refSpecs)
+			throws NotSupportedException, TransportException {
+		refPrefixes = refPrefixes(refSpecs);
+		try {
+			return openFetch();
+		} finally {
+			refPrefixes = Collections.emptyList();
+		}
+	}
+
+	private List<String> refPrefixes(final Collection<RefSpec> refSpecs) {
+		final List<String> r = new ArrayList<String>();
+		for (final RefSpec spec : refSpecs) {
+			String src = spec.getSource();
+			if (src == null)
+				continue;
+			if (spec.isWildcard())
+				src = src.substring(0, src.indexOf('*'));
+			r.add(src);
+			if (!src.startsWith(Constants.R_REFS)) {
+				r.add(Constants.R_REFS + src);
+				r.add(Constants.R_TAGS + src);
+				r.add(Constants.R_HEADS + src);
+				r.add(Constants.R_REMOTES + src);
+			}
+		}
+		if (tagopt != TagOpt.NO_TAGS)
+			r.add(Constants.R_TAGS);
+		return r;
+	}
+
+	/**
+	 * @return ref name prefixes a protocol version 2 fetch connection being
+	 *         opened should ask for; empty to list all refs.
+	 */
+	List<String> getRefPrefixes() {
+		return refPrefixes;
+	}
+
 	/**
 	 * Begins a new connection for pushing into the remote repository.
 	 *
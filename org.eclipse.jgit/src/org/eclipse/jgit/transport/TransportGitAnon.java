@@ -158,6 +158,12 @@ void service(final String name, final PacketLineOut pckOut)
 			cmd.append(uri.getPort());
 		}
 		cmd.append('\0');
+		if (getProtocolVersion() == 2 && name.equals("git-upload-pack")) {
+			// Older daemons ignore anything after the host.
+			cmd.append('\0');
+			cmd.append(UploadPack.VERSION_2_REQUEST);
+			cmd.append('\0');
+		}
 		pckOut.writeString(cmd.toString());
 		pckOut.flush();
 	}
@@ -49,6 +49,7 @@
 import static org.eclipse.jgit.util.HttpSupport.HDR_ACCEPT_ENCODING;
 import static org.eclipse.jgit.util.HttpSupport.HDR_CONTENT_ENCODING;
 import static org.eclipse.jgit.util.HttpSupport.HDR_CONTENT_TYPE;
+import static org.eclipse.jgit.util.HttpSupport.HDR_GIT_PROTOCOL;
 import static org.eclipse.jgit.util.HttpSupport.HDR_PRAGMA;
 import static org.eclipse.jgit.util.HttpSupport.HDR_USER_AGENT;
 import static org.eclipse.jgit.util.HttpSupport.METHOD_GET;
@@ -423,6 +424,10 @@ private HttpURLConnection connect(final String service)
 				if (useSmartHttp) {
 					String exp = "application/x-" + service + "-advertisement"; //$NON-NLS-1$ //$NON-NLS-2$
 					conn.setRequestProperty(HDR_ACCEPT, exp + ", */*"); //$NON-NLS-1$
+					if (getProtocolVersion() == 2
+							&& SVC_UPLOAD_PACK.equals(service))
+						conn.setRequestProperty(HDR_GIT_PROTOCOL,
+								UploadPack.VERSION_2_REQUEST);
 				} else {
 					conn.setRequestProperty(HDR_ACCEPT, "*/*"); //$NON-NLS-1$
 				}
@@ -697,12 +702,21 @@ class SmartHttpFetchConnection extends BasePackFetchConnection {
 			readAdvertisedRefs();
 		}
 
+		@Override
+		protected void beginCommandV2() {
+			final Service svc = new Service(SVC_UPLOAD_PACK, true);
+			init(svc.in, svc.out);
+			outNeedsEnd = false;
+		}
+
 		@Override
 		protected void doFetch(final ProgressMonitor monitor,
 				final Collection<Ref> want, final Set<ObjectId> have)
 				throws TransportException {
-			final Service svc = new Service(SVC_UPLOAD_PACK);
+			final Service svc = new Service(SVC_UPLOAD_PACK, isProtocolV2());
 			init(svc.in, svc.out);
+			if (isProtocolV2())
+				outNeedsEnd = false;
 			super.doFetch(monitor, want, have);
 		}
 	}
@@ -754,6 +768,8 @@ class Service {
 
 		private final String responseType;
 
+		private final boolean protocolV2;
+
 		private final HttpExecuteStream execute;
 
 		final UnionInputStream in;
@@ -763,7 +779,12 @@ class Service {
 		HttpURLConnection conn;
 
 		Service(final String serviceName) {
+			this(serviceName, false);
+		}
+
+		Service(final String serviceName, final boolean protocolV2) {
 			this.serviceName = serviceName;
+			this.protocolV2 = protocolV2;
 			this.requestType = "application/x-" + serviceName + "-request"; //$NON-NLS-1$ //$NON-NLS-2$
 			this.responseType = "application/x-" + serviceName + "-result"; //$NON-NLS-1$ //$NON-NLS-2$
 
@@ -778,6 +799,9 @@ void openStream() throws IOException {
 			conn.setDoOutput(true);
 			conn.setRequestProperty(HDR_CONTENT_TYPE, requestType);
 			conn.setRequestProperty(HDR_ACCEPT, responseType);
+			if (protocolV2)
+				conn.setRequestProperty(HDR_GIT_PROTOCOL,
+						UploadPack.VERSION_2_REQUEST);
 		}
 
 		void execute() throws IOException {
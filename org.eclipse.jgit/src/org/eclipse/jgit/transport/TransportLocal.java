@@ -234,6 +234,9 @@ class InternalLocalFetchConnection extends BasePackFetchConnection {
 				public void run() {
 					try {
 						final UploadPack rp = createUploadPack(dst);
+						if (getProtocolVersion() == 2)
+							rp.setExtraParameters(Collections
+									.singleton(UploadPack.VERSION_2_REQUEST));
 						rp.upload(out_r, in_w, null);
 					} catch (IOException err) {
 						// Client side of the pipes should report the problem.
@@ -43,16 +43,25 @@
 
 package org.eclipse.jgit.transport;
 
+import java.io.ByteArrayOutputStream;
 import java.io.EOFException;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
 import java.text.MessageFormat;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
 
 import org.eclipse.jgit.JGitText;
 import org.eclipse.jgit.errors.CorruptObjectException;
@@ -63,6 +72,8 @@
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.ProgressMonitor;
 import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefComparator;
+import org.eclipse.jgit.lib.RefDatabase;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.AsyncRevObjectQueue;
 import org.eclipse.jgit.revwalk.ObjectWalk;
@@ -77,6 +88,7 @@
 import org.eclipse.jgit.storage.pack.PackWriter;
 import org.eclipse.jgit.transport.BasePackFetchConnection.MultiAck;
 import org.eclipse.jgit.transport.RefAdvertiser.PacketLineOutRefAdvertiser;
+import org.eclipse.jgit.util.io.FileRegionOutput;
 import org.eclipse.jgit.util.io.InterruptTimer;
 import org.eclipse.jgit.util.io.TimeoutInputStream;
 import org.eclipse.jgit.util.io.TimeoutOutputStream;
@@ -103,6 +115,19 @@ public class UploadPack {
 
 	static final String OPTION_NO_DONE = BasePackFetchConnection.OPTION_NO_DONE;
 
+	static final String OPTION_SHALLOW = BasePackFetchConnection.OPTION_SHALLOW;
+
+	static final String OPTION_DEEPEN_SINCE = BasePackFetchConnection.OPTION_DEEPEN_SINCE;
+
+	static final String OPTION_FILTER = BasePackFetchConnection.OPTION_FILTER;
+
+	/** Extra parameter sent by clients requesting protocol version 2. */
+	static final String VERSION_2_REQUEST = "version=2";
+
+	static final String COMMAND_LS_REFS = "ls-refs";
+
+	static final String COMMAND_FETCH = "fetch";
+
 	/** Database we read the objects from. */
 	private final Repository db;
 
@@ -131,6 +156,9 @@ public class UploadPack {
 	/** Timer to manage {@link #timeout}. */
 	private InterruptTimer timer;
 
+	/** Scheduler to run {@link #timeout} on; null to start a thread. */
+	private ScheduledExecutorService timeoutScheduler;
+
 	private InputStream rawIn;
 
 	private OutputStream rawOut;
@@ -148,6 +176,21 @@ public class UploadPack {
 	/** Hook handling the various upload phases. */
 	private PreUploadHook preUploadHook = PreUploadHook.NULL;
 
+	/** Shared cache of encoded advertisements, null if not caching. */
+	private RefAdvertisementCache refAdvertisementCache;
+
+	/** Shared cache of generated packs, null if not caching. */
+	private PackResponseCache packResponseCache;
+
+	/** May the client ask for objects to be left out of the pack? */
+	private boolean allowFilter;
+
+	/** May the client ask for objects no advertised ref points at? */
+	private boolean allowAnySha1InWant;
+
+	/** Objects the client asked to be left out of the pack. */
+	private FilterSpec filterSpec = FilterSpec.NO_FILTER;
+
 	/** Capabilities requested by the client. */
 	private final Set<String> options = new HashSet<String>();
 
@@ -160,6 +203,27 @@ public class UploadPack {
 	/** Objects on both sides, these don't have to be sent. */
 	private final List<RevObject> commonBase = new ArrayList<RevObject>();
 
+	/** Commits the client has without their parents. */
+	private final Set<ObjectId> clientShallowCommits = new HashSet<ObjectId>();
+
+	/** Number of commits to send from each want; 0 for complete history. */
+	private int depth;
+
+	/** Oldest commit time to send, in seconds; 0 for complete history. */
+	private int deepenSince;
+
+	/** Commits the client must record as shallow after this fetch. */
+	private final List<ObjectId> shallowBoundary = new ArrayList<ObjectId>();
+
+	/** Shallow commits of the client which this fetch sends parents for. */
+	private final List<ObjectId> unshallowCommits = new ArrayList<ObjectId>();
+
+	/** Parents of {@link #unshallowCommits}, sent in addition to the wants. */
+	private final List<ObjectId> unshallowParents = new ArrayList<ObjectId>();
+
+	/** Commits the pack is cut at; empty if complete histories are sent. */
+	private final Set<ObjectId> packShallowCommits = new HashSet<ObjectId>();
+
 	/** Commit time of the oldest common commit, in seconds. */
 	private int oldestTime;
 
@@ -189,6 +253,12 @@ public class UploadPack {
 
 	private boolean noDone;
 
+	/** Is the client speaking protocol version 2? */
+	private boolean protocolV2;
+
+	/** Should {@link #processHaveLines(List, ObjectId)} ACK common objects? */
+	private boolean ackCommonV2;
+
 	private PackWriter.Statistics statistics;
 
 	private UploadPackLogger logger;
@@ -216,6 +286,10 @@ public UploadPack(final Repository copyFrom) {
 		SAVE.add(COMMON);
 		SAVE.add(SATISFIED);
 		refFilter = RefFilter.DEFAULT;
+
+		final TransferConfig tc = db.getConfig().get(TransferConfig.KEY);
+		allowFilter = tc.isAllowFilter();
+		allowAnySha1InWant = tc.isAllowAnySha1InWant();
 	}
 
 	/** @return the repository this upload is reading from. */
@@ -253,6 +327,19 @@ public void setTimeout(final int seconds) {
 		timeout = seconds;
 	}
 
+	/**
+	 * Set the scheduler to run the timeout of IO calls on.
+	 * <p>
+	 * By default each upload with a timeout starts its own timer thread. A server
+	 * handling many connections can share one scheduler between them.
+	 *
+	 * @param scheduler
+	 *            the scheduler; null to start a timer thread for each upload.
+	 */
+	public void setTimeoutScheduler(ScheduledExecutorService scheduler) {
+		timeoutScheduler = scheduler;
+	}
+
 	/**
 	 * @return true if this class expects a bi-directional pipe opened between
 	 *         the client and itself. The default is true.
@@ -294,6 +381,40 @@ public void setRefFilter(final RefFilter refFilter) {
 		this.refFilter = refFilter != null ? refFilter : RefFilter.DEFAULT;
 	}
 
+	/**
+	 * @return true if clients may ask for blobs to be left out of the pack,
+	 *         to make a partial clone.
+	 */
+	public boolean isAllowFilter() {
+		return allowFilter;
+	}
+
+	/**
+	 * @param allow
+	 *            true to advertise the {@code filter} capability, allowing
+	 *            clients to ask for blobs to be left out of the pack.
+	 */
+	public void setAllowFilter(final boolean allow) {
+		allowFilter = allow;
+	}
+
+	/**
+	 * @return true if clients may ask for any object, not only the ones
+	 *         advertised refs point at.
+	 */
+	public boolean isAllowAnySha1InWant() {
+		return allowAnySha1InWant;
+	}
+
+	/**
+	 * @param allow
+	 *            true to let clients ask for any object by name, as a partial
+	 *            clone does when it needs a blob that was left out before.
+	 */
+	public void setAllowAnySha1InWant(final boolean allow) {
+		allowAnySha1InWant = allow;
+	}
+
 	/** @return the configured upload hook. */
 	public PreUploadHook getPreUploadHook() {
 		return preUploadHook;
@@ -309,6 +430,44 @@ public void setPreUploadHook(PreUploadHook hook) {
 		preUploadHook = hook != null ? hook : PreUploadHook.NULL;
 	}
 
+	/** @return the cache of encoded advertisements; null if not caching. */
+	public RefAdvertisementCache getRefAdvertisementCache() {
+		return refAdvertisementCache;
+	}
+
+	/**
+	 * Set the cache used to reuse advertisements between connections.
+	 * <p>
+	 * The cache is only consulted if no {@link RefFilter} is installed, as
+	 * the output of a filter may differ between connections.
+	 *
+	 * @param cache
+	 *            the cache, usually shared by all instances serving the
+	 *            repository; null to format every advertisement.
+	 */
+	public void setRefAdvertisementCache(RefAdvertisementCache cache) {
+		refAdvertisementCache = cache;
+	}
+
+	/** @return the cache of generated packs; null if not caching. */
+	public PackResponseCache getPackResponseCache() {
+		return packResponseCache;
+	}
+
+	/**
+	 * Set the cache used to reuse packs between identical requests.
+	 * <p>
+	 * Requests of shallow clients are never cached. Which other requests
+	 * are cached is decided by the cache's {@link PackResponseCachePolicy}.
+	 *
+	 * @param cache
+	 *            the cache, usually shared by all instances serving the
+	 *            repository; null to generate every pack.
+	 */
+	public void setPackResponseCache(PackResponseCache cache) {
+		packResponseCache = cache;
+	}
+
 	/**
 	 * Set the configuration used by the pack generator.
 	 *
@@ -320,6 +479,26 @@ public void setPackConfig(PackConfig pc) {
 		this.packConfig = pc;
 	}
 
+	/**
+	 * Set the extra parameters the client sent along with its request.
+	 * <p>
+	 * Clients request protocol version 2 by sending {@code version=2}, e.g.
+	 * after the host name of a <code>git://</code> request or in the
+	 * <code>Git-Protocol</code> header of a HTTP request. Unknown parameters
+	 * are ignored.
+	 *
+	 * @param params
+	 *            the parameters; may be null or empty.
+	 */
+	public void setExtraParameters(Collection<String> params) {
+		protocolV2 = params != null && params.contains(VERSION_2_REQUEST);
+	}
+
+	/** @return true if the client requested protocol version 2. */
+	public boolean isProtocolV2() {
+		return protocolV2;
+	}
+
 	/**
 	 * Set the logger.
 	 *
@@ -355,7 +534,10 @@ public void upload(final InputStream input, final OutputStream output,
 
 			if (timeout > 0) {
 				final Thread caller = Thread.currentThread();
-				timer = new InterruptTimer(caller.getName() + "-Timer");
+				if (timeoutScheduler != null)
+					timer = new InterruptTimer(timeoutScheduler);
+				else
+					timer = new InterruptTimer(caller.getName() + "-Timer");
 				TimeoutInputStream i = new TimeoutInputStream(rawIn, timer);
 				TimeoutOutputStream o = new TimeoutOutputStream(rawOut, timer);
 				i.setTimeout(timeout * 1000);
@@ -391,6 +573,11 @@ public PackWriter.Statistics getPackStatistics() {
 	}
 
 	private void service() throws IOException {
+		if (protocolV2) {
+			serviceV2();
+			return;
+		}
+
 		if (biDirectionalPipe)
 			sendAdvertisedRefs(new PacketLineOutRefAdvertiser(pckOut));
 		else {
@@ -401,13 +588,95 @@ private void service() throws IOException {
 			}
 		}
 
-		boolean sendPack;
+		if (negotiateOrReport(null))
+			sendPack();
+	}
+
+	private void serviceV2() throws IOException {
+		if (biDirectionalPipe) {
+			sendAdvertisedRefs(new PacketLineOutRefAdvertiser(pckOut));
+			while (serviceCommandV2()) {
+				// Keep reading commands until the client hangs up.
+			}
+		} else
+			serviceCommandV2();
+	}
+
+	private boolean serviceCommandV2() throws IOException {
+		String line;
 		try {
+			line = pckIn.readString();
+		} catch (EOFException eof) {
+			return false;
+		}
+		if (line == PacketLineIn.END)
+			return false;
+		if (!line.startsWith("command="))
+			throw new PackProtocolException(MessageFormat.format(
+					JGitText.get().expectedGot, "command=", line));
+
+		// Capabilities come first, the arguments follow after a delim.
+		String command = line.substring(8);
+		List<String> args = new ArrayList<String>();
+		boolean inArgs = false;
+		for (;;) {
+			line = pckIn.readString();
+			if (line == PacketLineIn.END)
+				break;
+			if (line == PacketLineIn.DELIM)
+				inArgs = true;
+			else if (inArgs)
+				args.add(line);
+		}
+
+		if (command.equals(COMMAND_LS_REFS))
+			lsRefsV2(args);
+		else if (command.equals(COMMAND_FETCH)) {
+			if (negotiateOrReport(args)) {
+				if (isDeepen()) {
+					pckOut.writeString("shallow-info\n");
+					writeShallowUpdates();
+					pckOut.writeDelim();
+				}
+				pckOut.writeString("packfile\n");
+				sendPack();
+			}
+		} else {
+			String msg = MessageFormat.format(
+					JGitText.get().unknownProtocolV2Command, command);
+			reportErrorDuringNegotiate(msg);
+			throw new PackProtocolException(msg);
+		}
+		pckOut.flush();
+		return true;
+	}
+
+	/**
+	 * Receive the wants and run one negotiation round.
+	 *
+	 * @param fetchArgs
+	 *            arguments of a protocol version 2 fetch command; null to read
+	 *            the wants and haves from the client.
+	 * @return true if the pack should be sent now.
+	 * @throws IOException
+	 */
+	private boolean negotiateOrReport(List<String> fetchArgs)
+			throws IOException {
+		try {
+			if (fetchArgs != null)
+				return negotiateV2(fetchArgs);
+
 			recvWants();
 			if (wantIds.isEmpty()) {
 				preUploadHook.onBeginNegotiateRound(this, wantIds, 0);
 				preUploadHook.onEndNegotiateRound(this, wantIds, 0, 0, false);
-				return;
+				return false;
+			}
+
+			processShallow();
+			if (isDeepen()) {
+				writeShallowUpdates();
+				pckOut.end();
 			}
 
 			if (options.contains(OPTION_MULTI_ACK_DETAILED)) {
@@ -418,7 +687,7 @@ private void service() throws IOException {
 			else
 				multiAck = MultiAck.OFF;
 
-			sendPack = negotiate();
+			return negotiate();
 		} catch (PackProtocolException err) {
 			reportErrorDuringNegotiate(err.getMessage());
 			throw err;
@@ -444,9 +713,203 @@ private void service() throws IOException {
 			reportErrorDuringNegotiate(JGitText.get().internalServerError);
 			throw err;
 		}
+	}
 
-		if (sendPack)
-			sendPack();
+	private void lsRefsV2(List<String> args) throws IOException {
+		try {
+			preUploadHook.onPreAdvertiseRefs(this);
+		} catch (UploadPackMayNotContinueException fail) {
+			if (fail.getMessage() != null) {
+				pckOut.writeString("ERR " + fail.getMessage() + "\n");
+				fail.setOutput();
+			}
+			throw fail;
+		}
+
+		boolean peel = false;
+		boolean symrefs = false;
+		List<String> prefixes = new ArrayList<String>();
+		for (String arg : args) {
+			if (arg.equals("peel"))
+				peel = true;
+			else if (arg.equals("symrefs"))
+				symrefs = true;
+			else if (arg.startsWith("ref-prefix "))
+				prefixes.add(arg.substring(11));
+			else {
+				String msg = MessageFormat.format(
+						JGitText.get().unexpectedProtocolV2Argument,
+						COMMAND_LS_REFS, arg);
+				reportErrorDuringNegotiate(msg);
+				throw new PackProtocolException(msg);
+			}
+		}
+
+		Map<String, Ref> show;
+		if (prefixes.isEmpty())
+			show = getAdvertisedRefs();
+		else
+			show = refFilter.filter(getRefsByPrefix(prefixes));
+
+		StringBuilder line = new StringBuilder(100);
+		for (Ref ref : RefComparator.sort(show.values())) {
+			if (ref.getObjectId() == null)
+				continue;
+
+			line.setLength(0);
+			line.append(ref.getObjectId().name());
+			line.append(' ');
+			line.append(ref.getName());
+			if (symrefs && ref.isSymbolic()) {
+				line.append(" symref-target:");
+				line.append(ref.getTarget().getName());
+			}
+			if (peel) {
+				if (!ref.isPeeled())
+					ref = db.peel(ref);
+				if (ref.getPeeledObjectId() != null) {
+					line.append(" peeled:");
+					line.append(ref.getPeeledObjectId().name());
+				}
+			}
+			line.append('\n');
+			pckOut.writeString(line.toString());
+		}
+		pckOut.end();
+	}
+
+	/**
+	 * Scan only the parts of the ref namespace the prefixes can match.
+	 * <p>
+	 * Repositories can have a very large number of refs, only a few of which
+	 * a client is interested in. Reading just the directories containing the
+	 * prefixes avoids loading all of them.
+	 */
+	private Map<String, Ref> getRefsByPrefix(List<String> prefixes)
+			throws IOException {
+		RefDatabase refdb = db.getRefDatabase();
+		Map<String, Ref> r = new HashMap<String, Ref>();
+		for (String prefix : prefixes) {
+			int s = prefix.lastIndexOf('/');
+			if (s < 0 && !Constants.R_REFS.startsWith(prefix)) {
+				// Outside of refs/ only HEAD is ever advertised.
+				if (Constants.HEAD.startsWith(prefix)) {
+					Ref head = refdb.getRef(Constants.HEAD);
+					if (head != null)
+						r.put(head.getName(), head);
+				}
+				continue;
+			}
+
+			String dir = s < 0 ? RefDatabase.ALL : prefix.substring(0, s + 1);
+			for (Ref ref : refdb.getRefs(dir).values()) {
+				if (ref.getName().startsWith(prefix))
+					r.put(ref.getName(), ref);
+			}
+		}
+		return r;
+	}
+
+	private boolean negotiateV2(List<String> args) throws IOException {
+		resetNegotiation();
+
+		List<ObjectId> peerHas = new ArrayList<ObjectId>();
+		boolean done = false;
+		for (String arg : args) {
+			if (arg.startsWith("want ") && arg.length() == 45)
+				wantIds.add(ObjectId.fromString(arg.substring(5)));
+			else if (arg.startsWith("have ") && arg.length() == 45)
+				peerHas.add(ObjectId.fromString(arg.substring(5)));
+			else if (arg.equals("done"))
+				done = true;
+			else if (parseShallowLine(arg) || parseFilterLine(arg))
+				continue;
+			else if (arg.equals(OPTION_THIN_PACK)
+					|| arg.equals(OPTION_OFS_DELTA)
+					|| arg.equals(OPTION_NO_PROGRESS)
+					|| arg.equals(OPTION_INCLUDE_TAG))
+				options.add(arg);
+			else
+				throw new PackProtocolException(MessageFormat.format(
+						JGitText.get().unexpectedProtocolV2Argument,
+						COMMAND_FETCH, arg));
+		}
+
+		// The pack is always multiplexed in protocol version 2.
+		options.add(OPTION_SIDE_BAND_64K);
+		multiAck = MultiAck.OFF;
+
+		if (wantIds.isEmpty()) {
+			preUploadHook.onBeginNegotiateRound(this, wantIds, 0);
+			preUploadHook.onEndNegotiateRound(this, wantIds, 0, 0, false);
+			pckOut.end();
+			return false;
+		}
+
+		// There was no advertisement to check the wants against, the
+		// client may only ask for objects our refs currently point at.
+		if (advertised == null) {
+			advertised = new HashSet<ObjectId>();
+			for (Ref ref : getAdvertisedRefs().values()) {
+				if (ref.getObjectId() == null)
+					continue;
+				advertised.add(ref.getObjectId());
+				if (!ref.isPeeled())
+					ref = db.peel(ref);
+				if (ref.getPeeledObjectId() != null)
+					advertised.add(ref.getPeeledObjectId());
+			}
+		}
+		for (ObjectId id : wantIds) {
+			if (!isWantAllowed(id))
+				throw new PackProtocolException(MessageFormat.format(
+						JGitText.get().wantNotValid, id.name()));
+		}
+		processShallow();
+
+		if (done) {
+			ackCommonV2 = false;
+			processHaveLines(peerHas, ObjectId.zeroId());
+			return true;
+		}
+
+		pckOut.writeString("acknowledgments\n");
+		ackCommonV2 = true;
+		processHaveLines(peerHas, ObjectId.zeroId());
+		if (commonBase.isEmpty())
+			pckOut.writeString("NAK\n");
+		if (!okToGiveUp()) {
+			pckOut.end();
+			return false;
+		}
+		pckOut.writeString("ready\n");
+		pckOut.writeDelim();
+		return true;
+	}
+
+	/**
+	 * Forget the state of an earlier fetch command on the same connection.
+	 * <p>
+	 * Each protocol version 2 fetch command carries the complete request, the
+	 * client repeats its wants and the haves it knows to be common.
+	 */
+	private void resetNegotiation() {
+		options.clear();
+		wantIds.clear();
+		wantAll.clear();
+		commonBase.clear();
+		clientShallowCommits.clear();
+		depth = 0;
+		deepenSince = 0;
+		shallowBoundary.clear();
+		unshallowCommits.clear();
+		unshallowParents.clear();
+		packShallowCommits.clear();
+		filterSpec = FilterSpec.NO_FILTER;
+		oldestTime = 0;
+		okToGiveUp = null;
+		sentReady = false;
+		walk.reset();
 	}
 
 	private void reportErrorDuringNegotiate(String msg) {
@@ -459,6 +922,9 @@ private void reportErrorDuringNegotiate(String msg) {
 
 	/**
 	 * Generate an advertisement of available refs and capabilities.
+	 * <p>
+	 * If the client requested protocol version 2 only the capabilities are
+	 * advertised, the client lists the refs it is interested in later.
 	 *
 	 * @param adv
 	 *            the advertisement formatter.
@@ -469,6 +935,20 @@ private void reportErrorDuringNegotiate(String msg) {
 	 */
 	public void sendAdvertisedRefs(final RefAdvertiser adv) throws IOException,
 			UploadPackMayNotContinueException {
+		if (protocolV2) {
+			// Refs are listed on demand by the ls-refs command, which
+			// also invokes the PreUploadHook.
+			adv.writeOne("version 2\n");
+			adv.writeOne(COMMAND_LS_REFS + "\n");
+			if (allowFilter)
+				adv.writeOne(COMMAND_FETCH + "=" + OPTION_SHALLOW + " "
+						+ OPTION_FILTER + "\n");
+			else
+				adv.writeOne(COMMAND_FETCH + "=" + OPTION_SHALLOW + "\n");
+			adv.end();
+			return;
+		}
+
 		try {
 			preUploadHook.onPreAdvertiseRefs(this);
 		} catch (UploadPackMayNotContinueException fail) {
@@ -479,22 +959,61 @@ public void sendAdvertisedRefs(final RefAdvertiser adv) throws IOException,
 			throw fail;
 		}
 
-		adv.init(db);
-		adv.advertiseCapability(OPTION_INCLUDE_TAG);
-		adv.advertiseCapability(OPTION_MULTI_ACK_DETAILED);
-		adv.advertiseCapability(OPTION_MULTI_ACK);
-		adv.advertiseCapability(OPTION_OFS_DELTA);
-		adv.advertiseCapability(OPTION_SIDE_BAND);
-		adv.advertiseCapability(OPTION_SIDE_BAND_64K);
-		adv.advertiseCapability(OPTION_THIN_PACK);
-		adv.advertiseCapability(OPTION_NO_PROGRESS);
+		final List<String> capabilities = new ArrayList<String>();
+		capabilities.add(OPTION_INCLUDE_TAG);
+		capabilities.add(OPTION_MULTI_ACK_DETAILED);
+		capabilities.add(OPTION_MULTI_ACK);
+		capabilities.add(OPTION_OFS_DELTA);
+		capabilities.add(OPTION_SIDE_BAND);
+		capabilities.add(OPTION_SIDE_BAND_64K);
+		capabilities.add(OPTION_THIN_PACK);
+		capabilities.add(OPTION_NO_PROGRESS);
+		capabilities.add(OPTION_SHALLOW);
+		capabilities.add(OPTION_DEEPEN_SINCE);
+		if (allowFilter)
+			capabilities.add(OPTION_FILTER);
 		if (!biDirectionalPipe)
-			adv.advertiseCapability(OPTION_NO_DONE);
+			capabilities.add(OPTION_NO_DONE);
+
+		adv.init(db);
+		for (String name : capabilities)
+			adv.advertiseCapability(name);
 		adv.setDerefTags(true);
-		advertised = adv.send(getAdvertisedRefs());
+		if (refAdvertisementCache != null && refFilter == RefFilter.DEFAULT
+				&& adv instanceof PacketLineOutRefAdvertiser)
+			advertised = sendCached((PacketLineOutRefAdvertiser) adv,
+					capabilities);
+		else
+			advertised = adv.send(getAdvertisedRefs());
 		adv.end();
 	}
 
+	private Set<ObjectId> sendCached(PacketLineOutRefAdvertiser adv,
+			List<String> capabilities) throws IOException {
+		final RefAdvertisementCache cache = refAdvertisementCache;
+		final String key = capabilities.toString();
+		final int generation = cache.getGeneration(db);
+
+		// Always read the refs, scanning them is what notices a change
+		// and fires the event invalidating the cached advertisement.
+		refs = db.getAllRefs();
+
+		RefAdvertisementCache.Entry cached = cache.get(db, key);
+		if (cached == null) {
+			ByteArrayOutputStream buf = new ByteArrayOutputStream();
+			RefAdvertiser enc = new PacketLineOutRefAdvertiser(
+					new PacketLineOut(buf));
+			enc.init(db);
+			for (String name : capabilities)
+				enc.advertiseCapability(name);
+			enc.setDerefTags(true);
+			Set<ObjectId> ids = enc.send(refs);
+			cached = new RefAdvertisementCache.Entry(buf.toByteArray(), ids);
+			cache.put(db, key, generation, cached);
+		}
+		return adv.send(cached);
+	}
+
 	private void recvWants() throws IOException {
 		boolean isFirst = true;
 		for (;;) {
@@ -509,6 +1028,8 @@ private void recvWants() throws IOException {
 
 			if (line == PacketLineIn.END)
 				break;
+			if (!isFirst && (parseShallowLine(line) || parseFilterLine(line)))
+				continue;
 			if (!line.startsWith("want ") || line.length() < 45)
 				throw new PackProtocolException(MessageFormat.format(JGitText.get().expectedGot, "want", line));
 
@@ -526,6 +1047,140 @@ private void recvWants() throws IOException {
 		}
 	}
 
+	private boolean parseShallowLine(String line) throws PackProtocolException {
+		try {
+			if (line.startsWith("shallow ") && line.length() == 48) {
+				clientShallowCommits.add(ObjectId.fromString(line.substring(8)));
+				return true;
+			} else if (line.startsWith(OPTION_DEEPEN_SINCE + " ")) {
+				deepenSince = Integer.parseInt(line.substring(13));
+				if (deepenSince <= 0)
+					throw new NumberFormatException();
+				return true;
+			} else if (line.startsWith("deepen ")) {
+				depth = Integer.parseInt(line.substring(7));
+				if (depth <= 0)
+					throw new NumberFormatException();
+				return true;
+			}
+			return false;
+		} catch (NumberFormatException notNumber) {
+			throw new PackProtocolException(MessageFormat.format(
+					JGitText.get().invalidShallowArgument, line));
+		}
+	}
+
+	private boolean isDeepen() {
+		return depth != 0 || deepenSince != 0;
+	}
+
+	private boolean parseFilterLine(String line) throws PackProtocolException {
+		if (!allowFilter || !line.startsWith(OPTION_FILTER + " "))
+			return false;
+		try {
+			filterSpec = FilterSpec.fromFilterLine(line
+					.substring(OPTION_FILTER.length() + 1));
+		} catch (IllegalArgumentException badFilter) {
+			throw new PackProtocolException(badFilter.getMessage());
+		}
+		return true;
+	}
+
+	private boolean isWantAllowed(ObjectId id) {
+		return allowAnySha1InWant || advertised.contains(id);
+	}
+
+	/**
+	 * Determine where the history sent to the client is cut off.
+	 * <p>
+	 * Negotiation must not assume the client has the parents of its shallow
+	 * commits, and neither side can walk past the server's own shallow
+	 * commits. If the client asked for a depth or a date, the commits at that
+	 * boundary are cut off as well, and shallow commits of the client within
+	 * the requested history are deepened by sending their parents.
+	 */
+	private void processShallow() throws IOException {
+		Set<ObjectId> serverShallow = db.getShallowCommits();
+		Set<ObjectId> cut = new HashSet<ObjectId>(serverShallow);
+		for (ObjectId id : clientShallowCommits) {
+			if (walk.getObjectReader().has(id))
+				cut.add(id);
+		}
+		walk.setShallowCommits(cut);
+		packShallowCommits.addAll(cut);
+		if (!isDeepen())
+			return;
+
+		RevWalk rw = new RevWalk(walk.getObjectReader());
+		try {
+			rw.setRetainBody(false);
+			rw.setShallowCommits(serverShallow);
+			RevFlag seen = rw.newFlag("SEEN");
+			List<RevCommit> level = new ArrayList<RevCommit>();
+			for (ObjectId id : wantIds) {
+				if (!isWantAllowed(id))
+					throw new PackProtocolException(MessageFormat.format(
+							JGitText.get().wantNotValid, id.name()));
+				RevObject o = rw.peel(rw.parseAny(id));
+				if (o instanceof RevCommit && !o.has(seen)) {
+					o.add(seen);
+					level.add((RevCommit) o);
+				}
+			}
+
+			for (int d = 1; !level.isEmpty(); d++) {
+				List<RevCommit> next = new ArrayList<RevCommit>();
+				for (RevCommit c : level) {
+					rw.parseHeaders(c);
+					if (isShallowBoundary(rw, c, d)) {
+						if (c.getParentCount() > 0 || serverShallow.contains(c)) {
+							packShallowCommits.add(c);
+							if (!clientShallowCommits.contains(c))
+								shallowBoundary.add(c);
+						}
+						continue;
+					}
+
+					if (clientShallowCommits.contains(c)) {
+						unshallowCommits.add(c);
+						for (RevCommit p : c.getParents())
+							unshallowParents.add(p);
+					}
+					for (RevCommit p : c.getParents()) {
+						if (!p.has(seen)) {
+							p.add(seen);
+							next.add(p);
+						}
+					}
+				}
+				level = next;
+			}
+		} finally {
+			rw.release();
+		}
+	}
+
+	private void writeShallowUpdates() throws IOException {
+		for (ObjectId id : shallowBoundary)
+			pckOut.writeString("shallow " + id.name() + "\n");
+		for (ObjectId id : unshallowCommits)
+			pckOut.writeString("unshallow " + id.name() + "\n");
+	}
+
+	private boolean isShallowBoundary(RevWalk rw, RevCommit c, int d)
+			throws IOException {
+		if (depth != 0 && depth <= d)
+			return true;
+		if (deepenSince != 0) {
+			for (RevCommit p : c.getParents()) {
+				rw.parseHeaders(p);
+				if (p.getCommitTime() < deepenSince)
+					return true;
+			}
+		}
+		return c.getParentCount() == 0;
+	}
+
 	private boolean negotiate() throws IOException {
 		okToGiveUp = Boolean.FALSE;
 
@@ -615,7 +1270,7 @@ private ObjectId processHaveLines(List<ObjectId> peerHas, ObjectId last)
 				// list wasn't parsed earlier, and was done in this batch.
 				//
 				if (wantIds.remove(obj)) {
-					if (!advertised.contains(obj)) {
+					if (!isWantAllowed(obj)) {
 						String msg = MessageFormat.format(
 								JGitText.get().wantNotValid, obj.name());
 						throw new PackProtocolException(msg);
@@ -662,6 +1317,11 @@ private ObjectId processHaveLines(List<ObjectId> peerHas, ObjectId last)
 
 				// If both sides have the same object; let the client know.
 				//
+				if (protocolV2) {
+					if (ackCommonV2)
+						pckOut.writeString("ACK " + obj.name() + "\n");
+					continue;
+				}
 				switch (multiAck) {
 				case OFF:
 					if (commonBase.size() == 1)
@@ -830,14 +1490,13 @@ private void sendPack(final boolean sideband) throws IOException {
 		ProgressMonitor pm = NullProgressMonitor.INSTANCE;
 		OutputStream packOut = rawOut;
 		SideBandOutputStream msgOut = null;
+		int bufsz = 0;
 
 		if (sideband) {
-			int bufsz = SideBandOutputStream.SMALL_BUF;
+			bufsz = SideBandOutputStream.SMALL_BUF;
 			if (options.contains(OPTION_SIDE_BAND_64K))
 				bufsz = SideBandOutputStream.MAX_BUF;
 
-			packOut = new SideBandOutputStream(SideBandOutputStream.CH_DATA,
-					bufsz, rawOut);
 			if (!options.contains(OPTION_NO_PROGRESS)) {
 				msgOut = new SideBandOutputStream(
 						SideBandOutputStream.CH_PROGRESS, bufsz, rawOut);
@@ -845,12 +1504,13 @@ private void sendPack(final boolean sideband) throws IOException {
 			}
 		}
 
+		final Collection<? extends ObjectId> wants;
+		if (wantAll.isEmpty())
+			wants = wantIds;
+		else
+			wants = wantAll;
 		try {
-			if (wantAll.isEmpty()) {
-				preUploadHook.onSendPack(this, wantIds, commonBase);
-			} else {
-				preUploadHook.onSendPack(this, wantAll, commonBase);
-			}
+			preUploadHook.onSendPack(this, wants, commonBase);
 		} catch (UploadPackMayNotContinueException noPack) {
 			if (sideband && noPack.getMessage() != null) {
 				noPack.setOutput();
@@ -863,16 +1523,38 @@ private void sendPack(final boolean sideband) throws IOException {
 			throw noPack;
 		}
 
+		PackResponseCache.Inserter cacheOut = null;
+		final PackResponseCache cache = packResponseCache;
+		if (cache != null && packShallowCommits.isEmpty()
+				&& clientShallowCommits.isEmpty()
+				&& cache.getPolicy().isCacheable(this, wants, commonBase)) {
+			final String key = packResponseKey(wants, bufsz);
+			final FileInputStream cached = cache.open(key);
+			if (cached != null) {
+				sendCachedPack(cached);
+				if (sideband)
+					pckOut.end();
+				return;
+			}
+			cacheOut = cache.newInserter(key);
+			packOut = new TeeOutputStream(rawOut, cacheOut);
+		}
+		if (sideband)
+			packOut = new SideBandOutputStream(SideBandOutputStream.CH_DATA,
+					bufsz, packOut);
+
 		PackConfig cfg = packConfig;
 		if (cfg == null)
 			cfg = new PackConfig(db);
 		final PackWriter pw = new PackWriter(cfg, walk.getObjectReader());
+		boolean cached = false;
 		try {
 			pw.setUseCachedPacks(true);
 			pw.setReuseDeltaCommits(true);
 			pw.setDeltaBaseAsOffset(options.contains(OPTION_OFS_DELTA));
 			pw.setThin(options.contains(OPTION_THIN_PACK));
 			pw.setReuseValidatingObjects(false);
+			pw.setFilterBlobLimit(filterSpec.getBlobLimit());
 
 			if (commonBase.isEmpty()) {
 				Set<ObjectId> tagTargets = new HashSet<ObjectId>();
@@ -888,7 +1570,20 @@ else if (ref.getName().startsWith(Constants.R_HEADS))
 			}
 
 			RevWalk rw = walk;
-			if (wantAll.isEmpty()) {
+			if (!packShallowCommits.isEmpty()) {
+				// The negotiation walk has already parsed the boundary
+				// commits with their parents, the pack needs a new walk.
+				List<ObjectId> want = new ArrayList<ObjectId>();
+				want.addAll(wantAll.isEmpty() ? wantIds : wantAll);
+				want.addAll(unshallowParents);
+				Set<ObjectId> have = new HashSet<ObjectId>(commonBase);
+				have.addAll(clientShallowCommits);
+
+				ObjectWalk ow = new ObjectWalk(walk.getObjectReader());
+				pw.setShallowCommits(packShallowCommits);
+				pw.preparePack(pm, ow, want, have);
+				rw = ow;
+			} else if (wantAll.isEmpty()) {
 				pw.preparePack(pm, wantIds, commonBase);
 			} else {
 				walk.reset();
@@ -907,7 +1602,7 @@ else if (ref.getName().startsWith(Constants.R_HEADS))
 						if (wantIds.contains(objectId))
 							continue;
 					} else {
-						RevObject obj = rw.lookupOrNull(objectId);
+						RevObject obj = walk.lookupOrNull(objectId);
 						if (obj != null && obj.has(WANT))
 							continue;
 					}
@@ -927,6 +1622,11 @@ else if (ref.getName().startsWith(Constants.R_HEADS))
 
 			pw.writePack(pm, NullProgressMonitor.INSTANCE, packOut);
 			statistics = pw.getStatistics();
+			if (cacheOut != null) {
+				packOut.flush();
+				cacheOut.commit();
+				cached = true;
+			}
 
 			if (msgOut != null) {
 				String msg = pw.getStatistics().getMessage() + '\n';
@@ -936,6 +1636,8 @@ else if (ref.getName().startsWith(Constants.R_HEADS))
 
 		} finally {
 			pw.release();
+			if (cacheOut != null && !cached)
+				cacheOut.abort();
 		}
 
 		if (sideband)
@@ -944,4 +1646,107 @@ else if (ref.getName().startsWith(Constants.R_HEADS))
 		if (logger != null && statistics != null)
 			logger.onPackStatistics(statistics);
 	}
+
+	private String packResponseKey(Collection<? extends ObjectId> wants,
+			int bufsz) {
+		// Include everything the content of the pack and its framing on
+		// the data channel depend on.
+		final MessageDigest md = Constants.newMessageDigest();
+		final byte[] raw = new byte[Constants.OBJECT_ID_LENGTH];
+		for (Ref ref : RefComparator.sort(getAdvertisedRefs().values())) {
+			md.update(Constants.encode(ref.getName()));
+			md.update((byte) 0);
+			if (ref.getObjectId() != null) {
+				ref.getObjectId().copyRawTo(raw, 0);
+				md.update(raw);
+			}
+		}
+		md.update((byte) '\n');
+		digestSorted(md, raw, wants);
+		md.update((byte) '\n');
+		digestSorted(md, raw, commonBase);
+		md.update((byte) '\n');
+		for (String name : new String[] { OPTION_OFS_DELTA, OPTION_THIN_PACK,
+				OPTION_INCLUDE_TAG }) {
+			if (options.contains(name))
+				md.update(Constants.encode(name + "\n"));
+		}
+		md.update(Constants.encode("sideband " + bufsz + "\n"));
+		md.update(Constants.encode("filter " + filterSpec.getBlobLimit()));
+		return ObjectId.fromRaw(md.digest()).name();
+	}
+
+	private static void digestSorted(MessageDigest md, byte[] raw,
+			Collection<? extends ObjectId> ids) {
+		final List<ObjectId> sorted = new ArrayList<ObjectId>(ids.size());
+		for (ObjectId id : ids)
+			sorted.add(id.copy());
+		Collections.sort(sorted, new Comparator<ObjectId>() {
+			public int compare(ObjectId a, ObjectId b) {
+				return a.compareTo(b);
+			}
+		});
+		for (ObjectId id : sorted) {
+			id.copyRawTo(raw, 0);
+			md.update(raw);
+		}
+	}
+
+	private void sendCachedPack(final FileInputStream in) throws IOException {
+		try {
+			if (rawOut instanceof FileRegionOutput
+					&& ((FileRegionOutput) rawOut).isTransferToSupported()) {
+				final FileChannel fc = in.getChannel();
+				((FileRegionOutput) rawOut).transferFrom(fc, 0, fc.size());
+			} else {
+				final byte[] buf = new byte[SideBandOutputStream.MAX_BUF];
+				int n;
+				while ((n = in.read(buf)) > 0)
+					rawOut.write(buf, 0, n);
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	/** Copies the pack sent to the client into the response cache. */
+	private static class TeeOutputStream extends OutputStream implements
+			FileRegionOutput {
+		private final OutputStream out;
+
+		private final PackResponseCache.Inserter cacheOut;
+
+		TeeOutputStream(OutputStream out, PackResponseCache.Inserter cacheOut) {
+			this.out = out;
+			this.cacheOut = cacheOut;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			cacheOut.write(b);
+		}
+
+		@Override
+		public void write(byte[] buf, int pos, int cnt) throws IOException {
+			out.write(buf, pos, cnt);
+			cacheOut.write(buf, pos, cnt);
+		}
+
+		@Override
+		public void flush() throws IOException {
+			out.flush();
+		}
+
+		public boolean isTransferToSupported() {
+			return out instanceof FileRegionOutput
+					&& ((FileRegionOutput) out).isTransferToSupported();
+		}
+
+		public void transferFrom(FileChannel src, long position, long length)
+				throws IOException {
+			((FileRegionOutput) out).transferFrom(src, position, length);
+			cacheOut.transferFrom(src, position, length);
+		}
+	}
 }
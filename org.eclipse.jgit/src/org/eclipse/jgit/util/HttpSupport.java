@@ -131,6 +131,9 @@ public class HttpSupport {
 	/** The {@code WWW-Authenticate} header. */
 	public static final String HDR_WWW_AUTHENTICATE = "WWW-Authenticate";
 
+	/** The {@code Git-Protocol} header, e.g. to request protocol version 2. */
+	public static final String HDR_GIT_PROTOCOL = "Git-Protocol";
+
 	/**
 	 * URL encode a value string into an output buffer.
 	 *
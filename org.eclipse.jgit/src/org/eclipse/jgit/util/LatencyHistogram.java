@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2011, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.eclipse.jgit.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of operation latencies with power of 2 microsecond buckets.
+ * <p>
+ * Bucket {@code i} counts operations that completed in less than
+ * {@code 2^i} microseconds, but not less than the bound of bucket
+ * {@code i - 1}. The final bucket counts everything slower than about one
+ * second. Like {@link StripedCounter} the counts are spread across stripes
+ * chosen by the recording thread, so concurrent recording does not contend.
+ */
+public class LatencyHistogram {
+	/** Number of buckets in every histogram. */
+	public static final int BUCKETS = 22;
+
+	/** Longs per stripe: the buckets, the total time, and padding. */
+	private static final int STRIDE = (BUCKETS + 1 + StripedCounter.PAD - 1)
+			/ StripedCounter.PAD * StripedCounter.PAD;
+
+	/**
+	 * @return upper bound of each bucket, in microseconds. The last bucket is
+	 *         unbounded and is reported as {@link Long#MAX_VALUE}.
+	 */
+	public static long[] getBucketLimits() {
+		final long[] limits = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS - 1; i++)
+			limits[i] = 1L << i;
+		limits[BUCKETS - 1] = Long.MAX_VALUE;
+		return limits;
+	}
+
+	private final AtomicLongArray cells;
+
+	private final int mask;
+
+	/** Create an empty histogram. */
+	public LatencyHistogram() {
+		final int n = StripedCounter.stripeCount();
+		cells = new AtomicLongArray(n * STRIDE);
+		mask = n - 1;
+	}
+
+	/**
+	 * Record one operation.
+	 *
+	 * @param nanos
+	 *            time the operation took, in nanoseconds.
+	 */
+	public void record(final long nanos) {
+		final long micros = nanos / 1000;
+		int b = 64 - Long.numberOfLeadingZeros(micros);
+		if (BUCKETS - 1 < b)
+			b = BUCKETS - 1;
+		final int base = StripedCounter.stripe(mask) * STRIDE;
+		cells.incrementAndGet(base + b);
+		cells.addAndGet(base + BUCKETS, nanos);
+	}
+
+	/** @return number of operations recorded in each bucket. */
+	public long[] getCounts() {
+		final long[] counts = new long[BUCKETS];
+		for (int s = 0; s <= mask; s++) {
+			final int base = s * STRIDE;
+			for (int b = 0; b < BUCKETS; b++)
+				counts[b] += cells.get(base + b);
+		}
+		return counts;
+	}
+
+	/** @return total number of operations recorded. */
+	public long getCount() {
+		long cnt = 0;
+		for (long c : getCounts())
+			cnt += c;
+		return cnt;
+	}
+
+	/** @return sum of the time taken by all recorded operations, in nanoseconds. */
+	public long getTotalTime() {
+		long sum = 0;
+		for (int s = 0; s <= mask; s++)
+			sum += cells.get(s * STRIDE + BUCKETS);
+		return sum;
+	}
+}
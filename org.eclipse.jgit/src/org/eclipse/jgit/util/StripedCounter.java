@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2011, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.eclipse.jgit.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter that many threads can update without contending on one location.
+ * <p>
+ * Updates are spread over several cells chosen by the calling thread, each on
+ * its own cache line. Reading the counter sums the cells, so it is more
+ * expensive than an update and may miss updates that are concurrently in
+ * progress.
+ */
+public class StripedCounter {
+	/** Number of longs between cells, keeping each on its own cache line. */
+	static final int PAD = 8;
+
+	/**
+	 * @return number of stripes to use for a counter, a power of 2 roughly
+	 *         twice the number of available processors.
+	 */
+	static int stripeCount() {
+		final int cpus = Runtime.getRuntime().availableProcessors();
+		int n = 1;
+		while (n < 2 * cpus && n < 64)
+			n <<= 1;
+		return n;
+	}
+
+	/**
+	 * @param mask
+	 *            number of stripes minus one.
+	 * @return stripe the current thread should update.
+	 */
+	static int stripe(final int mask) {
+		return (int) Thread.currentThread().getId() & mask;
+	}
+
+	private final AtomicLongArray cells;
+
+	private final int mask;
+
+	/** Create a new counter, initially 0. */
+	public StripedCounter() {
+		final int n = stripeCount();
+		cells = new AtomicLongArray(n * PAD);
+		mask = n - 1;
+	}
+
+	/** Add one to the counter. */
+	public void increment() {
+		add(1);
+	}
+
+	/**
+	 * Add to the counter.
+	 *
+	 * @param delta
+	 *            amount to add, may be negative.
+	 */
+	public void add(final long delta) {
+		cells.addAndGet(stripe(mask) * PAD, delta);
+	}
+
+	/** @return current value of the counter. */
+	public long get() {
+		long sum = 0;
+		for (int i = 0; i <= mask; i++)
+			sum += cells.get(i * PAD);
+		return sum;
+	}
+}
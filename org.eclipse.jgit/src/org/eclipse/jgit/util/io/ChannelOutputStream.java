@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2011, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.eclipse.jgit.util.io;
+
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+import org.eclipse.jgit.JGitText;
+
+/**
+ * Buffered output stream that also exposes the channel it writes to.
+ * <p>
+ * Writers able to move data between channels without copying it through the
+ * Java heap (such as {@link java.nio.channels.FileChannel#transferTo(long,
+ * long, WritableByteChannel)}) may flush this stream and write directly to
+ * {@link #getChannel()}.
+ */
+public class ChannelOutputStream extends BufferedOutputStream implements
+		FileRegionOutput {
+	private final WritableByteChannel channel;
+
+	/**
+	 * Buffer output to a file.
+	 *
+	 * @param out
+	 *            the file to write to.
+	 */
+	public ChannelOutputStream(FileOutputStream out) {
+		this(out, out.getChannel());
+	}
+
+	/**
+	 * Buffer output to a stream backed by a channel.
+	 *
+	 * @param out
+	 *            the stream to write buffered data to.
+	 * @param channel
+	 *            the channel {@code out} writes to. Data written to the
+	 *            channel must appear in the same destination as data written
+	 *            to {@code out}.
+	 */
+	public ChannelOutputStream(OutputStream out, WritableByteChannel channel) {
+		super(out);
+		this.channel = channel;
+	}
+
+	/**
+	 * Get the channel underlying this stream.
+	 * <p>
+	 * Callers must {@link #flush()} this stream before writing to the channel.
+	 *
+	 * @return the channel this stream writes to.
+	 */
+	public WritableByteChannel getChannel() {
+		return channel;
+	}
+
+	public boolean isTransferToSupported() {
+		return true;
+	}
+
+	public void transferFrom(FileChannel src, long position, long length)
+			throws IOException {
+		flush();
+		transfer(src, position, length, channel);
+	}
+
+	/**
+	 * Send a region of a file to a channel.
+	 *
+	 * @param src
+	 *            file to copy data from.
+	 * @param position
+	 *            first byte of the region within {@code src}.
+	 * @param length
+	 *            number of bytes to send.
+	 * @param dst
+	 *            channel to send the region to.
+	 * @throws IOException
+	 *             the file is shorter than the region, or the channel refused
+	 *             the data.
+	 */
+	public static void transfer(FileChannel src, long position, long length,
+			WritableByteChannel dst) throws IOException {
+		while (0 < length) {
+			final long n = src.transferTo(position, length, dst);
+			if (n <= 0)
+				throw new EOFException(JGitText.get().packfileIsTruncated);
+			position += n;
+			length -= n;
+		}
+	}
+}
@@ -44,6 +44,9 @@
 package org.eclipse.jgit.util.io;
 
 import java.text.MessageFormat;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import org.eclipse.jgit.JGitText;
 
@@ -78,6 +81,10 @@
  * To terminate the background thread, use {@link #terminate()}. If the
  * application fails to terminate the thread, it will (eventually) terminate
  * itself when the InterruptTimer instance is garbage collected.
+ * <p>
+ * A server with many connections can instead create the timers on a shared
+ * {@link ScheduledExecutorService}, so the number of threads does not grow
+ * with the number of connections.
  *
  * @see TimeoutInputStream
  */
@@ -102,12 +109,28 @@ public InterruptTimer() {
 	 *            name of the timer thread.
 	 */
 	public InterruptTimer(final String threadName) {
-		state = new AlarmState();
+		state = new AlarmState(null);
 		autoKiller = new AutoKiller(state);
 		thread = new AlarmThread(threadName, state);
 		thread.start();
 	}
 
+	/**
+	 * Create a new timer whose alarms run on a shared scheduler.
+	 * <p>
+	 * No thread is started. While the timer is armed at most one check is
+	 * pending on the scheduler. Once the scheduler is shut down the timer no
+	 * longer interrupts the caller.
+	 *
+	 * @param scheduler
+	 *            scheduler to run the alarms on.
+	 */
+	public InterruptTimer(final ScheduledExecutorService scheduler) {
+		state = new AlarmState(scheduler);
+		autoKiller = null;
+		thread = null;
+	}
+
 	/**
 	 * Arm the interrupt timer before entering a blocking operation.
 	 *
@@ -130,6 +153,8 @@ public void end() {
 	/** Shutdown the timer thread, and wait for it to terminate. */
 	public void terminate() {
 		state.terminate();
+		if (thread == null)
+			return;
 		try {
 			thread.join();
 		} catch (InterruptedException e) {
@@ -165,13 +190,19 @@ protected void finalize() throws Throwable {
 	}
 
 	static final class AlarmState implements Runnable {
+		private final ScheduledExecutorService scheduler;
+
 		private Thread callingThread;
 
 		private long deadline;
 
+		/** Time of the earliest check pending on the scheduler; 0 if none. */
+		private long wakeup;
+
 		private boolean terminated;
 
-		AlarmState() {
+		AlarmState(final ScheduledExecutorService scheduler) {
+			this.scheduler = scheduler;
 			callingThread = Thread.currentThread();
 		}
 
@@ -200,9 +231,40 @@ synchronized void begin(final int timeout) {
 				throw new IllegalStateException(JGitText.get().timerAlreadyTerminated);
 			callingThread = Thread.currentThread();
 			deadline = now() + timeout;
+			if (scheduler != null)
+				schedule();
 			notifyAll();
 		}
 
+		private void schedule() {
+			// A pending check firing before the deadline reschedules itself.
+			if (0 < wakeup && wakeup <= deadline)
+				return;
+			try {
+				scheduler.schedule(new Runnable() {
+					public void run() {
+						check();
+					}
+				}, deadline - now(), TimeUnit.MILLISECONDS);
+				wakeup = deadline;
+			} catch (RejectedExecutionException shutdown) {
+				// The server is stopping, let the operation run on.
+			}
+		}
+
+		synchronized void check() {
+			final long now = now();
+			if (wakeup <= now)
+				wakeup = 0;
+			if (terminated || deadline == 0)
+				return;
+			if (deadline <= now) {
+				deadline = 0;
+				callingThread.interrupt();
+			} else
+				schedule();
+		}
+
 		synchronized void end() {
 			if (0 == deadline)
 				Thread.interrupted();
@@ -46,12 +46,20 @@
 import java.io.IOException;
 import java.io.InterruptedIOException;
 import java.io.OutputStream;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.FileChannel;
 import java.text.MessageFormat;
 
 import org.eclipse.jgit.JGitText;
 
-/** OutputStream with a configurable timeout. */
-public class TimeoutOutputStream extends OutputStream {
+/**
+ * OutputStream with a configurable timeout.
+ * <p>
+ * If the destination is a {@link FileRegionOutput}, file regions are
+ * transferred to it under the same timeout.
+ */
+public class TimeoutOutputStream extends OutputStream implements
+		FileRegionOutput {
 	private final OutputStream dst;
 
 	private final InterruptTimer myTimer;
@@ -141,6 +149,25 @@ public void close() throws IOException {
 		}
 	}
 
+	public boolean isTransferToSupported() {
+		return dst instanceof FileRegionOutput
+				&& ((FileRegionOutput) dst).isTransferToSupported();
+	}
+
+	public void transferFrom(FileChannel src, long position, long length)
+			throws IOException {
+		try {
+			beginWrite();
+			((FileRegionOutput) dst).transferFrom(src, position, length);
+		} catch (ClosedByInterruptException e) {
+			throw writeTimedOut();
+		} catch (InterruptedIOException e) {
+			throw writeTimedOut();
+		} finally {
+			endWrite();
+		}
+	}
+
 	private void beginWrite() {
 		myTimer.begin(timeout);
 	}